@@ -27,6 +27,9 @@
 
 cd [mkdir drcl.comp.Component /OSPFtest]
 
+# Routing tables answer lookups from a multibit trie
+java::field drcl.inet.core.RT IMPLEMENTATION [java::field drcl.inet.core.RT LPM]
+
 # NodeBuilder:
 set nb [mkdir drcl.inet.NodeBuilder .nodeBuilder]
 $nb setBandwidth 1.0e7; #10Mbps
@@ -289,6 +289,32 @@ public abstract class ACARuntime extends ForkManager
 	public long getTime()
 	{ return _getTime(); }
 
+	/**
+	 * Returns the system time in nanoseconds, for timing finer than
+	 * {@link #getTime()}; only differences between two values are meaningful.
+	 * By default it is {@link #getTime()} scaled to nanoseconds.
+	 */
+	public long getTimeNanos()
+	{ return getTime() * 1000000L; }
+
+	/**
+	 * Returns true if all the tasks of a component run on one and the same
+	 * thread, so that the component should hand data to other components
+	 * asynchronously; its locks against itself are then uncontended.
+	 * False by default.
+	 */
+	public boolean isSharded()
+	{ return false; }
+
+	/**
+	 * Fixes the thread the tasks of the component run on in a
+	 * {@link #isSharded() sharded} runtime, if not fixed yet.  Called when
+	 * the component is taken over and when a flow is bound to it.
+	 * Does nothing by default.
+	 */
+	public void pin(Component c_)
+	{}
+
 	/** Asynchronized version of getTime(), for diagnosis.
 	 *  Subclasses should override this method to provide its own
 	 *  time mapping function. */
@@ -558,5 +584,18 @@ public abstract class ACARuntime extends ForkManager
 
 	protected abstract void off(ACATimer handle_);
 
+	/**
+	 * Re-arms a pending timer to deliver <code>data_</code> at port
+	 * <code>which_</code> <code>delay_</code> later.  Returns the timer,
+	 * which is a new one if the runtime cannot move the old one in place.
+	 * This implementation cancels the timer and sets up a new one.
+	 */
+	protected ACATimer reschedule(ACATimer handle_, Port which_, Object data_,
+					long delay_)
+	{
+		off(handle_);
+		return receive(which_, data_, delay_);
+	}
+
 	public abstract Object getEventQueue();
 }
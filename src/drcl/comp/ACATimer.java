@@ -39,6 +39,10 @@ public class ACATimer extends drcl.DrclObj
 	/** Time when the timer expires. */
 	long time;
 
+	/** Runtime-specific handle of the scheduled timer, used to cancel or
+	 * re-arm it. */
+	public transient Object handle;
+
 	public ACATimer()
 	{}
 
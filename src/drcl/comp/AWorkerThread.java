@@ -330,6 +330,7 @@ public class AWorkerThread extends WorkerThread
 				}
 				currentContext.port = null;
 				currentContext.data = null;
+				if (mainContext != null) mainContext.recycle();
 					
 				finishing();
 				mainContext = DUMMY_CONTEXT;
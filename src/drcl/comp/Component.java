@@ -2160,6 +2160,11 @@ public class Component extends drcl.DrclObj
 		// use runtime instead of current thread's runtime
 		return runtime.getTime();
 	}
+
+	/** Returns the system time in nanoseconds.
+	 * @see ACARuntime#getTimeNanos() */
+	public long getTimeNanos()
+	{ return runtime.getTimeNanos(); }
 	
 	//
 	private void ___ASYNCHRONOUS___() {}
@@ -2234,7 +2239,7 @@ public class Component extends drcl.DrclObj
 			//if (which_.isDataTraceEnabled()) 
 			//	trace(Component.Trace_DATA, which_, data_, "(create context)");
 			// note: trace taken care of in TaskReceive	
-			runtime.newTask(new TaskReceive(which_, data_)
+			runtime.newTask(TaskReceive.obtain(which_, data_)
 //							, runtime.getThread()
 							);
 			return null;
@@ -2270,6 +2275,22 @@ public class Component extends drcl.DrclObj
 			fm.off(handle_);
 	}
 	
+	/**
+	 * Moves a fork event to arrive at the port <code>delay_</code> later,
+	 * carrying <code>data_</code>, or sets up a new one if
+	 * <code>handle_</code> is null.
+	 * Returns the timer object, which may differ from <code>handle_</code>.
+	 */
+	public ACATimer refork(ACATimer handle_, Port which_, Object data_,
+					long delay_)
+	{
+		if (handle_ == null || delay_ <= 0 || fm != null) {
+			if (handle_ != null) cancelFork(handle_);
+			return fork(which_, data_, delay_);
+		}
+		return runtime.reschedule(handle_, which_, data_, delay_);
+	}
+	
 	// 
 	private  void ___MULTITHREADED_API___() {}
 	//
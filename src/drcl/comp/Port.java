@@ -825,10 +825,18 @@ public class Port extends drcl.DrclObj
 			//	host.trace(Component.Trace_DATA, this, data_,
 			//					"(create context)");
 			//Note: trace check is done in TaskReceive	
-			host.runtime.newTask(new TaskReceive(this, data_));
+			host.runtime.newTask(TaskReceive.obtain(this, data_));
 		}
 	}
 
+	/**
+	 * Makes the host of this port process data arriving at this port in the
+	 * caller's thread; for a component that picks one of its peers to send
+	 * to, see {@link #doSyncSending(Object)}.
+	 */
+	public final void doSyncReceiving(Object data_)
+	{ host.process(data_, this); }
+
 	/** Called by the host component to send data at this port. */
 	public final void doSending(Object data_)
 	{ 
@@ -837,7 +845,7 @@ public class Port extends drcl.DrclObj
 				tmp_ = tmp_.next) {
 			Port p_ = tmp_.port;
 			Component host_ = p_.host;
-			host_.runtime.newTask(new TaskReceive(p_, data_));
+			host_.runtime.newTask(TaskReceive.obtain(p_, data_));
 		}
 	}
 	
@@ -927,7 +935,7 @@ public class Port extends drcl.DrclObj
 				//if (p_.isDataTraceEnabled())
 				//	host_.trace(Component.Trace_DATA, p_, data_,
 				//				"(new context)");
-				host_.runtime.newTask(new TaskReceive(p_, data_), thread_);
+				host_.runtime.newTask(TaskReceive.obtain(p_, data_), thread_);
 			}
 			return;
 		}
@@ -967,7 +975,7 @@ public class Port extends drcl.DrclObj
 					//	host_.trace(Component.Trace_DATA, p_, data_,
 					//					"(create context)");
 					//Note: trace check is done in TaskReceive	
-					host_.runtime.newTask(new TaskReceive(p_, data_), thread_);
+					host_.runtime.newTask(TaskReceive.obtain(p_, data_), thread_);
 					continue;
 				}
 
@@ -1040,10 +1048,10 @@ public class Port extends drcl.DrclObj
 					//				"(new context)");
 					if ((p_.flag & Port.Flag_TYPE) == 3)
 						// set up return port
-						host_.runtime.newTask(new TaskReceive(p_, data_,
+						host_.runtime.newTask(TaskReceive.obtain(p_, data_,
 												this), thread_);
 					else
-						host_.runtime.newTask(new TaskReceive(p_, data_),
+						host_.runtime.newTask(TaskReceive.obtain(p_, data_),
 										thread_);
 				}
 			} // for (PortPack tmp_...
@@ -75,4 +75,9 @@ public abstract class Task extends ACATimer implements Runnable
 
 	/** Executes the task in <code>thread_</code>. */
 	public abstract void execute(WorkerThread thread_);
+
+	/** Returns the task to its pool once the runtime is done with it.
+	 * Does nothing unless the task came from a pool. */
+	public void recycle()
+	{}
 }
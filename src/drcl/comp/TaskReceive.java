@@ -28,11 +28,65 @@
 
 package drcl.comp;
 
+import drcl.util.queue.LockFreeRing;
+
 /**
  * Defines the "receive" task.
+ * Immediate tasks created by ports are taken from a pool with
+ * {@link #obtain(Port, Object)} and go back to it after execution;
+ * such a task is never handed out as a timer.
  */
 public class TaskReceive extends Task
 {
+	public static final int POOL_SIZE = 4096;
+
+	static final LockFreeRing<TaskReceive> pool =
+		new LockFreeRing<TaskReceive>(POOL_SIZE);
+	static boolean pooling = true;
+
+	/** True while the task is out of the pool. */
+	boolean recyclable;
+
+	/** Enables or disables reusing immediate tasks. */
+	public static void setPoolingEnabled(boolean enabled_)
+	{ pooling = enabled_; }
+
+	public static boolean isPoolingEnabled()
+	{ return pooling; }
+
+	/** Returns a task, from the pool if possible, to be executed immediately. */
+	public static TaskReceive obtain(Port port_, Object data_)
+	{
+		TaskReceive t_ = pooling? pool.poll(): null;
+		if (t_ == null) t_ = new TaskReceive(port_, data_);
+		else {
+			t_.port = port_;
+			t_.data = data_;
+		}
+		t_.recyclable = pooling;
+		return t_;
+	}
+
+	/** Returns a task, from the pool if possible, to be executed immediately
+	 * with a return port. */
+	public static TaskReceive obtain(Port port_, Object data_, Port returnPort_)
+	{
+		TaskReceive t_ = obtain(port_, data_);
+		t_.returnPort = returnPort_;
+		return t_;
+	}
+
+	public void recycle()
+	{
+		if (!recyclable) return;
+		recyclable = false;
+		port = null;
+		data = null;
+		returnPort = null;
+		threadGroup = null;
+		handle = null;
+		pool.offer(this);
+	}
 	/** Creates a task to be executed immediately. */
 	public TaskReceive (Port port_, Object data_)
 	{
@@ -82,5 +136,6 @@ public class TaskReceive extends Task
 			port.host.process(data, port);
 //		thread_.releaseAllLocks(port.host);
 			// Don't hold locks across executions!
+		recycle();
 	}
 }
@@ -99,6 +99,10 @@ public class ByteStreamContract extends Contract implements ByteStreamConstants
 		byte[] buffer;
 		int length, offset;
 		String key;
+		// scatter list, see Message(int, byte[][], int[], int[], int)
+		byte[][] buffers;
+		int[] offsets, lengths;
+		int segments;
 		
 		public Message ()
 		{}
@@ -168,8 +172,40 @@ public class ByteStreamContract extends Contract implements ByteStreamConstants
 			length = len;
 		}
 
+		/**
+		 * Send, as a scatter list: the first <code>count_</code> pieces of
+		 * the arrays, in order.  {@link #getLength()} is the total length
+		 * and {@link #getByteArray()} is null; the pieces are read with
+		 * {@link #getByteArray(int)}, {@link #getOffset(int)} and
+		 * {@link #getLength(int)}.
+		 */
+		public Message (int type_, byte[][] bufs_, int[] offsets_,
+						int[] lengths_, int count_)
+		{
+			type = type_;
+			buffers = bufs_;
+			offsets = offsets_;
+			lengths = lengths_;
+			segments = count_;
+			for (int i=0; i<count_; i++) length += lengths_[i];
+		}
+
 		public byte[] getByteArray()
 		{ return buffer; }
+
+		/** Returns the number of pieces in this message; 1 unless it is a
+		 * scatter list. */
+		public int getSegmentCount()
+		{ return buffers == null? 1: segments; }
+
+		public byte[] getByteArray(int i)
+		{ return buffers == null? buffer: buffers[i]; }
+
+		public int getOffset(int i)
+		{ return buffers == null? offset: offsets[i]; }
+
+		public int getLength(int i)
+		{ return buffers == null? length: lengths[i]; }
 	
 		public int getOffset()
 		{ return offset; }
@@ -205,6 +241,8 @@ public class ByteStreamContract extends Contract implements ByteStreamConstants
 	
 		public Object clone()
 		{
+			if (buffers != null)
+				return new Message(type, buffers, offsets, lengths, segments);
 			return new Message(type, buffer, offset, length);
 		}
 
@@ -0,0 +1,196 @@
+package drcl.data;
+
+/**
+ * Longest-prefix-match table over 32-bit (IPv4) addresses held as primitive
+ * <code>int</code>s.
+ * <p>
+ * The trie has a stride of 8 bits, so a lookup visits at most four nodes and
+ * allocates nothing.  Each node keeps the prefixes that end in its stride in
+ * a small binary heap (<code>natives</code>) and expands them into a
+ * 256-slot array of the longest one covering each byte value, so a node
+ * is read with one array index.
+ * <p>
+ * Lookups take no lock.  Updates are synchronized and copy the nodes on the
+ * path to the prefix, then publish the new root with a volatile write, so a
+ * lookup sees the table either before or after an update, never half of it.
+ */
+public final class MultibitTrie
+{
+	static final int STRIDE = 8;
+	static final int FANOUT = 1 << STRIDE;
+	static final int LEVELS = 32 / STRIDE;
+
+	static final class Node
+	{
+		// longest native prefix covering each slot, null if none
+		final Object[] best;
+		final Node[] next;
+		// native prefix of l bits (1..8) and value b at (1 << l) | b
+		final Object[] natives;
+		// non-null natives and next
+		int count;
+
+		Node()
+		{
+			best = new Object[FANOUT];
+			next = new Node[FANOUT];
+			natives = new Object[FANOUT << 1];
+		}
+
+		Node(Node that_)
+		{
+			best = that_.best.clone();
+			next = that_.next.clone();
+			natives = that_.natives.clone();
+			count = that_.count;
+		}
+
+		// recomputes the slots covered by native prefix (l, b)
+		void expand(int l, int b)
+		{
+			int from_ = b << (STRIDE - l), to_ = (b + 1) << (STRIDE - l);
+			for (int s = from_; s < to_; s++) {
+				Object o_ = null;
+				for (int k = STRIDE; k > 0 && o_ == null; k--)
+					o_ = natives[(1 << k) | (s >>> (STRIDE - k))];
+				best[s] = o_;
+			}
+		}
+	}
+
+	/** Immutable view of the table. */
+	static final class Root
+	{
+		final Node node;
+		final Object dflt; // zero-length prefix
+		final int size;
+
+		Root(Node node_, Object dflt_, int size_)
+		{
+			node = node_;
+			dflt = dflt_;
+			size = size_;
+		}
+	}
+
+	private volatile Root root = new Root(null, null, 0);
+
+	/** Returns the value of the longest prefix matching the address, null if
+	 * none. */
+	public Object lookup(int addr_)
+	{
+		Root r_ = root;
+		Object best_ = r_.dflt;
+		Node n_ = r_.node;
+		for (int shift_ = 32 - STRIDE; n_ != null; shift_ -= STRIDE) {
+			int b_ = (addr_ >>> shift_) & (FANOUT - 1);
+			Object o_ = n_.best[b_];
+			if (o_ != null) best_ = o_;
+			n_ = n_.next[b_];
+		}
+		return best_;
+	}
+
+	static int mask(int prefix_, int length_)
+	{ return length_ == 0? 0: prefix_ & (int)(0xffffffffL << (32 - length_)); }
+
+	static void check(int length_)
+	{
+		if (length_ < 0 || length_ > 32)
+			throw new IllegalArgumentException("prefix length " + length_);
+	}
+
+	/** Returns the value of exactly the prefix, null if none. */
+	public Object get(int prefix_, int length_)
+	{
+		check(length_);
+		Root r_ = root;
+		if (length_ == 0) return r_.dflt;
+		prefix_ = mask(prefix_, length_);
+		int level_ = (length_ - 1) / STRIDE;
+		Node n_ = r_.node;
+		for (int i = 0; i < level_ && n_ != null; i++)
+			n_ = n_.next[(prefix_ >>> (32 - STRIDE * (i + 1))) & (FANOUT - 1)];
+		if (n_ == null) return null;
+		int l = length_ - level_ * STRIDE;
+		return n_.natives[(1 << l) | (prefix_ >>> (32 - level_ * STRIDE - l))
+			& ((1 << l) - 1)];
+	}
+
+	/** Maps the prefix to the value, which must not be null, and returns the
+	 * old value. */
+	public synchronized Object put(int prefix_, int length_, Object value_)
+	{
+		if (value_ == null) throw new NullPointerException("null value");
+		return update(prefix_, length_, value_);
+	}
+
+	/** Removes the prefix and returns its value, null if none. */
+	public synchronized Object remove(int prefix_, int length_)
+	{ return update(prefix_, length_, null); }
+
+	Object update(int prefix_, int length_, Object value_)
+	{
+		check(length_);
+		Root r_ = root;
+		if (length_ == 0) {
+			int size_ = r_.size + (r_.dflt == null? 1: 0) - (value_ == null? 1: 0);
+			if (r_.dflt == null && value_ == null) return null;
+			root = new Root(r_.node, value_, size_);
+			return r_.dflt;
+		}
+		prefix_ = mask(prefix_, length_);
+		int level_ = (length_ - 1) / STRIDE;
+		int l = length_ - level_ * STRIDE;
+		int b_ = (prefix_ >>> (32 - level_ * STRIDE - l)) & ((1 << l) - 1);
+
+		// copy the path
+		Node[] path_ = new Node[level_ + 1];
+		Node n_ = r_.node;
+		for (int i = 0; i <= level_; i++) {
+			if (n_ == null) {
+				if (value_ == null) return null; // nothing to remove
+				path_[i] = new Node();
+			}
+			else
+				path_[i] = new Node(n_);
+			if (i < level_) n_ = n_ == null? null: n_.next[byteAt(prefix_, i)];
+		}
+
+		Node leaf_ = path_[level_];
+		int slot_ = (1 << l) | b_;
+		Object old_ = leaf_.natives[slot_];
+		if (old_ == null && value_ == null) return null;
+		leaf_.natives[slot_] = value_;
+		if (old_ == null) leaf_.count++;
+		else if (value_ == null) leaf_.count--;
+		leaf_.expand(l, b_);
+
+		// link the copies, dropping nodes left empty
+		Node child_ = leaf_.count == 0? null: leaf_;
+		for (int i = level_ - 1; i >= 0; i--) {
+			Node p_ = path_[i];
+			int c_ = byteAt(prefix_, i);
+			if (p_.next[c_] == null && child_ != null) p_.count++;
+			else if (p_.next[c_] != null && child_ == null) p_.count--;
+			p_.next[c_] = child_;
+			child_ = p_.count == 0? null: p_;
+		}
+		root = new Root(child_, r_.dflt, r_.size + (old_ == null? 1: 0)
+			- (value_ == null? 1: 0));
+		return old_;
+	}
+
+	// the i-th byte of the address, from the most significant
+	static int byteAt(int addr_, int i)
+	{ return (addr_ >>> (32 - STRIDE * (i + 1))) & (FANOUT - 1); }
+
+	public int size()
+	{ return root.size; }
+
+	public synchronized void clear()
+	{ root = new Root(null, null, 0); }
+
+	public String toString()
+	{ return "MultibitTrie[" + size() + " prefixes]"; }
+}
@@ -0,0 +1,44 @@
+package drcl.inet;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+import drcl.util.queue.LockFreeRing;
+
+/**
+ * Pool of direct (off-heap) {@link ByteBuffer}s of {@link InetPacket#MAX_PKT_LEN}
+ * bytes used as wire buffers by sockets running in direct-buffer mode.
+ * Direct buffers are expensive to allocate and are only reclaimed by the
+ * garbage collector, so they are recycled through a {@link LockFreeRing}
+ * and dropped only when the ring is full.
+ */
+public class DirectBufferPool {
+
+	public static final int RING_SIZE = 4096;
+
+	private static final LockFreeRing<ByteBuffer> ring =
+		new LockFreeRing<ByteBuffer>(RING_SIZE);
+	private static final AtomicLong created = new AtomicLong();
+	private static final AtomicLong discarded = new AtomicLong();
+
+	/** Returns a cleared direct buffer. */
+	public static ByteBuffer acquire() {
+		ByteBuffer b_ = ring.poll();
+		if (b_ == null) {
+			created.incrementAndGet();
+			return ByteBuffer.allocateDirect(InetPacket.MAX_PKT_LEN);
+		}
+		return b_;
+	}
+
+	/** Clears the buffer and returns it to the pool. */
+	public static void release(ByteBuffer b_) {
+		b_.clear();
+		if (!ring.offer(b_)) discarded.incrementAndGet();
+	}
+
+	public static String info() {
+		return "DirectBufferPool: created=" + created.get() + ", pooled="
+			+ ring.size() + ", discarded=" + discarded.get() + "\n";
+	}
+}
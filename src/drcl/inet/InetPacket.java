@@ -29,9 +29,12 @@
 package drcl.inet;
 
 
+import java.lang.ref.Reference;
 import java.net.InetAddress;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
+import drcl.inet.host.Checksum;
 import drcl.inet.host.MobibedUtils;
 import drcl.inet.transport.TCP;
 import drcl.inet.transport.TCPPacket;
@@ -41,7 +44,6 @@ import drcl.net.Address;
 import drcl.net.Packet;
 import drcl.util.StringUtil;
 import drcl.util.ObjectUtil;
-import drcl.util.queue.NonBlockingQueue;
 
 /**
 Defines the packet structure for the INET framework.
@@ -54,7 +56,7 @@ public class InetPacket extends Packet implements InetPacketInterface
 	
 	public static int MAX_PKT_LEN = 1024*2;
 	public static int INIT_PKT_BUF_NUM = 50;
-	private static NonBlockingQueue pool = new NonBlockingQueue(INIT_PKT_BUF_NUM);
+	private static PacketPool pool = new PacketPool(MAX_PKT_LEN, INIT_PKT_BUF_NUM);
 	
 
 
@@ -94,6 +96,14 @@ public class InetPacket extends Packet implements InetPacketInterface
 	Object extension;
 	
 	private byte[] bytes;
+	private ByteBuffer buffer;
+	static boolean transportChecksum = true;
+	// off-heap wire buffer, see DirectBufferPool
+	private ByteBuffer direct;
+	// pool bookkeeping, see PacketPool
+	transient Reference<InetPacket> poolRef;
+	transient int poolClass;
+	transient boolean pooled;
 					
 	public InetPacket()
 	{ this(0, 0, 0, 0, 0, false, 0, 0, 0, 0, null, 0); }
@@ -110,6 +120,10 @@ public class InetPacket extends Packet implements InetPacketInterface
 		flag = 0;
 		fragmentOffset = 0;
 		body = null;
+		if (direct != null) {
+			DirectBufferPool.release(direct);
+			direct = null;
+		}
 //		Arrays.fill(bytes, (byte)0);
 	}
 	
@@ -129,8 +143,13 @@ public class InetPacket extends Packet implements InetPacketInterface
 		id = id_;
 		flag = flag_;
 		fragmentOffset = fragment_;
-		
-		bytes = new byte[MAX_PKT_LEN];
+	}
+
+	/** Creates an empty packet with a wire buffer of the given size. */
+	InetPacket(int bufSize_)
+	{
+		this();
+		bytes = new byte[bufSize_];
 	}
 	
 	public InetPacket(long src_, long des_, int ulp_, int ttl_, int hops_,
@@ -173,9 +192,30 @@ public class InetPacket extends Packet implements InetPacketInterface
 	}
 	
 	public byte[] getBytes(){
+		if (bytes == null) bytes = new byte[MAX_PKT_LEN];
 		return bytes;
 	}
+
+	/** Returns a cleared {@link ByteBuffer} view over {@link #getBytes()}
+	 * for channel I/O; the view is created once and reused. */
+	public ByteBuffer getByteBuffer(){
+		if (buffer == null) buffer = ByteBuffer.wrap(getBytes());
+		buffer.clear();
+		return buffer;
+	}
 	
+	/** Returns the direct wire buffer attached to this packet, or null. */
+	public ByteBuffer getDirectBuffer(){
+		return direct;
+	}
+
+	/** Attaches a direct wire buffer, which is released to
+	 * {@link DirectBufferPool} when the packet is reset. */
+	public void setDirectBuffer(ByteBuffer buf_){
+		if (direct != null && direct != buf_) DirectBufferPool.release(direct);
+		direct = buf_;
+	}
+
 	public void setSource(InetAddress addr)
 	{ src = MobibedUtils.byteArrayToLong(addr.getAddress()); }
 	
@@ -436,7 +476,7 @@ public class InetPacket extends Packet implements InetPacketInterface
 		// get byte array of InetPacket:
 		
 		Packet p_ = (Packet) this.body;
-		
+		byte[] bytes = getBytes();
 		
 		int pos = ihl << 2;
 		int body_len = p_.encode(bytes, pos);
@@ -467,18 +507,185 @@ public class InetPacket extends Packet implements InetPacketInterface
 		MobibedUtils.LongToByteArray(src, bytes, 12);
 		MobibedUtils.LongToByteArray(dest, bytes, 16);
 		
-		// header checksum
-		long checksum = MobibedUtils.calculateChecksum(bytes, pos);
+		// header checksum; the field may hold the last encoding's value
+		bytes[10] = 0;
+		bytes[11] = 0;
+		int checksum = Checksum.checksum(bytes, 0, pos);
 		bytes[10] = (byte) (checksum >> 8);
 		bytes[11] = (byte) (checksum & 0xff);
+		if (transportChecksum) {
+			int at_ = transportChecksumOffset();
+			if (at_ >= 0) {
+				checksum = Checksum.transportChecksum(bytes, pos, body_len,
+								src, dest, ulp);
+				if (checksum == 0 && ulp == UDP.DEFAULT_PID) checksum = 0xFFFF;
+				bytes[pos+at_] = (byte) (checksum >> 8);
+				bytes[pos+at_+1] = (byte) (checksum & 0xff);
+			}
+		}
 //		System.arraycopy(body_, 0, bytes, pos, body_.length);
 		return len_;
 	}
 
 	/**
-	 * decode {@link #bytes} 
+	 * Encodes this packet into the direct buffer <code>buf_</code>: the IP
+	 * header is written in place and the body encodes itself right after it.
+	 * @return the number of bytes written
+	 */
+	public int encode(ByteBuffer buf_) {
+		Packet p_ = (Packet) this.body;
+		int pos = ihl << 2;
+		int len_ = p_.encode(buf_, pos) + pos;
+		buf_.put(0, (byte) ((version << 4) + ihl));
+		buf_.put(1, (byte) tos);
+		buf_.putShort(2, (short) len_);
+		buf_.putShort(4, (short) id);
+		buf_.put(6, (byte) (flag << 5 + fragmentOffset >> 8));
+		buf_.put(7, (byte) (fragmentOffset & 0xf));
+		buf_.put(8, (byte) ttl);
+		buf_.put(9, (byte) ulp);
+		buf_.putInt(12, (int) src);
+		buf_.putInt(16, (int) dest);
+		// header checksum
+		buf_.putShort(10, (short) 0);
+		int checksum = Checksum.checksum(buf_, 0, pos);
+		buf_.putShort(10, (short) checksum);
+		if (transportChecksum) {
+			int at_ = transportChecksumOffset();
+			if (at_ >= 0) {
+				checksum = Checksum.transportChecksum(buf_, pos, len_-pos,
+								src, dest, ulp);
+				if (checksum == 0 && ulp == UDP.DEFAULT_PID) checksum = 0xFFFF;
+				buf_.putShort(pos+at_, (short) checksum);
+			}
+		}
+		buf_.position(0);
+		buf_.limit(len_);
+		return len_;
+	}
+
+	/**
+	 * Encodes the <code>i</code>th wire segment of this TCP super-segment
+	 * (see {@link TCPPacket#getSegmentCount()}) into the wire buffer of
+	 * <code>seg_</code>, direct if it has one.
+	 * This packet must have been encoded, which leaves the first segment in
+	 * its own buffer; the IP and TCP headers are copied from there, and only
+	 * the IP length, id and checksum, the sequence number, the payload and the
+	 * TCP checksum are written anew.
+	 * @return the number of bytes written
+	 */
+	public int encodeSegment(int i, InetPacket seg_) {
+		TCPPacket tcp_ = (TCPPacket) body;
+		ByteBuffer from_ = direct != null? direct: getByteBuffer();
+		ByteBuffer to_ = seg_.direct != null? seg_.direct: seg_.getByteBuffer();
+		int pos = ihl << 2;
+		int hlen_ = pos + tcp_.headerSize;
+		int k = 0;
+		for (; k + 4 <= hlen_; k += 4)
+			to_.putInt(k, from_.getInt(k));
+		for (; k < hlen_; k++)
+			to_.put(k, from_.get(k));
+		int len_ = pos + tcp_.encodeSegment(to_, pos, i);
+		to_.putShort(2, (short) len_);
+		to_.putShort(4, (short) (id + i));
+		to_.putShort(10, (short) 0);
+		to_.putShort(10, (short) Checksum.checksum(to_, 0, pos));
+		if (transportChecksum)
+			to_.putShort(pos+16, (short) Checksum.transportChecksum(to_, pos,
+							len_-pos, src, dest, ulp));
+		to_.position(0);
+		to_.limit(len_);
+		return len_;
+	}
+
+	/**
+	 * Flow id of the datagram in the wire buffer, for
+	 * {@link drcl.util.LatencyTracer}: the ports and a hash of the addresses
+	 * and protocol. It is read from the buffer, so it is the same after
+	 * {@link #encode(int) encoding} and before {@link #decode() decoding}.
+	 */
+	public long traceFlow() {
+		int ulp_ = wireByte(9);
+		int pos = (wireByte(0) & 0xf) << 2;
+		long ports_ = ulp_ == TCP.DEFAULT_PID || ulp_ == UDP.DEFAULT_PID?
+			wireInt(pos) & 0xffffffffL: 0;
+		return ports_ << 32 | ((wireInt(12) * 31 + wireInt(16)) * 31 + ulp_)
+			& 0xffffffffL;
+	}
+
+	/**
+	 * Sequence number of the datagram in the wire buffer within its
+	 * {@link #traceFlow() flow}: the TCP sequence number and the IP id, or
+	 * the IP id alone for other protocols.
+	 */
+	public long traceSeq() {
+		long id_ = wireInt(4) >>> 16;
+		if (wireByte(9) != TCP.DEFAULT_PID)
+			return id_;
+		int pos = (wireByte(0) & 0xf) << 2;
+		return (wireInt(pos+4) & 0xffffffffL) << 16 | id_;
+	}
+
+	int wireByte(int at_) {
+		return direct != null? direct.get(at_): getBytes()[at_];
+	}
+
+	int wireInt(int at_) {
+		if (direct != null) return direct.getInt(at_);
+		byte[] b_ = getBytes();
+		return b_[at_] << 24 | (b_[at_+1] & 0xff) << 16
+			| (b_[at_+2] & 0xff) << 8 | (b_[at_+3] & 0xff);
+	}
+
+	/** Offset of the checksum field in the body, or -1 if the body has
+	 * none. The field is left zero by the body's encoder. */
+	int transportChecksumOffset() {
+		switch (ulp) {
+		case TCP.DEFAULT_PID:
+			return 16;
+		case UDP.DEFAULT_PID:
+			return 6;
+		}
+		return -1;
+	}
+
+	/** Enables or disables computing TCP and UDP checksums (pseudo-header
+	 * and payload) when packets are encoded. */
+	public static void setTransportChecksumEnabled(boolean enabled_)
+	{ transportChecksum = enabled_; }
+
+	public static boolean isTransportChecksumEnabled()
+	{ return transportChecksum; }
+
+	/**
+	 * Changes the TTL of this packet and of its last encoding in place,
+	 * updating the header checksum incrementally (RFC 1624) instead of
+	 * encoding the packet again.
+	 */
+	public void setEncodedTTL(int ttl_) {
+		int old_ = (ttl & 0xff) << 8;
+		int new_ = (ttl_ & 0xff) << 8;
+		ttl = ttl_;
+		if (direct != null) {
+			direct.put(8, (byte) ttl_);
+			direct.putShort(10, (short) Checksum.update(
+							direct.getShort(10) & 0xffff, old_, new_));
+		}
+		else if (bytes != null) {
+			bytes[8] = (byte) ttl_;
+			int checksum = Checksum.update(
+				(bytes[10] & 0xff) << 8 | (bytes[11] & 0xff), old_, new_);
+			bytes[10] = (byte) (checksum >> 8);
+			bytes[11] = (byte) (checksum & 0xff);
+		}
+	}
+
+	/**
+	 * decode {@link #bytes}, or the direct buffer if one is attached
 	 */
 	public boolean decode() {
+		if (direct != null) return decode(direct);
+		byte[] bytes = getBytes();
 		// get version
 		version = bytes[0] >> 4;
 		// get header length
@@ -517,6 +724,39 @@ public class InetPacket extends Packet implements InetPacketInterface
 		return false;
 	}
 	
+	/**
+	 * decode the datagram held in the direct buffer <code>buf_</code>
+	 */
+	boolean decode(ByteBuffer buf_) {
+		int b0_ = buf_.get(0);
+		version = b0_ >> 4;
+		ihl = b0_ & 0xf;
+		int pos = ihl << 2;
+		tos = buf_.get(1);
+		int len_ = buf_.getShort(2) & 0xffff;
+		this.ttl = buf_.get(8);
+		ulp = buf_.get(9);
+		dest = buf_.getInt(16) & 0xffffffffL;
+
+		switch(ulp){
+		case UDP.DEFAULT_PID:
+			UDPPacket udp = new UDPPacket();
+			if(udp.toPacket(buf_, pos, port)){
+				this.body = udp;
+				return true;
+			}
+			break;
+		case TCP.DEFAULT_PID:
+			TCPPacket tcp = new TCPPacket(this);
+			if(tcp.decode(buf_, pos, len_-pos, port)){
+				this.body = tcp;
+				return true;
+			}
+			break;
+		}
+		return false;
+	}
+
 	/**
 	 * convert bytes into an InetPacket
 	 * @param bytes
@@ -612,13 +852,24 @@ public class InetPacket extends Packet implements InetPacketInterface
 		return port;
 	}
 
+	/** Returns this packet to the pool; the packet must not be used afterwards. */
 	public void free() {
-		reset();
-		pool.add(this);
+		pool.recycle(this);
 	}
 
+	/** Returns a pooled packet with a buffer of {@link #MAX_PKT_LEN} bytes. */
 	public static InetPacket poll() {
-		return pool.poll();
+		return pool.poll(MAX_PKT_LEN);
+	}
+
+	/** Returns a pooled packet with a buffer of at least <code>len_</code>
+	 * bytes; header-only segments get a small buffer. */
+	public static InetPacket poll(int len_) {
+		return pool.poll(len_);
+	}
+
+	public static PacketPool getPool() {
+		return pool;
 	}
 
 	@Override
@@ -0,0 +1,345 @@
+package drcl.inet;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import drcl.util.queue.LockFreeRing;
+
+/**
+ * Size-classed pool of {@link InetPacket}s and their byte buffers.
+ * <p>
+ * Each size class keeps a small per-thread cache in front of a shared
+ * {@link LockFreeRing}; {@link #poll(int)} and {@link #recycle(InetPacket)}
+ * normally touch only the calling thread's cache and go to the ring in
+ * batches. Control segments (no payload) come from the small class so that
+ * ACKs do not pin a full MTU-sized buffer.
+ * <p>
+ * With a high-water mark set, a class stops creating packets once that many
+ * are alive and {@link #poll(int)} waits for one to be recycled, for at most
+ * {@link #setBackPressureTimeout(long) the back-pressure timeout}, before
+ * allocating anyway; this throttles the receive path instead of letting the
+ * heap grow without bound.
+ * <p>
+ * Every packet the pool creates is tracked by a phantom reference, so a
+ * packet that is dropped without {@link InetPacket#free()} is counted as
+ * leaked when the garbage collector reclaims it.  The caches of a thread
+ * that has ended go back to the rings the next time a thread starts using
+ * the pool or {@link #getLeaked()} is called.
+ */
+public class PacketPool {
+
+	/** Buffer size of the small class: IP header plus a TCP header with all options. */
+	public static final int SMALL_PKT_LEN = 128;
+	/** Number of packets a thread keeps for itself per size class. */
+	public static final int CACHE_SIZE = 32;
+	/** Default capacity of each shared ring. */
+	public static final int RING_SIZE = 4096;
+
+	final SizeClass small, large;
+	final ThreadLocal<Cache[]> caches = new ThreadLocal<Cache[]>() {
+		protected Cache[] initialValue() {
+			reclaim();
+			Cache[] cc_ = new Cache[]{new Cache(), new Cache()};
+			owners.add(new Owner(Thread.currentThread(), cc_));
+			return cc_;
+		}
+	};
+	// caches of the threads that have used the pool and may be alive
+	final ConcurrentLinkedQueue<Owner> owners = new ConcurrentLinkedQueue<Owner>();
+	// counters of the caches of threads that have ended
+	final AtomicLong retiredPolls = new AtomicLong();
+	final AtomicLong retiredRecycles = new AtomicLong();
+	final AtomicLong retiredDoubleFrees = new AtomicLong();
+
+	// leak accounting
+	final ReferenceQueue<InetPacket> refQueue = new ReferenceQueue<InetPacket>();
+	final Map<Reference<InetPacket>, SizeClass> refs =
+		new ConcurrentHashMap<Reference<InetPacket>, SizeClass>();
+
+	long backPressureTimeout = 100000000L; // 100ms, in ns
+
+	public PacketPool(int largeSize_, int prefill_) {
+		small = new SizeClass(0, SMALL_PKT_LEN, RING_SIZE);
+		large = new SizeClass(1, largeSize_, RING_SIZE);
+		for(int i = 0; i < prefill_; i++)
+			large.ring.offer(large.create());
+	}
+
+	/**
+	 * Sets the maximum number of live packets per size class; 0 (default)
+	 * means no limit.
+	 */
+	public void setHighWaterMark(int max_) {
+		small.highWater = large.highWater = max_;
+	}
+
+	public int getHighWaterMark() {
+		return large.highWater;
+	}
+
+	/** Sets how long (in milliseconds) {@link #poll(int)} may block at the high-water mark. */
+	public void setBackPressureTimeout(long ms_) {
+		backPressureTimeout = ms_ * 1000000L;
+	}
+
+	public long getBackPressureTimeout() {
+		return backPressureTimeout / 1000000L;
+	}
+
+	/** Returns a packet whose buffer holds at least <code>size_</code> bytes. */
+	public InetPacket poll(int size_) {
+		SizeClass c_ = size_ <= SMALL_PKT_LEN? small: large;
+		Cache cache_ = caches.get()[c_.index];
+		cache_.polls++;
+		InetPacket p_ = cache_.pop();
+		if(p_ == null) {
+			p_ = c_.ring.poll();
+			if(p_ == null)
+				p_ = c_.allocate();
+			else
+				cache_.refill(c_.ring);
+		}
+		p_.pooled = false;
+		return p_;
+	}
+
+	/** Resets the packet and returns it to its size class. */
+	public void recycle(InetPacket p_) {
+		if(p_.poolRef == null) {
+			// not created by the pool, leave it to the garbage collector
+			p_.reset();
+			return;
+		}
+		SizeClass c_ = p_.poolClass == 0? small: large;
+		Cache cache_ = caches.get()[c_.index];
+		if(p_.pooled) {
+			cache_.doubleFrees++;
+			return;
+		}
+		p_.reset();
+		p_.pooled = true;
+		cache_.recycles++;
+		if(!cache_.push(p_))
+			cache_.spill(c_, p_);
+		if(c_.waiters > 0)
+			c_.wakeup();
+	}
+
+	/** Drains the reference queue and returns the number of leaked packets. */
+	public long getLeaked() {
+		reclaim();
+		Reference<? extends InetPacket> r_;
+		while((r_ = refQueue.poll()) != null) {
+			SizeClass c_ = refs.remove(r_);
+			if(c_ != null)
+				c_.leaked.incrementAndGet();
+		}
+		return small.leaked.get() + large.leaked.get();
+	}
+
+	/** Returns the number of packets handed out and not yet freed. */
+	public long getOutstanding() {
+		long[] n_ = counts();
+		return n_[0] - n_[1];
+	}
+
+	/** Returns the number of packets returned to the pool. */
+	public long getRecycled() {
+		return counts()[1];
+	}
+
+	/**
+	 * Returns the caches of the threads that have ended to the rings and
+	 * adds their counters to the retired totals.
+	 */
+	void reclaim() {
+		for(Iterator<Owner> i_ = owners.iterator(); i_.hasNext();) {
+			Owner o_ = i_.next();
+			Thread t_ = o_.thread.get();
+			// a thread seen terminated has made its last writes visible
+			if(t_ != null && t_.isAlive() || !owners.remove(o_))
+				continue;
+			for(int i = 0; i < o_.caches.length; i++) {
+				Cache c_ = o_.caches[i];
+				c_.flush(i == small.index? small: large);
+				retiredPolls.addAndGet(c_.polls);
+				retiredRecycles.addAndGet(c_.recycles);
+				retiredDoubleFrees.addAndGet(c_.doubleFrees);
+			}
+		}
+	}
+
+	/** Polls, recycles and double frees over the live caches and the retired ones. */
+	long[] counts() {
+		long[] n_ = new long[3];
+		for(Owner o_: owners)
+			for(int i = 0; i < o_.caches.length; i++) {
+				n_[0] += o_.caches[i].polls;
+				n_[1] += o_.caches[i].recycles;
+				n_[2] += o_.caches[i].doubleFrees;
+			}
+		n_[0] += retiredPolls.get();
+		n_[1] += retiredRecycles.get();
+		n_[2] += retiredDoubleFrees.get();
+		return n_;
+	}
+
+	public String info() {
+		long leaked_ = getLeaked();
+		long[] n_ = counts();
+		return "PacketPool: outstanding=" + (n_[0] - n_[1])
+			+ ", recycled=" + n_[1] + ", leaked=" + leaked_
+			+ ", double frees=" + n_[2]
+			+ ", threads=" + owners.size()
+			+ ", high-water=" + (large.highWater == 0? "none": String.valueOf(large.highWater))
+			+ "\n  " + small.info() + "\n  " + large.info() + "\n";
+	}
+
+	/** Pool state of one buffer size. */
+	final class SizeClass {
+		final int index, bufSize;
+		final LockFreeRing<InetPacket> ring;
+		final AtomicLong created = new AtomicLong();
+		final AtomicLong discarded = new AtomicLong();
+		final AtomicLong blocked = new AtomicLong();
+		final AtomicLong leaked = new AtomicLong();
+		volatile int highWater;
+		volatile int waiters;
+
+		SizeClass(int index_, int bufSize_, int ringSize_) {
+			index = index_;
+			bufSize = bufSize_;
+			ring = new LockFreeRing<InetPacket>(ringSize_);
+		}
+
+		InetPacket create() {
+			InetPacket p_ = new InetPacket(bufSize);
+			p_.poolClass = index;
+			p_.pooled = true;
+			PhantomReference<InetPacket> r_ = new PhantomReference<InetPacket>(p_, refQueue);
+			p_.poolRef = r_;
+			refs.put(r_, this);
+			created.incrementAndGet();
+			return p_;
+		}
+
+		/** Creates a packet, waiting for a recycled one at the high-water mark. */
+		InetPacket allocate() {
+			int max_ = highWater;
+			if(max_ > 0)
+				getLeaked();
+			if(max_ > 0 && live() >= max_) {
+				blocked.incrementAndGet();
+				long deadline_ = System.nanoTime() + backPressureTimeout;
+				synchronized (this) { waiters++; }
+				try {
+					while(System.nanoTime() - deadline_ < 0) {
+						InetPacket p_ = ring.poll();
+						if(p_ != null)
+							return p_;
+						LockSupport.parkNanos(this, 50000L);
+					}
+				} finally {
+					synchronized (this) { waiters--; }
+				}
+			}
+			return create();
+		}
+
+		/** Packets of this class that are alive, in use or pooled. */
+		long live() {
+			return created.get() - discarded.get() - leaked.get();
+		}
+
+		void wakeup() {
+			// waiters poll the ring themselves; nothing to signal but keep
+			// recycled packets where they can see them
+			Cache cache_ = caches.get()[index];
+			cache_.flush(this);
+		}
+
+		void discard(InetPacket p_) {
+			Reference<InetPacket> r_ = p_.poolRef;
+			p_.poolRef = null;
+			if(r_ != null && refs.remove(r_) != null) {
+				r_.clear();
+				discarded.incrementAndGet();
+			}
+		}
+
+		String info() {
+			return "class " + bufSize + "B: created=" + created.get()
+				+ ", discarded=" + discarded.get() + ", leaked=" + leaked.get()
+				+ ", in ring=" + ring.size()
+				+ ", blocked allocations=" + blocked.get();
+		}
+	}
+
+	/** Caches of a thread, held without keeping the thread alive. */
+	static final class Owner {
+		final WeakReference<Thread> thread;
+		final Cache[] caches;
+
+		Owner(Thread thread_, Cache[] caches_) {
+			thread = new WeakReference<Thread>(thread_);
+			caches = caches_;
+		}
+	}
+
+	/** Per-thread stack of free packets of one class, plus this thread's counters. */
+	static final class Cache {
+		final InetPacket[] items = new InetPacket[CACHE_SIZE];
+		int size;
+		// written by the owner thread only, read racily for statistics
+		long polls, recycles, doubleFrees;
+
+		InetPacket pop() {
+			if(size == 0) return null;
+			InetPacket p_ = items[--size];
+			items[size] = null;
+			return p_;
+		}
+
+		boolean push(InetPacket p_) {
+			if(size == items.length) return false;
+			items[size++] = p_;
+			return true;
+		}
+
+		/** Takes up to half a cache worth of packets from the ring. */
+		void refill(LockFreeRing<InetPacket> ring_) {
+			for(int i = items.length >> 1; i > 0; i--) {
+				InetPacket p_ = ring_.poll();
+				if(p_ == null) return;
+				items[size++] = p_;
+			}
+		}
+
+		/** Moves half of the cache and <code>p_</code> to the ring. */
+		void spill(SizeClass c_, InetPacket p_) {
+			for(int i = items.length >> 1; i > 0; i--) {
+				InetPacket q_ = pop();
+				if(!c_.ring.offer(q_))
+					c_.discard(q_);
+			}
+			if(!c_.ring.offer(p_))
+				c_.discard(p_);
+		}
+
+		void flush(SizeClass c_) {
+			while(size > 0) {
+				InetPacket q_ = pop();
+				if(!c_.ring.offer(q_))
+					c_.discard(q_);
+			}
+		}
+	}
+}
@@ -7,12 +7,13 @@ import drcl.net.Packet;
 public class InetPacketBuilder {
 	private InetPacket ipkt;
 	public InetPacketBuilder(){
-		ipkt = InetPacket.poll();
 	}
 	
 	public InetPacketBuilder setHeader(long src_, long des_, int ulp_, int ttl_, int hops_,
 			boolean ra_, long tos_, int id_, int flag_, int fragment_, Packet pkt_,
 			int pktsize_){
+		// header-only segments get a buffer from the small size class
+		ipkt = InetPacket.poll(pktsize_+20);
 		ipkt.setSource(src_);
 		ipkt.setDestination(des_);
 		ipkt.setProtocol(ulp_);
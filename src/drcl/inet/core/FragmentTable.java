@@ -0,0 +1,344 @@
+package drcl.inet.core;
+
+import java.util.ArrayList;
+
+import drcl.inet.InetPacket;
+import drcl.util.metrics.Counter;
+import drcl.util.metrics.Gauge;
+import drcl.util.metrics.Histogram;
+import drcl.util.metrics.MetricGroup;
+import drcl.util.primitive.LongObjectMap;
+
+/**
+ * Packets being reassembled from fragments in a {@link PktDispatcher}.
+ * <p>
+ * A packet is found by a 64-bit hash of its (ID, source, destination,
+ * protocol), so a fragment costs one table probe however many packets are
+ * in flight.  The bytes received of a packet are kept in a bitmap whose bit
+ * stands for the largest unit that all the fragment boundaries are
+ * multiples of, normally the fragment payload size.  Packets time out from
+ * a hashed timer wheel that the dispatcher advances with one timer, rather
+ * than with a timer per packet, so a packet may outlive its TTL by up to
+ * 1/{@link #TICKS_PER_TTL} of it.
+ * <p>
+ * Not synchronized; the dispatcher guards it.
+ */
+final class FragmentTable
+{
+	static final int WHEEL_SIZE = 64; // power of two
+	static final int TICKS_PER_TTL = 16;
+	static final long[] NO_BITS = new long[0];
+
+	/** A packet being reassembled. */
+	static final class Assembly
+	{
+		final long hash, src, dest;
+		final int id, protocol;
+		Assembly next; // with the same hash
+		Assembly prev, after; // in the wheel slot
+		long expire;
+		final long start; // ns
+		Object original; // body of the fragment at offset 0
+		int size; // of the original, known from the last fragment
+		int unit; // bytes per bit, 0 before the first fragment
+		long[] bits = NO_BITS;
+		int held; // bytes received, each counted once
+
+		Assembly(long hash_, long src_, long dest_, int id_, int protocol_,
+			long start_)
+		{
+			hash = hash_;
+			src = src_;
+			dest = dest_;
+			id = id_;
+			protocol = protocol_;
+			start = start_;
+		}
+
+		public String toString()
+		{
+			return "fragments(id=" + id + ", " + src + "->" + dest
+				+ ", protocol=" + protocol + ", " + held + "/"
+				+ (size > 0? String.valueOf(size): "?") + " bytes)";
+		}
+	}
+
+	final LongObjectMap<Assembly> packets = new LongObjectMap<Assembly>();
+	final Assembly[] wheel = new Assembly[WHEEL_SIZE];
+	long tick = 1; // time per wheel slot
+	long lastTick; // slots up to this tick have been expired
+
+	int pending;
+	long heldBytes, reassembled, timeouts;
+	Counter reassembledCounter, timeoutCounter;
+	Gauge pendingGauge, heldGauge;
+	Histogram latency; // us
+
+	static long hash(int id_, long src_, long dest_, int protocol_)
+	{
+		long h_ = src_ * 0x9E3779B97F4A7C15L;
+		h_ = (h_ ^ (h_ >>> 29) ^ dest_) * 0xBF58476D1CE4E5B9L;
+		h_ = (h_ ^ (h_ >>> 32) ^ ((long)id_ << 32 | protocol_ & 0xffffffffL))
+			* 0x94D049BB133111EBL;
+		return h_ ^ (h_ >>> 31);
+	}
+
+	/** Sets the group to report to, null to stop reporting. */
+	void setMetrics(MetricGroup g_)
+	{
+		if (g_ == null) {
+			reassembledCounter = timeoutCounter = null;
+			pendingGauge = heldGauge = null;
+			latency = null;
+			return;
+		}
+		reassembledCounter = g_.counter("reassembled");
+		timeoutCounter = g_.counter("reassembly_timeouts");
+		pendingGauge = g_.gauge("reassembly_pending");
+		heldGauge = g_.gauge("reassembly_held_bytes");
+		latency = g_.histogram("reassembly_us");
+		_updateGauges();
+	}
+
+	void _updateGauges()
+	{
+		if (pendingGauge == null) return;
+		pendingGauge.set(pending);
+		heldGauge.set(heldBytes);
+	}
+
+	/**
+	 * Adds the fragment and returns the body of the original packet if it
+	 * is now complete, null otherwise.
+	 * @param now_ current time, from which the packet times out after
+	 * 		<code>ttl_</code> if this is its first fragment.
+	 * @param nanos_ current time in ns, for the reassembly latency.
+	 */
+	Object add(long src_, long dest_, InetPacket p_, long now_, long ttl_,
+		long nanos_)
+	{
+		int id_ = p_.getID();
+		int protocol_ = p_.getProtocol();
+		long hash_ = hash(id_, src_, dest_, protocol_);
+		Assembly head_ = packets.get(hash_);
+		Assembly a_ = head_;
+		while (a_ != null && (a_.id != id_ || a_.src != src_
+			|| a_.dest != dest_ || a_.protocol != protocol_))
+			a_ = a_.next;
+
+		if (a_ == null) { // first fragment to arrive
+			if (pending == 0) {
+				tick = Math.max(1, ttl_ / TICKS_PER_TTL);
+				lastTick = now_ / tick - 1;
+			}
+			a_ = new Assembly(hash_, src_, dest_, id_, protocol_, nanos_);
+			a_.next = head_;
+			packets.put(hash_, a_);
+			a_.expire = now_ + Math.max(ttl_, 1);
+			_schedule(a_);
+			pending++;
+		}
+
+		int offset_ = p_.getFragmentOffset();
+		int len_ = p_.size - p_.headerSize;
+		boolean last_ = !p_.hasMoreFragment();
+		if (offset_ == 0) a_.original = p_.getBody();
+		if (last_) a_.size = offset_ + len_;
+		if (len_ > 0) {
+			// duplicates and overlaps are not held twice
+			int new_ = _cover(a_, offset_, offset_ + len_, last_);
+			a_.held += new_;
+			heldBytes += new_;
+		}
+
+		if (!_isComplete(a_)) {
+			_updateGauges();
+			return null;
+		}
+		_remove(a_);
+		reassembled++;
+		if (reassembledCounter != null) {
+			reassembledCounter.increment();
+			latency.record((nanos_ - a_.start) / 1000);
+		}
+		_updateGauges();
+		return a_.original;
+	}
+
+	static int gcd(int a_, int b_)
+	{
+		while (b_ != 0) {
+			int t_ = a_ % b_;
+			a_ = b_;
+			b_ = t_;
+		}
+		return a_;
+	}
+
+	// marks bytes [from_, to_) received and returns how many of them were
+	// not yet; the end of the last fragment needs not be on a unit boundary
+	static int _cover(Assembly a_, int from_, int to_, boolean last_)
+	{
+		int unit_ = gcd(a_.unit, from_);
+		if (!last_) unit_ = gcd(unit_, to_);
+		if (unit_ == 0) unit_ = to_; // the only fragment, at offset 0
+		if (unit_ != a_.unit) _rescale(a_, unit_);
+		int first_ = from_ / unit_, end_ = (to_ + unit_ - 1) / unit_;
+		int old_ = _count(a_, first_, end_) * unit_;
+		// the last unit may extend past to_
+		if (old_ > 0 && _get(a_, end_ - 1)) old_ -= end_ * unit_ - to_;
+		_set(a_, first_, end_);
+		return to_ - from_ - old_;
+	}
+
+	static boolean _get(Assembly a_, int i)
+	{
+		int w = i >>> 6;
+		return w < a_.bits.length && (a_.bits[w] & 1L << i) != 0;
+	}
+
+	// number of bits set in [from_, to_)
+	static int _count(Assembly a_, int from_, int to_)
+	{
+		int n_ = 0;
+		int firstWord_ = from_ >>> 6, lastWord_ = (to_ - 1) >>> 6;
+		for (int w = firstWord_; w <= lastWord_ && w < a_.bits.length; w++) {
+			long word_ = a_.bits[w];
+			if (w == firstWord_) word_ &= -1L << from_;
+			if (w == lastWord_) word_ &= -1L >>> -to_;
+			n_ += Long.bitCount(word_);
+		}
+		return n_;
+	}
+
+	// switches to a unit that divides the current one
+	static void _rescale(Assembly a_, int unit_)
+	{
+		int old_ = a_.unit;
+		a_.unit = unit_;
+		if (old_ == 0 || a_.bits.length == 0) return;
+		long[] bits_ = a_.bits;
+		int factor_ = old_ / unit_;
+		a_.bits = NO_BITS;
+		for (int w = 0; w < bits_.length; w++)
+			for (long word_ = bits_[w]; word_ != 0; word_ &= word_ - 1) {
+				int i = (w << 6) + Long.numberOfTrailingZeros(word_);
+				_set(a_, i * factor_, (i + 1) * factor_);
+			}
+	}
+
+	// sets bits [from_, to_)
+	static void _set(Assembly a_, int from_, int to_)
+	{
+		if (from_ >= to_) return;
+		int words_ = (to_ + 63) >>> 6;
+		if (a_.bits.length < words_) {
+			long[] tmp_ = new long[Math.max(words_, a_.bits.length * 2)];
+			System.arraycopy(a_.bits, 0, tmp_, 0, a_.bits.length);
+			a_.bits = tmp_;
+		}
+		int first_ = from_ >>> 6, last_ = (to_ - 1) >>> 6;
+		long firstMask_ = -1L << from_, lastMask_ = -1L >>> -to_;
+		if (first_ == last_)
+			a_.bits[first_] |= firstMask_ & lastMask_;
+		else {
+			a_.bits[first_] |= firstMask_;
+			for (int w = first_ + 1; w < last_; w++) a_.bits[w] = -1L;
+			a_.bits[last_] |= lastMask_;
+		}
+	}
+
+	static boolean _isComplete(Assembly a_)
+	{
+		if (a_.size <= 0 || a_.unit == 0) return false;
+		int n_ = (a_.size + a_.unit - 1) / a_.unit;
+		if (a_.bits.length < (n_ + 63) >>> 6) return false;
+		for (int w = 0; w < n_ >>> 6; w++)
+			if (a_.bits[w] != -1L) return false;
+		int rest_ = n_ & 63;
+		return rest_ == 0 || (~a_.bits[n_ >>> 6] & (-1L >>> -rest_)) == 0;
+	}
+
+	void _schedule(Assembly a_)
+	{
+		int s_ = (int)(a_.expire / tick) & (WHEEL_SIZE - 1);
+		a_.prev = null;
+		a_.after = wheel[s_];
+		if (wheel[s_] != null) wheel[s_].prev = a_;
+		wheel[s_] = a_;
+	}
+
+	// removes the packet from the hash chain and the wheel
+	void _remove(Assembly a_)
+	{
+		Assembly head_ = packets.get(a_.hash);
+		if (head_ == a_) {
+			if (a_.next == null) packets.remove(a_.hash);
+			else packets.put(a_.hash, a_.next);
+		}
+		else {
+			while (head_.next != a_) head_ = head_.next;
+			head_.next = a_.next;
+		}
+		if (a_.prev != null) a_.prev.after = a_.after;
+		else wheel[(int)(a_.expire / tick) & (WHEEL_SIZE - 1)] = a_.after;
+		if (a_.after != null) a_.after.prev = a_.prev;
+		a_.next = a_.prev = a_.after = null;
+		pending--;
+		heldBytes -= a_.held;
+	}
+
+	/** Returns the delay from <code>now_</code> to the next wheel tick. */
+	long nextTick(long now_)
+	{ return tick - now_ % tick; }
+
+	/**
+	 * Removes the packets timed out by <code>now_</code>, null if none, and
+	 * returns what is held of each: a packet with its ID, source,
+	 * destination and protocol, the body of its first fragment if that
+	 * arrived, and the number of bytes received as its size.
+	 */
+	ArrayList<InetPacket> expire(long now_)
+	{
+		ArrayList<InetPacket> expired_ = null;
+		long to_ = now_ / tick;
+		long from_ = Math.max(lastTick + 1, to_ - WHEEL_SIZE + 1);
+		for (long t = from_; t <= to_; t++)
+			for (Assembly a_ = wheel[(int)t & (WHEEL_SIZE - 1)]; a_ != null; ) {
+				Assembly after_ = a_.after;
+				if (a_.expire <= now_) {
+					_remove(a_);
+					if (expired_ == null) expired_ = new ArrayList<InetPacket>();
+					expired_.add(new InetPacket(a_.src, a_.dest, a_.protocol, 0,
+						0, false, 0, a_.id, 0, 0, a_.original, a_.held));
+				}
+				a_ = after_;
+			}
+		// the current slot may hold packets due later in this tick
+		lastTick = to_ - 1;
+		if (expired_ != null) {
+			timeouts += expired_.size();
+			if (timeoutCounter != null) timeoutCounter.add(expired_.size());
+			_updateGauges();
+		}
+		return expired_;
+	}
+
+	void clear()
+	{
+		packets.clear();
+		java.util.Arrays.fill(wheel, null);
+		pending = 0;
+		heldBytes = 0;
+		_updateGauges();
+	}
+
+	int size()
+	{ return pending; }
+
+	public String toString()
+	{
+		return pending + " pending (" + heldBytes + " bytes held), "
+			+ reassembled + " reassembled, " + timeouts + " timed out";
+	}
+}
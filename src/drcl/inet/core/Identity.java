@@ -79,6 +79,9 @@ public class Identity extends drcl.comp.Component implements InetCoreConstants
 	
 	long defaultIdentity = Address.NULL_ADDR;
 	Hashtable groups = new Hashtable(); // identity (long) -> timer
+	// sorted identities for query(long), null when groups or the default
+	// identity changed since the last query
+	transient volatile long[] known;
 	Port idchange = addEventPort(EVENT_ID_CHANGED_PORT_ID);
 	Port timerPort = addForkPort(".timer");
 
@@ -130,6 +133,7 @@ public class Identity extends drcl.comp.Component implements InetCoreConstants
 		}
 		else
 			groups = null;
+		known = null;
 	}
 	
 	protected synchronized void process(Object data_, drcl.comp.Port inPort_) 
@@ -219,6 +223,7 @@ public class Identity extends drcl.comp.Component implements InetCoreConstants
 
 		if (defaultIdentity != defaultIdentity_) {
 	    	defaultIdentity = defaultIdentity_;
+			known = null;
 			if (idchange._isEventExportEnabled())
 				idchange.exportEvent(EVENT_DEFAULT_IDENTITY_SET,
 							new LongObj(defaultIdentity), null);
@@ -234,6 +239,7 @@ public class Identity extends drcl.comp.Component implements InetCoreConstants
 			idchange.exportEvent(EVENT_DEFAULT_IDENTITY_UNSET, 
 							new LongObj(defaultIdentity), null);
 		defaultIdentity = Address.NULL_ADDR;
+		known = null;
 	}
 	
 
@@ -288,6 +294,7 @@ public class Identity extends drcl.comp.Component implements InetCoreConstants
 		if (defaultIdentity == Address.NULL_ADDR) {
 			// set the first identity to be the default
 			defaultIdentity = newID_;
+			known = null;
 			if (idchange._isEventExportEnabled())
 				idchange.exportEvent(EVENT_DEFAULT_IDENTITY_SET, key_, null);
 		}
@@ -317,6 +324,7 @@ public class Identity extends drcl.comp.Component implements InetCoreConstants
 		if (defaultIdentity == Address.NULL_ADDR) {
 			// set the first identity to be the default
 			defaultIdentity = ((LongObj)v_.firstElement()).value;
+			known = null;
 			if (idchange._isEventExportEnabled())
 				idchange.exportEvent(EVENT_DEFAULT_IDENTITY_SET, 
 								v_.firstElement(), null);
@@ -389,6 +397,7 @@ public class Identity extends drcl.comp.Component implements InetCoreConstants
 			}
 			else
 				groups.put(key_, NEVER_TIMED_OUT);
+			known = null;
 
 			return key_;
 		}
@@ -396,7 +405,7 @@ public class Identity extends drcl.comp.Component implements InetCoreConstants
 	
 	
 	/** Removes an identity from the identity database. */
-	public void remove(long id_) 
+	public synchronized void remove(long id_) 
 	{
 		//boolean isDefault_ = id_ == defaultIdentity;
 		LongObj key_ = _remove(new LongObj(id_));
@@ -437,6 +446,7 @@ public class Identity extends drcl.comp.Component implements InetCoreConstants
 	LongObj _remove(LongObj key_)
 	{
 		ACATimer timer_ = (ACATimer)groups.remove(key_);
+		if (timer_ != null) known = null;
 		if (key_.value == defaultIdentity) {
 			if (groups.size() == 0) _unsetDefaultID();
 			else
@@ -455,11 +465,33 @@ public class Identity extends drcl.comp.Component implements InetCoreConstants
 			   + (timeout_? " due to timeout": "");
 	}
 	
-	/** Queries the existence of an identity in this database. */
-	public synchronized boolean query(long id_) 
+	/** Queries the existence of an identity in this database.
+	 * Takes no lock and allocates nothing unless the identities changed
+	 * since the last query, so concurrent forwarding paths can call it per
+	 * packet. */
+	public boolean query(long id_) 
 	{
-		return defaultIdentity == id_ 
-			   || groups.containsKey(new LongObj(id_)); 
+		long[] known_ = known;
+		if (known_ == null) known_ = _known();
+		return Arrays.binarySearch(known_, id_) >= 0;
+	}
+
+	synchronized long[] _known()
+	{
+		long[] known_ = known;
+		if (known_ != null) return known_;
+		int n_ = groups == null? 0: groups.size();
+		known_ = new long[n_ + 1];
+		known_[0] = defaultIdentity;
+		if (n_ > 0) {
+			int i = 1;
+			for (Enumeration e = groups.keys() ; e.hasMoreElements() && i <= n_;)
+				known_[i++] = ((LongObj)e.nextElement()).value;
+			if (i <= n_) known_ = Arrays.copyOf(known_, i);
+		}
+		Arrays.sort(known_);
+		known = known_;
+		return known_;
 	}
 	
 	/**
@@ -28,9 +28,10 @@
 
 package drcl.inet.core;
 
-import java.util.LinkedList;
-import java.util.Iterator;
-import java.util.ListIterator;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
 import drcl.comp.*;
 import drcl.net.*;
 import drcl.data.*;
@@ -42,7 +43,7 @@ import drcl.inet.data.RTKey;
 import drcl.inet.data.RTEntry;
 import drcl.util.StringUtil;
 import drcl.util.ObjectUtil;
-import drcl.util.scalar.IntSpace;
+import drcl.util.metrics.Metrics;
 
 /**
  * Implements the packet dispatcher component in the inet router architecture.
@@ -60,6 +61,13 @@ import drcl.util.scalar.IntSpace;
  *		</ul>
  * <li> Configuration: PDHeaderSize, fragmentEnabled, MTUs
  * </ul>
+ *
+ * <p>In the concurrent mode ({@link #setConcurrentEnabled(boolean)}), packets
+ * arriving at different ports are forwarded in parallel instead of one at a
+ * time under the component lock.  The forwarding path then reads the port
+ * numbers, the switching tables and the route cache from immutable
+ * snapshots that are replaced when they change, and only the fragment
+ * reassembly state is guarded by a lock.
  * 
  * @see drcl.inet.contract.PktSending
  * @see drcl.inet.contract.PktDelivery
@@ -82,6 +90,8 @@ public class PktDispatcher extends Module implements InetCoreConstants
 	static final long FLAG_SWITCH_ENABLED = 1L << (FLAG_UNDEFINED_START + 5);
 	static final long FLAG_LABEL_SWITCH_ENABLED= 1L<< (FLAG_UNDEFINED_START +6);
 	static final long FLAG_ROUTE_BACK_ENABLED = 1L<< (FLAG_UNDEFINED_START +7);
+	static final long FLAG_CONCURRENT_ENABLED = 1L<< (FLAG_UNDEFINED_START +8);
+	static final long FLAG_METRICS_ENABLED = 1L<< (FLAG_UNDEFINED_START +9);
 	
     static final int DEFAULT_HEADER_SIZE = 20;
 	static final long DEFAULT_FRAGMENT_TTL = 30; // seconds
@@ -94,17 +104,26 @@ public class PktDispatcher extends Module implements InetCoreConstants
 	Port mcastHelp = addEventPort(MCAST_QUERY_PORT_ID);
 	Port ucastHelp = addEventPort(UCAST_QUERY_PORT_ID);
 
-	Port[] downPorts = null;
+	volatile Port[] downPorts = null;
+	// port numbers and up ports by protocol, rebuilt when ports change
+	transient volatile PortIndex portIndex = null;
     int headerSize = DEFAULT_HEADER_SIZE;
-    int seqno = 0;
+    volatile int seqno = 0;
+	static final AtomicIntegerFieldUpdater<PktDispatcher> SEQNO =
+		AtomicIntegerFieldUpdater.newUpdater(PktDispatcher.class, "seqno");
 
 	FragmentPack fragmentPack;
 	VIFPack vifPack;
-	LinkedList reassembleList;
+	transient FragmentTable fragments; // being reassembled
+	transient ACATimer fragmentTimer; // advances the fragments' timer wheel
+	// guards fragments in the concurrent mode
+	final Object[] reassembleLock = new Object[0];
 	
-	transient RouteCache routeCache = null; // inner class
-	int[] connectTable = null; // for switching [incomingIf] = outgoingIf
-	int[][][] incomingLabelMap = null;
+	transient volatile RouteCache routeCache = null; // inner class
+	// the switching tables are replaced, never modified, once set
+	volatile int[] connectTable = null;
+		// for switching [incomingIf] = outgoingIf
+	volatile int[][][] incomingLabelMap = null;
 		// for label switching; 
 		// [incomingIf][incomingLabel] = [outgoingIf, outgoingLabel]
 
@@ -139,12 +158,17 @@ public class PktDispatcher extends Module implements InetCoreConstants
         seqno = 0;
         super.reset();
 		routeCache = null;
+		synchronized (reassembleLock) {
+			if (fragments != null) fragments.clear();
+			fragmentTimer = null;
+		}
     }
 
 	public void resetCache()
 	{
 		routeCache = null;
 		downPorts = null;
+		portIndex = null;
 	}
 
     public void duplicate(Object source_) {
@@ -171,13 +195,9 @@ public class PktDispatcher extends Module implements InetCoreConstants
 			   "             TTL check? " + isTTLCheckEnabled() + "\n" +
 			   "       Fragment enabled? " + isFragmentEnabled() + "\n" +
 			   (isFragmentEnabled()? fragmentPack.info(): "") +
-				"   Fragment List: " + reassembleList + "\n" +
+				"   Fragments: " + fragments + "\n" +
 			   (vifPack == null? "": vifPack.info()) +
-			   (routeCache == null? "":
-			   		"route cache hit = "
-					+ (100.0 * routeCache.routeHitCount / routeCache.routeCount)
-			   		+ "% (" + routeCache.routeHitCount+ "/"
-					+ routeCache.routeCount + ")\n") +
+			   (routeCache == null? "": routeCache.info()) +
 			   "      Switching enabled? " + isSwitchingEnabled()
 			   		+ (connectTable == null? "": ", " +
 						StringUtil.toString(connectTable)) + "\n"+
@@ -185,7 +205,8 @@ public class PktDispatcher extends Module implements InetCoreConstants
 			   		+ (incomingLabelMap == null? "": ", " +
 						StringUtil.toString(incomingLabelMap)) + "\n"
 				+ "          downPorts= " + (downPorts == null? "null\n":
-								downPorts.length+"\n");
+								downPorts.length+"\n")
+				+ "     Concurrent mode? " + isConcurrentEnabled() + "\n";
 				//+ "          downPorts= "
 				//+ drcl.util.StringUtil.toString(downPorts) + "\n";
     }
@@ -193,6 +214,13 @@ public class PktDispatcher extends Module implements InetCoreConstants
 	protected void portAdded(Port p_)
 	{
 		downPorts = null;
+		portIndex = null;
+	}
+
+	protected void portRemoved(Port p_)
+	{
+		downPorts = null;
+		portIndex = null;
 	}
 
 	public void bind(Identity id_)
@@ -261,11 +289,42 @@ public class PktDispatcher extends Module implements InetCoreConstants
 	public boolean isRouteBackEnabled()
 	{ return getComponentFlag(FLAG_ROUTE_BACK_ENABLED) != 0; }
 
-	public void setRouteCacheSize(int size_)
+	/**
+	 * Enables/disables the concurrent mode, in which packets are not
+	 * serialized on this component.  It also turns on port notification
+	 * so that the port snapshots follow the ports added and removed.
+	 */
+	public void setConcurrentEnabled(boolean enabled_)
+	{
+		if (enabled_) setPortNotificationEnabled(true);
+		setComponentFlag(FLAG_CONCURRENT_ENABLED, enabled_);
+	}
+
+	public boolean isConcurrentEnabled()
+	{ return getComponentFlag(FLAG_CONCURRENT_ENABLED) != 0; }
+
+	/**
+	 * Enables/disables reporting the fragment reassembly to
+	 * {@link drcl.util.metrics.Metrics}, in the group named after this
+	 * component: the packets reassembled and timed out, the packets pending
+	 * and the bytes of their fragments held, and the reassembly latency in
+	 * microseconds.
+	 */
+	public void setMetricsEnabled(boolean enabled_)
 	{
-		if (routeCache == null) routeCache = new RouteCache();
-		routeCache.CACHE_SIZE = size_;
+		if (!enabled_ && isMetricsEnabled()) Metrics.remove(toString());
+		setComponentFlag(FLAG_METRICS_ENABLED, enabled_);
+		synchronized (reassembleLock) {
+			if (fragments != null)
+				fragments.setMetrics(enabled_? Metrics.group(toString()): null);
+		}
 	}
+
+	public boolean isMetricsEnabled()
+	{ return getComponentFlag(FLAG_METRICS_ENABLED) != 0; }
+
+	public void setRouteCacheSize(int size_)
+	{ _getRouteCache().CACHE_SIZE = size_; }
 	
 	public int getRouteCacheSize()
 	{ return routeCache == null? -1: routeCache.CACHE_SIZE; }
@@ -287,10 +346,9 @@ public class PktDispatcher extends Module implements InetCoreConstants
 	{
 		//if (rtlookup.anyPeer()) return true;
 		if (rt != null) return true;
-		if (downPorts == null) createDownPorts();
 		//Port[] pp_ = getAllPorts(Module.PortGroup_DOWN);
 		//return pp_ != null && pp_.length > 1;
-		return downPorts != null && downPorts.length > 1;
+		return _getDownPorts().length > 1;
 	}
 
 	int[] rtLookup(RTKey key_)
@@ -356,16 +414,16 @@ public class PktDispatcher extends Module implements InetCoreConstants
 	/** Returns the MTUs array used by this PktDispatcher. */
 	public int[] getMTUs()
 	{
-		if (downPorts == null) createDownPorts();
+		Port[] downPorts_ = _getDownPorts();
 		if (fragmentPack == null) {
-			int[] tmp_ = new int[downPorts.length];
+			int[] tmp_ = new int[downPorts_.length];
 			for (int i=0; i<tmp_.length; i++)
 				tmp_[i] = Integer.MAX_VALUE;
 			return tmp_;
 		}
 		if (fragmentPack.mtu == null
-			|| fragmentPack.mtu.length < downPorts.length)
-			fragmentPack.mtu = __createMTUs(fragmentPack.mtu, downPorts.length);
+			|| fragmentPack.mtu.length < downPorts_.length)
+			fragmentPack.mtu = __createMTUs(fragmentPack.mtu, downPorts_.length);
 		return fragmentPack.mtu;
    	}
 	
@@ -390,14 +448,44 @@ public class PktDispatcher extends Module implements InetCoreConstants
     private void ___DISPATCH___() {}
     //
 
-	protected synchronized void timeout(Object data_)
+	protected void timeout(Object data_)
+	{
+		if (data_ != FRAGMENT_TIMER) return;
+		ArrayList<InetPacket> expired_;
+		if (getComponentFlag(FLAG_CONCURRENT_ENABLED) != 0)
+			synchronized (reassembleLock) {
+				expired_ = _expireFragments();
+			}
+		else
+			synchronized (this) {
+				expired_ = _expireFragments();
+			}
+		if (expired_ != null && isGarbageEnabled())
+			for (int i=0; i<expired_.size(); i++)
+				drop(expired_.get(i), "fragment timed-out");
+	}
+
+	ArrayList<InetPacket> _expireFragments()
 	{
-		reassembleList.remove(data_);
-		if (isGarbageEnabled()) drop(data_, "fragment timed-out");
+		if (fragments == null) return null;
+		long now_ = getTime();
+		ArrayList<InetPacket> expired_ = fragments.expire(now_);
+		fragmentTimer = fragments.size() == 0? null:
+			setTimeout(FRAGMENT_TIMER, fragments.nextTick(now_));
+		return expired_;
 	}
 	
-    protected synchronized void dataArriveAtUpPort(Object data_, 
-					drcl.comp.Port upPort_)
+    protected void dataArriveAtUpPort(Object data_, drcl.comp.Port upPort_)
+	{
+		if (getComponentFlag(FLAG_CONCURRENT_ENABLED) != 0)
+			_dataArriveAtUpPort(data_, upPort_);
+		else
+			synchronized (this) {
+				_dataArriveAtUpPort(data_, upPort_);
+			}
+	}
+
+    void _dataArriveAtUpPort(Object data_, drcl.comp.Port upPort_)
 	{
 		PktSending.Message request_;
 		InetPacket ipkt_;
@@ -426,10 +514,10 @@ public class PktDispatcher extends Module implements InetCoreConstants
 		 * send the buffered data packet on behalf of the original
 		 * applications */
 		if (ipkt_.getProtocol() == 0 /* default value */) {
-			ipkt_.setProtocol(Integer.parseInt(upPort_.getID()));
+			ipkt_.setProtocol(_getPortNumber(upPort_));
 		}
 		////////////////////////////////////////////////////////////////////////
-		ipkt_.setID(seqno++); 
+		ipkt_.setID(SEQNO.getAndIncrement(this)); 
 		ipkt_.setHeaderSize(headerSize);
 
 		// determine source address
@@ -462,20 +550,31 @@ public class PktDispatcher extends Module implements InetCoreConstants
 		}
     }
 
-    protected synchronized void dataArriveAtDownPort(Object data_,
+    protected void dataArriveAtDownPort(Object data_,
 					drcl.comp.Port downPort_)
+	{
+		if (getComponentFlag(FLAG_CONCURRENT_ENABLED) != 0)
+			_dataArriveAtDownPort(data_, downPort_);
+		else
+			synchronized (this) {
+				_dataArriveAtDownPort(data_, downPort_);
+			}
+	}
+
+    void _dataArriveAtDownPort(Object data_, drcl.comp.Port downPort_)
 	{
         InetPacket p_ = (InetPacket) data_;
-		int incomingIf_ = Integer.parseInt(downPort_.getID());
+		int incomingIf_ = _getPortNumber(downPort_);
 
 		if (pktarrival._isEventExportEnabled())
 			pktarrival.exportEvent(EVENT_PKT_ARRIVAL, p_,
 							"from interface " + incomingIf_);
 
 		// switching
+		int[] connectTable_ = connectTable;
 		if (getComponentFlag(FLAG_SWITCH_ENABLED) != 0
-			&& connectTable != null && incomingIf_ < connectTable.length
-			&& connectTable[incomingIf_] >= 0) {
+			&& connectTable_ != null && incomingIf_ < connectTable_.length
+			&& connectTable_[incomingIf_] >= 0) {
 
             // ttl exceeds?
 			int hops_ = p_.getHops() + 1;
@@ -486,20 +585,23 @@ public class PktDispatcher extends Module implements InetCoreConstants
             }
 			else p_.setHops(hops_);
 
-			_forward(p_, connectTable[incomingIf_]);
+			_forward(p_, connectTable_[incomingIf_]);
 			return;
 		}
 		
 		// label switching
+		int[][][] incomingLabelMap_ = incomingLabelMap;
 		if (getComponentFlag(FLAG_LABEL_SWITCH_ENABLED) != 0
-			&& incomingLabelMap != null) {
+			&& incomingLabelMap_ != null) {
 			int incomingLabel_ = p_.getLabel();
 			//System.out.println("IncomingIf = " + incomingIf_
 			//	+ ", Label = " + incomingLabel_ + " for packet " + p_);
-			if (incomingIf_ < incomingLabelMap .length
+			int[][] labels_ = incomingIf_ < incomingLabelMap_.length?
+				incomingLabelMap_[incomingIf_]: null;
+			if (labels_ != null
 				&& incomingLabel_ >= 0
-				&& incomingLabel_ < incomingLabelMap[incomingIf_].length
-				&& incomingLabelMap[incomingIf_][incomingLabel_] != null) {
+				&& incomingLabel_ < labels_.length
+				&& labels_[incomingLabel_] != null) {
 
             	// ttl exceeds?
 				int hops_ = p_.getHops() + 1;
@@ -510,9 +612,8 @@ public class PktDispatcher extends Module implements InetCoreConstants
 				}
 				else p_.setHops(hops_);
 
-				p_.setLabel((short)incomingLabelMap[incomingIf_][
-								incomingLabel_][1]);
-				_forward(p_, incomingLabelMap[incomingIf_][incomingLabel_][0]);
+				p_.setLabel((short)labels_[incomingLabel_][1]);
+				_forward(p_, labels_[incomingLabel_][0]);
 				return;
 			}
 		}
@@ -520,85 +621,46 @@ public class PktDispatcher extends Module implements InetCoreConstants
 		forward(p_, incomingIf_);
     }
 	
+	InetPacket reassemble(long src_, long dest_, InetPacket p_)
+	{
+		if (getComponentFlag(FLAG_CONCURRENT_ENABLED) == 0)
+			return _reassemble(src_, dest_, p_); // under the component lock
+		synchronized (reassembleLock) {
+			return _reassemble(src_, dest_, p_);
+		}
+	}
+
 	// re-asssemble fragments
 	// may do it recursively
 	InetPacket _reassemble(long src_, long dest_, InetPacket p_)
 	{
-		int id_ = p_.getID();
-		int ulp_ = p_.getProtocol();
-		if (reassembleList == null)
-			reassembleList = new LinkedList();
-		InetPacket fragPack_ = null;
-		ACATimer timer_ = null;
-		InetPacket fh_ = null;
-		// linear search for matching fragment info
-		for (Iterator it_ = reassembleList.iterator(); it_.hasNext(); ) { 
-			fh_ = (InetPacket)it_.next();
-			if (fh_.getID() == id_ && fh_.getSource() == src_ 
-				&& fh_.getDestination() == dest_ && fh_.getProtocol() == ulp_) {
-				fragPack_ = fh_;
-				break;
-			}
+		if (fragments == null) {
+			fragments = new FragmentTable();
+			if (isMetricsEnabled())
+				fragments.setMetrics(Metrics.group(toString()));
 		}
-		
-		// first fragment to arrive
-		if (fragPack_ == null) {
-			if (isDebugEnabled() && isDebugEnabledAt(DEBUG_REASSEMBLE))
-				debug("--- first fragment to arrive ---" + p_);
-			Object[] tmp_ = new Object[]{
-							   null /* complete (original) packet */,
-							   new IntSpace(),
-							   setTimeout(fragPack_, getFragmentTTL())
-							   };
-			fragPack_ = new InetPacket(src_, dest_, ulp_, 0, 0, false, 0, id_,
-				0, 0, tmp_, 0); // dont care other fields
-			fragPack_.setPacketSize(0);
-		   		// will know original size when last segment arrives
-			reassembleList.add(fragPack_);
-		}
-		
-		// XXX: should consider body of real data in emulation
-		Object[] tmp_ = (Object[])fragPack_.getBody();
-		IntSpace bitmap_ = (IntSpace)tmp_[1];
-		timer_ = (ACATimer) tmp_[2];
-		int offset_ = p_.getFragmentOffset();
-		int offsetend_ = offset_ + p_.size - p_.headerSize;
-		bitmap_.checkout(offset_, offsetend_);
-		
-		if (offset_ == 0) {// first fragment
-			if (isDebugEnabled() && isDebugEnabledAt(DEBUG_REASSEMBLE))
-				debug("--- 'the first' fragment---" + p_);
-			tmp_[0] = p_.getBody(); // original packet
-		}
-		
-		int originalPktSize_ = fragPack_.size; // encoded here
-		if (!p_.hasMoreFragment()) {// last fragment
-			if (isDebugEnabled() && isDebugEnabledAt(DEBUG_REASSEMBLE))
-				debug("--- 'the last' fragment---" + p_);
-			fragPack_.size = originalPktSize_ = offsetend_;
-		}
-		
-		if (originalPktSize_ > 0 && bitmap_.getSize(0, originalPktSize_) == 0) {
-			if (isDebugEnabled() && isDebugEnabledAt(DEBUG_REASSEMBLE)) {
-				debug("--- last seqment to arrive ---" + p_ + "\n"
-					  + "===== COMPLETE: " + tmp_[0]);
-			}
-			// got all fragments
-			InetPacket completePkt_ = (InetPacket)tmp_[0];
-			// clean up
-			reassembleList.remove(fragPack_);
-			cancelTimeout(timer_);
-			tmp_[0] = tmp_[1] = tmp_[2] = null; fragPack_.setBody(null, 0);
-			if (completePkt_.isFragment()) {
-				if (isDebugEnabled()) debug("FRAGMENT AGAIN!");
-				return _reassemble(completePkt_.getSource(), 
-								completePkt_.getDestination(), completePkt_);
-			}
-			else
-				return completePkt_;
+		if (isDebugEnabled() && isDebugEnabledAt(DEBUG_REASSEMBLE))
+			debug("--- fragment " + p_.getFragmentOffset()
+				+ (p_.hasMoreFragment()? "": ", the last") + " --- " + p_);
+		long now_ = getTime();
+		Object original_ = fragments.add(src_, dest_, p_, now_,
+						getFragmentTTL(), getTimeNanos());
+		if (fragmentTimer == null && fragments.size() > 0)
+			fragmentTimer = setTimeout(FRAGMENT_TIMER,
+							fragments.nextTick(now_));
+		if (original_ == null) return null; // need more fragments
+
+		// got all fragments
+		InetPacket completePkt_ = (InetPacket)original_;
+		if (isDebugEnabled() && isDebugEnabledAt(DEBUG_REASSEMBLE))
+			debug("===== COMPLETE: " + completePkt_);
+		if (completePkt_.isFragment()) {
+			if (isDebugEnabled()) debug("FRAGMENT AGAIN!");
+			return _reassemble(completePkt_.getSource(), 
+							completePkt_.getDestination(), completePkt_);
 		}
 		else
-			return null;
+			return completePkt_;
 	}
 
     /**
@@ -633,7 +695,7 @@ public class PktDispatcher extends Module implements InetCoreConstants
 				while (deliverToLocal_ && complete_ != null
 					&&(complete_.isFragment() ||complete_.isPacketInPacket())) {
 					if (complete_.isFragment())
-						complete_ = _reassemble(src_, dest_, complete_);
+						complete_ = reassemble(src_, dest_, complete_);
 					if (complete_ != null && complete_.isPacketInPacket()) {
 						int vif_ = _pipUnwrap(complete_);
 						if (vif_ < 0) return; // XX: error
@@ -688,8 +750,7 @@ public class PktDispatcher extends Module implements InetCoreConstants
 
 					if (!traceRoute_) {
 						// to up port
-						Port up_ = getPort(Module.PortGroup_UP,
-									String.valueOf(complete_.getProtocol()));
+						Port up_ = _getUpPort(complete_.getProtocol());
 						if (up_ == null) {
 							// dont treat this as error because a router may
 							// broadcast to all neighbors including hosts
@@ -742,14 +803,13 @@ public class PktDispatcher extends Module implements InetCoreConstants
 				// no routing capability, send packets only if there is one 
 				// interface and the packet is from local
 				//Port[] pp_ = getAllPorts(Module.PortGroup_DOWN);
-				if (downPorts == null) createDownPorts();
+				Port[] downPorts_ = _getDownPorts();
 				//if (incomingIf_ < 0 && pp_ != null && pp_.length == 1) {
-				if (incomingIf_ < 0 && downPorts != null && downPorts.length == 1) {
+				if (incomingIf_ < 0 && downPorts_.length == 1) {
 					if (!isFragmentEnabled() || p_.dontFragment())
-						downPorts[0].doLastSending(p_);
+						downPorts_[0].doLastSending(p_);
 					else
-						_fragmentOutput(p_, downPorts[0], 
-									Integer.parseInt(downPorts[0].getID()));
+						_fragmentOutput(p_, downPorts_[0], 0);
 				}
 				else if (!deliverToLocal_)
 					error(p_, "forward(InetPacket, int)", infoPort, 
@@ -769,99 +829,88 @@ public class PktDispatcher extends Module implements InetCoreConstants
 	//{ return rtlookup.anyPeer(); }
 	{ return rt != null; }
 
-	int[] _checkRouteCache(long src_, long dest_, int incomingIf_)
+	RouteCache _getRouteCache()
+	{
+		RouteCache routeCache_ = routeCache;
+		if (routeCache_ != null) return routeCache_;
+		synchronized (this) {
+			if (routeCache == null) routeCache = new RouteCache();
+			return routeCache;
+		}
+	}
+
+	/** Returns the cached interfaces, or null on a miss.
+	 * @param version_ version of the routing table. */
+	int[] _checkRouteCache(long src_, long dest_, int incomingIf_,
+					int version_)
 	{
-		if (routeCache == null || routeCache.cache == null) return null;
+		RouteCache routeCache_ = routeCache;
+		if (routeCache_ == null) return null;
+		RouteCacheEntry[] cache_ = routeCache_.cache;
 
+		// binary search for the first entry to the destination
 		int top_ = 0;
-		int bottom_ = routeCache.cache.size() - 1;
-		// binary search
+		int bottom_ = cache_.length - 1;
 		while (top_ <= bottom_) {
-			int i = (top_ + bottom_) / 2;
-			RouteCacheEntry cache_ = (RouteCacheEntry)routeCache.cache.get(i);
-			if (cache_.dest == dest_) {
-				if (cache_.match(src_, incomingIf_)) {
-					routeCache.routeHitCount ++;
-					return cache_.ifs;
-				}
-				// search up
-				for (ListIterator it_ = routeCache.cache.listIterator(i); 
-					it_.hasPrevious(); ) {
-					if (cache_.dest == dest_) {
-						if (cache_.match(src_, incomingIf_)) {
-							routeCache.routeHitCount ++;
-							return cache_.ifs;
-						}
-					}
-					else
-						break;
-				}
-				// search down
-				for (ListIterator it_ = routeCache.cache.listIterator(i+1);
-					it_.hasNext(); ) {
-					if (cache_.dest == dest_) {
-						if (cache_.match(src_, incomingIf_)) {
-							routeCache.routeHitCount ++;
-							return cache_.ifs;
-						}
-					}
-					else
-						break;
-				}
-				// no cache hit
-				return null;
-			}
-			else if (cache_.dest > dest_)
-				bottom_ = i-1;
-			else
-				top_ = i+1;
+			int i = (top_ + bottom_) >>> 1;
+			if (cache_[i].dest < dest_) top_ = i+1;
+			else bottom_ = i-1;
 		}
+		for (int i=top_; i<cache_.length && cache_[i].dest == dest_; i++)
+			if (cache_[i].version == version_
+				&& cache_[i].match(src_, incomingIf_)) {
+				routeCache_.routeHitCount.increment();
+				return cache_[i].ifs;
+			}
 		return null;
 	}
 
-	void _updateRouteCache(long src_, long dest_, int incomingIf_, int[] ifs_)
+	/** Replaces the route cache with a copy that has the route, dropping
+	 * the entries from older versions of the routing table. */
+	void _updateRouteCache(long src_, long dest_, int incomingIf_, int[] ifs_,
+					int version_)
 	{
-		if (routeCache == null)
-			routeCache = new RouteCache();
-
-		if (routeCache.cache == null) {
-			routeCache.cache = new LinkedList();
-			routeCache.cache.add(new RouteCacheEntry(src_, dest_, incomingIf_, 
-									ifs_));
-			return;
-		}
-
-		int top_ = 0;
-		int bottom_ = routeCache.cache.size() - 1;
-		// binary search
-		int added_ = -1;
-		while (top_ <= bottom_) {
-			int i = (top_ + bottom_) / 2;
-			RouteCacheEntry cache_ = (RouteCacheEntry)routeCache.cache.get(i);
-			if (cache_.dest == dest_) {
-				routeCache.cache.add(i, new RouteCacheEntry(src_, dest_, 
-										incomingIf_, ifs_));
-				added_ = i;
-				break;
+		RouteCache routeCache_ = _getRouteCache();
+		synchronized (routeCache_) {
+			// don't cache a route the routing table has changed since
+			if (routeCache_.CACHE_SIZE <= 0 || version_ != rt.getVersion())
+				return;
+			RouteCacheEntry[] cache_ = routeCache_.cache;
+			int size_ = 0;
+			for (int i=0; i<cache_.length; i++)
+				if (cache_[i].version == version_) size_++;
+			// evict a random entry if full
+			int evicted_ = size_ >= routeCache_.CACHE_SIZE?
+				(int)(Math.random()*size_): -1;
+			RouteCacheEntry new_ = new RouteCacheEntry(src_, dest_, incomingIf_,
+							ifs_, version_);
+			RouteCacheEntry[] tmp_ = new RouteCacheEntry[evicted_ < 0?
+				size_ + 1: size_];
+			int j = 0, k = 0;
+			for (int i=0; i<cache_.length; i++) {
+				if (cache_[i].version != version_ || k++ == evicted_) continue;
+				if (new_ != null && cache_[i].dest >= dest_) {
+					tmp_[j++] = new_;
+					new_ = null;
+				}
+				tmp_[j++] = cache_[i];
 			}
-			else if (cache_.dest > dest_)
-				bottom_ = i-1;
-			else
-				top_ = i+1;
+			if (new_ != null) tmp_[j++] = new_;
+			routeCache_.cache = tmp_;
 		}
-		if (added_ < 0)
-			routeCache.cache.add(top_, new RouteCacheEntry(src_, dest_, 
-									incomingIf_, ifs_));
-		if (routeCache.cache.size() > routeCache.CACHE_SIZE)
-			routeCache.cache.remove((int)(Math.random()*routeCache.CACHE_SIZE));
 	}
 	
 	void _routePacket(InetPacket p_, long src_, long dest_, int incomingIf_, 
 					boolean deliverToLocal_)
 	{
-		if (routeCache != null) routeCache.routeCount ++;
-		int[] ifs_ = getComponentFlag(FLAG_ROUTE_CACHE_ENABLED) != 0?
-			_checkRouteCache(src_, dest_, incomingIf_): null;
+		boolean cacheEnabled_ = getComponentFlag(FLAG_ROUTE_CACHE_ENABLED) != 0;
+		// read before the lookup so that a route changed meanwhile is not
+		// cached as current
+		int version_ = rt.getVersion();
+		RouteCache routeCache_ = routeCache;
+		if (routeCache_ != null) routeCache_.routeCount.increment();
+		int[] ifs_ = cacheEnabled_?
+			_checkRouteCache(src_, dest_, incomingIf_, version_): null;
 
 		// check route cache
 		if (ifs_ == null) {
@@ -880,9 +929,8 @@ public class PktDispatcher extends Module implements InetCoreConstants
 			}
 
 			// update route cache
-			if (ifs_ != null && ifs_.length > 0
-				&& getComponentFlag(FLAG_ROUTE_CACHE_ENABLED) != 0)
-				_updateRouteCache(src_, dest_, incomingIf_, ifs_);
+			if (ifs_ != null && ifs_.length > 0 && cacheEnabled_)
+				_updateRouteCache(src_, dest_, incomingIf_, ifs_, version_);
 		}
 
 		if (ifs_ == null || ifs_.length == 0) {
@@ -894,6 +942,7 @@ public class PktDispatcher extends Module implements InetCoreConstants
 	}
 
 	static final Object FRAGMENT_STRING = "fragment";
+	static final Object FRAGMENT_TIMER = "fragment timer";
 	
     void _fragmentOutput(InetPacket p_, Port out_, int if_)
 	{
@@ -951,26 +1000,54 @@ public class PktDispatcher extends Module implements InetCoreConstants
 		}
 	}
 
-	void createDownPorts()
+	/** Returns the down ports by interface, built into a new array before
+	 * being published so that concurrent readers never see it half
+	 * filled. */
+	Port[] _getDownPorts()
 	{
-		if (downPorts == null) {
-			Port[] tmp_ = getAllPorts(PortGroup_DOWN);
-			try {
-				downPorts = new Port[tmp_.length];
-				for (int i=0; i<tmp_.length; i++)
-					downPorts[Integer.parseInt(tmp_[i].getID())] = tmp_[i];
-			}
-			catch (ArrayIndexOutOfBoundsException e_) {
-				int len_ = 0;
-				for (int i=0; i<tmp_.length; i++) {
-					int if_ = Integer.parseInt(tmp_[i].getID()) + 1;
-					if (len_ < if_) len_ = if_;
-				}
-				downPorts = new Port[len_];
-				for (int i=0; i<tmp_.length; i++)
-					downPorts[Integer.parseInt(tmp_[i].getID())] = tmp_[i];
-			}
+		Port[] downPorts_ = downPorts;
+		if (downPorts_ != null) return downPorts_;
+		Port[] tmp_ = getAllPorts(PortGroup_DOWN);
+		if (tmp_ == null) tmp_ = new Port[0];
+		int len_ = 0;
+		for (int i=0; i<tmp_.length; i++) {
+			int if_ = Integer.parseInt(tmp_[i].getID()) + 1;
+			if (len_ < if_) len_ = if_;
 		}
+		downPorts_ = new Port[len_];
+		for (int i=0; i<tmp_.length; i++)
+			downPorts_[Integer.parseInt(tmp_[i].getID())] = tmp_[i];
+		downPorts = downPorts_;
+		return downPorts_;
+	}
+
+	/** Returns the interface number of a down port or the protocol number
+	 * of an up port. */
+	int _getPortNumber(Port p_)
+	{
+		PortIndex portIndex_ = portIndex;
+		if (portIndex_ == null) portIndex_ = _createPortIndex();
+		Integer n_ = portIndex_.numbers.get(p_);
+		return n_ != null? n_.intValue(): Integer.parseInt(p_.getID());
+	}
+
+	/** Returns the up port of the protocol, null if none. */
+	Port _getUpPort(int protocol_)
+	{
+		PortIndex portIndex_ = portIndex;
+		if (portIndex_ == null) portIndex_ = _createPortIndex();
+		if (protocol_ >= 0 && protocol_ < portIndex_.upPorts.length
+			&& portIndex_.upPorts[protocol_] != null)
+			return portIndex_.upPorts[protocol_];
+		return getPort(Module.PortGroup_UP, String.valueOf(protocol_));
+	}
+
+	PortIndex _createPortIndex()
+	{
+		PortIndex portIndex_ = new PortIndex(getAllPorts(Module.PortGroup_UP),
+						getAllPorts(PortGroup_DOWN));
+		portIndex = portIndex_;
+		return portIndex_;
 	}
 	
     /**
@@ -982,6 +1059,7 @@ public class PktDispatcher extends Module implements InetCoreConstants
         boolean first_ = true;
 		boolean dontFragment_ = !isFragmentEnabled() || p_.dontFragment();
 		boolean routeBack_ = isRouteBackEnabled();
+		Port[] downPorts_ = _getDownPorts();
 
         for (int i = 0; i < ifs_.length; i++) {
 			int if_ = ifs_[i];
@@ -993,10 +1071,9 @@ public class PktDispatcher extends Module implements InetCoreConstants
                 // XX: probably should use an array of down ports for better 
 				// performance like "endPoints" in Link class
                 //Port out_ = getPort(PortGroup_DOWN, String.valueOf(ifs_[i]));
-				if (downPorts == null) createDownPorts();
                 //Port out_ = downPorts[ifs_[i]];
 				//if (out_ == null) {
-				if (if_ >= downPorts.length || downPorts[if_] == null) {
+				if (if_ >= downPorts_.length || downPorts_[if_] == null) {
 					// vif?
 					if (isPIPEnabled()) {
 						//_pipEncapsulate(data_, ifs_[i]);
@@ -1009,10 +1086,10 @@ public class PktDispatcher extends Module implements InetCoreConstants
 				}
 				else if (dontFragment_)
 					//out_.doLastSending(data_);
-					downPorts[if_].doLastSending(data_);
+					downPorts_[if_].doLastSending(data_);
 				else 
 					//_fragmentOutput(data_, out_, ifs_[i]);
-					_fragmentOutput(data_, downPorts[if_], if_);
+					_fragmentOutput(data_, downPorts_[if_], if_);
 				first_ = false;
 			}
 		}
@@ -1022,8 +1099,8 @@ public class PktDispatcher extends Module implements InetCoreConstants
     void _forward(InetPacket p_, int if_)
 	{
 		//Port out_ = getPort(PortGroup_DOWN,	String.valueOf(if_));
-		if (downPorts == null) createDownPorts();
-		if (if_ >= downPorts.length || downPorts[if_] == null) {
+		Port[] downPorts_ = _getDownPorts();
+		if (if_ >= downPorts_.length || downPorts_[if_] == null) {
 		//Port out_ = downPorts[if_];
 		//if (out_ == null) {
 			error(p_, "_forward(InetPacket, int)", infoPort,
@@ -1031,22 +1108,22 @@ public class PktDispatcher extends Module implements InetCoreConstants
 			return;
 		}
 		//out_.doLastSending(p_);
-		downPorts[if_].doLastSending(p_);
+		downPorts_[if_].doLastSending(p_);
     }
 
     /**
       */
     void broadcast(InetPacket p_, int[] excludedIfs_) {
 		//Port[] pp_ = getAllPorts(PortGroup_DOWN);
-		if (downPorts == null) createDownPorts();
+		Port[] downPorts_ = _getDownPorts();
         boolean first_ = true;
 		boolean dontFragment_ = !isFragmentEnabled() || p_.dontFragment();
 		drcl.data.BitSet excludedIfBitSet_ = new drcl.data.BitSet(excludedIfs_);
 
         //for (int i = 0; i < pp_.length; i++) {
-        for (int i = 0; i < downPorts.length; i++) {
+        for (int i = 0; i < downPorts_.length; i++) {
 			//Port out_ = getPort(PortGroup_DOWN,	String.valueOf(i));
-			Port out_ = downPorts[i];
+			Port out_ = downPorts_[i];
             if (out_ != null && !excludedIfBitSet_.get(i)) {
                 InetPacket data_ = first_ ? p_ : (InetPacket)p_.clone();
                 // XX: probably should use an array of down ports for better 
@@ -1174,28 +1251,33 @@ public class PktDispatcher extends Module implements InetCoreConstants
 	/** 
 	 * Sets the switching cross connect table entry at the incoming interface.
 	 */
-	public void setSwitch(int incomingIf_, int outgoingIf_)
+	public synchronized void setSwitch(int incomingIf_, int outgoingIf_)
 	{
-		if (connectTable == null || incomingIf_ >= connectTable.length) {
-			int[] tmp_ = new int[incomingIf_+1];
-			for (int i=0; i<tmp_.length; i++)
-				tmp_[i] = -1;
-			if (connectTable != null)
-				System.arraycopy(connectTable, 0, tmp_, 0, connectTable.length);
-			connectTable = tmp_;
-		}
-		connectTable[incomingIf_] = outgoingIf_;
+		int[] connectTable_ = connectTable;
+		int[] tmp_ = new int[connectTable_ == null
+			|| incomingIf_ >= connectTable_.length?
+			incomingIf_+1: connectTable_.length];
+		for (int i=0; i<tmp_.length; i++)
+			tmp_[i] = -1;
+		if (connectTable_ != null)
+			System.arraycopy(connectTable_, 0, tmp_, 0, connectTable_.length);
+		tmp_[incomingIf_] = outgoingIf_;
+		connectTable = tmp_;
 	}
 
 	/** 
 	 * Removes the switching cross connect table entry at the incoming 
 	 * interface. 
 	 */
-	public void removeSwitch(int incomingIf_)
+	public synchronized void removeSwitch(int incomingIf_)
 	{
 		if (incomingIf_ < 0) return;
-		if (connectTable != null && incomingIf_ < connectTable.length)
-			connectTable[incomingIf_] = -1;
+		int[] connectTable_ = connectTable;
+		if (connectTable_ != null && incomingIf_ < connectTable_.length) {
+			int[] tmp_ = (int[])connectTable_.clone();
+			tmp_[incomingIf_] = -1;
+			connectTable = tmp_;
+		}
 	}
 
 	/** Sets the label switching incoming label map. */
@@ -1206,71 +1288,75 @@ public class PktDispatcher extends Module implements InetCoreConstants
 	public int[][][] getLabelSwitches()
 	{ return incomingLabelMap; }
 
+	// copy of the incoming label map with at least n_ interfaces
+	int[][][] _copyLabelMap(int n_)
+	{
+		int[][][] map_ = incomingLabelMap;
+		int[][][] tmp_ = new int[map_ == null || n_ > map_.length?
+			n_: map_.length][][];
+		if (map_ != null)
+			System.arraycopy(map_, 0, tmp_, 0, map_.length);
+		return tmp_;
+	}
+
 	/**
 	 * Sets the label switching incoming label map entry at the incoming 
 	 * interface. */
-	public void setLabelSwitch(int incomingIf_, int[][] switch_)
+	public synchronized void setLabelSwitch(int incomingIf_, int[][] switch_)
 	{
-		if (incomingLabelMap == null ||incomingIf_ >= incomingLabelMap.length) {
-			int[][][] tmp_ = new int[incomingIf_+1][][];
-			if (incomingLabelMap != null)
-				System.arraycopy(incomingLabelMap, 0, tmp_, 0,
-								incomingLabelMap.length);
-			incomingLabelMap = tmp_;
-		}
-		incomingLabelMap[incomingIf_] = switch_;
+		int[][][] tmp_ = _copyLabelMap(incomingIf_+1);
+		tmp_[incomingIf_] = switch_;
+		incomingLabelMap = tmp_;
 	}
 
 	/**
 	 * Sets the label switching incoming label map entry at the incoming 
 	 * interface and the incoming label. */
-	public void setLabelSwitch(int incomingIf_, int incomingLabel_,
+	public synchronized void setLabelSwitch(int incomingIf_, int incomingLabel_,
 		int outgoingIf_, int outgoingLabel_)
 	{
-		if (incomingLabelMap == null || incomingIf_ >= incomingLabelMap.length){
-			int[][][] tmp_ = new int[incomingIf_+1][][];
-			if (incomingLabelMap != null)
-				System.arraycopy(incomingLabelMap, 0, tmp_, 0, 
-								incomingLabelMap.length);
-			incomingLabelMap = tmp_;
-		}
-		if (incomingLabelMap[incomingIf_] == null
-			|| incomingLabel_ >= incomingLabelMap[incomingIf_].length) {
-			int[][] tmp_ = new int[incomingLabel_+1][];
-			if (incomingLabelMap[incomingIf_] != null)
-				System.arraycopy(incomingLabelMap[incomingIf_], 0, tmp_, 0,
-					incomingLabelMap[incomingIf_].length);
-			incomingLabelMap[incomingIf_] = tmp_;
-		}
-		if (incomingLabelMap[incomingIf_][incomingLabel_] == null)
-			incomingLabelMap[incomingIf_][incomingLabel_] =
-					new int[]{outgoingIf_, outgoingLabel_};
-		else {
-			incomingLabelMap[incomingIf_][incomingLabel_][0] = outgoingIf_;
-			incomingLabelMap[incomingIf_][incomingLabel_][1] = outgoingLabel_;
-		}
+		int[][][] tmp_ = _copyLabelMap(incomingIf_+1);
+		int[][] labels_ = tmp_[incomingIf_];
+		int[][] newLabels_ = new int[labels_ == null
+			|| incomingLabel_ >= labels_.length?
+			incomingLabel_+1: labels_.length][];
+		if (labels_ != null)
+			System.arraycopy(labels_, 0, newLabels_, 0, labels_.length);
+		newLabels_[incomingLabel_] = new int[]{outgoingIf_, outgoingLabel_};
+		tmp_[incomingIf_] = newLabels_;
+		incomingLabelMap = tmp_;
 	}
 
 	/** 
 	 * Removes the label switching incoming label map entry at the incoming 
 	 * interface. */
-	public void removeLabelSwitches(int incomingIf_)
+	public synchronized void removeLabelSwitches(int incomingIf_)
 	{
 		if (incomingIf_ < 0) return;
-		if (incomingLabelMap != null && incomingIf_ < incomingLabelMap.length)
-			incomingLabelMap[incomingIf_] = null;
+		int[][][] map_ = incomingLabelMap;
+		if (map_ != null && incomingIf_ < map_.length) {
+			int[][][] tmp_ = _copyLabelMap(0);
+			tmp_[incomingIf_] = null;
+			incomingLabelMap = tmp_;
+		}
 	}
 
 	/**
 	 * Removes the label switching incoming label map entry at the incoming 
 	 * interface and the incoming label. */
-	public void removeLabelSwitch(int incomingIf_, int incomingLabel_)
+	public synchronized void removeLabelSwitch(int incomingIf_,
+		int incomingLabel_)
 	{
 		if (incomingIf_ < 0 || incomingLabel_ < 0) return;
-		if (incomingLabelMap != null && incomingIf_ < incomingLabelMap.length
-			&& incomingLabelMap[incomingIf_] != null
-			&& incomingLabel_ < incomingLabelMap[incomingIf_].length)
-			incomingLabelMap[incomingIf_][incomingLabel_] = null;
+		int[][][] map_ = incomingLabelMap;
+		if (map_ != null && incomingIf_ < map_.length
+			&& map_[incomingIf_] != null
+			&& incomingLabel_ < map_[incomingIf_].length) {
+			int[][][] tmp_ = _copyLabelMap(0);
+			tmp_[incomingIf_] = (int[][])map_[incomingIf_].clone();
+			tmp_[incomingIf_][incomingLabel_] = null;
+			incomingLabelMap = tmp_;
+		}
 	}
 
 	class FragmentPack
@@ -1297,32 +1383,81 @@ public class PktDispatcher extends Module implements InetCoreConstants
 		}
 	}
 
-	class RouteCache {
+	static final RouteCacheEntry[] EMPTY_CACHE = new RouteCacheEntry[0];
+
+	/** Route cache entries sorted by destination.  The array is replaced,
+	 * never modified, so lookups read it without locking. */
+	static class RouteCache {
 		int CACHE_SIZE = 100;
-		long routeCount = 0;
-		long routeHitCount = 0;
-		LinkedList cache = null;
+		final LongAdder routeCount = new LongAdder();
+		final LongAdder routeHitCount = new LongAdder();
+		volatile RouteCacheEntry[] cache = EMPTY_CACHE;
+
+		String info()
+		{
+			long hit_ = routeHitCount.sum(), count_ = routeCount.sum();
+			return "route cache hit = " + (100.0 * hit_ / count_)
+				+ "% (" + hit_ + "/" + count_ + ")\n";
+		}
 	}
 
-	class RouteCacheEntry {
-		long src, dest;
-		int incomingIf;
-		int[] ifs;
+	static class RouteCacheEntry {
+		final long src, dest;
+		final int incomingIf;
+		final int[] ifs;
+		final int version; // of the routing table the route is from
 
-		RouteCacheEntry(long src_, long dest_, int incomingIf_, int[] ifs_)
+		RouteCacheEntry(long src_, long dest_, int incomingIf_, int[] ifs_,
+						int version_)
 		{
 			src = src_;
 			dest = dest_;
 			incomingIf = incomingIf_;
 			ifs = ifs_;
+			version = version_;
 		}
 
 		boolean match (long src_, int incomingIf_)
 		{ return src == src_ && incomingIf == incomingIf_; }
 	}
-}
-
-
 
+	/** Numbers of the up and down ports, and the up ports by protocol. */
+	static class PortIndex {
+		final IdentityHashMap<Port, Integer> numbers =
+			new IdentityHashMap<Port, Integer>();
+		final Port[] upPorts;
 
+		PortIndex(Port[] up_, Port[] down_)
+		{
+			int len_ = 0;
+			if (up_ != null)
+				for (int i=0; i<up_.length; i++) {
+					int protocol_ = _number(up_[i]);
+					if (protocol_ >= len_ && protocol_ < 1 << 16)
+						len_ = protocol_ + 1;
+				}
+			upPorts = new Port[len_];
+			if (up_ != null)
+				for (int i=0; i<up_.length; i++) {
+					int protocol_ = _number(up_[i]);
+					if (protocol_ >= 0 && protocol_ < len_)
+						upPorts[protocol_] = up_[i];
+				}
+			if (down_ != null)
+				for (int i=0; i<down_.length; i++) _number(down_[i]);
+		}
 
+		// parses and records the number of the port, -1 if not a number
+		int _number(Port p_)
+		{
+			try {
+				Integer n_ = Integer.valueOf(p_.getID());
+				numbers.put(p_, n_);
+				return n_.intValue();
+			}
+			catch (NumberFormatException e_) {
+				return -1;
+			}
+		}
+	}
+}
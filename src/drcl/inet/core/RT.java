@@ -119,10 +119,24 @@ public class RT extends drcl.comp.Component implements InetCoreConstants
 
 	public static final String RADIX_TREE = "radix";
 	public static final String MULTIPLE_FIELD = "multi-field";
+	/**
+	 * Multi-field map plus a {@link drcl.data.MultibitTrie} of the entries
+	 * keyed by destination prefix only, which answers lookups without
+	 * locking or allocating as long as every entry is such.
+	 */
+	public static final String LPM = "lpm";
 	public static String IMPLEMENTATION = MULTIPLE_FIELD;
 	
 	drcl.data.Map map = IMPLEMENTATION == RADIX_TREE?
 		new drcl.data.RadixMap(): new drcl.data.Map();
+	// the trie is not serializable; it is rebuilt from map when read
+	transient drcl.data.MultibitTrie lpm = LPM.equals(IMPLEMENTATION)?
+		new drcl.data.MultibitTrie(): null;
+	boolean lpmEnabled = lpm != null;
+	// # of entries not in lpm; lookups go to map while there is any
+	transient volatile int lpmMisfits = 0;
+	// bumped on every change to the entries; see getVersion()
+	transient volatile int version = 0;
 	Port urtchange = addEventPort(EVENT_RT_UCAST_CHANGED_PORT_ID);
 	Port mrtchange = addEventPort(EVENT_RT_MCAST_CHANGED_PORT_ID);
 
@@ -144,8 +158,14 @@ public class RT extends drcl.comp.Component implements InetCoreConstants
 					_remove(all_[i].getKey(), drcl.data.Map.MATCH_EXACT);
 			}
 		}
-		else if (map != null)
+		else if (map != null) {
 			map.reset(); // remove all entries
+			if (lpm != null) {
+				lpm.clear();
+				lpmMisfits = 0;
+			}
+		}
+		version++;
 	}
 	
 	public void duplicate(Object source_)
@@ -155,6 +175,79 @@ public class RT extends drcl.comp.Component implements InetCoreConstants
 		// duplicate map
 		if (that_.map != null)
 			map = (drcl.data.Map)that_.map.clone();
+		lpmEnabled = that_.lpmEnabled;
+		lpmBuild();
+		version++;
+	}
+
+	private void readObject(java.io.ObjectInputStream in_)
+		throws java.io.IOException, ClassNotFoundException
+	{
+		in_.defaultReadObject();
+		lpmBuild();
+	}
+
+	// builds lpm from map if enabled
+	void lpmBuild()
+	{
+		lpm = lpmEnabled? new drcl.data.MultibitTrie(): null;
+		lpmMisfits = 0;
+		if (lpm != null && map != null) {
+			Object[] entries_ = map.getAllEntries();
+			for (int i=0; i<entries_.length; i++)
+				if (entries_[i] != null) lpmAdd((RTEntry)entries_[i]);
+		}
+	}
+
+	/**
+	 * Returns the version of the route entries, which changes whenever an
+	 * entry is added, modified or removed.  Caches of lookup results, such
+	 * as the route cache in {@link PktDispatcher}, compare it to tell
+	 * whether a cached route is still current.
+	 */
+	public int getVersion()
+	{ return version; }
+
+	/**
+	 * Returns the length of the destination prefix if the key matches on
+	 * the destination only, with a mask of contiguous ones down from bit 31
+	 * (or none) over a 32-bit address; -1 otherwise.
+	 */
+	static int prefixLength(RTKey key_)
+	{
+		if (key_.getSourceMask() != 0 || key_.getIncomingIfMask() != 0)
+			return -1;
+		long mask_ = key_.getDestinationMask();
+		if (mask_ == 0) return 0;
+		int zeros_ = Long.numberOfTrailingZeros(mask_);
+		if (zeros_ >= 32 || mask_ != -1L << zeros_
+			|| key_.getDestination() >>> 32 != 0)
+			return -1;
+		return 32 - zeros_;
+	}
+
+	void lpmAdd(RTEntry entry_)
+	{
+		RTKey key_ = entry_.getKey();
+		int len_ = key_ == null? -1: prefixLength(key_);
+		if (len_ < 0) lpmMisfits++;
+		else lpm.put((int)key_.getDestination(), len_, entry_);
+	}
+
+	void lpmRemove(RTEntry entry_)
+	{
+		RTKey key_ = entry_.getKey();
+		int len_ = key_ == null? -1: prefixLength(key_);
+		if (len_ < 0) lpmMisfits--;
+		else lpm.remove((int)key_.getDestination(), len_);
+	}
+
+	/** Longest match from the trie, valid if all entries are in it. */
+	RTEntry lpmLookup(long dest_)
+	{
+		if (dest_ >>> 32 != 0) // only the default route matches
+			return (RTEntry)lpm.get(0, 0);
+		return (RTEntry)lpm.lookup((int)dest_);
 	}
 	
 	public String info()
@@ -249,7 +342,10 @@ public class RT extends drcl.comp.Component implements InetCoreConstants
 		
 		// look up
 		if (data_ instanceof RTKey) {
-			RTEntry e_ = (RTEntry)get((RTKey)data_, RTConfig.MATCH_LONGEST);
+			RTKey key_ = (RTKey)data_;
+			RTEntry e_ = lpm != null && lpmMisfits == 0?
+				lpmLookup(key_.getDestination()):
+				(RTEntry)get(key_, RTConfig.MATCH_LONGEST);
 			if (e_ == null) inPort_.doLastSending(e_);
 			else inPort_.doLastSending(e_._getOutIfs());
 			return;
@@ -319,8 +415,9 @@ public class RT extends drcl.comp.Component implements InetCoreConstants
 	// the next hop of the packet will be filled
 	public int[] lookup(InetPacket pkt_, long src_, long dest_, int incomingIf_)
 	{
-		RTKey key_ = new RTKey(src_, dest_, incomingIf_);
-		RTEntry e_ = (RTEntry)get(key_, RTConfig.MATCH_LONGEST);
+		RTEntry e_ = lpm != null && lpmMisfits == 0? lpmLookup(dest_):
+			(RTEntry)get(new RTKey(src_, dest_, incomingIf_),
+							RTConfig.MATCH_LONGEST);
 			
 		//debug("pkt " + data_ + " entry " + e_ +" outif "
 		//	+ ((e_ == null) ? "null" : ("" + e_._getOutIfs())));
@@ -426,11 +523,15 @@ public class RT extends drcl.comp.Component implements InetCoreConstants
 				entry_.handle = forkAt(timerPort, key_, newTimeout_);
 			if (entry_.getNextHop() == RTConfig.NEXT_HOP_NO_CHANGE)
 				entry_.setNextHop(drcl.net.Address.NULL_ADDR);
-			if (key_ != null) map.addEntry(key_, entry_);
+			if (key_ != null) {
+				map.addEntry(key_, entry_);
+				if (lpm != null) lpmAdd(entry_);
+			}
 			if (eventEnabled_)
 				_exportEvent(EVENT_RT_ENTRY_ADDED, key_.getDestination(), 
 								entry_, "");
 		}
+		version++;
 	}
 	
 	/** Grafts the interfaces to the entry exactly matched by the given key. */
@@ -477,6 +578,7 @@ public class RT extends drcl.comp.Component implements InetCoreConstants
 				old_._setTimeout(Long.MIN_VALUE);
 			}
 		}
+		version++;
 		// export event
 		if (eventEnabled_ && (changed_ || !outIf_.equals(copy_.getOutIf())))
 			_exportEvent(EVENT_RT_ENTRY_MODIFIED, key_.getDestination(),
@@ -558,10 +660,12 @@ public class RT extends drcl.comp.Component implements InetCoreConstants
 		if (o_ == null) return null;
 		else if (o_ instanceof RTEntry) {
 			RTEntry e_ = (RTEntry)o_;
+			if (lpm != null) lpmRemove(e_);
 			if (e_.handle != null) {
 				cancelFork(e_.handle);
 				e_.handle = null;
 			}
+			version++;
 			return o_;
 		}
 		else {
@@ -569,11 +673,14 @@ public class RT extends drcl.comp.Component implements InetCoreConstants
 			if (oo_.length == 0) return null;
 			RTEntry[] ee_ = new RTEntry[oo_.length];
 			System.arraycopy(oo_, 0, ee_, 0, oo_.length);
-			for (int i=0; i<ee_.length; i++)
+			for (int i=0; i<ee_.length; i++) {
+				if (lpm != null) lpmRemove(ee_[i]);
 				if (ee_[i].handle != null) {
 					cancelFork(ee_[i].handle);
 					ee_[i].handle = null;
 				}
+			}
+			version++;
 			return ee_;
 		}
 	}
@@ -1,37 +1,52 @@
 package drcl.inet.host;
 
 
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
-import drcl.util.TimeLog;
+import drcl.util.queue.LockFreeRing;
 
 
+/**
+ * Fixed set of equally sized byte buffers handed out by index.
+ * Free indices are kept in a {@link LockFreeRing}; {@link #alloc()} parks
+ * briefly instead of spinning when every buffer is in use.
+ */
 public class BufferArray {
 	private byte[][] array;
-	private boolean[] occupied;
 	private int num;
-	private AtomicLong head, tail;
-//	private long idx;
+	private LockFreeRing<Integer> free;
+	private Integer[] ids; // boxed once so release does not allocate
 	
 	public BufferArray(int num, int size){
 		array = new byte[num][size];
-		occupied = new boolean[num];
 		this.num = num;
-		head = new AtomicLong();
-		tail = new AtomicLong(-1);
+		free = new LockFreeRing<Integer>(num);
+		ids = new Integer[num];
+		for(int i=0;i<num;i++){
+			ids[i] = Integer.valueOf(i);
+			free.offer(ids[i]);
+		}
 	}
 	
+	/**
+	 * returns the index of a free buffer, waiting for one to be released if
+	 * necessary
+	 */
 	public int alloc(){
-		int t = (int) tail.get()%num;
-		if((int) head.get()%num == t)
-			while(t == (tail.get()%num));
-		int i = (int) (head.getAndIncrement() % num);
-//		long t = System.nanoTime();
-//		int i = (int) (idx.getAndIncrement() % num);
-//		int i = (int) (idx++ % num);
-//		long t2 = System.nanoTime();
-//		TimeLog.add("0.3. " + (t2-t));
-		return i;
+		Integer i;
+		while((i = free.poll()) == null)
+			LockSupport.parkNanos(this, 10000L);
+		return i.intValue();
+	}
+	
+	/** returns the index of a free buffer, or -1 if all are in use */
+	public int tryAlloc(){
+		Integer i = free.poll();
+		return i == null? -1: i.intValue();
+	}
+	
+	public int size(){
+		return num;
 	}
 	
 //	public int selectBuffer(){
@@ -87,6 +102,6 @@ public class BufferArray {
 	
 	public void releaseBuffer(int i)
 	{
-		tail.incrementAndGet();
+		free.offer(ids[i]);
 	}
 }
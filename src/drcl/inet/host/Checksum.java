@@ -0,0 +1,137 @@
+package drcl.inet.host;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Internet checksum (RFC 1071) over <code>byte[]</code> and
+ * {@link ByteBuffer}.
+ * <p>
+ * The one's complement sum is accumulated 64 bits at a time in a
+ * <code>long</code> and folded to 16 bits once at the end, so there is no
+ * carry test per step. The partial sums returned by the <code>sum</code>
+ * methods can be added together (e.g. a pseudo-header and a segment) before
+ * they are {@link #fold(long) folded}.
+ * When a header field changes, {@link #update(int, int, int)} adjusts the
+ * checksum incrementally (RFC 1624) without visiting the rest of the data.
+ */
+public final class Checksum {
+
+	private Checksum() {}
+
+	/**
+	 * Returns the unfolded one's complement sum of <code>length</code>
+	 * bytes of <code>buf</code> starting at <code>from</code>, taken as
+	 * big-endian 16-bit words; an odd last byte is padded with zero.
+	 */
+	public static long sum(byte[] buf, int from, int length) {
+		// the view lets the JIT read eight bytes at a time; it does not
+		// escape, so it is not allocated
+		return sum(ByteBuffer.wrap(buf), from, length);
+	}
+
+	/**
+	 * Same as {@link #sum(byte[], int, int)} on a buffer; absolute reads,
+	 * so the buffer position is not changed. Works in either byte order.
+	 */
+	public static long sum(ByteBuffer buf, int from, int length) {
+		long sum = 0;
+		int i = from;
+		int end = from + length;
+		for (; i + 8 <= end; i += 8) {
+			long w = buf.getLong(i);
+			sum += (w >>> 32) + (w & 0xFFFFFFFFL);
+		}
+		if (i + 4 <= end) {
+			sum += buf.getInt(i) & 0xFFFFFFFFL;
+			i += 4;
+		}
+		if (i + 2 <= end) {
+			sum += buf.getShort(i) & 0xFFFF;
+			i += 2;
+		}
+		if (buf.order() == ByteOrder.BIG_ENDIAN) {
+			if (i < end)
+				sum += (buf.get(i) & 0xFF) << 8;
+			return sum;
+		}
+		// the sum of little-endian words is the byte-swapped sum (RFC 1071)
+		int s = fold(sum);
+		s = (s >> 8 | s << 8) & 0xFFFF;
+		if (i < end)
+			s += (buf.get(i) & 0xFF) << 8;
+		return s;
+	}
+
+	/** Folds a partial sum to 16 bits, adding the carries back. */
+	public static int fold(long sum) {
+		sum = (sum & 0xFFFFFFFFL) + (sum >>> 32);
+		sum = (sum & 0xFFFF) + (sum >>> 16);
+		sum = (sum & 0xFFFF) + (sum >>> 16);
+		return (int) ((sum & 0xFFFF) + (sum >>> 16));
+	}
+
+	/** Returns the checksum of <code>length</code> bytes of <code>buf</code>
+	 * starting at <code>from</code>. */
+	public static int checksum(byte[] buf, int from, int length) {
+		return ~fold(sum(buf, from, length)) & 0xFFFF;
+	}
+
+	public static int checksum(ByteBuffer buf, int from, int length) {
+		return ~fold(sum(buf, from, length)) & 0xFFFF;
+	}
+
+	/** Returns true if the data, checksum field included, sums to zero. */
+	public static boolean verify(byte[] buf, int from, int length) {
+		return fold(sum(buf, from, length)) == 0xFFFF;
+	}
+
+	public static boolean verify(ByteBuffer buf, int from, int length) {
+		return fold(sum(buf, from, length)) == 0xFFFF;
+	}
+
+	/**
+	 * Returns the partial sum of the IPv4 pseudo-header of a TCP or UDP
+	 * segment of <code>length</code> bytes.
+	 */
+	public static long pseudoHeaderSum(long src, long dest, int protocol,
+					int length) {
+		return (src & 0xFFFFFFFFL) + (dest & 0xFFFFFFFFL)
+			+ (protocol & 0xFF) + (length & 0xFFFF);
+	}
+
+	/**
+	 * Returns the TCP/UDP checksum of the segment of <code>length</code>
+	 * bytes at <code>from</code>, pseudo-header included; the checksum field
+	 * of the segment must be zero.
+	 */
+	public static int transportChecksum(byte[] buf, int from, int length,
+					long src, long dest, int protocol) {
+		return ~fold(sum(buf, from, length)
+			+ pseudoHeaderSum(src, dest, protocol, length)) & 0xFFFF;
+	}
+
+	public static int transportChecksum(ByteBuffer buf, int from, int length,
+					long src, long dest, int protocol) {
+		return ~fold(sum(buf, from, length)
+			+ pseudoHeaderSum(src, dest, protocol, length)) & 0xFFFF;
+	}
+
+	/**
+	 * Returns the checksum after a 16-bit word covered by it changes from
+	 * <code>old</code> to <code>now</code> (RFC 1624, eqn. 3:
+	 * HC' = ~(~HC + ~m + m')).
+	 */
+	public static int update(int checksum, int old, int now) {
+		return ~fold((~checksum & 0xFFFF) + (~old & 0xFFFF) + (now & 0xFFFF))
+			& 0xFFFF;
+	}
+
+	/** Same as {@link #update(int, int, int)} for a 32-bit field, such as
+	 * an address in the pseudo-header. */
+	public static int update32(int checksum, long old, long now) {
+		return ~fold((~checksum & 0xFFFF)
+			+ (~(old >>> 16) & 0xFFFF) + (~old & 0xFFFF)
+			+ ((now >>> 16) & 0xFFFF) + (now & 0xFFFF)) & 0xFFFF;
+	}
+}
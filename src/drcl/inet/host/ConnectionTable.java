@@ -0,0 +1,129 @@
+package drcl.inet.host;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import drcl.util.primitive.LongObjectMap;
+
+/**
+ * Table of the flows carried by one shared {@link MobibedSocket}, keyed by
+ * remote IPv4 address, remote port and local port packed into one long
+ * (see {@link #key(long, int, int)}).
+ * <p>
+ * The flows are kept in a {@link LongObjectMap}, so a lookup allocates
+ * nothing.  The entry hit last is kept aside and checked first without
+ * locking, since packets of the same flow usually come in runs; other
+ * lookups and all updates are synchronized.  Each flow's entry is created
+ * once, by {@link #put(long, Object)}, and is the one kept aside.
+ */
+public final class ConnectionTable<V> {
+
+	/** Entry of a flow; immutable. */
+	static final class Hit<V> {
+		final long key;
+		final V value;
+
+		Hit(long key_, V value_) {
+			key = key_;
+			value = value_;
+		}
+	}
+
+	private final LongObjectMap<Hit<V>> map;
+	private volatile Hit<V> last;
+	private final LongAdder lookups = new LongAdder(), cacheHits = new LongAdder();
+	private long misses; // under the lock
+
+	public ConnectionTable() {
+		this(64);
+	}
+
+	public ConnectionTable(int capacity_) {
+		map = new LongObjectMap<Hit<V>>(capacity_);
+	}
+
+	/** Packs the 4-tuple seen from this host (the local address being the
+	 * socket's) into a key. */
+	public static long key(long remoteAddr_, int remotePort_, int localPort_) {
+		return (remoteAddr_ & 0xffffffffL) << 32
+			| (remotePort_ & 0xffffL) << 16 | (localPort_ & 0xffffL);
+	}
+
+	/** Returns the value of the key, null if none. */
+	public V get(long key_) {
+		lookups.increment();
+		Hit<V> last_ = last;
+		if (last_ != null && last_.key == key_) {
+			cacheHits.increment();
+			return last_.value;
+		}
+		synchronized (this) {
+			Hit<V> hit_ = map.get(key_);
+			if (hit_ == null) {
+				misses++;
+				return null;
+			}
+			last = hit_;
+			return hit_.value;
+		}
+	}
+
+	/** Maps the key to the value, which must not be null, and returns the
+	 * old value. */
+	public synchronized V put(long key_, V value_) {
+		Hit<V> old_ = map.put(key_, new Hit<V>(key_, value_));
+		if (old_ == null) return null;
+		last = null;
+		return old_.value;
+	}
+
+	/** Removes the key and returns its value. */
+	public synchronized V remove(long key_) {
+		last = null;
+		Hit<V> old_ = map.remove(key_);
+		return old_ == null? null: old_.value;
+	}
+
+	/** Removes every key mapped to the value; returns the number removed. */
+	public synchronized int removeValue(V value_) {
+		last = null;
+		int n_ = 0;
+		long[] keys_ = map.keys();
+		for (int i = 0; i < keys_.length; i++)
+			if (map.get(keys_[i]).value == value_) {
+				map.remove(keys_[i]);
+				n_++;
+			}
+		return n_;
+	}
+
+	public synchronized int size()
+	{ return map.size(); }
+
+	public synchronized void clear() {
+		map.clear();
+		last = null;
+	}
+
+	/** Returns the number of lookups. */
+	public long getLookups()
+	{ return lookups.sum(); }
+
+	/** Returns the number of lookups answered by the last-hit entry. */
+	public long getCacheHits()
+	{ return cacheHits.sum(); }
+
+	/** Returns the number of lookups that found nothing. */
+	public synchronized long getMisses()
+	{ return misses; }
+
+	public void resetStatistics() {
+		lookups.reset();
+		cacheHits.reset();
+		synchronized (this) { misses = 0; }
+	}
+
+	public String toString() {
+		return "ConnectionTable[" + size() + " flows, lookups=" + getLookups()
+			+ ", cache hits=" + getCacheHits() + ", misses=" + getMisses() + "]";
+	}
+}
@@ -0,0 +1,224 @@
+package drcl.inet.host;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A small group of event-loop threads, each owning one NIO {@link Selector},
+ * that drive the non-blocking channels of {@link NioMobibedSocket}s.
+ * Sockets are assigned to loops round-robin, so a handful of threads can
+ * serve many connections instead of parking one thread per socket in
+ * <code>DatagramSocket.receive()</code>.
+ * @author andong
+ *
+ */
+public class MobibedSelector {
+
+	/** Default number of event loops: half the cores, at least one, at most four. */
+	public static final int DEFAULT_LOOPS =
+		Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+
+	private static MobibedSelector defaultSelector;
+
+	/** Returns the selector group shared by sockets that are not given one. */
+	public static synchronized MobibedSelector getDefault() {
+		if(defaultSelector == null)
+			defaultSelector = new MobibedSelector(DEFAULT_LOOPS);
+		return defaultSelector;
+	}
+
+	private final Loop[] loops;
+	private final AtomicInteger next = new AtomicInteger();
+
+	public MobibedSelector(int nloops_) {
+		if(nloops_ < 1) nloops_ = 1;
+		loops = new Loop[nloops_];
+		for(int i = 0; i < nloops_; i++)
+			loops[i] = new Loop(i);
+	}
+
+	/** Returns the number of event loops in this group. */
+	public int getNumberOfLoops() {
+		return loops.length;
+	}
+
+	/**
+	 * Registers the socket's channel for reading with one of the loops.
+	 * The registration itself is carried out by the loop thread.
+	 */
+	public void register(NioMobibedSocket socket_) throws IOException {
+		Loop loop_ = loops[(next.getAndIncrement() & 0x7fffffff) % loops.length];
+		socket_.loop = loop_;
+		loop_.register(socket_);
+	}
+
+	/** Closes the socket's channel and drops it from its loop. */
+	public void unregister(NioMobibedSocket socket_) {
+		Loop loop_ = socket_.loop;
+		socket_.loop = null;
+		try {
+			if(socket_.channel != null)
+				socket_.channel.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		if(loop_ != null)
+			loop_.wakeup();
+	}
+
+	/** Stops all event loops; registered channels are left open. */
+	public void shutdown() {
+		for(int i = 0; i < loops.length; i++)
+			loops[i].shutdown();
+	}
+
+	public String info() {
+		StringBuffer sb_ = new StringBuffer();
+		for(int i = 0; i < loops.length; i++)
+			sb_.append("loop " + i + ": " + loops[i].info() + "\n");
+		return sb_.toString();
+	}
+
+	/**
+	 * One event loop: a daemon thread blocked in {@link Selector#select()}
+	 * that hands readable channels to their sockets.
+	 */
+	class Loop implements Runnable {
+		final int index;
+		Selector selector;
+		Thread thread;
+		volatile boolean running;
+		final ConcurrentLinkedQueue<NioMobibedSocket> pending =
+			new ConcurrentLinkedQueue<NioMobibedSocket>();
+		// sockets in batching mode waiting for their send queue to be flushed
+		final ConcurrentLinkedQueue<NioMobibedSocket> flushing =
+			new ConcurrentLinkedQueue<NioMobibedSocket>();
+		long wakeups, reads, flushes;
+
+		Loop(int index_) {
+			index = index_;
+		}
+
+		void register(NioMobibedSocket socket_) throws IOException {
+			synchronized (this) {
+				if(thread == null) {
+					selector = Selector.open();
+					running = true;
+					thread = new Thread(this, "mobibed-selector-" + index);
+					thread.setDaemon(true);
+					thread.start();
+				}
+			}
+			pending.add(socket_);
+			selector.wakeup();
+		}
+
+		/** Asks the loop to flush the socket's send queue no later than
+		 * {@link NioMobibedSocket#flushDeadline}. */
+		void scheduleFlush(NioMobibedSocket socket_) {
+			flushing.add(socket_);
+			selector.wakeup();
+		}
+
+		void wakeup() {
+			if(selector != null)
+				selector.wakeup();
+		}
+
+		void shutdown() {
+			running = false;
+			wakeup();
+		}
+
+		public void run() {
+			while(running) {
+				try {
+					long wait_ = nextFlushDelay();
+					if(wait_ == Long.MAX_VALUE)
+						selector.select();
+					else if(wait_ >= 1000000L)
+						selector.select(wait_ / 1000000L);
+					else {
+						// Selector only has millisecond timeouts
+						if(wait_ > 0)
+							LockSupport.parkNanos(wait_);
+						selector.selectNow();
+					}
+				} catch (IOException e) {
+					e.printStackTrace();
+					break;
+				}
+				wakeups++;
+				registerPending();
+				Iterator<SelectionKey> it_ = selector.selectedKeys().iterator();
+				while(it_.hasNext()) {
+					SelectionKey key_ = it_.next();
+					it_.remove();
+					if(!key_.isValid())
+						continue;
+					NioMobibedSocket socket_ = (NioMobibedSocket) key_.attachment();
+					if(key_.isReadable())
+						reads += socket_.readReady();
+				}
+				if(!flushing.isEmpty())
+					flushDue();
+			}
+			try {
+				selector.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+
+		private void registerPending() {
+			NioMobibedSocket socket_;
+			while((socket_ = pending.poll()) != null) {
+				try {
+					socket_.channel.register(selector, SelectionKey.OP_READ, socket_);
+				} catch (ClosedChannelException e) {
+					// socket was reset before the loop got to it
+				}
+			}
+		}
+
+		/** Returns nanoseconds until the earliest flush deadline. */
+		private long nextFlushDelay() {
+			if(flushing.isEmpty())
+				return Long.MAX_VALUE;
+			long now_ = System.nanoTime();
+			long min_ = Long.MAX_VALUE;
+			for(NioMobibedSocket socket_: flushing) {
+				long d_ = socket_.flushDeadline - now_;
+				if(d_ < min_) min_ = d_;
+			}
+			return min_ < 0? 0: min_;
+		}
+
+		private void flushDue() {
+			long now_ = System.nanoTime();
+			Iterator<NioMobibedSocket> it_ = flushing.iterator();
+			while(it_.hasNext()) {
+				NioMobibedSocket socket_ = it_.next();
+				if(socket_.flushDeadline - now_ > 0)
+					continue;
+				it_.remove();
+				socket_.flushScheduled.set(false);
+				socket_.flush();
+				flushes++;
+			}
+		}
+
+		String info() {
+			return (thread == null? "idle": thread.getName())
+				+ ", channels=" + (selector == null? 0: selector.keys().size())
+				+ ", wakeups=" + wakeups + ", datagrams=" + reads
+				+ ", flushes=" + flushes;
+		}
+	}
+}
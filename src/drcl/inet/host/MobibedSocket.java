@@ -7,9 +7,13 @@ import java.io.InputStreamReader;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.SocketException;
 import java.net.URL;
 import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
 import drcl.comp.ACARuntime;
@@ -27,7 +31,7 @@ import drcl.inet.transport.TCPPacket;
 import drcl.inet.transport.UDPPacket;
 import drcl.inet.transport.Connection;
 import drcl.mobibed.process.MobibedRuntime;
-import drcl.util.TimeLog;
+import drcl.util.LatencyTracer;
 import drcl.util.queue.NonBlockingQueue;
 
 /**
@@ -50,12 +54,81 @@ public class MobibedSocket extends drcl.net.Module
 	
 	
 	protected long localAddr; 
+	/** Coalesces the TCP segments of a received batch, see
+	 * {@link #setReceiveOffloadEnabled(boolean)}. */
+	protected boolean receiveOffload = false;
+	/** Carries the flows of all the transports wired to the up port, see
+	 * {@link #setSharedEnabled(boolean)}. */
+	protected boolean shared = false;
+	/** Flow to the transport's port, in shared mode. */
+	protected final ConnectionTable<Port> connections = new ConnectionTable<Port>();
+	/** Remote socket addresses by destination, in shared mode. */
+	protected final ConnectionTable<InetSocketAddress> destinations =
+		new ConnectionTable<InetSocketAddress>();
+	// transports already in the connection table
+	private final Set<Port> bound =
+		Collections.newSetFromMap(new IdentityHashMap<Port, Boolean>());
+	// wire segments of the super-segment being sent, guarded by segLock
+	private final Object segLock = new Object();
+	private transient InetPacket[] segPkts;
+	private transient int[] segLens;
 	
 	public MobibedSocket(){
 		super();
 	
 	}
 	
+	/**
+	 * Enables receive offload: the packets of a {@link PacketBatch} are
+	 * decoded, back-to-back in-order TCP segments of the same flow are merged
+	 * ({@link PacketBatch#coalesce()}), and the batch is handed up as a whole
+	 * so that the transport above can acknowledge it once.
+	 */
+	public void setReceiveOffloadEnabled(boolean enabled_) {
+		receiveOffload = enabled_;
+	}
+
+	public boolean isReceiveOffloadEnabled() {
+		return receiveOffload;
+	}
+
+	/**
+	 * Enables the shared mode, in which one UDP socket carries the flows of
+	 * all the transports ({@link Connection}s) wired to the up port, all
+	 * using the port of this socket.  Received packets are demultiplexed by
+	 * remote address, remote port and local port through a
+	 * {@link ConnectionTable}; a flow not in the table is bound to the
+	 * transport connected to its remote address and port, or else to one
+	 * not connected to any (e.g. a listening {@link drcl.inet.transport.TCPSink}).
+	 * Packets are sent to the destination address of each packet.
+	 */
+	public void setSharedEnabled(boolean enabled_) {
+		shared = enabled_;
+	}
+
+	public boolean isSharedEnabled() {
+		return shared;
+	}
+
+	/** Removes the flows of the transport from the connection table, e.g.
+	 * after the connection is closed, so that the transport may be bound
+	 * again. */
+	public void unbind(Component transport_) {
+		synchronized(connections){
+			Port[] peers_ = upPort.getPeers();
+			for(int i=0; peers_ != null && i<peers_.length; i++)
+				if(peers_[i].host == transport_){
+					connections.removeValue(peers_[i]);
+					bound.remove(peers_[i]);
+				}
+		}
+	}
+
+	/** Returns the connection table of the shared mode. */
+	public ConnectionTable<Port> getConnections() {
+		return connections;
+	}
+	
 	
 	
 	public void setGlobalAddr(String addr)
@@ -106,6 +179,21 @@ public class MobibedSocket extends drcl.net.Module
 	public MobibedSocket(String id_){
 		super(id_);
 	}
+
+	/** Sets the remote host that outgoing packets are sent to; normally
+	 * picked up from the destination of the first SYN. */
+	public void setRemoteAddress(String addr)
+	{
+		try {
+			remoteIPAddress = InetAddress.getByName(addr);
+		} catch (UnknownHostException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/** Returns the local UDP port, valid once the socket is started. */
+	public int getLocalPort()
+	{ return localPort; }
 	
 	protected DatagramSocket datagramSocket = null; 
 	protected int localPort;
@@ -135,6 +223,13 @@ public class MobibedSocket extends drcl.net.Module
 	protected void setInetPort() {
 		if(!upPort.anyConnection())
 			return;
+		if(shared){
+			Port[] peers_ = upPort.getPeers();
+			for(int i=0; i<peers_.length; i++)
+				if(peers_[i].host instanceof Connection)
+					((Connection)peers_[i].host).setLocalPort(localPort);
+			return;
+		}
 		Component transport = upPort.getInPeers()[0].host;
 		((Connection)transport).setLocalPort(localPort);
 	}
@@ -173,6 +268,11 @@ public class MobibedSocket extends drcl.net.Module
 	
 	protected void forward(InetPacket ipkt_, drcl.comp.Port upPort_){
 		// forward data_ to the Internet
+		boolean retained_ = false;
+		// the packet is identified by its encoding, so the start is recorded
+		// once it is encoded
+		long encodeStart_ = latencyTrace? System.nanoTime(): 0;
+		long traceFlow_ = 0, traceSeq_ = 0;
 		try {
 			
 			if(ipkt_.getSource()==drcl.net.Address.NULL_ADDR)
@@ -189,7 +289,7 @@ public class MobibedSocket extends drcl.net.Module
 			}else if(pkt_ instanceof TCPPacket){
 				remotePort_ = ((TCPPacket) pkt_).getDPort();
 				((TCPPacket) pkt_).setSPort(datagramSocket.getLocalPort());
-				if(((TCPPacket) pkt_).isSYN())
+				if(((TCPPacket) pkt_).isSYN() && !shared)
 				{	// get destination ip address
 					remoteIPAddress = InetAddress.getByAddress
 											(MobibedUtils.LongToByteArray(ipkt_.getDestination()));
@@ -209,14 +309,25 @@ public class MobibedSocket extends drcl.net.Module
 			
 //			long delay = System.nanoTime() - t1;
 //			System.out.println("delay1--------------------"+delay);
-			int len_ = ipkt_.encode(0);
+			int len_ = encode(ipkt_);
+			int segments_ = pkt_ instanceof TCPPacket?
+				((TCPPacket) pkt_).getSegmentCount(): 1;
 			
 //			if(len_ > 1400)
 //				len_ = 1400;
-			DatagramPacket sendPacket = 
-	                new DatagramPacket(ipkt_.getBytes(), len_, remoteIPAddress, remotePort_);
-			System.out.println("send " + System.nanoTime());
-			datagramSocket.send(sendPacket);
+			if(latencyTrace) {
+				traceFlow_ = ipkt_.traceFlow();
+				traceSeq_ = ipkt_.traceSeq();
+				LatencyTracer.record(LatencyTracer.SEND_ENCODE, traceFlow_,
+						traceSeq_, encodeStart_);
+				LatencyTracer.record(LatencyTracer.SEND_WRITE, traceFlow_, traceSeq_);
+			}
+			if(segments_ > 1)
+				retained_ = sendSegments(ipkt_, len_, segments_, remotePort_);
+			else
+				retained_ = send(ipkt_, len_, remotePort_);
+			if(latencyTrace)
+				LatencyTracer.record(LatencyTracer.SEND_DONE, traceFlow_, traceSeq_);
 			
 			
 //				System.out.println(len_);
@@ -224,7 +335,9 @@ public class MobibedSocket extends drcl.net.Module
 				debug("send "+ipkt_);
 			// export sending packet to pcap port
 			if(pcapPort._isEventExportEnabled())
-				pcapPort.exportEvent(PCAP_EVENT, ipkt_.clone(), remoteIPAddress.getHostAddress()+":"+remotePort_+".pcap");
+				pcapPort.exportEvent(PCAP_EVENT, ipkt_.clone(), (shared?
+						destination(ipkt_, remotePort_).getAddress(): remoteIPAddress)
+						.getHostAddress()+":"+remotePort_+".pcap");
 			
 //			delay = System.nanoTime() - t1;
 //			System.out.println("delay2--------------------"+delay);
@@ -239,8 +352,95 @@ public class MobibedSocket extends drcl.net.Module
 			error(ipkt_, "dataArriveAtUpPort", upPort_, "clientSocket send error" + e);
 			e.printStackTrace();
 		} finally{
-			ipkt_.free();
+			if(!retained_)
+				ipkt_.free();
+		}
+	}
+
+	/**
+	 * encodes the packet into its wire buffer
+	 * @return the number of bytes to send
+	 */
+	protected int encode(InetPacket ipkt_) {
+		return ipkt_.encode(0);
+	}
+
+	/**
+	 * writes the first <code>len_</code> bytes of the encoded packet to the
+	 * remote peer
+	 * @return true if the packet is kept for a later flush and will be freed
+	 * by the socket itself
+	 */
+	protected boolean send(InetPacket ipkt_, int len_, int remotePort_)
+		throws IOException {
+		DatagramPacket sendPacket = shared?
+				new DatagramPacket(ipkt_.getBytes(), len_, destination(ipkt_, remotePort_)):
+                new DatagramPacket(ipkt_.getBytes(), len_, remoteIPAddress, remotePort_);
+		datagramSocket.send(sendPacket);
+		return false;
+	}
+
+	/** Returns the remote socket address of the packet in shared mode. */
+	protected InetSocketAddress destination(InetPacket ipkt_, int remotePort_)
+		throws UnknownHostException {
+		long dest_ = ipkt_.getDestination();
+		long key_ = ConnectionTable.key(dest_, remotePort_, 0);
+		InetSocketAddress addr_ = destinations.get(key_);
+		if(addr_ == null){
+			addr_ = new InetSocketAddress(InetAddress.getByAddress(
+					MobibedUtils.LongToByteArray(dest_)), remotePort_);
+			destinations.put(key_, addr_);
 		}
+		return addr_;
+	}
+
+	/**
+	 * Sends a TCP super-segment, already encoded as its first wire segment,
+	 * as <code>n_</code> wire segments; the others are encoded with
+	 * {@link InetPacket#encodeSegment(int, InetPacket)} into packets from
+	 * {@link #newSegment()}. All are encoded before any is sent because
+	 * sending may free the first one, whose headers are the template.
+	 * The segments are held in scratch arrays of this socket, so super-segments
+	 * are sent one at a time.
+	 * @return true if the first segment is kept for a later flush
+	 */
+	protected boolean sendSegments(InetPacket ipkt_, int len_, int n_,
+		int remotePort_) throws IOException {
+		synchronized (segLock) {
+			if(segPkts == null || segPkts.length < n_){
+				segPkts = new InetPacket[n_];
+				segLens = new int[n_];
+			}
+			InetPacket[] segs_ = segPkts;
+			int[] lens_ = segLens;
+			for(int i=1; i<n_; i++){
+				segs_[i] = newSegment();
+				lens_[i] = ipkt_.encodeSegment(i, segs_[i]);
+				segs_[i].setDestination(ipkt_.getDestination());
+			}
+			boolean retained_ = false;
+			int i = 1;
+			try {
+				retained_ = send(ipkt_, len_, remotePort_);
+				for(; i<n_; i++)
+					if(!send(segs_[i], lens_[i], remotePort_))
+						segs_[i].free();
+			} catch (IOException e) {
+				for(; i<n_; i++)
+					segs_[i].free();
+				throw e;
+			} finally {
+				// don't hold on to pooled packets
+				for(int j=1; j<n_; j++)
+					segs_[j] = null;
+			}
+			return retained_;
+		}
+	}
+
+	/** Returns an empty packet to encode a wire segment into. */
+	protected InetPacket newSegment() {
+		return InetPacket.poll();
 	}
 
 	protected void openSocket(){
@@ -272,7 +472,9 @@ public class MobibedSocket extends drcl.net.Module
 				DatagramPacket receivePacket = 
 						new DatagramPacket(bytes, bytes.length);
 				datagramSocket.receive(receivePacket);
-				System.out.println("recv "+System.nanoTime());
+				if(latencyTrace)
+					LatencyTracer.record(LatencyTracer.RECV_READ,
+							pkt.traceFlow(), pkt.traceSeq());
 				pkt.setSource(receivePacket.getAddress());
 				pkt.setPort(receivePacket.getPort());
 				pkt.setPacketSize(receivePacket.getLength());
@@ -295,11 +497,17 @@ public class MobibedSocket extends drcl.net.Module
 		if(data_ instanceof InetPacket){
 //			System.out.println("processing datagramPacket");
 			InetPacket pkt = (InetPacket)data_;
+			long traceFlow_ = latencyTrace? pkt.traceFlow(): 0;
+			long traceSeq_ = latencyTrace? pkt.traceSeq(): 0;
+			if(latencyTrace)
+				LatencyTracer.record(LatencyTracer.RECV_DECODE, traceFlow_, traceSeq_);
 			if(pkt.decode())
 			{
 				if(isDebugEnabled())
 					debug("recv "+ pkt);
-				upPort.doSending(pkt);
+				if(latencyTrace)
+					LatencyTracer.record(LatencyTracer.RECV_UP, traceFlow_, traceSeq_);
+				deliver(pkt, false);
 				
 			}
 			else
@@ -307,7 +515,146 @@ public class MobibedSocket extends drcl.net.Module
 //			System.out.println("array size " + array.length);
 			
 //			System.out.println("buffer size " + buffer.size());
+		}else if(data_ instanceof PacketBatch){
+			// the whole batch is handed up within this task, or passed to
+			// the shards of the flows in sharded mode
+			PacketBatch batch_ = (PacketBatch)data_;
+			boolean sharded_ = isSharded();
+			if(receiveOffload){
+				receiveBatch(batch_);
+				return;
+			}
+			for(int i=0; i<batch_.size(); i++){
+				InetPacket pkt = batch_.get(i);
+				long traceFlow_ = latencyTrace? pkt.traceFlow(): 0;
+				long traceSeq_ = latencyTrace? pkt.traceSeq(): 0;
+				if(latencyTrace)
+					LatencyTracer.record(LatencyTracer.RECV_DECODE, traceFlow_, traceSeq_);
+				if(pkt.decode())
+				{
+					if(isDebugEnabled())
+						debug("recv "+ pkt);
+					if(latencyTrace)
+						LatencyTracer.record(LatencyTracer.RECV_UP, traceFlow_, traceSeq_);
+					deliver(pkt, !sharded_);
+				}
+				else{
+					error(this.name + ": " + "dataArriveAtDownPort InetPacket decode error.", pkt);
+					pkt.free();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Hands a decoded packet up, in the caller's thread if
+	 * <code>sync_</code>; in shared mode to the transport of its flow only.
+	 */
+	protected void deliver(InetPacket pkt, boolean sync_){
+		if(!shared){
+			if(sync_)
+				upPort.doSyncSending(pkt);
+			else
+				upPort.doSending(pkt);
+			return;
+		}
+		Port port_ = demux(pkt);
+		if(port_ == null){
+			error(this.name + ": no connection for packet", pkt);
+			pkt.free();
+		}
+		else if(sync_)
+			port_.doSyncReceiving(pkt);
+		else
+			port_.doReceiving(pkt);
+	}
+
+	/** Returns the port of the transport the packet belongs to, binding
+	 * the flow on first sight; null if none. */
+	protected Port demux(InetPacket pkt){
+		Object body_ = pkt.getBody();
+		int localPort_;
+		if(body_ instanceof TCPPacket)
+			localPort_ = ((TCPPacket)body_).getDPort();
+		else if(body_ instanceof UDPPacket)
+			localPort_ = ((UDPPacket)body_).getDPort();
+		else
+			return null;
+		long remote_ = pkt.getSource();
+		int remotePort_ = pkt.getPort();
+		long key_ = ConnectionTable.key(remote_, remotePort_, localPort_);
+		Port port_ = connections.get(key_);
+		return port_ != null? port_: bind(key_, remote_, remotePort_, localPort_);
+	}
+
+	// looks for the transport of a new flow
+	private Port bind(long key_, long remote_, int remotePort_, int localPort_){
+		synchronized(connections){
+			Port port_ = connections.get(key_);
+			if(port_ != null) return port_;
+			Port[] peers_ = upPort.getPeers();
+			Port free_ = null;
+			for(int i=0; peers_ != null && i<peers_.length; i++){
+				if(!(peers_[i].host instanceof Connection) || bound.contains(peers_[i]))
+					continue;
+				Connection c_ = (Connection)peers_[i].host;
+				if(c_.getLocalPort() != localPort_) continue;
+				if(c_.getRemotePort() == remotePort_ && c_.getPeer() == remote_){
+					port_ = peers_[i];
+					break;
+				}
+				if(free_ == null && (c_.getRemotePort() == 0
+						|| c_.getPeer() == drcl.net.Address.NULL_ADDR))
+					free_ = peers_[i];
+			}
+			if(port_ == null) port_ = free_;
+			if(port_ == null) return null;
+			connections.put(key_, port_);
+			bound.add(port_);
+			ACARuntime runtime_ = getRuntime();
+			if(runtime_ != null)
+				runtime_.pin(port_.host);
+			if(isDebugEnabled())
+				debug("bind " + remotePort_ + "->" + localPort_ + " to " + port_.host);
+			return port_;
+		}
+	}
+
+	boolean isSharded(){
+		ACARuntime runtime_ = getRuntime();
+		return runtime_ != null && runtime_.isSharded();
+	}
+
+	/** Decodes and coalesces the batch and hands it up in one piece. */
+	protected void receiveBatch(PacketBatch batch_){
+		for(int i=0; i<batch_.size(); ){
+			InetPacket pkt = batch_.get(i);
+			if(pkt.decode()){
+				if(isDebugEnabled())
+					debug("recv "+ pkt);
+				i++;
+			}
+			else{
+				error(this.name + ": " + "dataArriveAtDownPort InetPacket decode error.", pkt);
+				batch_.remove(i);
+				pkt.free();
+			}
 		}
+		int merged_ = batch_.coalesce();
+		if(merged_ > 0 && isDebugEnabled())
+			debug("coalesced " + merged_ + " segments, " + batch_);
+		if(batch_.size() == 0)
+			return;
+		if(shared){
+			// may be of different flows
+			boolean sync_ = !isSharded();
+			for(int i=0; i<batch_.size(); i++)
+				deliver(batch_.get(i), sync_);
+		}
+		else if(isSharded())
+			upPort.doSending(batch_);
+		else
+			upPort.doSyncSending(batch_);
 	}
 	
 	
@@ -316,6 +663,16 @@ public class MobibedSocket extends drcl.net.Module
 	public synchronized void reset() {
 		closeSocket();
 		super.reset();
+		synchronized(connections){
+			connections.clear();
+			bound.clear();
+		}
+		destinations.clear();
+	}
+
+	public String info() {
+		return super.info()
+			+ (shared? "shared: " + connections + ", " + destinations + "\n": "");
 	}
 
 	private void closeSocket() {
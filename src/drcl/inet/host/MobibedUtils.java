@@ -5,6 +5,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
 
 public class MobibedUtils {
 	public static byte[] toByteArray(Object obj){
@@ -100,45 +101,20 @@ public class MobibedUtils {
 	   *
 	   * @param buf The message
 	   * @return The checksum
+	   * @see Checksum
 	   */
 	public static long calculateChecksum(byte[] buf, int length) {
-	    int i = 0;
-
-	    long sum = 0;
-	    long data;
-
-	    // Handle all pairs
-	    while (length > 1) {
-	    	// Corrected to include @Andy's edits and various comments on Stack Overflow
-	    	data = (((buf[i] << 8) & 0xFF00) | ((buf[i + 1]) & 0xFF));
-	    	sum += data;
-	    	// 1's complement carry bit correction in 16-bits (detecting sign extension)
-	    	if ((sum & 0xFFFF0000) > 0) {
-	    		sum = sum & 0xFFFF;
-	    		sum += 1;
-	    	}
-
-	    	i += 2;
-	    	length -= 2;
-	    }
-
-	    // Handle remaining byte in odd length buffers
-	    if (length > 0) {
-	    	// Corrected to include @Andy's edits and various comments on Stack Overflow
-	    	sum += (buf[i] << 8 & 0xFF00);
-	    	// 1's complement carry bit correction in 16-bits (detecting sign extension)
-	    	if ((sum & 0xFFFF0000) > 0) {
-	    		sum = sum & 0xFFFF;
-	    		sum += 1;
-	    	}
-	    }
-
-	    // Final 1's complement value correction to 16-bits
-	    sum = ~sum;
-	    sum = sum & 0xFFFF;
-	    return sum;
+		return Checksum.checksum(buf, 0, length);
+	}
 
-	 }
+	/**
+	 * {@link #calculateChecksum(byte[], int)} over <code>length</code> bytes
+	 * of <code>buf</code> starting at <code>from</code>; the buffer position
+	 * is not changed.
+	 */
+	public static long calculateChecksum(ByteBuffer buf, int from, int length) {
+		return Checksum.checksum(buf, from, length);
+	}
 
 	public static byte[] DoubleToByteArray(double aTS) {
 		// TODO Auto-generated method stub
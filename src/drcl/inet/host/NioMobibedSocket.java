@@ -0,0 +1,355 @@
+package drcl.inet.host;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import drcl.inet.DirectBufferPool;
+import drcl.inet.InetPacket;
+import drcl.inet.PacketPool;
+import drcl.util.LatencyTracer;
+
+/**
+ * {@link MobibedSocket} on a non-blocking {@link DatagramChannel}.
+ * Instead of parking a thread in a blocking receive loop, the channel is
+ * registered with a {@link MobibedSelector} whose event loops read incoming
+ * datagrams straight into pooled {@link InetPacket} buffers.
+ * The up/down port contract is the same as {@link MobibedSocket}, so the
+ * transport components above need no change.
+ * <p>
+ * With a batch size larger than one ({@link #setBatchSize(int)}), the socket
+ * runs in batching mode: all datagrams drained in one wakeup are passed down
+ * as one {@link PacketBatch}, and outgoing packets are queued and written in
+ * one flush once the batch is full or the oldest queued packet has waited
+ * {@link #setBatchLatency(long) the latency bound}, whichever comes first.
+ * The event loop enforces the bound, so a socket not registered with one
+ * writes each packet right away.
+ * <p>
+ * With {@link #setDirectBufferEnabled(boolean) direct buffers} enabled,
+ * packets are encoded into and received from pooled off-heap buffers (see
+ * {@link DirectBufferPool}) rather than the packet's heap array. Headers are
+ * written in place and the TCP payload is copied once, from the sending
+ * buffer to the direct buffer, which the channel then hands to the kernel
+ * without another copy.
+ * @author andong
+ *
+ */
+public class NioMobibedSocket extends MobibedSocket {
+
+	private static final long serialVersionUID = 1L;
+
+	/** Maximum number of datagrams read from the channel per wakeup. */
+	public static final int DEFAULT_READ_BUDGET = 64;
+
+	protected DatagramChannel channel;
+	protected MobibedSelector selector;
+	/** The event loop this socket is registered with. */
+	transient MobibedSelector.Loop loop;
+	protected int readBudget = DEFAULT_READ_BUDGET;
+
+	/** Default upper bound (in microseconds) on how long a queued packet
+	 * waits for its batch to be flushed. */
+	public static final long DEFAULT_BATCH_LATENCY = 200;
+
+	protected boolean directBuffer = false;
+	protected int batchSize = 1;
+	protected long batchLatency = DEFAULT_BATCH_LATENCY * 1000L; // ns
+
+	// send queue, guarded by outLock
+	private final Object outLock = new Object();
+	private transient InetPacket[] outPkts;
+	private transient int[] outLens;
+	private transient InetSocketAddress[] outAddrs;
+	private transient int outCount;
+	final AtomicBoolean flushScheduled = new AtomicBoolean();
+	volatile long flushDeadline;
+	long flushes, flushed, dropped;
+
+	// cached remote address for sending
+	private transient InetSocketAddress remote;
+
+	public NioMobibedSocket() {
+		super();
+	}
+
+	public NioMobibedSocket(String id_) {
+		super(id_);
+	}
+
+	/** Sets the selector group to register with; the shared one by default. */
+	public void setSelector(MobibedSelector selector_) {
+		selector = selector_;
+	}
+
+	public MobibedSelector getSelector() {
+		return selector;
+	}
+
+	public void setReadBudget(int budget_) {
+		readBudget = budget_ > 0? budget_: 1;
+	}
+
+	public int getReadBudget() {
+		return readBudget;
+	}
+
+	/** Enables/disables encoding and receiving with direct byte buffers. */
+	public void setDirectBufferEnabled(boolean enabled_) {
+		directBuffer = enabled_;
+	}
+
+	public boolean isDirectBufferEnabled() {
+		return directBuffer;
+	}
+
+	/** Sets the maximum number of datagrams per batch; 1 turns batching off. */
+	public void setBatchSize(int size_) {
+		synchronized (outLock) {
+			flush();
+			batchSize = size_ > 1? size_: 1;
+			outPkts = null;
+		}
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public boolean isBatchingEnabled() {
+		return batchSize > 1;
+	}
+
+	/** Sets the maximum time (in microseconds) a queued outgoing packet
+	 * waits before its batch is flushed. */
+	public void setBatchLatency(long us_) {
+		batchLatency = us_ < 0? 0: us_ * 1000L;
+	}
+
+	public long getBatchLatency() {
+		return batchLatency / 1000L;
+	}
+
+	/**
+	 * opens the channel and hands it to the selector; returns immediately
+	 */
+	public void _start() {
+		setLocalPort();
+		openSocket();
+		if(!SOCKET_ON)
+			return;
+		if(selector == null)
+			selector = MobibedSelector.getDefault();
+		try {
+			selector.register(this);
+			if(isDebugEnabled())
+				debug("NioMobibedSocket is listening on Port " + localPort);
+		} catch (IOException e) {
+			error(this.name + ": register with selector", e);
+			e.printStackTrace();
+		}
+	}
+
+	protected void openSocket() {
+		try {
+			channel = DatagramChannel.open();
+			channel.configureBlocking(false);
+			datagramSocket = channel.socket();
+			datagramSocket.bind(new InetSocketAddress(localPort));
+			if(localPort == 0) {
+				localPort = datagramSocket.getLocalPort();
+				setInetPort();
+			}
+			SOCKET_ON = true;
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	protected int encode(InetPacket ipkt_) {
+		if(!directBuffer)
+			return super.encode(ipkt_);
+		ByteBuffer buf_ = DirectBufferPool.acquire();
+		ipkt_.setDirectBuffer(buf_);
+		return ipkt_.encode(buf_);
+	}
+
+	protected InetPacket newSegment() {
+		if(!directBuffer)
+			return super.newSegment();
+		// the heap array is not used, take one from the small class
+		InetPacket seg_ = InetPacket.poll(PacketPool.SMALL_PKT_LEN);
+		seg_.setDirectBuffer(DirectBufferPool.acquire());
+		return seg_;
+	}
+
+	protected boolean send(InetPacket ipkt_, int len_, int remotePort_)
+		throws IOException {
+		InetSocketAddress to_ = shared? destination(ipkt_, remotePort_):
+			remoteAddress(remotePort_);
+		if(batchSize > 1)
+			return enqueue(ipkt_, len_, to_);
+		channel.send(wireBuffer(ipkt_, len_), to_);
+		return false;
+	}
+
+	/** Returns the encoded bytes of the packet, ready for the channel. */
+	private ByteBuffer wireBuffer(InetPacket ipkt_, int len_) {
+		ByteBuffer buf_ = ipkt_.getDirectBuffer();
+		if(buf_ == null)
+			buf_ = ipkt_.getByteBuffer();
+		buf_.position(0);
+		buf_.limit(len_);
+		return buf_;
+	}
+
+	private InetSocketAddress remoteAddress(int remotePort_) {
+		InetSocketAddress remote_ = remote;
+		if(remote_ == null || remote_.getPort() != remotePort_
+			|| !remoteIPAddress.equals(remote_.getAddress()))
+			remote = remote_ = new InetSocketAddress(remoteIPAddress, remotePort_);
+		return remote_;
+	}
+
+	/** Queues the packet for the next flush, flushing right away if the
+	 * batch is full. */
+	private boolean enqueue(InetPacket ipkt_, int len_, InetSocketAddress to_) {
+		boolean first_;
+		synchronized (outLock) {
+			if(outPkts == null) {
+				outPkts = new InetPacket[batchSize];
+				outLens = new int[batchSize];
+				outAddrs = new InetSocketAddress[batchSize];
+			}
+			outPkts[outCount] = ipkt_;
+			outLens[outCount] = len_;
+			outAddrs[outCount] = to_;
+			if(++outCount == outPkts.length) {
+				flush();
+				return true;
+			}
+			first_ = outCount == 1;
+		}
+		MobibedSelector.Loop loop_ = loop;
+		if(loop_ == null || !loop_.running) {
+			// no event loop to enforce the latency bound: do not hold it
+			flush();
+			return true;
+		}
+		if(first_ && flushScheduled.compareAndSet(false, true)) {
+			flushDeadline = System.nanoTime() + batchLatency;
+			loop_.scheduleFlush(this);
+		}
+		return true;
+	}
+
+	/** Writes all queued packets to the channel and returns them to the pool. */
+	void flush() {
+		synchronized (outLock) {
+			if(outCount == 0)
+				return;
+			flushes++;
+			for(int i = 0; i < outCount; i++) {
+				InetPacket ipkt_ = outPkts[i];
+				InetSocketAddress to_ = outAddrs[i];
+				outPkts[i] = null;
+				outAddrs[i] = null;
+				try {
+					ByteBuffer buf_ = wireBuffer(ipkt_, outLens[i]);
+					if(channel.send(buf_, to_) == 0)
+						dropped++; // socket send buffer is full
+					else
+						flushed++;
+				} catch (IOException e) {
+					dropped++;
+					error(ipkt_, "flush", upPort, "channel send error" + e);
+				} finally {
+					ipkt_.free();
+				}
+			}
+			outCount = 0;
+		}
+	}
+
+	/**
+	 * Called by the event loop when the channel is readable.
+	 * Drains up to {@link #readBudget} datagrams and passes each to the
+	 * down port as {@link MobibedSocket} does.
+	 * @return the number of datagrams read
+	 */
+	int readReady() {
+		int n_ = 0;
+		int batchSize_ = batchSize;
+		boolean direct_ = directBuffer;
+		PacketBatch batch_ = null;
+		try {
+			while(SOCKET_ON && n_ < readBudget) {
+				InetPacket pkt;
+				ByteBuffer buf_;
+				if(direct_) {
+					// the heap array is not used, take one from the small class
+					pkt = InetPacket.poll(PacketPool.SMALL_PKT_LEN);
+					buf_ = DirectBufferPool.acquire();
+					pkt.setDirectBuffer(buf_);
+				}
+				else {
+					pkt = InetPacket.poll();
+					buf_ = pkt.getByteBuffer();
+				}
+				SocketAddress from_ = channel.receive(buf_);
+				if(from_ == null) {
+					pkt.free();
+					break;
+				}
+				if(latencyTrace)
+					LatencyTracer.record(LatencyTracer.RECV_READ,
+							pkt.traceFlow(), pkt.traceSeq());
+				InetSocketAddress addr_ = (InetSocketAddress) from_;
+				pkt.setSource(addr_.getAddress());
+				pkt.setPort(addr_.getPort());
+				pkt.setPacketSize(buf_.position());
+				n_++;
+				if(batchSize_ == 1) {
+					downPort.doReceiving(pkt);
+					continue;
+				}
+				if(batch_ == null)
+					batch_ = new PacketBatch(Math.min(batchSize_, readBudget));
+				batch_.add(pkt);
+				if(batch_.isFull()) {
+					downPort.doReceiving(batch_);
+					batch_ = null;
+				}
+			}
+		} catch (IOException ex) {
+			error(ex.getMessage(), this);
+		}
+		// the channel ran dry: pass on what we have rather than wait
+		if(batch_ != null) {
+			if(batch_.size() == 1)
+				downPort.doReceiving(batch_.get(0));
+			else
+				downPort.doReceiving(batch_);
+		}
+		return n_;
+	}
+
+	public String info() {
+		return super.info()
+			+ "batch size=" + batchSize + ", latency=" + getBatchLatency() + "us"
+			+ ", flushes=" + flushes + ", sent=" + flushed + ", dropped=" + dropped
+			+ ", direct buffers=" + directBuffer
+			+ "\n";
+	}
+
+	@Override
+	public synchronized void reset() {
+		flush();
+		super.reset();
+		if(selector != null)
+			selector.unregister(this);
+		remote = null;
+	}
+}
@@ -0,0 +1,86 @@
+package drcl.inet.host;
+
+import drcl.inet.InetPacket;
+import drcl.inet.transport.TCPPacket;
+
+/**
+ * A group of received datagrams delivered to the socket's down port with a
+ * single task, see {@link NioMobibedSocket#setBatchSize(int)}.
+ * @author andong
+ *
+ */
+public class PacketBatch {
+
+	final InetPacket[] packets;
+	int size;
+
+	public PacketBatch(int capacity_) {
+		packets = new InetPacket[capacity_];
+	}
+
+	public boolean add(InetPacket pkt_) {
+		if(size == packets.length)
+			return false;
+		packets[size++] = pkt_;
+		return true;
+	}
+
+	public InetPacket get(int i) {
+		return packets[i];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Removes the <code>i</code>th packet, keeping the order of the others.
+	 */
+	public void remove(int i) {
+		System.arraycopy(packets, i+1, packets, i, size-i-1);
+		packets[--size] = null;
+	}
+
+	/**
+	 * Receive offload: merges each run of back-to-back, in-order TCP data
+	 * segments of the same flow into the first segment of the run (see
+	 * {@link TCPPacket#coalesce(TCPPacket)}), so that the receiver processes
+	 * and acknowledges the run once.  The packets must be decoded.
+	 * @return the number of packets merged away
+	 */
+	public int coalesce() {
+		int n_ = 0;
+		TCPPacket last_ = null;
+		InetPacket lastPkt_ = null;
+		for(int i=0; i<size; i++){
+			InetPacket pkt_ = packets[i];
+			Object body_ = pkt_.getBody();
+			if(!(body_ instanceof TCPPacket)){
+				packets[n_++] = pkt_;
+				last_ = null;
+				continue;
+			}
+			TCPPacket tcpp_ = (TCPPacket)body_;
+			if(last_ != null && pkt_.getSource() == lastPkt_.getSource()
+					&& pkt_.getDestination() == lastPkt_.getDestination()
+					&& last_.coalesce(tcpp_))
+				continue;
+			packets[n_++] = pkt_;
+			last_ = tcpp_;
+			lastPkt_ = pkt_;
+		}
+		int merged_ = size - n_;
+		for(int i=n_; i<size; i++)
+			packets[i] = null;
+		size = n_;
+		return merged_;
+	}
+
+	public boolean isFull() {
+		return size == packets.length;
+	}
+
+	public String toString() {
+		return "PacketBatch[" + size + "/" + packets.length + "]";
+	}
+}
@@ -0,0 +1,131 @@
+package drcl.inet.transport;
+
+/**
+ * Receive queue of {@link TCPSink}: segments not yet delivered to the
+ * application, sorted by sequence number.
+ * <p>
+ * The segments sit in a ring with their sequence ranges in parallel
+ * <code>long</code> arrays. An in-order segment is appended and the first
+ * segment removed in constant time; a segment filling a hole is placed by
+ * binary search and only the segments after it are moved.
+ * Not synchronized; {@link TCPSink} locks the queue itself.
+ */
+final class ReassemblyQueue {
+
+	private TCPPacket[] pkts;
+	// sequence range of each segment, end exclusive
+	private long[] seqs, ends;
+	private int head, size, mask;
+
+	ReassemblyQueue(int capacity_) {
+		int n_ = 2;
+		while (n_ < capacity_) n_ <<= 1;
+		pkts = new TCPPacket[n_];
+		seqs = new long[n_];
+		ends = new long[n_];
+		mask = n_ - 1;
+	}
+
+	int size()
+	{ return size; }
+
+	boolean isEmpty()
+	{ return size == 0; }
+
+	/** Returns the <code>i</code>th segment in sequence order. */
+	TCPPacket get(int i)
+	{ return pkts[(head + i) & mask]; }
+
+	long getSeq(int i)
+	{ return seqs[(head + i) & mask]; }
+
+	long getEnd(int i)
+	{ return ends[(head + i) & mask]; }
+
+	/**
+	 * Inserts the segment covering [seq_, end_). Queued segments that start
+	 * at or after <code>seq_</code> and are covered by it are freed and
+	 * removed.
+	 */
+	void insert(TCPPacket pkt_, long seq_, long end_) {
+		if (size == 0 || getSeq(size - 1) < seq_) {
+			// in order
+			if (size == pkts.length) grow();
+			int j = (head + size++) & mask;
+			pkts[j] = pkt_;
+			seqs[j] = seq_;
+			ends[j] = end_;
+			return;
+		}
+
+		// first segment starting at or after seq_
+		int lo_ = 0, hi_ = size;
+		while (lo_ < hi_) {
+			int mid_ = (lo_ + hi_) >>> 1;
+			if (getSeq(mid_) < seq_) lo_ = mid_ + 1;
+			else hi_ = mid_;
+		}
+		int pos_ = lo_;
+
+		// drop the segments covered by the new one
+		int w = pos_;
+		for (int r = pos_; r < size; r++) {
+			int j = (head + r) & mask;
+			if (ends[j] <= end_) {
+				pkts[j].free();
+				pkts[j] = null;
+				continue;
+			}
+			if (w != r) move(r, w);
+			w++;
+		}
+		for (int r = w; r < size; r++) pkts[(head + r) & mask] = null;
+		size = w;
+
+		if (size == pkts.length) grow();
+		for (int r = size; r > pos_; r--) move(r - 1, r);
+		int j = (head + pos_) & mask;
+		pkts[j] = pkt_;
+		seqs[j] = seq_;
+		ends[j] = end_;
+		size++;
+	}
+
+	/** Removes the first segment. */
+	void removeFirst() {
+		if (size == 0) return;
+		pkts[head] = null;
+		head = (head + 1) & mask;
+		size--;
+	}
+
+	/** Removes all the segments; they are not freed. */
+	void clear() {
+		for (int i = 0; i < size; i++) pkts[(head + i) & mask] = null;
+		head = size = 0;
+	}
+
+	private void move(int from_, int to_) {
+		int f = (head + from_) & mask, t = (head + to_) & mask;
+		pkts[t] = pkts[f];
+		seqs[t] = seqs[f];
+		ends[t] = ends[f];
+	}
+
+	private void grow() {
+		int n_ = pkts.length << 1;
+		TCPPacket[] pkts_ = new TCPPacket[n_];
+		long[] seqs_ = new long[n_], ends_ = new long[n_];
+		for (int i = 0; i < size; i++) {
+			int j = (head + i) & mask;
+			pkts_[i] = pkts[j];
+			seqs_[i] = seqs[j];
+			ends_[i] = ends[j];
+		}
+		pkts = pkts_;
+		seqs = seqs_;
+		ends = ends_;
+		mask = n_ - 1;
+		head = 0;
+	}
+}
@@ -30,18 +30,17 @@ package drcl.inet.transport;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
-import java.util.Hashtable;
-import java.util.Enumeration;
-import java.util.Iterator;
 import drcl.data.DoubleObj;
 import drcl.comp.*;
 import drcl.comp.lib.bytestream.ByteStreamContract;
 import drcl.util.CircularBuffer;
-import drcl.util.TimeLog;
+import drcl.util.LatencyTracer;
+import drcl.util.primitive.SortedLongDoubleMap;
 import drcl.util.scalar.LongSpace;
 import drcl.util.scalar.LongInterval;
 import drcl.inet.InetPacket;
 import drcl.inet.host.MobibedUtils;
+import drcl.inet.host.PacketBatch;
 import drcl.net.Address;
 
 // dataArriveAtUpPort() -> snd_maxpck() -> snd_packet()
@@ -111,6 +110,16 @@ import drcl.net.Address;
  * <li>To change TTL value, use {@link #setTTL(int)}.
  * <li>To change MSS value, use {@link #setMSS(int)}.
  * <li>To change timer tick, use {@link #setTick(double)}.
+ * <li>To pace the segments instead of sending a window back to back, use
+ * {@link #setPacingEnabled(boolean)}. The rate comes from
+ * {@link TCPCong#pacing_rate(TCP)} if a congestion control module is
+ * installed, from {@link #defaultPacingRate()} otherwise, and can be fixed
+ * with {@link #setPacingRate(long)}. The target and achieved rates are
+ * exported at the "pacing" event port.
+ * <li>To hand several full segments down as one super-segment, which
+ * {@link drcl.inet.host.MobibedSocket} cuts into wire segments, use
+ * {@link #setSegmentationOffloadEnabled(boolean)} and
+ * {@link #setMaxSegmentsPerSend(int)}.
  * </ol>
  * 
  * <p>
@@ -213,6 +222,8 @@ public class TCP extends drcl.inet.Protocol implements TCPConstants,
 	 */
 	protected Port ackPort = addEventPort(ACK_PORT_ID);
 	protected Port cwndCntPort = addEventPort(CWND_CNT_PORT_ID);
+	/** Port to export the target and achieved pacing rates. */
+	protected Port pacingPort = addEventPort(PACING_PORT_ID);
 	protected long peer = Address.NULL_ADDR; // where this connection is
 												// destined
 	protected int localPort;
@@ -296,7 +307,9 @@ public class TCP extends drcl.inet.Protocol implements TCPConstants,
 		double base_rtt = 0.0; // Minimum RTT valus seen
 		int numack = -1; // # of non-duplicate acks after a retransmission
 		int numRetx = 0; // # of retransmissions
-		Hashtable htSentTime = new Hashtable();
+		// seq# -> sent time, purged as acked; guarded by the TCP's monitor
+		// since sending and acks may run in different threads
+		SortedLongDoubleMap htSentTime = new SortedLongDoubleMap();
 		long seqMarked = 0; // seq# of a bit sent, marked as the beginning
 							// of a (RTT) measure period;
 							// the period ends when the seq# is acked
@@ -363,6 +376,23 @@ public class TCP extends drcl.inet.Protocol implements TCPConstants,
 	protected boolean SACK = false; // SACK flag
 	/** True if maxburst restriction is enabled. Default is true. */
 	protected boolean maxburst = false;
+	/** True if segments are paced. Default is false. */
+	protected boolean pacing = false;
+	/** Pacing rate in bytes/second set by {@link #setPacingRate(long)}; 0 if not fixed. */
+	protected long pacingRate = 0;
+	/** Pacing gain over CWND/SRTT when CWND is below half the threshold. */
+	protected double pacingSSGain = 2.0;
+	/** Pacing gain over CWND/SRTT otherwise. */
+	protected double pacingCAGain = 1.2;
+	/** True if full segments are sent as super-segments. Default is false. */
+	protected boolean gso = false;
+	/** Maximum number of segments in a super-segment. */
+	protected int gsoMaxSegments = 16;
+	/** True if the flow keeps metrics in {@link drcl.util.metrics.Metrics}. */
+	protected boolean metricsEnabled = false;
+	transient TCPMetrics metrics = null;
+	transient TCPPacer pacer = new TCPPacer();
+	transient TM_EVT paceEvent = null;
 	/** (Reconstructed) Sequence numbers that the receiver has received. */
 	transient protected LongSpace recvBuffer;
 
@@ -391,6 +421,8 @@ public class TCP extends drcl.inet.Protocol implements TCPConstants,
 		state = CLOSED;
 		notifiedApplication = false;
 		tcp_init();
+		if (metrics != null)
+			metrics.group.reset();
 	}
 
 	public void duplicate(Object source_) {
@@ -400,6 +432,13 @@ public class TCP extends drcl.inet.Protocol implements TCPConstants,
 		MSS = that_.MSS;
 		t_grain = that_.t_grain;
 		implementation = that_.implementation;
+		pacing = that_.pacing;
+		pacingRate = that_.pacingRate;
+		pacingSSGain = that_.pacingSSGain;
+		pacingCAGain = that_.pacingCAGain;
+		gso = that_.gso;
+		gsoMaxSegments = that_.gsoMaxSegments;
+		setMetricsEnabled(that_.metricsEnabled);
 	}
 
 	/** Used to output initial states events. */
@@ -635,6 +674,121 @@ public class TCP extends drcl.inet.Protocol implements TCPConstants,
 		return maxburst;
 	}
 
+	public void setPacingEnabled(boolean pacing_) {
+		pacing = pacing_;
+	}
+
+	public boolean isPacingEnabled() {
+		return pacing;
+	}
+
+	/**
+	 * Fixes the pacing rate (bytes/second). Specify 0 to let the congestion
+	 * control module set the rate.
+	 */
+	public void setPacingRate(long rate_) {
+		pacingRate = rate_;
+	}
+
+	public long getPacingRate() {
+		return pacer.getRate();
+	}
+
+	/** Returns the pacing rate (bytes/second) achieved in the last period. */
+	public long getAchievedPacingRate() {
+		return pacer.getAchievedRate();
+	}
+
+	/**
+	 * Sets the gains over CWND/SRTT of the default pacing rate, in slow start
+	 * (below half the threshold) and otherwise.
+	 */
+	public void setPacingGain(double ssGain_, double caGain_) {
+		pacingSSGain = ssGain_;
+		pacingCAGain = caGain_;
+	}
+
+	/** Sets the largest burst allowed after the sender falls behind its
+	 * pacing schedule, in milliseconds. */
+	public void setPacingQuantum(double ms_) {
+		pacer.setQuantum((long) (ms_ * 1000000.0));
+	}
+
+	/**
+	 * Enables sending up to {@link #getMaxSegmentsPerSend()} full segments
+	 * as one super-segment, which the socket layer cuts into wire segments.
+	 * Not used with Vegas, which keeps the sending time of each segment.
+	 */
+	public void setSegmentationOffloadEnabled(boolean gso_) {
+		gso = gso_;
+	}
+
+	public boolean isSegmentationOffloadEnabled() {
+		return gso;
+	}
+
+	public void setMaxSegmentsPerSend(int n_) {
+		gsoMaxSegments = n_ > 1 ? n_ : 1;
+	}
+
+	public int getMaxSegmentsPerSend() {
+		return gsoMaxSegments;
+	}
+
+	/**
+	 * Enables keeping the window, RTT and progress of this flow as
+	 * {@link drcl.util.metrics.Metrics metrics} in the group named after
+	 * this component.  Unlike the event ports, updating them costs no
+	 * allocation; they are read with the Tcl <code>metrics</code> command or
+	 * sampled to a file.
+	 */
+	public void setMetricsEnabled(boolean enabled_) {
+		if (!enabled_ && metrics != null)
+			drcl.util.metrics.Metrics.remove(metrics.group.getName());
+		metricsEnabled = enabled_;
+		metrics = null;
+	}
+
+	public boolean isMetricsEnabled() {
+		return metricsEnabled;
+	}
+
+	/** Returns the metrics of this flow, created on first use; null if not
+	 * enabled. */
+	TCPMetrics metrics() {
+		if (metrics == null && metricsEnabled)
+			metrics = TCPMetrics.sender(toString());
+		return metrics;
+	}
+
+	/**
+	 * Returns the number of full segments to send at once, out of
+	 * <code>dtlen_</code> bytes; with pacing, at most about one pacing
+	 * quantum of data.
+	 */
+	int segmentsPerSend(long dtlen_) {
+		long n_ = dtlen_ / MSS;
+		if (!gso || implementation == VEGAS || n_ <= 1)
+			return 1;
+		int max_ = gsoMaxSegments;
+		if (pacing && pacer.getRate() > 0)
+			max_ = (int) Math.max(1, Math.min(max_, pacer.getRate()
+					* pacer.getQuantum() / TCPPacer.NANOS_PER_SEC / MSS));
+		return (int) Math.min(n_, max_);
+	}
+
+	/**
+	 * Returns gain * CWND / SRTT in bytes/second, or 0 before the first RTT
+	 * sample.
+	 */
+	public long defaultPacingRate() {
+		if (t_srtt == 0)
+			return 0;
+		double srtt_ = t_srtt * t_grain / (1 << srtt_bits); // ms
+		double gain_ = CWND < (sthld >> 1) ? pacingSSGain : pacingCAGain;
+		return (long) (gain_ * CWND * 1000.0 / srtt_);
+	}
+
 	/** Initializes this TCP component. */
 	protected void tcp_init() {
 		rtt_init();
@@ -644,12 +798,18 @@ public class TCP extends drcl.inet.Protocol implements TCPConstants,
 		sbuffer = new CircularBuffer(wmem);
 		recvBuffer = null;
 		timeoutEvent = null;
+		if (paceEvent != null && paceEvent.timer != null)
+			cancelTimeout(paceEvent.timer);
+		paceEvent = null;
+		pacer.reset();
 		numack = 0;
 		bytesRetx = 0;
 		numTimeouts = 0;
 
 		if (vegas != null) {
-			vegas.htSentTime.clear();
+			synchronized (this) {
+				vegas.htSentTime.clear();
+			}
 			vegas.windowAdjust = VEGAS_INCREASE;
 			vegas.numack = -1;
 			vegas.numRetx = 0;
@@ -738,6 +898,12 @@ public class TCP extends drcl.inet.Protocol implements TCPConstants,
 				&& (t_rttvar >> rttvar_bits != old_rttvar_ >> rttvar_bits))
 			rttvarPort.exportEvent(RTTVAR_EVENT, new DoubleObj(
 					(t_rttvar >> rttvar_bits) * t_grain), null);
+		TCPMetrics m_ = metrics();
+		if (m_ != null) {
+			m_.rtt.record((long) (cur_rtt * 1000.0));
+			m_.srtt.set((t_srtt >> srtt_bits) * t_grain);
+			m_.rttvar.set((t_rttvar >> rttvar_bits) * t_grain);
+		}
 
 		/*
 		 * Current retransmit value is (unscaled) smoothed round trip estimate
@@ -887,9 +1053,19 @@ public class TCP extends drcl.inet.Protocol implements TCPConstants,
 	}
 
 	protected void dataArriveAtDownPort(Object data_, Port downPort_) {
+		if (data_ instanceof PacketBatch) {
+			// from a socket with receive offload; ACKs are not coalesced
+			PacketBatch batch_ = (PacketBatch)data_;
+			for (int i=0; i<batch_.size(); i++)
+				dataArriveAtDownPort(batch_.get(i).getBody(), downPort_);
+			return;
+		}
 		TCPPacket tcppkt_ = null;
 		try {
 			tcppkt_ = (TCPPacket) data_;
+			long traceSeq_ = tcppkt_.getAckNo();
+			if(latencyTrace)
+				LatencyTracer.record(LatencyTracer.TCP_IN, getLocalPort(), traceSeq_);
 			if(tcppkt_.isACK()){
 				switch(state){
 				case SYN_SENT:
@@ -920,13 +1096,13 @@ public class TCP extends drcl.inet.Protocol implements TCPConstants,
 						ack_syn_fin(true, false, true);
 						state = FIN_WAIT_1;
 						resetRXTTimer(getTime(), "FIN_WAIN_1");
-						TimeLog.print();
-						TimeLog.clear();
 					}	
 				}
 			}else{
 				error(data_, "dataArriveAtDownPort()", downPort, "pkt is not an ack");
 			}
+			if(latencyTrace)
+				LatencyTracer.record(LatencyTracer.TCP_OUT, getLocalPort(), traceSeq_);
 		} catch (Exception e_) {
 			e_.printStackTrace();
 			error(data_, "dataArriveAtDownPort()", downPort_,
@@ -992,9 +1168,14 @@ public class TCP extends drcl.inet.Protocol implements TCPConstants,
 			burst = 0;
 			recvDupACK(pkt_);
 		}
-		
 
-		
+		TCPMetrics m_ = metrics();
+		if (m_ != null) {
+			m_.awnd.set((double) AWND / MSS);
+			m_.snd_una.set(snd_una);
+			m_.cwnd.set((double) CWND / MSS);
+			m_.sst.set((double) sthld / MSS);
+		}
 	}
 
 	private void recvDupACK(TCPPacket pkt_) {
@@ -1612,13 +1793,12 @@ public class TCP extends drcl.inet.Protocol implements TCPConstants,
 		if (recvBuffer != null && recvBuffer.numOfLongIntervals() != 0) {
 			// iterates thru the gaps in recvBuffer
 			long dtlen_ = seq_max();
-			for (Iterator<?> it_ = recvBuffer.getGapIterator(snd_nxt); it_
-					.hasNext();) {
-				LongInterval gap_ = (LongInterval) it_.next();
-				if (gap_.end > dtlen_)
+			for (int k = recvBuffer.nextGapIndex(snd_nxt); recvBuffer.hasGap(k); k++) {
+				long gapEnd_ = recvBuffer.getGapEnd(k);
+				if (gapEnd_ > dtlen_)
 					return sacked_out + lost_out;
 				else
-					sacked_out += (gap_.end - gap_.start) / MSS;
+					sacked_out += (gapEnd_ - recvBuffer.getGapStart(k, snd_nxt)) / MSS;
 			}
 		}
 
@@ -1684,6 +1864,12 @@ public class TCP extends drcl.inet.Protocol implements TCPConstants,
 	protected synchronized void timeout(Object evt_) {
 		if(isDebugEnabled() || isDebugEnabledAt(TCPConstants.DEBUG_TIMEOUT)) debug("enter timeout " + evt_);
 		switch (((TM_EVT) evt_).type) {
+		case PACE_EVT:
+			if (paceEvent != evt_)
+				return;
+			paceEvent = null;
+			snd_maxpck("PACE");
+			break;
 		case RXT_EVT:
 			// Check if timeout was being reset or cancelled
 			if (timeoutEvent != evt_) {
@@ -1729,6 +1915,8 @@ public class TCP extends drcl.inet.Protocol implements TCPConstants,
 
 			burst = 0;
 			numTimeouts++;
+			if (metrics() != null)
+				metrics.timeouts.increment();
 			// When timeout occurs, SACK info should be invalidated
 			if (recvBuffer != null)
 				recvBuffer = null;
@@ -1896,6 +2084,9 @@ public class TCP extends drcl.inet.Protocol implements TCPConstants,
 		if(isDebugEnabled())debug("snd_maxpck " + debugMsg_);
 		if (snd_nxt < snd_una)
 			snd_nxt = snd_una;
+		if (pacing)
+			pacer.setRate(pacingRate > 0 ? pacingRate
+					: ca != null ? ca.pacing_rate(this) : defaultPacingRate());
 		if (!SACKRecoveryNeeded()) 
 		{
 			// the length of sending data based on current window
@@ -1917,10 +2108,13 @@ public class TCP extends drcl.inet.Protocol implements TCPConstants,
 						+ ", sending_buffer:" + sbuffer);
 			// segement sending data into sequential sending processes
 			while (dtlen_ > 0) {
+				if (pacing && !pace())
+					return;
 				if (dtlen_ >= MSS) {
-					snd_packet(snd_nxt, MSS);
-					snd_nxt += MSS;
-					dtlen_ -= MSS;
+					int size_ = segmentsPerSend(dtlen_) * MSS;
+					snd_packet(snd_nxt, size_);
+					snd_nxt += size_;
+					dtlen_ -= size_;
 					// packets_out ++;
 				} else {
 					// send fragment only when no new data buffered
@@ -1953,18 +2147,19 @@ public class TCP extends drcl.inet.Protocol implements TCPConstants,
 				return;
 			}
 
-			for (Iterator<?> it_ = recvBuffer.getGapIterator(snd_nxt); it_
-					.hasNext();) {
-				LongInterval gap_ = (LongInterval) it_.next();
-				if (gap_.end > dtlen_) {
+			long from_ = snd_nxt;
+			for (int k = recvBuffer.nextGapIndex(from_); recvBuffer.hasGap(k); k++) {
+				long gapStart_ = recvBuffer.getGapStart(k, from_);
+				long gapEnd_ = recvBuffer.getGapEnd(k);
+				if (gapEnd_ > dtlen_) {
 					// have sent all missing segments
 					if (snd_nxt < snd_nxt_marked)
 						snd_nxt = snd_nxt_marked;
 					snd_maxpck("recursive");
 					return;
 				}
-				while (gap_.start < gap_.end) {
-					int len_ = (int) (gap_.end - gap_.start);
+				while (gapStart_ < gapEnd_) {
+					int len_ = (int) (gapEnd_ - gapStart_);
 					if (len_ > MSS)
 						len_ = MSS;
 					if (maxburst && burst >= restriction_) {
@@ -1973,13 +2168,13 @@ public class TCP extends drcl.inet.Protocol implements TCPConstants,
 										|| isDebugEnabledAt(DEBUG_SEND) || isDebugEnabledAt(DEBUG_SACK)))
 							debug(debugMsg_
 									+ ": maxburst_restrict, can only send upto "
-									+ (gap_.start / MSS) + "/" + gap_.start);
+									+ (gapStart_ / MSS) + "/" + gapStart_);
 						return;
 					}
-					snd_packet(gap_.start, len_);
+					snd_packet(gapStart_, len_);
 					this.retrans_out++;
-					gap_.start += len_;
-					snd_nxt = gap_.start;
+					gapStart_ += len_;
+					snd_nxt = gapStart_;
 				}
 			}
 		}
@@ -2004,12 +2199,16 @@ public class TCP extends drcl.inet.Protocol implements TCPConstants,
 				getAvailableRcvBuffer() >> wind_scal/* advwin */,
 				false/* ack */, false/* syn */, false/* fin */, now_, 
 				-1000/* aTS */, NS_COMPATIBLE ? 20 : 32, size_, payload);
+		if (size_ > MSS)
+			pkt_.setSegmentSize(MSS); // super-segment
 
 		if(drcl.ruv.System.SYNC)
 			syncForward(pkt_, getLocalAddr(), peer, DEFAULT_PID, false, TTL, 0);
 		else
 			forward(pkt_, getLocalAddr(), peer, DEFAULT_PID, false, TTL, 0);
 		burst += size_;	
+		if (pacing)
+			paced(size_);
 
 		
 		if (implementation == VEGAS) {
@@ -2040,7 +2239,9 @@ public class TCP extends drcl.inet.Protocol implements TCPConstants,
 
 			// For vegas retransmission mechanism:
 			// 1. record sending time
-			vegas.htSentTime.put(new Long(seqno_), new Double(now_));
+			synchronized (this) {
+				vegas.htSentTime.put(seqno_, now_);
+			}
 			// 2. start to count effective acks after a retx
 			if (rxt_)
 				vegas.numack = 0;
@@ -2052,6 +2253,15 @@ public class TCP extends drcl.inet.Protocol implements TCPConstants,
 //		System.out.println("tcp:send------------" + seqno_);
 		if (rxt_)
 			bytesRetx += size_;	
+		TCPMetrics m_ = metrics();
+		if (m_ != null) {
+			m_.bytesSent.add(size_);
+			if (rxt_)
+				m_.bytesRetx.add(size_);
+			m_.seq.set(seqno_ + size_);
+			m_.cwnd.set((double) CWND / MSS);
+			m_.sst.set((double) sthld / MSS);
+		}
 		if (isDebugEnabled()
 				&& (isDebugEnabledAt(DEBUG_SAMPLE) || isDebugEnabledAt(DEBUG_SEND)))
 			debug((rxt_ ? "RESending" : "Sending") + ": SeqNo="
@@ -2059,6 +2269,35 @@ public class TCP extends drcl.inet.Protocol implements TCPConstants,
 
 	}
 
+	/**
+	 * Returns true if the pacing schedule lets a segment go now; otherwise
+	 * arms the pacing timer to send again when the next segment is due.
+	 */
+	protected boolean pace() {
+		long now_ = getTimeNanos();
+		if (pacer.canSend(now_))
+			return true;
+		if (paceEvent == null) {
+			long delay_ = (pacer.delay(now_) + 999999L) / 1000000L; // ms
+			paceEvent = new TM_EVT(PACE_EVT, delay_);
+			paceEvent.timer = setTimeout(paceEvent, delay_);
+		}
+		return false;
+	}
+
+	/** Advances the pacing schedule and exports the rates once per SRTT. */
+	void paced(int size_) {
+		long now_ = getTimeNanos();
+		pacer.sent(size_, now_);
+		long srtt_ = (long) (t_srtt * t_grain / (1 << srtt_bits) * 1000000.0);
+		if (pacer.measure(now_, srtt_) && pacingPort._isEventExportEnabled()) {
+			pacingPort.exportEvent(PACING_TARGET_EVENT, new DoubleObj(
+					(double) pacer.getRate()), null);
+			pacingPort.exportEvent(PACING_ACHIEVED_EVENT, new DoubleObj(
+					(double) pacer.getAchievedRate()), null);
+		}
+	}
+
 	/** Resets the retransmission timer. */
 	protected void resetRXTTimer(long delay, String debugMsg) {
 		if(isDebugEnabled() || isDebugEnabledAt(TCPConstants.DEBUG_TIMEOUT))
@@ -2080,24 +2319,26 @@ public class TCP extends drcl.inet.Protocol implements TCPConstants,
 			}
 		} else {
 			if (snd_una >= dt_max) { // all sent packets are ack'ed
-				if (timeoutEvent.timer != null)
-					cancelTimeout(timeoutEvent.timer);
 				if(snd_una == 0){
 					// set timer for 1st data packet.
 					timeoutEvent.timeout = delay;
-					timeoutEvent.timer = setTimeout(timeoutEvent, delay);
+					timeoutEvent.timer = resetTimeout(timeoutEvent.timer, timeoutEvent, delay);
 					if (isDebugEnabled() && isDebugEnabledAt(DEBUG_TIMEOUT))
 						debug("RESET_RXT_TIMER: create one for 1st data packet at " + (getTime() + delay));
 				}else{
+					if (timeoutEvent.timer != null)
+						cancelTimeout(timeoutEvent.timer);
 					timeoutEvent = null; // cancel the timer
 					if (isDebugEnabled() && isDebugEnabledAt(DEBUG_TIMEOUT))
 						debug("RESET_RXT_TIMER: cancel timeout");
 				}
 			} else { // reset timeout
+				// re-arm in place; the new event object makes a timeout
+				// that has already fired see itself as stale
 				long time_ = rxt_timer(backoff);
-				cancelTimeout(timeoutEvent.timer);
+				ACATimer timer_ = timeoutEvent.timer;
 				timeoutEvent = new TM_EVT(RXT_EVT, time_);
-				setTimeout(timeoutEvent, timeoutEvent.timeout);
+				timeoutEvent.timer = resetTimeout(timer_, timeoutEvent, time_);
 				if (isDebugEnabled() && isDebugEnabledAt(DEBUG_TIMEOUT))
 					debug("RESET_RXT_TIMER: adjust timeout to " + (getTime() + time_));
 //				if (timeoutEvent.timer != null
@@ -2362,7 +2603,7 @@ public class TCP extends drcl.inet.Protocol implements TCPConstants,
 						+ vegas.bytesSent
 						+ "\n"
 						+ "       recorded sent_time = "
-						+ vegas.htSentTime
+						+ vegasSentTimes()
 						+ "\n" : "");
 	}
 
@@ -2371,18 +2612,24 @@ public class TCP extends drcl.inet.Protocol implements TCPConstants,
 				+ "           MSS = " + MSS + "\n" + "       MAXCWND = "
 				+ MAXCWND + "\n" + "          AWND = " + AWND + "\n"
 				+ "          SACK = " + SACK + "\n" + "      maxburst = "
-				+ maxburst + "\n" + "          Peer = " + peer + "\n";
+				+ maxburst + "\n" + "        pacing = " + pacing
+				+ (pacing ? " (" + pacer + ")" : "") + "\n"
+				+ "           GSO = " + gso
+				+ (gso ? " (" + gsoMaxSegments + " segments)" : "") + "\n"
+				+ "          Peer = " + peer + "\n";
+	}
+
+	synchronized String vegasSentTimes() {
+		return vegas.htSentTime.toString();
 	}
 
 	void vegas_handleAck(long ackseq_, boolean considerRetx_, long now_) {
-		double sentTime_ = Double.NaN; // sent time of "ackseq_"
-		// purge the records with seq# < ackseq_
-		for (Enumeration e_ = vegas.htSentTime.keys(); e_.hasMoreElements();) {
-			Long seq_ = (Long) e_.nextElement();
-			if (seq_.longValue() < ackseq_)
-				vegas.htSentTime.remove(seq_);
-			else if (considerRetx_ && seq_.longValue() == ackseq_)
-				sentTime_ = ((Double) vegas.htSentTime.get(seq_)).doubleValue();
+		double sentTime_; // sent time of "ackseq_"
+		synchronized (this) {
+			// purge the records with seq# < ackseq_
+			vegas.htSentTime.removeBelow(ackseq_);
+			sentTime_ = considerRetx_? vegas.htSentTime.get(ackseq_):
+				Double.NaN;
 		}
 
 		// FIXME: use srtt?
@@ -11,6 +11,14 @@ public abstract class TCPCong {
 	public abstract int undo_cwnd(TCP tp);
 	public abstract void pkts_acked(TCP tp, long snd_una, double rtt_us);
 	public abstract void register();
+
+	/**
+	 * Returns the rate (bytes/second) at which a paced sender spreads its
+	 * segments; 0 for no pacing. Defaults to {@link TCP#defaultPacingRate()}.
+	 */
+	public long pacing_rate(TCP tp){
+		return tp.defaultPacingRate();
+	}
 	
 	public boolean tcp_is_cwnd_limited(TCP tp, int in_flight){
 		int left;
@@ -51,6 +51,8 @@ public interface TCPConstants
 	/** Port ID of the sequence number received event port. */
 	public static final String SEQNO_RCV_PORT_ID = "seqno_rcv";
 	public static final String CWND_CNT_PORT_ID = "cwnd_cnt";
+	/** Port ID of the pacing rate event port. */
+	public static final String PACING_PORT_ID = "pacing";
 	
 	public static final String CWND_CNT_EVENT = "cwnd_cnt";
 	/** Name of the congestion window changed event. */
@@ -71,6 +73,10 @@ public interface TCPConstants
 	public static final String SEQNO_RCV_EVENT = "Seq# Received";
 	/** Name of the sequence number received event. */
 	public static final String ACK_EVENT = "Ack#";
+	/** Name of the target pacing rate event (bytes/second). */
+	public static final String PACING_TARGET_EVENT = "Pacing target";
+	/** Name of the achieved pacing rate event (bytes/second). */
+	public static final String PACING_ACHIEVED_EVENT = "Pacing achieved";
 
 	/** Retransmission timeout event ID. */
 	public static final int RXT_EVT = 0;
@@ -78,8 +84,10 @@ public interface TCPConstants
 	public static final int RTT_EVT = 1;
 	/** The delay ACK timeout event ID. */
 	public static final int DELAY_ACK = 2;
+	/** The pacing timeout event ID. */
+	public static final int PACE_EVT = 3;
 	public static final String[] TIMEOUT_TYPES =
-		{"rxt", "vegas_rtt", "delay_ack"};
+		{"rxt", "vegas_rtt", "delay_ack", "pace"};
 	
 	/* * Number of duplicate ACKs to trigger fast RXT as specified in [RFC2581]
 	 * (for Reno, Tahoe). * /
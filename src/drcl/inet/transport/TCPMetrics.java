@@ -0,0 +1,58 @@
+package drcl.inet.transport;
+
+import drcl.util.metrics.Counter;
+import drcl.util.metrics.Gauge;
+import drcl.util.metrics.Histogram;
+import drcl.util.metrics.MetricGroup;
+import drcl.util.metrics.Metrics;
+
+/**
+ * Metrics of a {@link TCP} or {@link TCPSink} flow, in the group named after
+ * the component.  Windows are in segments and SRTT/RTTVAR in the units of
+ * the corresponding events; the RTT histogram is in microseconds.
+ */
+final class TCPMetrics {
+
+	final MetricGroup group;
+	// sender
+	Gauge cwnd, sst, awnd, srtt, rttvar, snd_una, seq;
+	Counter bytesSent, bytesRetx, timeouts;
+	Histogram rtt;
+	// receiver
+	Gauge rcv_nxt;
+	Counter bytesRecv, segsRecv, outOfOrder, duplicates;
+
+	private TCPMetrics(String name_)
+	{ group = Metrics.group(name_); }
+
+	static TCPMetrics sender(String name_)
+	{
+		TCPMetrics m_ = new TCPMetrics(name_);
+		MetricGroup g_ = m_.group;
+		m_.cwnd = g_.gauge("cwnd");
+		m_.sst = g_.gauge("sst");
+		m_.awnd = g_.gauge("awnd");
+		m_.srtt = g_.gauge("srtt");
+		m_.rttvar = g_.gauge("rttvar");
+		m_.snd_una = g_.gauge("snd_una");
+		m_.seq = g_.gauge("seq");
+		m_.bytesSent = g_.counter("bytes_sent");
+		m_.bytesRetx = g_.counter("bytes_retx");
+		m_.timeouts = g_.counter("timeouts");
+		m_.rtt = g_.histogram("rtt_us");
+		return m_;
+	}
+
+	static TCPMetrics receiver(String name_)
+	{
+		TCPMetrics m_ = new TCPMetrics(name_);
+		MetricGroup g_ = m_.group;
+		m_.rcv_nxt = g_.gauge("rcv_nxt");
+		m_.awnd = g_.gauge("awnd");
+		m_.bytesRecv = g_.counter("bytes_recv");
+		m_.segsRecv = g_.counter("segs_recv");
+		m_.outOfOrder = g_.counter("out_of_order");
+		m_.duplicates = g_.counter("duplicates");
+		return m_;
+	}
+}
@@ -0,0 +1,96 @@
+package drcl.inet.transport;
+
+/**
+ * Release schedule of the segments of a paced {@link TCP} sender.
+ * <p>
+ * Each segment of <i>n</i> bytes pushes the release time of the next one
+ * <i>n</i>/rate later, kept in nanoseconds. The runtime timers only have
+ * millisecond resolution, so a sender woken up late sends every segment
+ * that has become due; to bound the burst after an idle period the
+ * schedule never lags more than {@link #getQuantum() one quantum} behind
+ * the clock.
+ * <p>
+ * The pacer also measures the rate it achieves over periods of at least
+ * one quantum so that it can be compared with the target rate.
+ * Not synchronized; {@link TCP} calls it from its own locked methods.
+ */
+final class TCPPacer {
+
+	static final long NANOS_PER_SEC = 1000000000L;
+
+	/** Target rate in bytes per second; not pacing if not positive. */
+	private long rate;
+	/** Earliest release time of the next segment, if <code>started</code>. */
+	private long next;
+	private boolean started;
+	/** Largest lag of the schedule behind the clock, in nanoseconds;
+	 * two ticks of the runtime's timing wheel by default. */
+	private long quantum = 2000000L;
+
+	// achieved rate
+	private long periodStart = -1, periodBytes;
+	private long achieved;
+
+	long getRate()
+	{ return rate; }
+
+	void setRate(long rate_)
+	{ rate = rate_; }
+
+	long getQuantum()
+	{ return quantum; }
+
+	void setQuantum(long nanos_)
+	{ quantum = nanos_; }
+
+	/** Returns true if a segment may be sent at <code>now_</code>. */
+	boolean canSend(long now_) {
+		return rate <= 0 || !started || next - now_ <= 0;
+	}
+
+	/** Returns the nanoseconds until the next segment may be sent. */
+	long delay(long now_) {
+		return rate <= 0 || !started? 0: Math.max(next - now_, 0);
+	}
+
+	/** Records a segment of <code>size_</code> bytes sent at <code>now_</code>. */
+	void sent(int size_, long now_) {
+		if (rate > 0) {
+			if (!started || now_ - next > quantum) next = now_ - quantum;
+			started = true;
+			next += size_ * NANOS_PER_SEC / rate;
+		}
+		if (periodStart < 0) periodStart = now_;
+		periodBytes += size_;
+	}
+
+	/**
+	 * Closes the measurement period if it has lasted at least
+	 * <code>period_</code> nanoseconds.
+	 * Returns true if {@link #getAchievedRate()} has been updated.
+	 */
+	boolean measure(long now_, long period_) {
+		if (periodStart < 0) return false;
+		long elapsed_ = now_ - periodStart;
+		if (elapsed_ < Math.max(period_, quantum)) return false;
+		achieved = periodBytes * NANOS_PER_SEC / elapsed_;
+		periodStart = now_;
+		periodBytes = 0;
+		return true;
+	}
+
+	/** Returns the rate (bytes per second) of the last measurement period. */
+	long getAchievedRate()
+	{ return achieved; }
+
+	void reset() {
+		started = false;
+		periodStart = -1;
+		periodBytes = 0;
+		achieved = 0;
+	}
+
+	public String toString() {
+		return "target=" + rate + "B/s, achieved=" + achieved + "B/s";
+	}
+}
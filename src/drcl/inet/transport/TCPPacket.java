@@ -30,6 +30,8 @@ package drcl.inet.transport;
 
 import com.sun.org.apache.regexp.internal.RE;
 
+import java.nio.ByteBuffer;
+
 import drcl.inet.InetPacket;
 import drcl.inet.host.MobibedUtils;
 import drcl.net.Packet;
@@ -82,6 +84,10 @@ public class TCPPacket extends Packet
 	public static int scale = 7; // window scale (send with SYN)
 	public int mss;
 	private InetPacket ipkt; 
+	/** Payload bytes per wire segment of a super-segment; 0 for a plain one. */
+	private int segmentSize;
+	/** Segments coalesced into this one on receipt, freed with it. */
+	private TCPPacket merged, mergedLast;
 	
 	
 
@@ -99,6 +105,8 @@ public class TCPPacket extends Packet
 		LEblk = null;
 		REblk = null;
 		ipkt = null;
+		segmentSize = 0;
+		merged = mergedLast = null;
 		
 	}
 	
@@ -213,6 +221,82 @@ public class TCPPacket extends Packet
 		return p;
 	}
 
+	/**
+	 * Makes this data packet a super-segment that the socket layer sends as
+	 * wire segments of <code>size_</code> payload bytes each, the last one
+	 * possibly shorter. Specify 0 to send it as one segment.
+	 */
+	public void setSegmentSize(int size_)
+	{ segmentSize = size_; }
+
+	public int getSegmentSize()
+	{ return segmentSize; }
+
+	/** Returns the number of wire segments this packet is sent as. */
+	public int getSegmentCount()
+	{
+		int payload_ = size - headerSize;
+		if (segmentSize <= 0 || payload_ <= segmentSize) return 1;
+		return (payload_ + segmentSize - 1) / segmentSize;
+	}
+
+	/** Returns the payload length of the <code>i</code>th wire segment. */
+	public int getSegmentLength(int i)
+	{
+		int payload_ = size - headerSize;
+		if (segmentSize <= 0) return payload_;
+		return Math.min(segmentSize, payload_ - i * segmentSize);
+	}
+
+	/**
+	 * Writes the sequence number and the payload of the <code>i</code>th
+	 * wire segment into <code>buf</code>, where the header of the first
+	 * segment is already in place at <code>pos</code>, and clears the
+	 * checksum field.
+	 * @return the length of the segment, header included
+	 */
+	public int encodeSegment(ByteBuffer buf, int pos, int i)
+	{
+		int offset_ = i * segmentSize;
+		int len_ = getSegmentLength(i);
+		buf.putInt(pos+4, (int) (SeqNo + offset_));
+		buf.putShort(pos+16, (short) 0);
+		((TCPPacketPayload) body).copy(buf, pos+headerSize, offset_, len_);
+		return headerSize + len_;
+	}
+
+	/**
+	 * Appends the payload of <code>next_</code>, the following data segment
+	 * of the same flow, to this one so that the receiver handles them as one
+	 * super-segment of {@link #getSegmentSize()} bytes per wire segment;
+	 * <code>next_</code> is freed with this packet.
+	 * Only pure data segments with equal headers but the sequence number are
+	 * merged, and none after a segment shorter than the first one.
+	 * @return false if the segments cannot be merged, nothing is changed
+	 */
+	public boolean coalesce(TCPPacket next_)
+	{
+		int len_ = size - headerSize;
+		int nextLen_ = next_.size - next_.headerSize;
+		int segSize_ = segmentSize > 0? segmentSize: len_;
+		if (len_ <= 0 || nextLen_ <= 0 || nextLen_ > segSize_
+			|| len_ % segSize_ != 0
+			|| next_.SeqNo != SeqNo + len_
+			|| (flag & ~FLAG_ACK) != 0 || next_.flag != flag
+			|| next_.sport != sport || next_.dport != dport
+			|| next_.headerSize != headerSize
+			|| next_.AckNo != AckNo || next_.TS != TS)
+			return false;
+		segmentSize = segSize_;
+		size += nextLen_;
+		AdvWin = next_.AdvWin;
+		aTS = next_.aTS;
+		if (mergedLast == null) merged = next_;
+		else mergedLast.merged = next_;
+		mergedLast = next_;
+		return true;
+	}
+
 	public int getPacketCount()
 	{
 		if (body instanceof Packet)
@@ -344,6 +428,7 @@ public class TCPPacket extends Packet
 				(body instanceof drcl.ObjectCloneable?
 				 	((drcl.ObjectCloneable)body).clone(): body));
 		p.mss = mss;
+		p.segmentSize = segmentSize;
 		return p;
 	}
 
@@ -414,10 +499,11 @@ public class TCPPacket extends Packet
 			
 		if(flag == 0)
 		{
-			// read payload to bytes from sending buffer
+			// read payload to bytes from sending buffer; only the first wire
+			// segment of a super-segment
 			TCPPacketPayload payload = (TCPPacketPayload) this.body;
-			len = this.size;
-			payload.copy(bytes, pos+headerSize);
+			len = headerSize + getSegmentLength(0);
+			payload.copy(bytes, pos+headerSize, 0, len-headerSize);
 		}
 		else{
 //			bytes = new byte[headerSize];
@@ -454,10 +540,7 @@ public class TCPPacket extends Packet
 		bytes[pos+15] = (byte) (AdvWin & 0xff);
 		
 //		System.arraycopy(wind, 0, bytes, 14, 4);
-		// checksum
-		long checksum = MobibedUtils.calculateChecksum(bytes, pos+16);
-		bytes[pos+16] = (byte) (checksum >> 8);
-		bytes[pos+17] = (byte) (checksum & 0xff); 
+		// checksum: left zero, filled in with the pseudo-header by InetPacket
 		if(this.headerSize > 20 && !isSYN()){
 			// tcp timestamp option
 			bytes[pos+20] = 0x01;
@@ -519,6 +602,140 @@ public class TCPPacket extends Packet
 	
 	
 
+	/**
+	 * Same as {@link #encode(byte[], int)} but writes the header in place in
+	 * <code>buf</code> and copies the payload straight from the sending buffer.
+	 */
+	@Override
+	public int encode(ByteBuffer buf, int pos) {
+		int offset = this.headerSize >> 2;
+		int len;
+		for(int i=0;i<this.headerSize;i++)
+			buf.put(pos+i, (byte)0);
+		
+		if(flag == 0)
+		{
+			TCPPacketPayload payload = (TCPPacketPayload) this.body;
+			len = headerSize + getSegmentLength(0);
+			payload.copy(buf, pos+headerSize, 0, len-headerSize);
+		}
+		else{
+			len = this.headerSize;
+			byte flags_ = 0;
+			if(this.isACK())
+				flags_ |= 0x10;
+			if(this.isSYN())
+				flags_ |= 0x2;
+			if(this.isFIN())
+				flags_ |= 1;
+			buf.put(pos+13, flags_);
+		}
+		
+		buf.putShort(pos, (short) sport);
+		buf.putShort(pos+2, (short) dport);
+		buf.putInt(pos+4, (int) this.getSeqNo());
+		buf.putInt(pos+8, (int) this.getAckNo());
+		buf.put(pos+12, (byte) (offset << 4));
+		buf.putShort(pos+14, (short) AdvWin);
+		// checksum: left zero, filled in with the pseudo-header by InetPacket
+		if(this.headerSize > 20 && !isSYN()){
+			// tcp timestamp option
+			buf.put(pos+20, (byte) 0x01);
+			buf.put(pos+21, (byte) 0x01);
+			buf.put(pos+22, (byte) 0x08);
+			buf.put(pos+23, (byte) 10);
+			if(this.TS>0)
+				buf.putInt(pos+24, (int) TS);
+			if(this.aTS>0)
+				buf.putInt(pos+28, (int) aTS);
+			if(this.sackLen>0){
+				// tcp sack option
+				buf.put(pos+32, (byte) 0x01);
+				buf.put(pos+33, (byte) 0x01);
+				buf.put(pos+34, (byte) 0x05);
+				buf.put(pos+35, (byte) (2+this.sackLen*8));
+				int p = pos+36;
+				for(int i=0;i<this.sackLen;i++){
+					buf.putInt(p, (int) this.LEblk[i]);
+					buf.putInt(p+4, (int) this.REblk[i]);
+					p+=8;
+				}
+			}
+		}else if(isSYN() && !isACK())
+		{
+			// mss
+			buf.put(pos+20, (byte) 0x02);
+			buf.put(pos+21, (byte) 0x04);
+			buf.putShort(pos+22, (short) mss);
+			// sack permitted
+			buf.put(pos+24, (byte) 04);
+			buf.put(pos+25, (byte) 02);
+			// timestamp
+			buf.put(pos+26, (byte) 0x08);
+			buf.put(pos+27, (byte) 10);
+			if(this.TS>0)
+				buf.putInt(pos+28, (int) TS);
+			if(this.aTS>0)
+				buf.putInt(pos+32, (int) aTS);
+			// window scale
+			buf.put(pos+36, (byte) 1);
+			buf.put(pos+37, (byte) 3);
+			buf.put(pos+38, (byte) 3);
+			buf.put(pos+39, (byte) scale);
+		}
+		return len;
+	}
+
+	/**
+	 * Same as {@link #decode(byte[], int, int, int)} reading from
+	 * <code>buf</code> in place.
+	 */
+	public boolean decode(ByteBuffer buf, int pos, int len, int port){
+		sport = port;
+		dport = buf.getShort(pos+2) & 0xffff;
+		this.setSeqNo(buf.getInt(pos+4) & 0xffffffffL);
+		this.AckNo = buf.getInt(pos+8) & 0xffffffffL;
+		this.headerSize = (buf.get(pos+12) & 0xff) >> 2;
+		this.size = len;
+		int flags_ = buf.get(pos+13);
+		if((flags_ & 1) > 0)
+			this.setFIN(true);
+		if((flags_ & 2) > 0)
+			this.setSYN(true);
+		if((flags_ & 0x10) > 0)
+			this.setACK(true);
+		this.AdvWin = buf.getShort(pos+14) & 0xffff;
+		if(headerSize > 20 && !isSYN()){
+			int kind = buf.get(pos+22) & 0xff;
+			int len_ = buf.get(pos+23) & 0xff;
+			if(kind==8 && len_==10)
+			{
+				TS = buf.getInt(pos+24) & 0xffffffffL;
+				aTS = buf.getInt(pos+28) & 0xffffffffL;
+				if(TS < 100)
+					TS = -1000;
+				if(aTS < 100)
+					aTS = -1000;
+			}
+			if(headerSize > 32){
+				this.setSACK(true);
+				len_ = buf.get(pos+35) & 0xff;
+				this.sackLen = (len_-2)/8;
+				this.LEblk = new long[sackLen];
+				this.REblk = new long[sackLen];
+				int p = pos + 36;
+				for(int i=0;i<sackLen;i++){
+					this.LEblk[i] = buf.getInt(p) & 0xffffffffL;
+					this.REblk[i] = buf.getInt(p+4) & 0xffffffffL;
+					p+=8;
+				}
+			}
+		} else if(headerSize > 20 && isSYN() && !isACK()){
+			scale = buf.get(pos+39);
+		}
+		return true;
+	}
+
 	public boolean decode(byte[] bytes, int pos, int len, int port){
 		// source port
 		sport = port;
@@ -602,7 +819,10 @@ public class TCPPacket extends Packet
 	}
 
 	public void free() {
+		TCPPacket merged_ = merged;
+		merged = mergedLast = null;
 		ipkt.free();
+		if (merged_ != null) merged_.free();
 	}
 
 
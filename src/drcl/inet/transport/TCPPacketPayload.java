@@ -1,5 +1,7 @@
 package drcl.inet.transport;
 
+import java.nio.ByteBuffer;
+
 import drcl.util.CircularBuffer;
 
 public class TCPPacketPayload {
@@ -17,4 +19,18 @@ public class TCPPacketPayload {
 		buffer.copy(start, bytes, i, size);
 	}
 
+	/** Copies the payload straight from the sending buffer into <code>buf_</code>. */
+	public void copy(ByteBuffer buf_, int i) {
+		buffer.copy(start, buf_, i, size);
+	}
+
+	/** Copies <code>len_</code> bytes of the payload from <code>offset_</code>. */
+	public void copy(byte[] bytes, int i, int offset_, int len_) {
+		buffer.copy(start + offset_, bytes, i, len_);
+	}
+
+	public void copy(ByteBuffer buf_, int i, int offset_, int len_) {
+		buffer.copy(start + offset_, buf_, i, len_);
+	}
+
 }
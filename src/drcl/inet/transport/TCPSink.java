@@ -29,13 +29,13 @@
 package drcl.inet.transport;
 
 
-import java.util.Vector;
 import drcl.data.DoubleObj;
 import drcl.comp.*;
-import drcl.util.scalar.LongInterval;
+import drcl.util.LatencyTracer;
 import drcl.util.scalar.LongSpace;
 import drcl.comp.lib.bytestream.ByteStreamContract;
 import drcl.inet.InetPacket;
+import drcl.inet.host.PacketBatch;
 import drcl.net.Address;
 
 /**
@@ -52,6 +52,13 @@ The delay timer is 100ms(0.1 second) as specified in [TCPILL2].
 When the delayed ACK flag is enabled, an acknowledgment is sent when
 (1) the delay timer expires or (2) a new data packet arrives.
 
+<p>In-order data may also be acknowledged once every N segments
+({@link #setAckEvery(int)}), a pending acknowledgment being still bounded by
+the delay timer.  A {@link PacketBatch} from a socket with receive offload
+enabled is processed as a whole and the in-order data in it is acknowledged
+at the end of the batch.  Segments that are out of order or arrive while
+there is a hole in the sequence space are acknowledged right away.
+
 <p>Since only one session is handled in this component,
 open and close of a connection are not implemented,
 nor is 3-way handshaking.
@@ -61,6 +68,7 @@ nor is 3-way handshaking.
 <li> To change TTL value, use {@link #setTTL(int)}.
 <li> To change receiving buffer size, use {@link #setReceivingBuffers(int)}.
 <li> To change delay timer period, use {@link #setDelayACKTimeout(double)}.
+<li> To acknowledge every N segments, use {@link #setAckEvery(int)}.
 </ol>
 
 References:
@@ -132,6 +140,12 @@ public class TCPSink extends drcl.inet.Protocol
 	
 	long peer = Address.NULL_ADDR;	// Used for Des in forwarding
 	long delayTimer = 100; //Delay ACK timeout value (milliseconds)
+	int ackEvery = 1; // acknowledge in-order data every so many segments
+	transient int unacked = 0; // in-order segments not acknowledged yet
+	transient long unackedTS; // TS of the first of them
+	transient boolean inBatch = false; // processing a PacketBatch
+	boolean metricsEnabled = false;
+	transient TCPMetrics metrics = null;
 	
 	/* for threeway-handshaking*/
 	transient int state = CLOSED;
@@ -148,8 +162,10 @@ public class TCPSink extends drcl.inet.Protocol
 		// used to calculate available receiving buffer and construct SACK
 		// blocks
 	
-	transient Vector<TCPPacket> rbuffer = new Vector<TCPPacket>();
+	transient ReassemblyQueue rbuffer = new ReassemblyQueue(64);
 		// storing outstanding TCP packets (not yet sent to application)
+	protected boolean BatchDelivery = false;
+		// deliver contiguous segments in one scatter-list message
 	transient long snd_nxt = WNDBG;
 		// sequence # of next byte to be sent to application
 	transient long rcv_nxt = WNDBG;
@@ -184,11 +200,12 @@ public class TCPSink extends drcl.inet.Protocol
 	{
 		super.reset();
 		state = ESTABLISHED;
-		if (rbuffer != null) rbuffer.removeAllElements();
+		if (rbuffer != null) rbuffer.clear();
 		snd_nxt = WNDBG;
 		rcv_nxt = WNDBG;
 		appAskedForData = true;
 		receivedSeq.reset(0, 0);
+		if (metrics != null) metrics.group.reset();
 //		if (llSackBlock != null) 
 //			llSackBlock = null;
 	}
@@ -203,6 +220,9 @@ public class TCPSink extends drcl.inet.Protocol
 		setDelayACKEnabled(that_.isDelayACKEnabled());
 		setSackEnabled(that_.isSackEnabled());
 		setDelayACKTimeout(that_.getDelayACKTimeout());
+		setBatchDeliveryEnabled(that_.isBatchDeliveryEnabled());
+		setAckEvery(that_.getAckEvery());
+		setMetricsEnabled(that_.isMetricsEnabled());
 	}
 
 	public void setTTL(int ttl)
@@ -247,6 +267,18 @@ public class TCPSink extends drcl.inet.Protocol
 	public boolean isSackEnabled()
 	{ return SACK; }
 
+	/**
+	 * If enabled, a contiguous run of segments is delivered to the
+	 * application in one {@link ByteStreamContract.Message} scatter list
+	 * instead of one message per segment.  The application must read
+	 * the message with {@link ByteStreamContract.Message#getSegmentCount()}.
+	 */
+	public void setBatchDeliveryEnabled(boolean batch_)
+	{ BatchDelivery = batch_; }
+
+	public boolean isBatchDeliveryEnabled()
+	{ return BatchDelivery; }
+
 	public void setDelayACKEnabled(boolean delayack_)
 	{ DelayACK = delayack_; }
 
@@ -258,6 +290,43 @@ public class TCPSink extends drcl.inet.Protocol
 
 	public long getDelayACKTimeout()
 	{ return delayTimer; }
+
+	/**
+	 * Acknowledges in-order data once every <code>n_</code> received segments
+	 * (a coalesced segment counts as many as it was made of), or when the
+	 * delay timer expires.  1 acknowledges every segment unless delayed ACK
+	 * is enabled.
+	 */
+	public void setAckEvery(int n_)
+	{ ackEvery = n_ > 1? n_: 1; }
+
+	public int getAckEvery()
+	{ return ackEvery; }
+
+	/**
+	 * Enables keeping the progress of this flow as
+	 * {@link drcl.util.metrics.Metrics metrics} in the group named after
+	 * this component.
+	 * @see TCP#setMetricsEnabled(boolean)
+	 */
+	public void setMetricsEnabled(boolean enabled_)
+	{
+		if (!enabled_ && metrics != null)
+			drcl.util.metrics.Metrics.remove(metrics.group.getName());
+		metricsEnabled = enabled_;
+		metrics = null;
+	}
+
+	public boolean isMetricsEnabled()
+	{ return metricsEnabled; }
+
+	// created on first use so that the group is named after the final path
+	TCPMetrics metrics()
+	{
+		if (metrics == null && metricsEnabled)
+			metrics = TCPMetrics.receiver(toString());
+		return metrics;
+	}
 	
 	/** Handles timeout events. */
 	protected void timeout(Object evt_)
@@ -265,6 +334,7 @@ public class TCPSink extends drcl.inet.Protocol
 		switch(((TM_EVT)evt_).type) {
 		case DELAY_ACK:
 			synchronized (rbuffer) {
+				if (ACKPending != evt_) return; // acked already
 				ack_syn_fin(false, ((TM_EVT)evt_).aTS);
 				ACKPending = null;
 			}
@@ -280,41 +350,41 @@ public class TCPSink extends drcl.inet.Protocol
 			synchronized (rbuffer) {
 				if (rcv_nxt == snd_nxt) return;
 				boolean bufferFull_ = getAvailableReceivingBuffers() == 0;
-				int i = 0;
-				for (; i<rbuffer.size(); ) {
-					TCPPacket pkt_ = (TCPPacket)rbuffer.elementAt(i);
-					long seqno_ = pkt_.getSeqNo();
-					if (seqno_ > snd_nxt) break;
-					// end_: exclusive
-					long end_ = seqno_ + pkt_.size - pkt_.headerSize;
-					//boolean entirePkt_ = rcv_nxt >= end_;
-					//if (!entirePkt_) end_ = rcv_nxt;
-					ByteStreamContract.Message sendReq_ =
-						new ByteStreamContract.Message(
-								ByteStreamContract.RECV,
-								(byte[])pkt_.getBody(),
-								(int)(snd_nxt-seqno_), 
-								(int)(end_-snd_nxt));
-					// trick: use upPort instead of upPort_
-					int len_ = (int)(end_-snd_nxt);
-					upPort.doSyncSending(sendReq_);
-					//int len_ = ((Integer)upPort.sendReceive(
-						//					sendReq_)).intValue();
-					snd_nxt = len_ >= 0? end_: end_ + len_;
-					//if (entirePkt_ && len_ >= 0) // this pkt is cleared
-					if (len_ >= 0) // this pkt is cleared
-						i++;
-					pkt_.free();
-					rbuffer.remove(i-1);
-					if(DRWA)
-						drwa();
-					// break the loop if no more bytes available or
-					// application cannot receive more
-					if (snd_nxt == rcv_nxt || len_ <= 0) {
-						appAskedForData = len_ > 0;
-						break;
+				if (BatchDelivery)
+					sendRunToApp();
+				else
+					while (!rbuffer.isEmpty()) {
+						long seqno_ = rbuffer.getSeq(0);
+						if (seqno_ > snd_nxt) break;
+						// end_: exclusive
+						long end_ = rbuffer.getEnd(0);
+						TCPPacket pkt_ = rbuffer.get(0);
+						rbuffer.removeFirst();
+						if (end_ <= snd_nxt) {
+							// delivered already
+							pkt_.free();
+							continue;
+						}
+						ByteStreamContract.Message sendReq_ =
+							new ByteStreamContract.Message(
+									ByteStreamContract.RECV,
+									(byte[])pkt_.getBody(),
+									(int)(snd_nxt-seqno_), 
+									(int)(end_-snd_nxt));
+						// trick: use upPort instead of upPort_
+						int len_ = (int)(end_-snd_nxt);
+						upPort.doSyncSending(sendReq_);
+						snd_nxt = end_;
+						pkt_.free();
+						if(DRWA)
+							drwa();
+						// break the loop if no more bytes available or
+						// application cannot receive more
+						if (snd_nxt == rcv_nxt || len_ <= 0) {
+							appAskedForData = len_ > 0;
+							break;
+						}
 					}
-				}
 				if(isDebugEnabled() || isDebugEnabledAt(TCPConstants.DEBUG_SEND))
 					debug("snd_nxt = " + snd_nxt + " rcv_nxt = " + rcv_nxt);
 				if (bufferFull_ && getAvailableReceivingBuffers() > 0)
@@ -327,7 +397,44 @@ public class TCPSink extends drcl.inet.Protocol
 			else
 				e_.printStackTrace();
 		}
-	}	
+	}
+	
+	/** Delivers the contiguous run at the head of {@link #rbuffer} in one
+	 * scatter-list message; the caller holds the lock of rbuffer. */
+	void sendRunToApp()
+	{
+		long next_ = snd_nxt; // first byte not delivered
+		int n_ = 0;
+		while (n_ < rbuffer.size() && rbuffer.getSeq(n_) <= snd_nxt
+			&& snd_nxt < rcv_nxt) {
+			long end_ = rbuffer.getEnd(n_);
+			if (end_ > snd_nxt) snd_nxt = end_;
+			n_++;
+		}
+		if (n_ == 0) return;
+		byte[][] bufs_ = new byte[n_][];
+		int[] offsets_ = new int[n_], lengths_ = new int[n_];
+		int m_ = 0;
+		for (int i=0; i<n_; i++) {
+			long seqno_ = rbuffer.getSeq(0);
+			long end_ = rbuffer.getEnd(0);
+			TCPPacket pkt_ = rbuffer.get(0);
+			rbuffer.removeFirst();
+			if (end_ > next_) {
+				long from_ = Math.max(next_, seqno_);
+				bufs_[m_] = (byte[])pkt_.getBody();
+				offsets_[m_] = (int)(from_ - seqno_);
+				lengths_[m_++] = (int)(end_ - from_);
+				next_ = end_;
+			}
+			// the message refers to the body array only
+			pkt_.free();
+		}
+		upPort.doSyncSending(new ByteStreamContract.Message(
+			ByteStreamContract.RECV, bufs_, offsets_, lengths_, m_));
+		if(DRWA)
+			drwa();
+	}
 	
 	/** The down port follows the {@link drcl.inet.contract.PktDelivery}
 	 * contract. */
@@ -335,11 +442,23 @@ public class TCPSink extends drcl.inet.Protocol
 					Port downPort_) 
 	{
 //		long start = System.nanoTime();
+		if (data_ instanceof PacketBatch) {
+			recvBatch((PacketBatch)data_, downPort_);
+			return;
+		}
 		try {
 			peer = ((InetPacket)data_).getSource();
 			TCPPacket tcpp = (TCPPacket)((InetPacket)data_).getBody();
 			remotePort = tcpp.getSPort();
-			recv(tcpp, tcpp.getPacketSize()-tcpp.getHeaderSize());
+			if(latencyTrace) {
+				int port_ = tcpp.getDPort();
+				long seq_ = tcpp.getSeqNo();
+				LatencyTracer.record(LatencyTracer.TCP_IN, port_, seq_);
+				recv(tcpp, tcpp.getPacketSize()-tcpp.getHeaderSize());
+				LatencyTracer.record(LatencyTracer.TCP_OUT, port_, seq_);
+			}
+			else
+				recv(tcpp, tcpp.getPacketSize()-tcpp.getHeaderSize());
 		}
 		catch (Exception e_) {
 			e_.printStackTrace();
@@ -349,11 +468,37 @@ public class TCPSink extends drcl.inet.Protocol
 		
 	}
 	
+	/**
+	 * Handles the packets of a batch and acknowledges the in-order data in
+	 * it once at the end.
+	 */
+	protected void recvBatch(PacketBatch batch_, Port downPort_)
+	{
+		inBatch = true;
+		try {
+			for (int i=0; i<batch_.size(); i++)
+				dataArriveAtDownPort(batch_.get(i), downPort_);
+		}
+		finally {
+			inBatch = false;
+		}
+		long aTS_;
+		synchronized (rbuffer) {
+			if (unacked == 0) return;
+			cancelACKPending();
+			aTS_ = unackedTS;
+		}
+		ack_syn_fin(false, aTS_);
+	}
+
 	/** Handles incoming packets. */
 	protected void recv(TCPPacket pkt_, int bodySize)
 	{
 		long seq_, endseq_;
 		seq_ = pkt_.getSeqNo();	// Get the seqence number
+		// pkt_ may be freed below
+		long ts_ = pkt_.getTS();
+		int segs_ = pkt_.getSegmentCount();
 		if (seqNoPort._isEventExportEnabled())
 			seqNoPort.exportEvent(TCP.SEQNO_EVENT,
 							new DoubleObj((double)seq_/MSS), null);
@@ -389,7 +534,7 @@ public class TCPSink extends drcl.inet.Protocol
 						if(DRWA){
 							drwa_update(pkt_.getAckNo());
 						}
-						rcv_nxt = receivedSeq.getLongInterval(0).end;
+						rcv_nxt = receivedSeq.getEnd(0);
 					}
 				}
 			}else{
@@ -417,47 +562,57 @@ public class TCPSink extends drcl.inet.Protocol
 			
 			if (!duplicate_) sendDataToApp();
 		}
-		
+
+		TCPMetrics m_ = metrics();
+		if (m_ != null) {
+			m_.segsRecv.add(segs_);
+			if (duplicate_)
+				m_.duplicates.increment();
+			else {
+				m_.bytesRecv.add(bodySize);
+				if (!expected_) m_.outOfOrder.increment();
+			}
+			m_.rcv_nxt.set(rcv_nxt);
+			m_.awnd.set((double)getAvailableReceivingBuffers() / MSS);
+		}
 
 		// code below is to control how to send ACK
-		if (expected_ && DelayACK) {
-			// delay ACK
-			if (ACKPending == null) {
-				ACKPending = new TM_EVT(DELAY_ACK, delayTimer,
-								pkt_.getTS());
-				if(isDebugEnabled()) debug("setTimeout: ACKPending");
-				setTimeout(ACKPending, ACKPending.timeout);
+		boolean ackNow_ = true;
+		synchronized (rbuffer) {
+			// a hole is left: ack right away so that the sender learns it
+			boolean hole_ = receivedSeq.numOfLongIntervals() > 1;
+			if (expected_ && !hole_ && (DelayACK || ackEvery > 1 || inBatch)) {
+				if (unacked == 0) unackedTS = ts_;
+				unacked += segs_;
+				ackNow_ = ackEvery > 1 && unacked >= ackEvery;
+				if (ackNow_)
+					ts_ = unackedTS;
+				else if (!inBatch && ACKPending == null) {
+					// delay ACK; acked at the end of the batch otherwise
+					ACKPending = new TM_EVT(DELAY_ACK, delayTimer, unackedTS);
+					if(isDebugEnabled()) debug("setTimeout: ACKPending");
+					ACKPending.timer = setTimeout(ACKPending, ACKPending.timeout);
+				}
 			}
+			// this ACK covers the delayed one
+			if (ackNow_) cancelACKPending();
 		}
-		else // ack right away
-		{
-			ack_syn_fin(SACK && !expected_ && !duplicate_, pkt_.getTS());
-//				System.out.println(pkt_.getTS());
+		if (ackNow_)
+			ack_syn_fin(SACK && !expected_ && !duplicate_, ts_);
+	}
+
+	// called with rbuffer locked
+	private void cancelACKPending()
+	{
+		if (ACKPending != null) {
+			if (ACKPending.timer != null) cancelTimeout(ACKPending.timer);
+			ACKPending = null;
 		}
-		
 	}
 
     private void insertPacketToRecvBuffer(TCPPacket pkt_, long seq_, long end_) {
-    	boolean done_ = false;
 		synchronized(rbuffer){
-			for (int i=rbuffer.size()-1; i>=0; i--) {
-				TCPPacket tmp_ = (TCPPacket)rbuffer.elementAt(i);
-				long tmpseq_ = tmp_.getSeqNo();
-				long tmpend_ = tmpseq_ + tmp_.size - tmp_.headerSize;
-				if (tmpseq_ < seq_) {
-					rbuffer.insertElementAt(pkt_, i+1);
-					done_ = true;
-					break;
-				}
-				else if (end_ >= tmpend_)
-				{	
-					// tmp_ is included in the received packet
-					tmp_.free();
-					rbuffer.removeElementAt(i);
-				}
-			}
-			if (!done_)
-				rbuffer.insertElementAt(pkt_, 0);
+			rbuffer.insert(pkt_, seq_, end_);
 		}
 	}
 
@@ -470,6 +625,7 @@ public class TCPSink extends drcl.inet.Protocol
 	protected void ack_syn_fin(boolean doSACK_, long aTS_)
 	{
 		TCPPacket pkt_;
+		unacked = 0; // cumulative
 
 		if (doSACK_)
 			pkt_ = SACKHdr(aTS_); // check with SACK option 
@@ -604,9 +760,8 @@ public class TCPSink extends drcl.inet.Protocol
 				REblk_ = new long[sackLen_];
 				LEblk_ = new long[sackLen_];
 				for(int i = 0; i < sackLen_; i++){
-					LongInterval li = receivedSeq.getLongInterval(i+1);
-					LEblk_[i] = li.start;
-					REblk_[i] = li.end;
+					LEblk_[i] = receivedSeq.getStart(i+1);
+					REblk_[i] = receivedSeq.getEnd(i+1);
 				}
 
 			}
@@ -721,6 +876,7 @@ public class TCPSink extends drcl.inet.Protocol
 			 	+ delayTimer + ", pending:"
 				+ (ACKPending == null? "none": ""+ACKPending.timeout): "") 
 			 	+ "\n"
+			 + "AckEvery = " + ackEvery + ", unacked = " + unacked + "\n"
 			 + "receive_next = " + rcv_nxt/MSS + "---" + rcv_nxt + "\n"
 			 + "   send_next = " + snd_nxt/MSS + "---" + snd_nxt + "\n"
 			 + "  rcv buffer = " + printBuffer(true) + "---" 
@@ -749,18 +905,18 @@ public class TCPSink extends drcl.inet.Protocol
 		StringBuffer sb_ = new StringBuffer();
 		long last_ = -1;
 		for (int i=0; i<rbuffer.size(); i++) {
-			TCPPacket tmp_ = (TCPPacket)rbuffer.elementAt(i);
-			if (last_ < tmp_.getSeqNo()) {
+			long seq_ = rbuffer.getSeq(i);
+			if (last_ < seq_) {
 				if (mss_) {
 					if (last_ >= 0) sb_.append(last_/MSS + ")");
-					sb_.append("(" + tmp_.getSeqNo()/MSS + ",");
+					sb_.append("(" + seq_/MSS + ",");
 				}
 				else {
 					if (last_ >= 0) sb_.append(last_ + ")");
-					sb_.append("(" + tmp_.getSeqNo() + ",");
+					sb_.append("(" + seq_ + ",");
 				}
 			}
-			last_ = tmp_.getSeqNo() + tmp_.size - tmp_.headerSize;
+			last_ = rbuffer.getEnd(i);
 		}
 		if (last_ >= 0) {
 			if (mss_) sb_.append(last_/MSS + ")");
@@ -775,6 +931,7 @@ public class TCPSink extends drcl.inet.Protocol
 		int type;
 		long timeout;
 		long aTS;
+		ACATimer timer;
 		
 		TM_EVT(int type_, long timeout_, long aTS_)
 		{ type = type_; timeout = timeout_; aTS=aTS_; }
@@ -28,6 +28,8 @@
 
 package drcl.inet.transport;
 
+import java.nio.ByteBuffer;
+
 import drcl.net.Packet;
 
 /** This class defines the UDP packet header used by {@link UDP}.  */
@@ -138,15 +140,69 @@ public class UDPPacket extends Packet
 		return true;
 	}
 
+	/**
+	 * Not supported: a UDP packet has no buffer of its own and is encoded
+	 * into the buffer of the IP packet that carries it, with
+	 * {@link #encode(byte[], int)} or {@link #encode(ByteBuffer, int)}.
+	 */
 	@Override
 	public int encode(int pos) {
-		// TODO Auto-generated method stub
-		return 0;
+		throw new UnsupportedOperationException(
+			"UDPPacket is encoded into the buffer of its InetPacket");
 	}
 
 	@Override
 	public int encode(byte[] bytes, int pos) {
-		// TODO Auto-generated method stub
-		return 0;
+		byte[] body_ = (byte[]) this.body;
+		int blen_ = body_ == null? 0: body_.length;
+		int length = 8 + blen_;
+		bytes[pos] = (byte) (sport >> 8);
+		bytes[pos+1] = (byte) sport;
+		bytes[pos+2] = (byte) (dport >> 8);
+		bytes[pos+3] = (byte) dport;
+		bytes[pos+4] = (byte) (length >> 8);
+		bytes[pos+5] = (byte) length;
+		bytes[pos+6] = 0;
+		bytes[pos+7] = 0;
+		if (blen_ > 0)
+			System.arraycopy(body_, 0, bytes, pos+8, blen_);
+		return length;
+	}
+
+	@Override
+	public int encode(ByteBuffer buf, int pos) {
+		byte[] body_ = (byte[]) this.body;
+		int blen_ = body_ == null? 0: body_.length;
+		int length = 8 + blen_;
+		buf.putShort(pos, (short) sport);
+		buf.putShort(pos+2, (short) dport);
+		buf.putShort(pos+4, (short) length);
+		buf.putShort(pos+6, (short) 0);
+		if (blen_ > 0) {
+			// the bulk put needs the position; restore it as the contract says
+			int position_ = buf.position();
+			buf.position(pos+8);
+			buf.put(body_, 0, blen_);
+			buf.position(position_);
+		}
+		return length;
+	}
+
+	/**
+	 * Same as {@link #toPacket(byte[], int, int)} reading from
+	 * <code>buf</code> in place; the position of <code>buf</code> is left
+	 * unchanged.
+	 */
+	public boolean toPacket(ByteBuffer buf, int pos, int port){
+		sport = port;
+		dport = buf.getShort(pos+2) & 0xffff;
+		int len = buf.getShort(pos+4) & 0xffff;
+		byte[] body_ = new byte[len-8];
+		int position_ = buf.position();
+		buf.position(pos+8);
+		buf.get(body_);
+		buf.position(position_);
+		body = body_;
+		return true;
 	}
 }
@@ -1,10 +1,51 @@
 package drcl.mobibed;
 
 import drcl.comp.ACARuntime;
+import drcl.mobibed.process.MobibedRuntime;
+import drcl.mobibed.process.ThreadPerTaskRuntime;
 
 public class MobibedAssistant {
 
+	/** Runtime on a cached thread pool ({@link MobibedRuntime#MODE_POOL}). */
+	public static final String RUNTIME_POOL = "pool";
+	/** Runtime with a mailbox per component ({@link MobibedRuntime#MODE_MAILBOX}). */
+	public static final String RUNTIME_MAILBOX = "mailbox";
+	/** Runtime with a thread per core and flows pinned to one
+	 * ({@link MobibedRuntime#MODE_SHARDED}). */
+	public static final String RUNTIME_SHARDED = "sharded";
+	/** Runtime with a (virtual) thread per task ({@link ThreadPerTaskRuntime}). */
+	public static final String RUNTIME_THREAD = "thread";
+
+	static String defaultRuntime = RUNTIME_POOL;
+
+	/** Sets the kind of runtime returned by {@link #onSingleMachine()}. */
+	public static void setDefaultRuntime(String kind_)
+	{
+		if (!RUNTIME_POOL.equals(kind_) && !RUNTIME_MAILBOX.equals(kind_)
+			&& !RUNTIME_SHARDED.equals(kind_) && !RUNTIME_THREAD.equals(kind_))
+			throw new IllegalArgumentException("unknown runtime: " + kind_);
+		defaultRuntime = kind_;
+	}
+
+	public static String getDefaultRuntime()
+	{ return defaultRuntime; }
+
 	public static final ACARuntime onSingleMachine()
-		{ return new drcl.mobibed.process.MobibedRuntime(); }
+		{ return newRuntime(defaultRuntime); }
+
+	/** Returns a runtime that runs each component's tasks from its own mailbox
+	 * if <code>mailbox_</code> is true. */
+	public static final ACARuntime onSingleMachine(boolean mailbox_)
+		{ return mailbox_? newRuntime(RUNTIME_MAILBOX): onSingleMachine(); }
+
+	public static final ACARuntime newRuntime(String kind_)
+	{
+		if (RUNTIME_THREAD.equals(kind_))
+			return new ThreadPerTaskRuntime();
+		if (RUNTIME_SHARDED.equals(kind_))
+			return new MobibedRuntime("default", MobibedRuntime.MODE_SHARDED);
+		return new MobibedRuntime("default", RUNTIME_MAILBOX.equals(kind_)?
+				MobibedRuntime.MODE_MAILBOX: MobibedRuntime.MODE_POOL);
+	}
 
 }
@@ -0,0 +1,66 @@
+package drcl.mobibed.process;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import drcl.comp.Component;
+
+/**
+ * Queue of pending tasks of one {@link Component} in mailbox mode.
+ * At most one worker drains a mailbox at a time, so the component sees its
+ * tasks one by one and in arrival order without taking any lock.
+ * A worker runs at most {@link #DRAIN_BUDGET} tasks before handing the
+ * mailbox back to the pool so that a busy component cannot hold a worker.
+ */
+final class Mailbox implements Runnable {
+
+	static final int DRAIN_BUDGET = 64;
+
+	final Component host;
+	final ForkJoinPool workers;
+	final ConcurrentLinkedQueue<Runnable> queue = new ConcurrentLinkedQueue<Runnable>();
+	final AtomicBoolean scheduled = new AtomicBoolean();
+	// written by the draining worker only, read racily for statistics
+	long processed, drains;
+
+	Mailbox(Component host_, ForkJoinPool workers_) {
+		host = host_;
+		workers = workers_;
+	}
+
+	/** Queues the task and schedules the mailbox if no worker owns it. */
+	void post(Runnable task_) {
+		queue.offer(task_);
+		if(scheduled.compareAndSet(false, true))
+			workers.execute(this);
+	}
+
+	public void run() {
+		drains++;
+		for(int i = 0; i < DRAIN_BUDGET; i++) {
+			Runnable task_ = queue.poll();
+			if(task_ == null) break;
+			try {
+				task_.run();
+			} catch (Throwable e) {
+				e.printStackTrace();
+			}
+			processed++;
+		}
+		if(!queue.isEmpty()) {
+			// budget used up, keep ownership and go to the back of the line
+			workers.execute(this);
+			return;
+		}
+		scheduled.set(false);
+		// a task may have been posted after the last poll
+		if(!queue.isEmpty() && scheduled.compareAndSet(false, true))
+			workers.execute(this);
+	}
+
+	public String toString() {
+		return host + ": pending=" + queue.size() + ", processed=" + processed
+			+ ", drains=" + drains;
+	}
+}
@@ -1,21 +1,76 @@
 package drcl.mobibed.process;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import drcl.comp.ACARuntime;
 import drcl.comp.ACATimer;
+import drcl.comp.Component;
+import drcl.comp.Port;
 import drcl.comp.Task;
+import drcl.comp.TaskReceive;
 import drcl.comp.WorkerThread;
+import drcl.inet.InetPacket;
+import drcl.inet.transport.Connection;
 
+/**
+ * Runtime that executes tasks on Java thread pools in real time.
+ * <p>
+ * In the default {@link #MODE_POOL pool mode} every task runs on a cached
+ * thread pool as soon as it is due. In {@link #MODE_MAILBOX mailbox mode}
+ * each component gets a {@link Mailbox} drained by a work-stealing pool of
+ * one worker per core; the tasks of a component then run one at a time and
+ * in order, while different components still run in parallel.
+ * A handler must not block waiting for another task of its own component
+ * in mailbox mode.
+ * <p>
+ * In {@link #MODE_SHARDED sharded mode} there is one {@link Shard} thread
+ * per core and every component is assigned to one of them for good when it
+ * is taken over: a connection by the hash of its local port, remote port
+ * and peer address, any other component with the first connection it is
+ * wired to (so a socket and an application follow their TCP).  A component
+ * added later is assigned when a socket binds a flow to it, or else on its
+ * first task.  All tasks of a flow, packets, timers and application
+ * messages alike, then run on the same thread, see
+ * {@link ACARuntime#isSharded()}.  {@link #setShard(Component, int)}
+ * overrides the assignment.
+ * <p>
+ * Delayed tasks are kept in a {@link TimingWheel} by default, which makes
+ * setting, cancelling and re-arming a timer constant-time; the scheduled
+ * thread pool can still be used instead with
+ * {@link #setTimingWheelEnabled(boolean)}.
+ */
 public class MobibedRuntime extends ACARuntime{
+	/** Runs every task on a cached thread pool. */
+	public static final int MODE_POOL = 0;
+	/** Runs the tasks of a component one at a time from its mailbox. */
+	public static final int MODE_MAILBOX = 1;
+	/** Runs the tasks of a flow on the one thread of its shard. */
+	public static final int MODE_SHARDED = 2;
+
 	private static final int ScheduledPoolSize = 10;
+	private final int mode;
 	private final ExecutorService pool = Executors.newCachedThreadPool();
+	private final ForkJoinPool workers;
+	private final ConcurrentHashMap<Component, Mailbox> mailboxes =
+		new ConcurrentHashMap<Component, Mailbox>();
+	private final Shard[] shards;
+	private final ConcurrentHashMap<Component, Shard> affinity =
+		new ConcurrentHashMap<Component, Shard>();
 	private final ScheduledExecutorService delayedPool = Executors.newScheduledThreadPool(ScheduledPoolSize);
-	private ScheduledFuture<?> lastScheduledFuture;
+	private final Executor dispatcher = new Executor(){
+		public void execute(Runnable task_)
+		{ dispatch((Task) task_); }
+	};
+	private final TimingWheel wheel;
+	private boolean timingWheelEnabled = true;
 	/**
 	 * 
 	 */
@@ -26,7 +81,139 @@ public class MobibedRuntime extends ACARuntime{
 	}
 
 	public MobibedRuntime(String name_){
+		this(name_, MODE_POOL);
+	}
+
+	public MobibedRuntime(String name_, int mode_){
 		super(name_);
+		mode = mode_;
+		workers = mode_ == MODE_MAILBOX?
+			new ForkJoinPool(Runtime.getRuntime().availableProcessors(),
+					ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true)
+			: null;
+		if(mode_ == MODE_SHARDED){
+			shards = new Shard[Runtime.getRuntime().availableProcessors()];
+			for(int i = 0; i < shards.length; i++){
+				shards[i] = new Shard(name_, i);
+				shards[i].start();
+			}
+		}
+		else
+			shards = null;
+		wheel = new TimingWheel(name_ + "-timer", dispatcher);
+	}
+
+	public int getMode()
+	{ return mode; }
+
+	public boolean isMailboxEnabled()
+	{ return mode == MODE_MAILBOX; }
+
+	public boolean isSharded()
+	{ return mode == MODE_SHARDED; }
+
+	/** Returns the number of shards, 0 if not in sharded mode. */
+	public int getNumberOfShards()
+	{ return shards == null? 0: shards.length; }
+
+	/** Chooses between the timing wheel (default) and the scheduled thread
+	 * pool for delayed tasks. */
+	public void setTimingWheelEnabled(boolean enabled_)
+	{ timingWheelEnabled = enabled_; }
+
+	public boolean isTimingWheelEnabled()
+	{ return timingWheelEnabled; }
+
+	public TimingWheel getTimingWheel()
+	{ return wheel; }
+
+	/** Returns the mailbox of the component, creating it on first use. */
+	Mailbox mailbox(Component host_){
+		Mailbox box_ = mailboxes.get(host_);
+		if(box_ == null){
+			box_ = new Mailbox(host_, workers);
+			Mailbox old_ = mailboxes.putIfAbsent(host_, box_);
+			if(old_ != null) box_ = old_;
+		}
+		return box_;
+	}
+
+	/** Takes over the component and, in sharded mode, pins it and its
+	 * children to their shards. */
+	public void takeover(Component c_){
+		super.takeover(c_);
+		if(shards != null) pinAll(c_);
+	}
+
+	void pinAll(Component c_){
+		pin(c_);
+		Component[] children_ = c_.getAllComponents();
+		for(int i = 0; i < children_.length; i++)
+			pinAll(children_[i]);
+	}
+
+	public void pin(Component c_){
+		if(shards != null) shard(c_);
+	}
+
+	/** Returns the shard of the component, assigning it on first use. */
+	Shard shard(Component host_){
+		Shard shard_ = affinity.get(host_);
+		if(shard_ == null){
+			shard_ = shards[(flowHash(host_) & 0x7fffffff) % shards.length];
+			Shard old_ = affinity.putIfAbsent(host_, shard_);
+			if(old_ != null) shard_ = old_;
+		}
+		return shard_;
+	}
+
+	/**
+	 * Assigns the component to shard <code>i</code> (modulo the number of
+	 * shards).  Must be done before the component receives its first task,
+	 * otherwise tasks already queued may run out of order.
+	 */
+	public void setShard(Component host_, int i){
+		if(shards == null) return;
+		affinity.put(host_, shards[(i & 0x7fffffff) % shards.length]);
+	}
+
+	/** Returns the shard the component is assigned to, -1 if none yet. */
+	public int getShard(Component host_){
+		Shard shard_ = affinity.get(host_);
+		return shard_ == null? -1: shard_.index;
+	}
+
+	// hash of the connection's 4-tuple as known now, or of the component
+	static int flowHash(Component host_){
+		Connection c_ = connectionOf(host_);
+		if(c_ == null)
+			return mix(System.identityHashCode(host_));
+		long h_ = c_.getPeer() * 0x9E3779B97F4A7C15L;
+		h_ = (h_ ^ c_.getLocalPort()) * 0x9E3779B97F4A7C15L;
+		h_ = (h_ ^ c_.getRemotePort()) * 0x9E3779B97F4A7C15L;
+		return mix((int)(h_ ^ (h_ >>> 32)));
+	}
+
+	// the component if it is a connection, else the first one wired to it
+	static Connection connectionOf(Component host_){
+		if(host_ instanceof Connection)
+			return (Connection) host_;
+		Port[] ports_ = host_.getAllPorts();
+		for(int i = 0; i < ports_.length; i++){
+			Port[] peers_ = ports_[i].getPeers();
+			if(peers_ == null) continue;
+			for(int j = 0; j < peers_.length; j++)
+				if(peers_[j].host instanceof Connection)
+					return (Connection) peers_[j].host;
+		}
+		return null;
+	}
+
+	static int mix(int h_){
+		h_ ^= h_ >>> 16;
+		h_ *= 0x85ebca6b;
+		h_ ^= h_ >>> 13;
+		return h_;
 	}
 
 	/**
@@ -38,12 +225,31 @@ public class MobibedRuntime extends ACARuntime{
 		if(later_ == 0)
 		{
 			// execute task immediately
-			pool.execute(task_);
+			dispatch(task_);
+		}else if(timingWheelEnabled){
+			wheel.schedule(task_, later_);
+		}else if(mode == MODE_MAILBOX && task_.port != null){
+			final Task t_ = task_;
+			task_.handle = delayedPool.schedule(new Runnable(){
+				public void run()
+				{ dispatch(t_); }
+			}, later_, TimeUnit.MILLISECONDS);
 		}else{
 			// execute task with delay
-			lastScheduledFuture = delayedPool.schedule(task_, later_, TimeUnit.MILLISECONDS);
+			task_.handle = delayedPool.schedule(task_, later_, TimeUnit.MILLISECONDS);
 		}
 	}
+
+	/** Runs a task that is due, from its component's mailbox in mailbox mode
+	 * or on its component's shard in sharded mode. */
+	void dispatch(Task task_) {
+		if(mode == MODE_MAILBOX && task_.port != null)
+			mailbox(task_.port.host).post(task_);
+		else if(mode == MODE_SHARDED && task_.port != null)
+			shard(task_.port.host).post(task_);
+		else
+			pool.execute(task_);
+	}
 	
 	/**
 	 * the same as {@link #newTask(Task)}
@@ -53,18 +259,58 @@ public class MobibedRuntime extends ACARuntime{
 	protected void newTask(Task task_, WorkerThread current_) {
 		newTask(task_);
 	}
+
+	/** Not synchronized: {@link #newTask(Task)} is thread-safe, and a
+	 * runtime-wide lock on every timer would serialize the shards. */
+	@Override
+	protected ACATimer receive(Port p_, Object evt_, long delay_) {
+		Task task_ = new TaskReceive(p_, evt_, delay_);
+		newTask(task_);
+		return task_;
+	}
 	
 
 	@Override
 	public String info() {
-		// TODO Auto-generated method stub
-		return null;
+		StringBuffer sb_ = new StringBuffer(toString());
+		sb_.append("\n");
+		if(pool instanceof ThreadPoolExecutor){
+			ThreadPoolExecutor p_ = (ThreadPoolExecutor) pool;
+			sb_.append("# of worker threads:    " + p_.getPoolSize()
+					+ " (" + p_.getActiveCount() + " active, "
+					+ p_.getLargestPoolSize() + " max)\n");
+			sb_.append("# of tasks completed:   " + p_.getCompletedTaskCount() + "\n");
+		}
+		if(workers != null){
+			long processed_ = 0, pending_ = 0;
+			for(Mailbox box_: mailboxes.values()){
+				processed_ += box_.processed;
+				pending_ += box_.queue.size();
+			}
+			sb_.append("Mailbox mode:          " + mailboxes.size() + " mailboxes, "
+					+ pending_ + " pending, " + processed_ + " processed\n");
+			sb_.append("# of mailbox workers:  " + workers.getPoolSize()
+					+ " (" + workers.getActiveThreadCount() + " active, "
+					+ workers.getStealCount() + " steals)\n");
+		}
+		if(shards != null){
+			sb_.append("Sharded mode:          " + shards.length + " shards, "
+					+ affinity.size() + " components\n");
+			for(int i = 0; i < shards.length; i++)
+				sb_.append("   " + shards[i] + "\n");
+		}
+		if(delayedPool instanceof ThreadPoolExecutor)
+			sb_.append("# of delayed tasks:     "
+					+ ((ThreadPoolExecutor) delayedPool).getQueue().size() + "\n");
+		sb_.append(wheel.info());
+		sb_.append("Time:  " + _getTime() + "\n");
+		sb_.append(InetPacket.getPool().info());
+		return sb_.toString();
 	}
 
 	@Override
 	public String a_info(boolean listWaitingTasks_) {
-		// TODO Auto-generated method stub
-		return null;
+		return info();
 	}
 
 	@Override
@@ -84,10 +330,20 @@ public class MobibedRuntime extends ACARuntime{
 		return System.currentTimeMillis();
 	}
 
+	@Override
+	public long getTimeNanos() {
+		return System.nanoTime();
+	}
+
 	@Override
 	protected void _stop(boolean block_) {
 		pool.shutdown();
 		delayedPool.shutdown();
+		wheel.stop();
+		if(workers != null) workers.shutdown();
+		if(shards != null)
+			for(int i = 0; i < shards.length; i++)
+				shards[i].shutdown();
 	}
 
 	@Override
@@ -116,7 +372,24 @@ public class MobibedRuntime extends ACARuntime{
 
 	@Override
 	protected void off(ACATimer handle_) {
-		if(lastScheduledFuture !=null) lastScheduledFuture.cancel(false);
+		if(handle_ == null) return;
+		Object h_ = handle_.handle;
+		if(h_ instanceof TimingWheel.Entry)
+			wheel.cancel((TimingWheel.Entry) h_);
+		else if(h_ instanceof ScheduledFuture)
+			((ScheduledFuture<?>) h_).cancel(false);
+	}
+
+	/** Moves the timer within the timing wheel if it is still pending. */
+	@Override
+	protected ACATimer reschedule(ACATimer handle_, Port which_, Object data_,
+			long delay_) {
+		// in place only if the timer goes to the same port
+		if(handle_ instanceof Task && ((Task) handle_).port == which_
+				&& handle_.handle instanceof TimingWheel.Entry
+				&& wheel.reschedule((TimingWheel.Entry) handle_.handle, data_, delay_))
+			return handle_;
+		return super.reschedule(handle_, which_, data_, delay_);
 	}
 
 	@Override
@@ -0,0 +1,93 @@
+package drcl.mobibed.process;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Worker thread of one shard in {@link MobibedRuntime#MODE_SHARDED sharded
+ * mode}.  It alone runs the tasks of the components assigned to it, in
+ * arrival order, so their state stays in one core's cache and needs no lock.
+ * Producers post to a lock-free queue and wake the worker only if it has
+ * parked.
+ */
+final class Shard extends Thread {
+
+	/** Empty polls before parking. */
+	static final int SPINS = 64;
+	/** <code>Thread.onSpinWait()</code> on JDK 9 and later, null before. */
+	static final MethodHandle SPIN_WAIT = spinWait();
+
+	final int index;
+	final ConcurrentLinkedQueue<Runnable> queue = new ConcurrentLinkedQueue<Runnable>();
+	volatile boolean parked, stopped;
+	// written by the worker only, read racily for statistics
+	long processed, parks;
+
+	Shard(String name_, int index_) {
+		super(name_ + "-shard-" + index_);
+		index = index_;
+		setDaemon(true);
+	}
+
+	void post(Runnable task_) {
+		queue.offer(task_);
+		if(parked)
+			LockSupport.unpark(this);
+	}
+
+	void shutdown() {
+		stopped = true;
+		LockSupport.unpark(this);
+	}
+
+	public void run() {
+		int idle_ = 0;
+		while(!stopped) {
+			Runnable task_ = queue.poll();
+			if(task_ == null) {
+				if(++idle_ < SPINS) {
+					if(SPIN_WAIT != null) {
+						try {
+							SPIN_WAIT.invokeExact();
+						} catch (Throwable e) {}
+					}
+					continue;
+				}
+				// the poster reads parked after its offer, we read the queue
+				// after setting parked: one of us sees the other
+				parked = true;
+				if(queue.isEmpty() && !stopped) {
+					parks++;
+					LockSupport.park(this);
+				}
+				parked = false;
+				idle_ = 0;
+				continue;
+			}
+			idle_ = 0;
+			try {
+				task_.run();
+			} catch (Throwable e) {
+				e.printStackTrace();
+			}
+			processed++;
+		}
+	}
+
+	static MethodHandle spinWait() {
+		try {
+			return MethodHandles.lookup().findStatic(Thread.class, "onSpinWait",
+				MethodType.methodType(void.class));
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	public String toString() {
+		return getName() + ": pending=" + queue.size() + ", processed="
+			+ processed + ", parks=" + parks;
+	}
+}
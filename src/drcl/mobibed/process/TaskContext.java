@@ -0,0 +1,229 @@
+package drcl.mobibed.process;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import drcl.comp.Component;
+import drcl.comp.LockPack;
+import drcl.comp.Task;
+import drcl.comp.WorkerThread;
+import drcl.comp.WorkerThreadInterruptedException;
+
+/**
+ * Execution context of a task in {@link ThreadPerTaskRuntime}.
+ * <p>
+ * Components reach the {@link WorkerThread} API (sleep, lock, wait, notify,
+ * sendReceive) through the runtime's current thread, but the thread that
+ * runs a task there may be a virtual thread, which cannot be a
+ * <code>WorkerThread</code>. A context stands in for it: it is bound to the
+ * running thread for the duration of one task, is never started itself and
+ * is reused for later tasks.
+ * Locks follow the {@link LockPack} bookkeeping of the other runtimes, but
+ * threads block on a <code>ReentrantLock</code> and its conditions rather
+ * than on monitors, so a virtual thread unmounts from its carrier while it
+ * sleeps, waits for a lock or waits on an object.
+ */
+class TaskContext extends WorkerThread {
+
+	/** Thread running the current task. */
+	Thread carrier;
+
+	TaskContext(ThreadPerTaskRuntime runtime_, String name_) {
+		super(name_);
+		runtime = runtime_;
+	}
+
+	void bind(Task task_) {
+		mainContext = currentContext = task_;
+		carrier = Thread.currentThread();
+		setState(State_ACTIVE);
+	}
+
+	void unbind() {
+		mainContext = currentContext = null;
+		returnPort = null;
+		carrier = null;
+		setState(State_INACTIVE);
+	}
+
+	public String info(String prefix_) {
+		return prefix_ + _getName() + ": " + state
+			+ (carrier == null? "": ", on " + carrier)
+			+ (mainContext == null? "": ", " + mainContext) + "\n";
+	}
+
+	protected void sleepFor(long time_) {
+		String old_ = state;
+		setState(State_SLEEPING);
+		try {
+			if (time_ > 0) Thread.sleep(time_);
+		} catch (InterruptedException e) {
+			throw new WorkerThreadInterruptedException();
+		}
+		setState(old_);
+	}
+
+	protected void sleepUntil(long time_) {
+		sleepFor(time_ - runtime.getTime());
+	}
+
+	protected void yieldToRuntime() {
+		if (((ThreadPerTaskRuntime)runtime).stopped)
+			throw new WorkerThreadInterruptedException();
+		Thread.yield();
+	}
+
+	/**
+	 * Lock bookkeeping of one object, guarded by a
+	 * <code>java.util.concurrent</code> lock instead of its monitor, so that
+	 * a virtual thread blocked on it parks without pinning its carrier.
+	 */
+	static final class Pack extends LockPack {
+		final ReentrantLock mutex = new ReentrantLock();
+		final Condition released = mutex.newCondition(); // lock given up
+		final Condition notified = mutex.newCondition();
+		int notifications; // not yet taken by a waiter
+
+		Pack(Object target_) {
+			super(target_);
+		}
+	}
+
+	private Pack lookforLock(Component host_, Object o_) {
+		synchronized (host_) {
+			LockPack p_ = (LockPack)host_.locks;
+			while (p_ != null && (p_.target != o_ || !(p_ instanceof Pack)))
+				p_ = p_.next;
+			if (p_ == null) {
+				p_ = new Pack(o_);
+				p_.next = (LockPack)host_.locks;
+				host_.locks = p_;
+			}
+			return (Pack)p_;
+		}
+	}
+
+	protected void lock(Component host_, Object o_) {
+		Pack p_ = lookforLock(host_, o_);
+		p_.mutex.lock();
+		try {
+			if (p_.holder == this) {
+				p_.counter++;
+				return;
+			}
+			p_.lockReqCount++;
+			try {
+				while (p_.holder != null && !p_.holder.isOrphan())
+					p_.released.await();
+			} catch (InterruptedException e) {
+				throw new WorkerThreadInterruptedException();
+			} finally {
+				p_.lockReqCount--;
+			}
+			p_.holder = this;
+			p_.counter = 1;
+		} finally {
+			p_.mutex.unlock();
+		}
+	}
+
+	protected void unlock(Component host_, Object o_, boolean release_) {
+		Pack p_ = lookforLock(host_, o_);
+		p_.mutex.lock();
+		try {
+			if (p_.holder != this) return;
+			if (release_ || --p_.counter <= 0)
+				release(p_);
+		} finally {
+			p_.mutex.unlock();
+		}
+	}
+
+	/** Gives up the lock; the caller holds <code>p_.mutex</code>. */
+	private void release(Pack p_) {
+		p_.holder = null;
+		p_.counter = 0;
+		if (p_.lockReqCount > 0) p_.released.signalAll();
+	}
+
+	protected void releaseAllLocks(Component host_) {
+		for (LockPack p_ = (LockPack)host_.locks; p_ != null; p_ = p_.next) {
+			if (!(p_ instanceof Pack)) continue;
+			Pack q_ = (Pack)p_;
+			q_.mutex.lock();
+			try {
+				if (q_.holder == this) release(q_);
+			} finally {
+				q_.mutex.unlock();
+			}
+		}
+	}
+
+	protected void wait(Component host_, Object o_) {
+		Pack p_ = lookforLock(host_, o_);
+		String old_ = state;
+		int counter_ = 0;
+		p_.mutex.lock();
+		try {
+			if (p_.holder == this) {
+				counter_ = p_.counter;
+				release(p_);
+			}
+			p_.waitCount++;
+			setState(State_WAITING);
+			try {
+				while (p_.notifications == 0)
+					p_.notified.await();
+			} catch (InterruptedException e) {
+				p_.waitCount--;
+				throw new WorkerThreadInterruptedException();
+			}
+			p_.notifications--;
+			// re-grab the lock if it was held
+			if (counter_ > 0) {
+				p_.lockReqCount++;
+				try {
+					while (p_.holder != null && !p_.holder.isOrphan())
+						p_.released.await();
+				} catch (InterruptedException e) {
+					throw new WorkerThreadInterruptedException();
+				} finally {
+					p_.lockReqCount--;
+				}
+				p_.holder = this;
+				p_.counter = counter_;
+			}
+		} finally {
+			p_.mutex.unlock();
+		}
+		setState(old_);
+	}
+
+	protected void notify(Component host_, Object o_) {
+		if (o_ == null) return;
+		Pack p_ = lookforLock(host_, o_);
+		p_.mutex.lock();
+		try {
+			if (p_.waitCount == 0) return;
+			p_.waitCount--;
+			p_.notifications++;
+			p_.notified.signal();
+		} finally {
+			p_.mutex.unlock();
+		}
+	}
+
+	protected void notifyAll(Component host_, Object o_) {
+		if (o_ == null) return;
+		Pack p_ = lookforLock(host_, o_);
+		p_.mutex.lock();
+		try {
+			if (p_.waitCount == 0) return;
+			p_.notifications += p_.waitCount;
+			p_.waitCount = 0;
+			p_.notified.signalAll();
+		} finally {
+			p_.mutex.unlock();
+		}
+	}
+}
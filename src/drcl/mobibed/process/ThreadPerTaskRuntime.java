@@ -0,0 +1,231 @@
+package drcl.mobibed.process;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import drcl.comp.ACARuntime;
+import drcl.comp.ACATimer;
+import drcl.comp.Port;
+import drcl.comp.Task;
+import drcl.comp.WorkerThread;
+import drcl.comp.WorkerThreadInterruptedException;
+import drcl.util.queue.LockFreeRing;
+
+/**
+ * Runtime that runs every task in a thread of its own.
+ * <p>
+ * On a JVM with virtual threads (Java 21 and later) the threads are virtual,
+ * so a component that blocks in <code>sleep</code>, <code>wait</code>,
+ * <code>lock</code> or <code>Port.sendReceive</code> only parks its virtual
+ * thread and many thousands of blocking sessions can share a few carrier
+ * threads. On older JVMs it falls back to daemon platform threads.
+ * The {@link WorkerThread} API is provided by a pooled {@link TaskContext}
+ * bound to the running thread. Delayed tasks wait in a {@link TimingWheel}.
+ */
+public class ThreadPerTaskRuntime extends ACARuntime{
+	private static final long serialVersionUID = 1L;
+
+	/** Number of idle task contexts kept for reuse. */
+	public static final int CONTEXT_POOL_SIZE = 1024;
+
+	private final ThreadFactory factory;
+	private final boolean virtual;
+	private final ThreadLocal<TaskContext> current = new ThreadLocal<TaskContext>();
+	private final LockFreeRing<TaskContext> contexts =
+		new LockFreeRing<TaskContext>(CONTEXT_POOL_SIZE);
+	private final AtomicInteger ncontexts = new AtomicInteger();
+	private final AtomicInteger active = new AtomicInteger();
+	private final AtomicLong started = new AtomicLong();
+	private final AtomicLong completed = new AtomicLong();
+	private final TimingWheel wheel;
+	volatile boolean stopped;
+
+	public ThreadPerTaskRuntime(){
+		this("default");
+	}
+
+	public ThreadPerTaskRuntime(String name_){
+		super(name_);
+		ThreadFactory f_ = virtualThreadFactory(name_);
+		virtual = f_ != null;
+		factory = virtual? f_: platformThreadFactory(name_);
+		wheel = new TimingWheel(name_ + "-timer", new Executor(){
+			public void execute(Runnable task_)
+			{ launch((Task) task_); }
+		});
+	}
+
+	/** Returns a factory of virtual threads, or null if the JVM has none. */
+	static ThreadFactory virtualThreadFactory(String name_){
+		try {
+			Method ofVirtual_ = Thread.class.getMethod("ofVirtual");
+			Class<?> builderClass_ = Class.forName("java.lang.Thread$Builder");
+			Object builder_ = ofVirtual_.invoke(null);
+			builder_ = builderClass_.getMethod("name", String.class, long.class)
+				.invoke(builder_, name_ + "-vt-", 0L);
+			return (ThreadFactory) builderClass_.getMethod("factory").invoke(builder_);
+		} catch (Exception e) {
+			// no virtual threads before Java 21
+			return null;
+		}
+	}
+
+	static ThreadFactory platformThreadFactory(final String name_){
+		return new ThreadFactory(){
+			final AtomicInteger count = new AtomicInteger();
+			public Thread newThread(Runnable r_){
+				Thread t_ = new Thread(r_, name_ + "-" + count.getAndIncrement());
+				t_.setDaemon(true);
+				return t_;
+			}
+		};
+	}
+
+	public boolean isVirtual()
+	{ return virtual; }
+
+	@Override
+	protected void newTask(Task task_) {
+		long later_ = task_.getTime();
+		if(later_ == 0)
+			launch(task_);
+		else
+			wheel.schedule(task_, later_);
+	}
+
+	@Override
+	protected void newTask(Task task_, WorkerThread current_) {
+		newTask(task_);
+	}
+
+	void launch(final Task task_){
+		if(stopped) return;
+		started.incrementAndGet();
+		factory.newThread(new Runnable(){
+			public void run()
+			{ execute(task_); }
+		}).start();
+	}
+
+	void execute(Task task_){
+		TaskContext ctx_ = contexts.poll();
+		if(ctx_ == null)
+			ctx_ = new TaskContext(this, name + "-ctx-" + ncontexts.getAndIncrement());
+		ctx_.bind(task_);
+		current.set(ctx_);
+		active.incrementAndGet();
+		// the task may be recycled by the time it returns
+		Port port_ = task_.port;
+		try {
+			task_.run();
+		} catch (WorkerThreadInterruptedException e) {
+			// runtime stopped while the task was blocked
+		} catch (Throwable e) {
+			e.printStackTrace();
+		} finally {
+			// don't hold locks across executions
+			if(port_ != null)
+				ctx_.releaseAllLocks(port_.host);
+			ctx_.unbind();
+			current.remove();
+			active.decrementAndGet();
+			completed.incrementAndGet();
+			contexts.offer(ctx_);
+		}
+	}
+
+	/** Returns the context of the task running in the current thread. */
+	@Override
+	protected WorkerThread getThread() {
+		return current.get();
+	}
+
+	@Override
+	public String info() {
+		StringBuffer sb_ = new StringBuffer(toString());
+		sb_.append("\n");
+		sb_.append("Threads:               " + (virtual? "virtual": "platform") + "\n");
+		sb_.append("# of tasks:            " + started.get() + " started, "
+				+ active.get() + " running, " + completed.get() + " completed\n");
+		sb_.append("# of task contexts:    " + ncontexts.get() + " ("
+				+ contexts.size() + " idle)\n");
+		sb_.append(wheel.info());
+		sb_.append("Time:  " + _getTime() + "\n");
+		return sb_.toString();
+	}
+
+	@Override
+	public String a_info(boolean listWaitingTasks_) {
+		return info();
+	}
+
+	@Override
+	public long getNumberOfArrivalEvents() {
+		return started.get();
+	}
+
+	@Override
+	public double getEventRate() {
+		return 0;
+	}
+
+	@Override
+	protected long _getTime() {
+		return System.currentTimeMillis();
+	}
+
+	@Override
+	public long getTimeNanos() {
+		return System.nanoTime();
+	}
+
+	@Override
+	protected void _stop(boolean block_) {
+		// timers that expire while stopped are dropped
+		stopped = true;
+	}
+
+	@Override
+	public void resume() {
+		stopped = false;
+	}
+
+	@Override
+	public void reset() {
+	}
+
+	@Override
+	public long getWallTimeElapsed() {
+		return 0;
+	}
+
+	@Override
+	protected String t_info(String prefix_) {
+		return prefix_ + active.get() + " running tasks\n";
+	}
+
+	@Override
+	protected void off(ACATimer handle_) {
+		if(handle_ != null && handle_.handle instanceof TimingWheel.Entry)
+			wheel.cancel((TimingWheel.Entry) handle_.handle);
+	}
+
+	@Override
+	protected ACATimer reschedule(ACATimer handle_, Port which_, Object data_,
+			long delay_) {
+		// in place only if the timer goes to the same port
+		if(handle_ instanceof Task && ((Task) handle_).port == which_
+				&& handle_.handle instanceof TimingWheel.Entry
+				&& wheel.reschedule((TimingWheel.Entry) handle_.handle, data_, delay_))
+			return handle_;
+		return super.reschedule(handle_, which_, data_, delay_);
+	}
+
+	@Override
+	public Object getEventQueue() {
+		return null;
+	}
+}
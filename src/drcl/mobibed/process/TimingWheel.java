@@ -0,0 +1,208 @@
+package drcl.mobibed.process;
+
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.LockSupport;
+
+import drcl.comp.Task;
+
+/**
+ * Hashed timing wheel for the delayed tasks of {@link MobibedRuntime}.
+ * <p>
+ * Time is cut into ticks of {@link #getTick()} milliseconds and a task due at
+ * tick <i>t</i> is linked into bucket <i>t</i> mod {@link #getWheelSize()}.
+ * Scheduling, cancelling and re-arming a task only link or unlink it from
+ * a bucket, so they take constant time however many timers are pending.
+ * A single daemon thread advances the wheel and hands expired tasks to the
+ * executor; tasks further away than one revolution stay in their bucket
+ * until their tick comes round.
+ * <p>
+ * The {@link Entry} of a scheduled task is kept in its
+ * {@link drcl.comp.ACATimer#handle handle}.
+ */
+public class TimingWheel implements Runnable {
+
+	public static final long DEFAULT_TICK = 1; // ms
+	public static final int DEFAULT_WHEEL_SIZE = 512;
+
+	final long tick;
+	final long tickNanos;
+	final int mask;
+	final Entry[] buckets;
+	final Executor executor;
+	final long start = System.nanoTime();
+	final Thread thread;
+
+	long currentTick; // last tick whose bucket has been expired
+	int size;
+	volatile boolean idle;
+	volatile boolean stopped;
+
+	// statistics
+	long scheduled, cancelled, rearmed, expired;
+
+	public TimingWheel(String name_, Executor executor_) {
+		this(name_, executor_, DEFAULT_TICK, DEFAULT_WHEEL_SIZE);
+	}
+
+	public TimingWheel(String name_, Executor executor_, long tick_, int wheelSize_) {
+		int n_ = 2;
+		while(n_ < wheelSize_) n_ <<= 1;
+		tick = tick_;
+		tickNanos = tick_ * 1000000L;
+		mask = n_ - 1;
+		buckets = new Entry[n_];
+		for(int i = 0; i < n_; i++)
+			buckets[i] = new Entry(null);
+		executor = executor_;
+		thread = new Thread(this, name_);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public long getTick()
+	{ return tick; }
+
+	public int getWheelSize()
+	{ return buckets.length; }
+
+	/** Returns the number of pending tasks. */
+	public synchronized int size()
+	{ return size; }
+
+	long now() {
+		return (System.nanoTime() - start) / tickNanos;
+	}
+
+	/** Ticks from now at which a task due <code>delay_</code> ms later expires. */
+	long deadline(long delay_) {
+		long d_ = now() + (delay_ + tick - 1) / tick;
+		return d_ <= currentTick? currentTick + 1: d_;
+	}
+
+	/** Schedules the task to be handed to the executor <code>delay_</code> ms later. */
+	public Entry schedule(Task task_, long delay_) {
+		Entry e_ = new Entry(task_);
+		task_.handle = e_;
+		boolean wasIdle_;
+		synchronized (this) {
+			e_.deadline = deadline(delay_);
+			link(e_);
+			scheduled++;
+			wasIdle_ = idle;
+		}
+		if(wasIdle_) LockSupport.unpark(thread);
+		return e_;
+	}
+
+	/**
+	 * Moves a pending task to expire <code>delay_</code> ms from now and
+	 * replaces its data with <code>data_</code>.
+	 * Returns false if the task is no longer pending, in which case it is
+	 * left alone.
+	 */
+	public boolean reschedule(Entry e_, Object data_, long delay_) {
+		synchronized (this) {
+			if(e_.prev == null) return false;
+			unlink(e_);
+			e_.deadline = deadline(delay_);
+			e_.task.data = data_;
+			link(e_);
+			rearmed++;
+		}
+		return true;
+	}
+
+	/** Removes the task from the wheel; returns false if it is no longer pending. */
+	public synchronized boolean cancel(Entry e_) {
+		if(e_.prev == null) return false;
+		unlink(e_);
+		cancelled++;
+		return true;
+	}
+
+	public void stop() {
+		stopped = true;
+		LockSupport.unpark(thread);
+	}
+
+	void link(Entry e_) {
+		Entry head_ = buckets[(int)e_.deadline & mask];
+		e_.prev = head_.prev;
+		e_.next = head_;
+		head_.prev.next = e_;
+		head_.prev = e_;
+		size++;
+	}
+
+	void unlink(Entry e_) {
+		e_.prev.next = e_.next;
+		e_.next.prev = e_.prev;
+		e_.prev = e_.next = null;
+		size--;
+	}
+
+	public void run() {
+		ArrayList<Task> due_ = new ArrayList<Task>();
+		while(!stopped) {
+			synchronized (this) {
+				long target_ = now();
+				if(size == 0)
+					currentTick = target_;
+				else {
+					// one revolution visits every bucket, whatever the lag
+					long n_ = Math.min(target_ - currentTick, buckets.length);
+					for(long t = currentTick + 1; t <= currentTick + n_; t++)
+						expire(buckets[(int)t & mask], target_, due_);
+					currentTick = target_;
+				}
+				idle = size == 0;
+			}
+			for(int i = 0; i < due_.size(); i++) {
+				try {
+					executor.execute(due_.get(i));
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+			}
+			due_.clear();
+			if(idle)
+				LockSupport.park(this);
+			else {
+				long next_ = start + (currentTick + 1) * tickNanos - System.nanoTime();
+				if(next_ > 0) LockSupport.parkNanos(this, next_);
+			}
+		}
+	}
+
+	void expire(Entry head_, long target_, ArrayList<Task> due_) {
+		Entry e_ = head_.next;
+		while(e_ != head_) {
+			Entry next_ = e_.next;
+			if(e_.deadline <= target_) {
+				unlink(e_);
+				due_.add(e_.task);
+				expired++;
+			}
+			e_ = next_;
+		}
+	}
+
+	public synchronized String info() {
+		return "TimingWheel: " + buckets.length + " x " + tick + "ms, pending="
+			+ size + ", scheduled=" + scheduled + ", rearmed=" + rearmed
+			+ ", cancelled=" + cancelled + ", expired=" + expired + "\n";
+	}
+
+	/** Place of a task in the wheel. */
+	public static final class Entry {
+		final Task task;
+		long deadline;
+		Entry prev, next;
+
+		Entry(Task task_) {
+			task = task_;
+			if(task_ == null) prev = next = this; // bucket head
+		}
+	}
+}
@@ -74,6 +74,10 @@ public class Module extends drcl.comp.Component
 	 */
 	protected Port timerPort = addForkPort(".timer");
 
+	/** If true, the module records packet timestamps in
+	 * {@link drcl.util.LatencyTracer}. */
+	protected boolean latencyTrace = false;
+
 	public Module()
 	{ super(null); }
 	
@@ -85,6 +89,13 @@ public class Module extends drcl.comp.Component
 		super.duplicate(source_);
 	}
 	
+	/** Enables or disables latency tracing in this module. */
+	public void setLatencyTraceEnabled(boolean enabled_)
+	{ latencyTrace = enabled_; }
+	
+	public boolean isLatencyTraceEnabled()
+	{ return latencyTrace; }
+	
 	/**
 	 * Delivers <code>data_</code> at the (up) port specified.
 	 * Returns false if failed (e.g. port does not exist).
@@ -201,6 +212,19 @@ public class Module extends drcl.comp.Component
 		cancelFork(handle_);
 	}
 	
+	/** Re-arms a timeout event to fire at the specified time later with
+	 * <code>evt_</code>, or sets up a new one if <code>handle_</code> is null.
+	 * Returns the timer object to use from now on.
+	 * @see #timeout(Object) */
+	public final ACATimer resetTimeout(ACATimer handle_, Object evt_, long delay_)
+	{
+		if (timerPort == null) {
+			error(evt_, "resetTimeout()", infoPort, "no timerPort is defined");
+			return null;
+		}
+		return refork(handle_, timerPort, evt_, delay_);
+	}
+	
 	/** Removes the equipped down port (<code>down@</code>), if it is not used by this module.
 	This method should be called in the construction code block. */
 	protected void removeDefaultDownPort()
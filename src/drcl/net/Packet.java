@@ -287,6 +287,21 @@ public abstract class Packet //extends drcl.DrclObj
 	
 	public abstract int encode(byte[] bytes, int pos);
 
+	/**
+	 * Encodes this packet into <code>buf_</code> starting at
+	 * <code>pos</code>, without moving the buffer's position.
+	 * By default, the packet is encoded into a scratch array and copied;
+	 * subclasses that write to the buffer directly should override it.
+	 * @return the number of bytes written.
+	 */
+	public int encode(java.nio.ByteBuffer buf_, int pos)
+	{
+		byte[] tmp_ = new byte[buf_.capacity() - pos];
+		int len_ = encode(tmp_, 0);
+		for (int i=0; i<len_; i++) buf_.put(pos + i, tmp_[i]);
+		return len_;
+	}
+
 	public void reset() {
 		body = null;
 		size = 0;
@@ -32,7 +32,6 @@ import java.util.*;
 import drcl.comp.*;
 
 import drcl.mobibed.process.MobibedRuntime;
-import drcl.util.TimeLog;
 
 
 /**
@@ -46,13 +45,16 @@ import drcl.util.TimeLog;
  * One may specify the shell class, the terminal class and/or the initial script to execute.
  * By default, <code>Dterm</code> and <code>ShellTcl</code> will be used to start the system.
  * The complete usage is as follows:<br>
- * <pre>drcl.ruv.System ?-auenh? ?-s &ltshell_class&gt? ?-t &ltterminal_class&gt? ?&ltinit_script&gt?
+ * <pre>drcl.ruv.System ?-auenh? ?-s &ltshell_class&gt? ?-t &ltterminal_class&gt? ?-r &ltruntime&gt? ?&ltinit_script&gt?
  *      -a	use the RUV system as part of other programs (e.g. GUI), where "exit" or
  *          "quit" only terminates the terminal instead of the Java program.
  *      -u	uninteractive execution; no terminal is created.
  *      -e	end the Java program when there is no activity in the system; used with the "-u" option.
  *      -h	display help.
  *      -n	no terminal display.
+ *      -r	runtime used by <code>attach_mobibed</code>: "pool" (default), "mailbox",
+ *          "sharded" (a thread per core, flows pinned to one) or "thread" (a
+ *          virtual thread per task where available).
  * </pre>
  */
 public class System extends Component
@@ -166,6 +168,7 @@ public class System extends Component
 		// -e end program if no activity in all runtimes
 		// -d debug
 		// -n no terminal display
+		// -r runtime for attach_mobibed
 		// init script
 
 		RUNTIME = new MobibedRuntime("ruv");
@@ -190,6 +193,8 @@ public class System extends Component
 			for (int i=0; i<args.length; i++) {
 				if (args[i].startsWith("-s")) shellClass_ = args[++i];
 				else if (args[i].startsWith("-t")) termClass_ = args[++i];
+				else if (args[i].startsWith("-r"))
+					drcl.mobibed.MobibedAssistant.setDefaultRuntime(args[++i]);
 				else if (args[i].startsWith("-")) {
 					if (args[i].indexOf("a") > 0) auxiliary_ = true;
 					if (args[i].indexOf("u") > 0) uninteractive_ = true;
@@ -460,12 +465,13 @@ public class System extends Component
 	
 	static void usage()
 	{
-		java.lang.System.out.println("System [-ubh] [-s shell_class] [-t term_class] [init script]");
+		java.lang.System.out.println("System [-ubh] [-s shell_class] [-t term_class] [-r runtime] [init script]");
 		java.lang.System.out.println("Options:");
 		java.lang.System.out.println("    -u: use the RUV system as part of other programs (e.g. GUI).");
 		java.lang.System.out.println("    -b: execute a script uninteractively.");
 		java.lang.System.out.println("    -e: end the program when simulation is stopped .");
 		java.lang.System.out.println("    -h: display help.");
+		java.lang.System.out.println("    -r: runtime for attach_mobibed: pool, mailbox, sharded or thread.");
 		java.lang.System.exit(1);
 	}
 	
@@ -583,9 +589,8 @@ public class System extends Component
 		return null;
 	}
 
+	// latency records stay for the 'latency' command
 	public static void finish() {
-		TimeLog.print();
-		TimeLog.clear();
 		WAITING_CNT = -1;
 	}
 }
@@ -804,6 +804,9 @@ proc attach_simulator args {
 	} elseif [string match $workforce_ event-old] {
 		set start_ 1
 		set sim_ [java::new drcl.sim.event.SESimulatorOld]
+	} elseif [string match $workforce_ event-parallel] {
+		set start_ 1
+		set sim_ [java::new drcl.sim.event.PSESimulator]
 	} elseif [catch {set workforce_ [expr $workforce_ + 0]}] {
 		set start_ 0
 		set sim_ [!!! [java::call drcl.sim.SimulatorAssistant defaultInstance]]
@@ -0,0 +1,660 @@
+package drcl.sim.event;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+
+import drcl.comp.*;
+import drcl.inet.Link;
+import drcl.inet.core.NI_LinkEmulation;
+import drcl.util.queue.CalendarQueue;
+import drcl.util.queue.FIFOQueue;
+
+/**
+ * Conservative parallel version of {@link SESimulator}.
+ * <p>
+ * The components taken over are split into partitions, each a logical
+ * process (LP) with its own event queue and time.  Every child of a component
+ * passed to {@link #takeover(Component)} goes to a partition with all its
+ * descendants, round-robin in the order of the children's IDs, unless
+ * {@link #setPartition(Component, int)} says otherwise.  A {@link Link},
+ * which only forwards data with a delay, runs in the partition that sends it
+ * the data.
+ * <p>
+ * The LPs advance in time windows as long as the lookahead, by default the
+ * smallest propagation delay of the links ({@link Link} or
+ * {@link NI_LinkEmulation}) between two partitions.  With the first pending
+ * event at T, each LP processes its events before T + lookahead in order,
+ * one thread at a time as {@link SESimulator} does, while the LPs run in
+ * parallel.  The events an LP schedules in another are due no earlier than
+ * the end of the window, so they are held until all LPs reach it, then
+ * merged in the order of time, sending LP and sending order.  A run is thus
+ * the same whatever the thread timing, and the same as the sequential one
+ * but for the order of events at exactly the same time in different
+ * partitions.
+ * <p>
+ * Components in different partitions must talk only over links with delay.
+ * An event that arrives in a partition already past its time is counted in
+ * {@link #getNumberOfLateEvents()} and reported once.  A thread must not
+ * wait on an object that a thread of another partition notifies, and a
+ * component that runs in the partition of its sender must be thread-safe.
+ * A stop takes effect in every partition at the event being processed, and
+ * the partitions may be up to one lookahead apart in time.
+ */
+public class PSESimulator extends SESimulator
+{
+	private static final long serialVersionUID = 1L;
+
+	public static final String Debug_WINDOW = "WINDOW";
+
+	/** Logical process: the events of a partition. */
+	static final class LP
+	{
+		final int id;
+		final CalendarQueue queue = new CalendarQueue(); // future events
+		final FIFOQueue ready = new FIFOQueue(); // events due now
+		// from other LPs and threads, guarded by itself
+		final ArrayList<Message> incoming = new ArrayList<Message>();
+		long time; // of the last event taken
+		long sent; // events scheduled in other LPs
+		long events; // taken
+
+		LP(int id_)
+		{ id = id_; }
+
+		// by the thread working for the LP, or at the barrier
+		void add(Task task_)
+		{
+			if (task_.getTime() <= time) ready.enqueue(task_);
+			else queue.enqueue(task_.getTime(), task_);
+		}
+
+		// the next event before end_, null if none
+		Task next(long end_)
+		{
+			if (ready.isEmpty()) {
+				if (queue.isEmpty() || queue.firstKey() >= end_) return null;
+				queue.dequeueTransfer(ready);
+			}
+			Task task_ = (Task)ready.dequeue();
+			if (task_.getTime() > time) time = task_.getTime();
+			events++;
+			return task_;
+		}
+
+		// time of the first event, Long.MAX_VALUE if none
+		long first()
+		{
+			if (!ready.isEmpty()) return time;
+			return queue.isEmpty()? Long.MAX_VALUE: queue.firstKey();
+		}
+
+		int getLength()
+		{ return ready.getLength() + queue.getLength(); }
+
+		// moves all the events to tasks_, in time order
+		void drainTo(ArrayList<Task> tasks_)
+		{
+			while (!ready.isEmpty()) tasks_.add((Task)ready.dequeue());
+			while (!queue.isEmpty()) tasks_.add((Task)queue.dequeue());
+		}
+
+		// removes the event, returns false if it is in neither queue
+		boolean remove(Task task_)
+		{
+			return queue.remove(task_.getTime(), task_) != null
+				|| ready.remove(task_) != null;
+		}
+	}
+
+	/** Event scheduled in another LP. */
+	static final class Message
+	{
+		final Task task;
+		final int from; // -1 if not from an LP
+		final long seq;
+
+		Message(Task task_, int from_, long seq_)
+		{
+			task = task_;
+			from = from_;
+			seq = seq_;
+		}
+	}
+
+	static final Comparator<Message> ORDER = new Comparator<Message>() {
+		public int compare(Message m1_, Message m2_)
+		{
+			long t1_ = m1_.task.getTime(), t2_ = m2_.task.getTime();
+			if (t1_ != t2_) return t1_ < t2_? -1: 1;
+			if (m1_.from != m2_.from) return m1_.from < m2_.from? -1: 1;
+			return m1_.seq < m2_.seq? -1: (m1_.seq == m2_.seq? 0: 1);
+		}
+	};
+
+	// the partition of a component that runs where its data comes from
+	static final LP NONE = new LP(-1);
+
+	/** Worker thread that knows the LP it works for. */
+	static class Worker extends SEThread
+	{
+		LP lp;
+
+		Worker(ThreadGroup group_, String name_)
+		{ super(group_, name_); }
+	}
+
+	int npartitions = Runtime.getRuntime().availableProcessors();
+	long lookahead = 0; // 0: from the links
+	final Vector<Component> roots = new Vector<Component>(); // taken over
+	// set by setPartition(), negative for NONE
+	final HashMap<Component, Integer> assigned =
+		new HashMap<Component, Integer>();
+
+	transient volatile LP[] lps;
+	transient volatile long windowEnd;
+	transient long window; // lookahead in use
+	transient int active; // LPs working in the current window
+	transient long windows, late;
+	final transient ConcurrentHashMap<Component, LP> components =
+		new ConcurrentHashMap<Component, LP>();
+	// of TaskSend ports, by where the data goes
+	final transient ConcurrentHashMap<Port, LP> ports =
+		new ConcurrentHashMap<Port, LP>();
+
+	public PSESimulator()
+	{ this("PSESim"); }
+
+	public PSESimulator(String name_)
+	{ super(name_); }
+
+	{
+		tr.setTraces(new String[]{Debug_THREAD, Debug_Q, Debug_RECYCLE,
+			Debug_STATE, Debug_THREAD_STATE, Debug_WINDOW});
+	}
+
+	//
+	private void ___PARTITION___() {}
+	//
+
+	public void takeover(Component c_)
+	{
+		super.takeover(c_);
+		if (!roots.contains(c_)) roots.addElement(c_);
+	}
+
+	/** Sets the number of partitions, the number of processors by default.
+	 * Can only be set when INACTIVE. */
+	public synchronized void setPartitions(int n_)
+	{
+		if (state != State_INACTIVE)
+			drcl.Debug.error(this, "setPartitions(): can only be set when "
+				+ "INACTIVE.");
+		else
+			npartitions = Math.max(1, n_);
+	}
+
+	public int getPartitions()
+	{ return npartitions; }
+
+	/**
+	 * Assigns the component, with its descendants, to partition
+	 * <code>i_</code> (modulo the number of partitions).  A negative
+	 * <code>i_</code> makes it run in the partition of whoever sends it
+	 * data; it must then be thread-safe.  Takes effect the next time the
+	 * simulation starts from INACTIVE.
+	 */
+	public synchronized void setPartition(Component c_, int i_)
+	{ assigned.put(c_, new Integer(i_)); }
+
+	/** Returns the partition of the component, -1 if it runs in the
+	 * partition of its sender or none is assigned yet. */
+	public int getPartition(Component c_)
+	{
+		LP lp_ = lps == null? null: _lpOf(c_);
+		return lp_ == null? -1: lp_.id;
+	}
+
+	/** Sets the lookahead, 0 to take the smallest delay of the links
+	 * between partitions.  Can only be set when INACTIVE. */
+	public synchronized void setLookahead(long lookahead_)
+	{
+		if (state != State_INACTIVE)
+			drcl.Debug.error(this, "setLookahead(): can only be set when "
+				+ "INACTIVE.");
+		else
+			lookahead = Math.max(0, lookahead_);
+	}
+
+	/** Returns the lookahead in use, or the one set if not started yet. */
+	public long getLookahead()
+	{ return lookahead > 0 || lps == null? lookahead: window; }
+
+	public long getNumberOfWindows()
+	{ return windows; }
+
+	/** Returns the number of events that arrived in a partition already past
+	 * their time, because they came with less delay than the lookahead. */
+	public long getNumberOfLateEvents()
+	{ return late; }
+
+	// LP of the task, null if it runs where it is created
+	LP _lpOf(Task task_)
+	{
+		Port p_ = task_.port;
+		if (p_ == null) return null;
+		if (!(task_ instanceof TaskSend)) return _lpOf(p_.host);
+		// runs at the peers
+		LP lp_ = ports.get(p_);
+		if (lp_ == null) {
+			lp_ = NONE;
+			Port[] peers_ = p_.getPeers();
+			for (int i=0; i<peers_.length && lp_ == NONE; i++) {
+				LP peer_ = _lpOf(peers_[i].host);
+				if (peer_ != null) lp_ = peer_;
+			}
+			ports.put(p_, lp_);
+		}
+		return lp_ == NONE? null: lp_;
+	}
+
+	// LP of the component, null if it runs where its data comes from
+	LP _lpOf(Component c_)
+	{
+		if (c_ == null) return null;
+		LP lp_ = components.get(c_);
+		if (lp_ == null) {
+			Component parent_ = c_.getParent();
+			if (parent_ == null || roots.contains(c_))
+				lp_ = NONE;
+			else if (roots.contains(parent_))
+				// a partition unit added since the simulation started
+				lp_ = c_ instanceof Link? NONE: lps[(String.valueOf(c_.id)
+					.hashCode() & 0x7fffffff) % lps.length];
+			else {
+				lp_ = _lpOf(parent_);
+				if (lp_ == null) lp_ = NONE;
+			}
+			LP old_ = components.putIfAbsent(c_, lp_);
+			if (old_ != null) lp_ = old_;
+		}
+		return lp_ == NONE? null: lp_;
+	}
+
+	// assigns the components to new LPs and finds the lookahead
+	void _partition()
+	{
+		LP[] lps_ = new LP[npartitions];
+		for (int i=0; i<lps_.length; i++) {
+			lps_[i] = new LP(i);
+			lps_[i].time = time;
+		}
+		components.clear();
+		ports.clear();
+		for (Component c_: assigned.keySet()) {
+			int i = assigned.get(c_).intValue();
+			components.put(c_, i < 0? NONE: lps_[i % lps_.length]);
+		}
+
+		// the children of the roots, in the order of their IDs
+		ArrayList<Component> units_ = new ArrayList<Component>();
+		for (int i=0; i<roots.size(); i++) {
+			Component[] cc_ = roots.elementAt(i).getAllComponents();
+			for (int j=0; j<cc_.length; j++)
+				if (!(cc_[j] instanceof Link) && !assigned.containsKey(cc_[j]))
+					units_.add(cc_[j]);
+		}
+		Collections.sort(units_, new Comparator<Component>() {
+			public int compare(Component c1_, Component c2_)
+			{ return String.valueOf(c1_.id).compareTo(String.valueOf(c2_.id)); }
+		});
+		for (int i=0; i<units_.size(); i++)
+			components.putIfAbsent(units_.get(i), lps_[i % lps_.length]);
+		lps = lps_;
+
+		if (lookahead > 0)
+			window = lookahead;
+		else {
+			long min_ = Long.MAX_VALUE;
+			for (int i=0; i<roots.size(); i++)
+				min_ = _minDelay(roots.elementAt(i), min_);
+			window = min_ == Long.MAX_VALUE? min_: Math.max(1, min_);
+		}
+	}
+
+	// smallest delay of the links between partitions under c_
+	long _minDelay(Component c_, long min_)
+	{
+		Component[] cc_ = c_.getAllComponents();
+		for (int i=0; i<cc_.length; i++) {
+			Component child_ = cc_[i];
+			long delay_ = -1;
+			if (child_ instanceof Link)
+				delay_ = (long)((Link)child_).getPropDelay();
+			else if (child_ instanceof NI_LinkEmulation
+				&& ((NI_LinkEmulation)child_).isLinkEmulationEnabled())
+				delay_ = (long)((NI_LinkEmulation)child_).getPropDelay();
+			if (delay_ >= 0 && delay_ < min_ && _crosses(child_))
+				min_ = delay_;
+			min_ = _minDelay(child_, min_);
+		}
+		return min_;
+	}
+
+	// true if the component connects to a partition other than its own, or
+	// to two if it has none
+	boolean _crosses(Component c_)
+	{
+		LP own_ = _lpOf(c_), other_ = null;
+		Port[] pp_ = c_.getAllPorts();
+		for (int i=0; i<pp_.length; i++) {
+			if (pp_[i] == null) continue;
+			Port[] peers_ = pp_[i].getPeers();
+			for (int j=0; j<peers_.length; j++) {
+				LP lp_ = _lpOf(peers_[j].host);
+				if (lp_ == null) continue;
+				if (own_ != null? lp_ != own_: other_ != null && lp_ != other_)
+					return true;
+				other_ = lp_;
+			}
+		}
+		return false;
+	}
+
+	// moves the pending events to new LPs, keeping those that run where they
+	// are created in the LP of the same number
+	void _repartition()
+	{
+		LP[] old_ = lps;
+		ArrayList<Task> pending_ = new ArrayList<Task>();
+		ArrayList<Integer> from_ = new ArrayList<Integer>();
+		if (old_ != null)
+			for (int i=0; i<old_.length; i++) {
+				_merge(old_[i]);
+				old_[i].drainTo(pending_);
+				while (from_.size() < pending_.size())
+					from_.add(Integer.valueOf(i));
+			}
+		_partition();
+		for (int i=0; i<pending_.size(); i++) {
+			Task task_ = pending_.get(i);
+			LP to_ = _lpOf(task_);
+			if (to_ == null) to_ = lps[from_.get(i).intValue() % lps.length];
+			to_.add(task_);
+		}
+	}
+
+	//
+	private void ___WINDOW___() {}
+	//
+
+	static LP _current()
+	{
+		Thread t_ = Thread.currentThread();
+		return t_ instanceof Worker? ((Worker)t_).lp: null;
+	}
+
+	protected long _getTime()
+	{
+		LP lp_ = _current();
+		return lp_ == null? time: lp_.time;
+	}
+
+	protected SEThread newThread(ThreadGroup threadGroup_)
+	{ return new Worker(threadGroup_, String.valueOf(total)); }
+
+	protected void newTask(Task task_, WorkerThread current_)
+	{
+		if (resetting || task_ == null) return;
+		if (lps == null)
+			synchronized (this) { if (lps == null) _partition(); }
+		LP from_ = _current();
+		LP to_ = _lpOf(task_);
+		if (to_ == null) to_ = from_ == null? lps[0]: from_;
+		if (to_ == from_) {
+			from_.add(task_);
+			return;
+		}
+		Message m_ = from_ == null? new Message(task_, -1, 0):
+			new Message(task_, from_.id, from_.sent++);
+		synchronized (to_.incoming) { to_.incoming.add(m_); }
+		if (from_ == null)
+			synchronized (this) {
+				// ends the running window for the event to be merged
+				if (active > 0 || suspended) windowEnd = Long.MIN_VALUE;
+				else _nextWindow(null);
+			}
+	}
+
+	protected ACATimer send(Port p_, Object evt_, long duration_)
+	{ return sendAt(p_, evt_, duration_ <= 0? 0: duration_ + _getTime()); }
+
+	Task getTask()
+	{
+		if (resetting) return null;
+		Thread t_ = Thread.currentThread();
+		Worker w_ = t_ instanceof Worker? (Worker)t_: null;
+		if (w_ != null && w_.lp != null) {
+			Task task_ = w_.lp.next(windowEnd);
+			if (task_ != null) return task_;
+			w_.lp = null;
+			synchronized (this) {
+				return --active > 0? null: _nextWindow(w_);
+			}
+		}
+		synchronized (this) {
+			return active == 0? _nextWindow(w_): null;
+		}
+	}
+
+	// merges the events exchanged in the last window into the LPs
+	void _merge(LP lp_)
+	{
+		ArrayList<Message> in_ = lp_.incoming;
+		synchronized (in_) {
+			if (in_.isEmpty()) return;
+			Collections.sort(in_, ORDER);
+			for (int i=0; i<in_.size(); i++) {
+				Message m_ = in_.get(i);
+				if (m_.from >= 0 && m_.task.getTime() < lp_.time) {
+					if (late++ == 0)
+						drcl.Debug.error(this, "event from partition " + m_.from
+							+ " arrives at partition " + lp_.id + " at "
+							+ lp_.time + ", later than its time; links between "
+							+ "partitions need delay of at least the lookahead ("
+							+ window + "): " + m_.task);
+				}
+				lp_.add(m_.task);
+			}
+			in_.clear();
+		}
+	}
+
+	/**
+	 * Starts the next window, to be called with no LP working.  Starts a
+	 * thread for each LP with events in the window except one, which goes
+	 * to <code>self_</code> if not null; returns the first event of that LP,
+	 * null if none.
+	 */
+	synchronized Task _nextWindow(Worker self_)
+	{
+		if (state == State_INACTIVE) _repartition();
+		long start_ = Long.MAX_VALUE;
+		for (int i=0; i<lps.length; i++) {
+			_merge(lps[i]);
+			start_ = Math.min(start_, lps[i].first());
+			if (lps[i].time > time) time = lps[i].time;
+		}
+		if (start_ == Long.MAX_VALUE) return null;
+		long end_ = window >= Long.MAX_VALUE - start_?
+			Long.MAX_VALUE: start_ + window;
+		windowEnd = end_;
+		windows++;
+		if (debug && isDebugEnabledAt(Debug_WINDOW))
+			println(Debug_WINDOW, null, "window " + start_ + "-" + end_);
+
+		Task first_ = null;
+		for (int i=0; i<lps.length; i++) {
+			Task task_ = lps[i].next(end_);
+			if (task_ == null) continue;
+			active++;
+			if (self_ != null && first_ == null) {
+				self_.lp = lps[i];
+				first_ = task_;
+			}
+			else
+				_start(lps[i], task_);
+		}
+		return first_;
+	}
+
+	// starts a thread working for the LP with the task
+	void _start(LP lp_, Task task_)
+	{
+		SEThread t_ = grabOne();
+		((Worker)t_).lp = lp_;
+		if (debug && isDebugEnabledAt(Debug_THREAD))
+			println(Debug_THREAD, null, "Assign task:" + task_ + " of LP "
+				+ lp_.id + " to thread:" + t_);
+		synchronized (t_) {
+			t_.mainContext = task_;
+			t_.start();
+		}
+	}
+
+	// lets another thread carry on with the LP of a thread about to block
+	void _handOff(LP lp_)
+	{
+		Task task_ = lp_.next(windowEnd);
+		if (task_ != null)
+			_start(lp_, task_);
+		else
+			synchronized (this) {
+				if (--active == 0) _nextWindow(null);
+			}
+	}
+
+	synchronized void immediatelyStart(Task task_)
+	{
+		LP lp_ = _current();
+		SEThread thread_ = grabOne(task_.threadGroup);
+		((Worker)thread_).lp = lp_;
+		synchronized (thread_) {
+			thread_.mainContext = task_;
+			thread_.start();
+		}
+	}
+
+	protected void threadBecomesWaiting(SEThread exe_)
+	{
+		synchronized (this) { nthreadsWaiting ++; }
+		LP lp_ = exe_ instanceof Worker? ((Worker)exe_).lp: null;
+		if (lp_ != null) _handOff(lp_);
+	}
+
+	protected boolean threadRequestsSleeping(SEThread exe_, long time_)
+	{
+		if (resetting) return true;
+		LP lp_ = exe_ instanceof Worker? ((Worker)exe_).lp: null;
+		if (lp_ == null) {
+			drcl.Debug.error(this, "threadRequestsSleeping(): " + exe_
+				+ " works for no partition");
+			return false;
+		}
+		synchronized (this) { nthreadsWaiting ++; }
+		lp_.add(Task.createNotify(exe_.sleepOn, time_));
+		if (debug && isDebugEnabledAt(Debug_THREAD))
+			println(Debug_THREAD, exe_, "to waiting-queue of LP " + lp_.id
+				+ " for waking up at " + time_);
+		_handOff(lp_);
+		return true;
+	}
+
+	public synchronized void resume()
+	{
+		adjustTime();
+		suspended = false;
+		setState(State_RUNNING);
+		if (vWorking.size() > nthreadsWaiting) {
+			for (int i=0; i<vWorking.size(); i++) {
+				SEThread thread_ = (SEThread)vWorking.elementAt(i);
+				if (thread_.isInActive()) thread_.start();
+			}
+			runRunHooks();
+			return;
+		}
+		if (active == 0 && lps != null) _nextWindow(null);
+		if (active == 0)
+			systemBecomesInactive();
+		else
+			runRunHooks();
+	}
+
+	public void reset()
+	{
+		super.reset();
+		synchronized (this) {
+			lps = null;
+			active = 0;
+			windows = late = 0;
+			windowEnd = 0;
+			components.clear();
+			ports.clear();
+		}
+	}
+
+	/** Cancels a fork event; only the partition of the event may do so while
+	 * the simulation runs. */
+	protected void off(ACATimer handle_)
+	{
+		Task task_ = (Task)handle_;
+		LP[] lps_ = lps;
+		if (lps_ == null) return;
+		LP current_ = _current();
+		LP lp_ = _lpOf(task_);
+		if (lp_ == null) lp_ = current_ == null? lps_[0]: current_;
+		if (lp_ == current_) {
+			_remove(lp_, task_);
+			return;
+		}
+		synchronized (this) {
+			if (active == 0)
+				_remove(lp_, task_);
+			else
+				drcl.Debug.error(this, "off(): cannot cancel an event of "
+					+ "partition " + lp_.id + " from another one while running: "
+					+ task_);
+		}
+	}
+
+	static void _remove(LP lp_, Task task_)
+	{
+		if (lp_.remove(task_)) return;
+		synchronized (lp_.incoming) {
+			for (int i=0; i<lp_.incoming.size(); i++)
+				if (lp_.incoming.get(i).task == task_) {
+					lp_.incoming.remove(i);
+					return;
+				}
+		}
+	}
+
+	public synchronized String info()
+	{
+		StringBuffer sb_ = new StringBuffer(super.info());
+		sb_.append("Partitions: " + npartitions + ", lookahead = "
+			+ (lps == null && lookahead == 0? "<links>": String.valueOf(
+				getLookahead())) + "\n");
+		sb_.append("Windows: " + windows + ", late events: " + late + "\n");
+		LP[] lps_ = lps;
+		if (lps_ != null)
+			for (int i=0; i<lps_.length; i++)
+				sb_.append("   LP " + i + ": time = " + lps_[i].time
+					+ ", events = " + lps_[i].events + ", pending = "
+					+ lps_[i].getLength() + "\n");
+		return sb_.toString();
+	}
+}
@@ -66,9 +66,20 @@ public class SESimulator extends ACARuntime
 	protected long time = 0; // current time in double (s) to record the time when pool is suspended.
 	protected ThreadGroup threadGroup;
 	
+	/** {@link TreeMapQueue} as the future event list. */
+	public static final String TREE_MAP = "treemap";
+	/** {@link BSQueue}, which inserts by a linear search from the tail. */
+	public static final String SORTED_LIST = "list";
+	/** {@link CalendarQueue}, amortized O(1) per event. */
+	public static final String CALENDAR = "calendar";
+	/** Future event list of the simulators created from now on. */
+	public static String EVENT_QUEUE = CALENDAR;
+
 	/** Used to store tasks. */
 	protected FIFOQueue qReady = new FIFOQueue();
-	protected TreeMapQueue qWaiting = new TreeMapQueue();
+	protected EventQueue qWaiting = TREE_MAP.equals(EVENT_QUEUE)?
+		(EventQueue)new TreeMapQueue(): SORTED_LIST.equals(EVENT_QUEUE)?
+		(EventQueue)new BSQueue(): new CalendarQueue();
 
 	private transient int nthreads = 0; // for debug
 	private transient SEThread thread; // for debug
@@ -1145,4 +1156,12 @@ public class SESimulator extends ACARuntime
 	/** Cancels a fork event. */
 	protected void off(ACATimer handle_)
 	{ qWaiting.remove(((Task)handle_).getTime(), handle_); }
+
+	protected void newTask(Task task_)
+	{ newTask(task_, getThread()); }
+
+	/** Sets up a fork event <code>delay_</code> from now; the task keeps the
+	 * time it is due, not the delay. */
+	protected ACATimer receive(Port p_, Object evt_, long delay_)
+	{ return receiveAt(p_, evt_, delay_ <= 0? 0: _getTime() + delay_); }
 }
@@ -206,10 +206,14 @@ public class SEThread extends WorkerThread
 						setState(State_INACTIVE);
 						sleepOn = this;
 						aruntime.recycle(this);
+						// may be re-activated from the threadPool already
 						synchronized (this) {
-							__sleepOn(this, State_INACTIVE, State_INACTIVE);
+							if (mainContext == null)
+								__sleepOn(this, State_INACTIVE, State_INACTIVE);
+							else
+								sleepOn = null;
 						}
-						// new task must be assigned to mainContext 
+						// new task must be assigned to mainContext
 						// when awakened, just a sanity check
 						if (mainContext == null)
 							drcl.Debug.systemFatalError(
@@ -226,7 +230,7 @@ public class SEThread extends WorkerThread
 					sleepOn = this;
 					// decrement nthreadsWaiting here so that the runtime
 					// will not think the simulation is inactive now
-					aruntime.nthreadsWaiting --;
+					synchronized (aruntime) { aruntime.nthreadsWaiting --; }
 					aruntime.recycle(this);
 
 					if (task_ instanceof TaskNotify) {
@@ -241,7 +245,8 @@ public class SEThread extends WorkerThread
 						}
 					}
 					else {
-						aruntime.nthreadsWaiting ++; // correct it back
+						// correct it back
+						synchronized (aruntime) { aruntime.nthreadsWaiting ++; }
 						aruntime.immediatelyStart(task_);
 					}
 
@@ -304,6 +309,7 @@ public class SEThread extends WorkerThread
 				}
 				currentContext.port = null;
 				currentContext.data = null;
+				if (mainContext != null) mainContext.recycle();
 					
 				//finishing();
 				mainContext = null;
@@ -0,0 +1,92 @@
+package drcl.test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import drcl.inet.host.Checksum;
+
+/**
+ * Throughput of the Internet checksum at 64, 576 and 1500 bytes: the former
+ * pair-at-a-time loop with a carry test per step against {@link Checksum}
+ * on a heap array and on a direct buffer.
+ */
+public class ChecksumBenchmark extends getTimeCost{
+
+	private static final long serialVersionUID = 1L;
+
+	protected int[] sizes = {64, 576, 1500};
+	protected long bytesPerRun = 200L << 20;
+
+	public void setBytesPerRun(long n_)
+	{ bytesPerRun = n_; }
+
+	@Override
+	protected void test(){
+		Random r_ = new Random(0);
+		for(int s=0;s<sizes.length;s++){
+			int len_ = sizes[s];
+			byte[] bytes_ = new byte[len_];
+			r_.nextBytes(bytes_);
+			ByteBuffer direct_ = ByteBuffer.allocateDirect(len_);
+			direct_.put(bytes_);
+			int n_ = (int)(bytesPerRun / len_);
+
+			long sink_ = 0;
+			// warm up
+			for(int k=0;k<2;k++){
+				for(int i=0;i<n_/10;i++){
+					sink_ += pairwise(bytes_, len_);
+					sink_ += Checksum.checksum(bytes_, 0, len_);
+					sink_ += Checksum.checksum(direct_, 0, len_);
+				}
+			}
+
+			long start = System.nanoTime();
+			for(int i=0;i<n_;i++)
+				sink_ += pairwise(bytes_, len_);
+			long pairwise_ = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			for(int i=0;i<n_;i++)
+				sink_ += Checksum.checksum(bytes_, 0, len_);
+			long array_ = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			for(int i=0;i<n_;i++)
+				sink_ += Checksum.checksum(direct_, 0, len_);
+			long buffer_ = System.nanoTime() - start;
+
+			System.out.println(len_ + " B: pairwise " + rate(n_, len_, pairwise_)
+					+ ", array " + rate(n_, len_, array_)
+					+ ", direct buffer " + rate(n_, len_, buffer_)
+					+ " (" + (sink_ & 1) + ")");
+		}
+	}
+
+	static String rate(int n_, int len_, long ns_){
+		return ns_/n_ + " ns/op " + ((long)n_*len_*1000/Math.max(ns_, 1)) + " MB/s";
+	}
+
+	/** The checksum loop MobibedUtils used before {@link Checksum}. */
+	static long pairwise(byte[] buf, int length){
+		int i = 0;
+		long sum = 0;
+		while (length > 1) {
+			sum += (((buf[i] << 8) & 0xFF00) | ((buf[i + 1]) & 0xFF));
+			if ((sum & 0xFFFF0000) > 0) {
+				sum = sum & 0xFFFF;
+				sum += 1;
+			}
+			i += 2;
+			length -= 2;
+		}
+		if (length > 0) {
+			sum += (buf[i] << 8 & 0xFF00);
+			if ((sum & 0xFFFF0000) > 0) {
+				sum = sum & 0xFFFF;
+				sum += 1;
+			}
+		}
+		return ~sum & 0xFFFF;
+	}
+}
@@ -0,0 +1,74 @@
+package drcl.test;
+
+import drcl.util.CircularBuffer;
+import drcl.util.SpscCircularBuffer;
+
+/**
+ * Throughput of a TCP-like send buffer with an application thread appending
+ * and a second thread peeking segments (as {@link drcl.inet.transport.TCP}
+ * does for transmission) and removing them (as on an ACK):
+ * {@link CircularBuffer} against {@link SpscCircularBuffer}.
+ */
+public class CircularBufferBenchmark extends getTimeCost{
+
+	private static final long serialVersionUID = 1L;
+
+	protected int capacity = 64 << 10;
+	protected int writeSize = 4096;
+	protected int segmentSize = 1460;
+	protected long bytesPerRun = 1L << 30;
+
+	public void setBytesPerRun(long n_)
+	{ bytesPerRun = n_; }
+
+	@Override
+	protected void test(){
+		for(int k=0;k<2;k++){
+			// the first round warms up
+			long locked_ = run(new CircularBuffer(capacity));
+			long spsc_ = run(new SpscCircularBuffer(capacity));
+			if(k == 0) continue;
+			System.out.println("CircularBuffer " + rate(locked_)
+					+ ", SpscCircularBuffer " + rate(spsc_));
+		}
+	}
+
+	String rate(long ns_){
+		return (bytesPerRun*1000/Math.max(ns_, 1)) + " MB/s";
+	}
+
+	long run(final CircularBuffer buf_){
+		Thread producer_ = new Thread("producer"){
+			public void run(){
+				byte[] data_ = new byte[writeSize];
+				long n_ = 0;
+				while(n_ < bytesPerRun){
+					int len_ = buf_.append(data_, 0,
+							(int)Math.min(writeSize, bytesPerRun - n_));
+					if(len_ == 0) Thread.yield();
+					n_ += len_;
+				}
+			}
+		};
+		byte[] segment_ = new byte[segmentSize];
+		long start = System.nanoTime();
+		producer_.start();
+		long n_ = 0;
+		while(n_ < bytesPerRun){
+			int len_ = Math.min(segmentSize, buf_.getSize());
+			if(len_ == 0){
+				Thread.yield();
+				continue;
+			}
+			buf_.copy(0, segment_, 0, len_);
+			n_ += buf_.remove(null, 0, len_);
+		}
+		long time_ = System.nanoTime() - start;
+		try{
+			producer_.join();
+		}catch(InterruptedException e){
+			e.printStackTrace();
+		}
+		return time_;
+	}
+}
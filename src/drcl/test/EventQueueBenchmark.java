@@ -0,0 +1,77 @@
+package drcl.test;
+
+import java.util.Random;
+
+import drcl.util.queue.BSQueue;
+import drcl.util.queue.CalendarQueue;
+import drcl.util.queue.EventQueue;
+import drcl.util.queue.FIFOQueue;
+import drcl.util.queue.TreeMapQueue;
+
+/**
+ * Hold model on the future event lists of <code>SESimulator</code>: with
+ * {@link #events} events pending, take the first one and schedule another
+ * at its time plus an exponential increment, as a simulation in steady state
+ * does; every {@link #ties}-th increment is zero so that some events share a
+ * time.  Compares {@link TreeMapQueue}, {@link BSQueue} and
+ * {@link CalendarQueue}.
+ */
+public class EventQueueBenchmark extends getTimeCost{
+
+	private static final long serialVersionUID = 1L;
+
+	protected int events = 10000;
+	protected int holds = 1000000;
+	protected int ties = 10;
+	protected double mean = 1000.0; // of the increments
+
+	public void setEvents(int n_)
+	{ events = n_; }
+
+	public void setHolds(int n_)
+	{ holds = n_; }
+
+	public void setTies(int n_)
+	{ ties = n_; }
+
+	@Override
+	protected void test(){
+		String[] names_ = {"TreeMapQueue", "BSQueue", "CalendarQueue"};
+		for(int k=0;k<2;k++){
+			// the first round warms up
+			for(int q=0;q<names_.length;q++){
+				EventQueue queue_ = q == 0? (EventQueue)new TreeMapQueue():
+					q == 1? (EventQueue)new BSQueue(): new CalendarQueue();
+				// BSQueue is linear, keep it short
+				int holds_ = q == 1? Math.min(holds, 20000): holds;
+				long ns_ = run(queue_, holds_);
+				if(k == 1) System.out.println(names_[q] + ": " + ns_/holds_
+						+ " ns/hold");
+			}
+		}
+	}
+
+	long run(EventQueue queue_, int holds_){
+		Random r_ = new Random(1);
+		FIFOQueue ready_ = new FIFOQueue();
+		Object event_ = new Object();
+		for(int i=0;i<events;i++)
+			queue_.enqueue(increment(r_, i), event_);
+		long start = System.nanoTime();
+		for(int i=0;i<holds_;i++){
+			if(ready_.isEmpty()) queue_.dequeueTransfer(ready_);
+			long now_ = ready_.firstKey();
+			ready_.dequeue();
+			queue_.enqueue(now_ + increment(r_, i), event_);
+		}
+		long end = System.nanoTime();
+		if(queue_.getLength() + ready_.getLength() != events)
+			System.out.println(queue_.getClass().getName() + " lost events");
+		return end - start;
+	}
+
+	long increment(Random r_, int i){
+		if(ties > 0 && i % ties == 0) return 0;
+		return (long)(-mean * Math.log(1.0 - r_.nextDouble()));
+	}
+}
@@ -0,0 +1,84 @@
+package drcl.test;
+
+import java.lang.management.ManagementFactory;
+
+import drcl.data.MultibitTrie;
+import drcl.inet.data.RTKey;
+
+/**
+ * Bytes allocated and time per route lookup in a table of {@link #routes}
+ * host routes plus a default route: {@link drcl.data.Map} with a new
+ * {@link RTKey} per lookup, as <code>RT</code> does by default, against
+ * {@link MultibitTrie}, as with <code>RT.IMPLEMENTATION = RT.LPM</code>.
+ */
+public class RTLookupBenchmark extends getTimeCost{
+
+	private static final long serialVersionUID = 1L;
+
+	protected int lookups = 200000;
+	protected int routes = 100;
+
+	public void setLookups(int n_)
+	{ lookups = n_; }
+
+	public void setRoutes(int n_)
+	{ routes = n_; }
+
+	@Override
+	protected void test(){
+		drcl.data.Map map_ = new drcl.data.Map();
+		MultibitTrie trie_ = new MultibitTrie();
+		for(int i=0;i<routes;i++){
+			RTKey key_ = new RTKey(0, 0, i, -1, 0, 0);
+			map_.addEntry(key_, key_);
+			trie_.put(i, 32, key_);
+		}
+		RTKey default_ = new RTKey(0, 0, 0, 0, 0, 0);
+		map_.addEntry(default_, default_);
+		trie_.put(0, 0, default_);
+
+		for(int k=0;k<2;k++){
+			// the first round warms up
+			long[] map_r = runMap(map_);
+			long[] trie_r = runTrie(trie_);
+			if(k == 0) continue;
+			System.out.println("Map: " + map_r[0]/lookups + " B/lookup, "
+					+ map_r[1]/lookups + " ns/lookup");
+			System.out.println("MultibitTrie: " + trie_r[0]/lookups
+					+ " B/lookup, " + trie_r[1]/lookups + " ns/lookup");
+		}
+	}
+
+	long[] runMap(drcl.data.Map map_){
+		int found_ = 0;
+		long bytes_ = allocatedBytes();
+		long start = System.nanoTime();
+		for(int i=0;i<lookups;i++){
+			RTKey key_ = new RTKey(1, i % (routes * 2), 0);
+			if(map_.get(key_, drcl.data.Map.MATCH_LONGEST) != null) found_++;
+		}
+		long end = System.nanoTime();
+		bytes_ = allocatedBytes() - bytes_;
+		if(found_ != lookups) System.out.println("Map missed routes");
+		return new long[]{bytes_, end - start};
+	}
+
+	long[] runTrie(MultibitTrie trie_){
+		int found_ = 0;
+		long bytes_ = allocatedBytes();
+		long start = System.nanoTime();
+		for(int i=0;i<lookups;i++)
+			if(trie_.lookup(i % (routes * 2)) != null) found_++;
+		long end = System.nanoTime();
+		bytes_ = allocatedBytes() - bytes_;
+		if(found_ != lookups) System.out.println("MultibitTrie missed routes");
+		return new long[]{bytes_, end - start};
+	}
+
+	/** Bytes allocated so far by this thread. */
+	static long allocatedBytes(){
+		com.sun.management.ThreadMXBean mx_ = (com.sun.management.ThreadMXBean)
+			ManagementFactory.getThreadMXBean();
+		return mx_.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+}
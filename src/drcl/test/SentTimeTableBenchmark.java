@@ -0,0 +1,93 @@
+package drcl.test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Enumeration;
+import java.util.Hashtable;
+
+import drcl.util.primitive.SortedLongDoubleMap;
+
+/**
+ * Bytes allocated and time per ACK for the TCP Vegas table of segment sent
+ * times: the boxed {@link Hashtable} it used to be against
+ * {@link SortedLongDoubleMap}.  Each ACK acknowledges one segment, purges
+ * the records below it and looks up the sent time of the next one, and one
+ * new segment is recorded, with {@link #window} segments in flight.
+ */
+public class SentTimeTableBenchmark extends getTimeCost{
+
+	private static final long serialVersionUID = 1L;
+
+	protected int acks = 1000000;
+	protected int window = 64;
+	protected int mss = 1400;
+
+	public void setAcks(int n_)
+	{ acks = n_; }
+
+	public void setWindow(int n_)
+	{ window = n_; }
+
+	@Override
+	protected void test(){
+		for(int k=0;k<2;k++){
+			// the first round warms up
+			long[] boxed_ = runHashtable();
+			long[] primitive_ = runSorted();
+			if(k == 0) continue;
+			System.out.println("Hashtable: " + boxed_[0]/acks + " B/ack, "
+					+ boxed_[1]/acks + " ns/ack");
+			System.out.println("SortedLongDoubleMap: " + primitive_[0]/acks
+					+ " B/ack, " + primitive_[1]/acks + " ns/ack");
+		}
+	}
+
+	long[] runHashtable(){
+		Hashtable ht_ = new Hashtable();
+		double sum_ = 0;
+		long bytes_ = allocatedBytes();
+		long start = System.nanoTime();
+		for(long i=0;i<window;i++)
+			ht_.put(new Long(i*mss), new Double(i));
+		for(long i=0;i<acks;i++){
+			long ackseq_ = (i+1)*mss;
+			for(Enumeration e_ = ht_.keys(); e_.hasMoreElements();){
+				Long seq_ = (Long) e_.nextElement();
+				if(seq_.longValue() < ackseq_)
+					ht_.remove(seq_);
+				else if(seq_.longValue() == ackseq_)
+					sum_ += ((Double) ht_.get(seq_)).doubleValue();
+			}
+			ht_.put(new Long((i+window)*mss), new Double(i+window));
+		}
+		long end = System.nanoTime();
+		bytes_ = allocatedBytes() - bytes_;
+		if(sum_ < 0) System.out.println(sum_);
+		return new long[]{bytes_, end - start};
+	}
+
+	long[] runSorted(){
+		SortedLongDoubleMap map_ = new SortedLongDoubleMap();
+		double sum_ = 0;
+		long bytes_ = allocatedBytes();
+		long start = System.nanoTime();
+		for(long i=0;i<window;i++)
+			map_.put(i*mss, i);
+		for(long i=0;i<acks;i++){
+			long ackseq_ = (i+1)*mss;
+			map_.removeBelow(ackseq_);
+			sum_ += map_.get(ackseq_);
+			map_.put((i+window)*mss, i+window);
+		}
+		long end = System.nanoTime();
+		bytes_ = allocatedBytes() - bytes_;
+		if(sum_ < 0) System.out.println(sum_);
+		return new long[]{bytes_, end - start};
+	}
+
+	/** Bytes allocated so far by this thread. */
+	static long allocatedBytes(){
+		com.sun.management.ThreadMXBean mx_ = (com.sun.management.ThreadMXBean)
+			ManagementFactory.getThreadMXBean();
+		return mx_.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+}
@@ -0,0 +1,138 @@
+package drcl.test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import drcl.comp.Component;
+import drcl.comp.Port;
+import drcl.inet.InetPacket;
+import drcl.inet.host.MobibedUtils;
+import drcl.inet.host.NioMobibedSocket;
+import drcl.inet.transport.Connection;
+import drcl.inet.transport.TCPPacket;
+import drcl.inet.transport.TCPPacketPayload;
+import drcl.util.CircularBuffer;
+
+/**
+ * Packets/sec through a pair of {@link NioMobibedSocket}s over loopback,
+ * with batching off and on, and optionally with direct buffers.
+ */
+public class SocketBatchingBenchmark extends getTimeCost{
+
+	private static final long serialVersionUID = 1L;
+
+	protected int packets = 200000;
+	protected int payload = 1400;
+	protected int batchSize = 32;
+	protected long batchLatency = 200; // us
+	protected boolean direct = false;
+
+	public void setPackets(int n_)
+	{ packets = n_; }
+
+	public void setPayload(int size_)
+	{ payload = size_; }
+
+	public void setBatchSize(int size_)
+	{ batchSize = size_; }
+
+	public void setDirectBufferEnabled(boolean enabled_)
+	{ direct = enabled_; }
+
+	@Override
+	protected void test(){
+		run(1);
+		run(batchSize);
+	}
+
+	private void run(int batch_){
+		Component net_ = new Component("net" + batch_);
+		addComponent(net_);
+		Endpoint src_ = new Endpoint("src");
+		Endpoint sink_ = new Endpoint("sink");
+		NioMobibedSocket sender_ = new NioMobibedSocket("sender");
+		NioMobibedSocket receiver_ = new NioMobibedSocket("receiver");
+		net_.addComponent(src_);
+		net_.addComponent(sink_);
+		net_.addComponent(sender_);
+		net_.addComponent(receiver_);
+		src_.downPort.connect(sender_.upPort);
+		receiver_.upPort.connect(sink_.downPort);
+
+		sender_.setBatchSize(batch_);
+		sender_.setBatchLatency(batchLatency);
+		receiver_.setBatchSize(batch_);
+		receiver_.setBatchLatency(batchLatency);
+		sender_.setDirectBufferEnabled(direct);
+		receiver_.setDirectBufferEnabled(direct);
+		sender_.setRemoteAddress("127.0.0.1");
+		sender_._start();
+		receiver_._start();
+
+		CircularBuffer sbuf_ = new CircularBuffer(payload);
+		sbuf_.append(new byte[payload]);
+		long dest_ = MobibedUtils.byteArrayToLong(new byte[]{127, 0, 0, 1});
+		int dport_ = receiver_.getLocalPort();
+
+		long start = System.nanoTime();
+		for(int i=0;i<packets;i++){
+			InetPacket ipkt_ = InetPacket.poll();
+			TCPPacket pkt_ = new TCPPacket(0, dport_, (long)i*payload, 0, 65535,
+				false, false, false, 0, 0, 20, payload,
+				new TCPPacketPayload(sbuf_, 0, payload));
+			ipkt_.setDestination(dest_);
+			ipkt_.setProtocol(6);
+			ipkt_.setBody(pkt_);
+			src_.downPort.doSyncSending(ipkt_);
+		}
+		long sent = System.nanoTime();
+		// give the receiver up to a second to drain
+		long last_ = -1;
+		while(sink_.count.get() != last_){
+			last_ = sink_.count.get();
+			try {
+				Thread.sleep(100);
+			} catch (InterruptedException e) {
+				break;
+			}
+		}
+		long end = System.nanoTime();
+		long recv_ = sink_.count.get();
+		System.out.println("batch " + batch_ + (direct? " direct": "") + ": send " + (packets*1000000000L/(sent - start))
+				+ " pkt/s, recv " + recv_ + "/" + packets + " in " + (end - start)/1000000 + " ms");
+		System.out.println(sender_.info());
+
+		sender_.reset();
+		receiver_.reset();
+		removeComponent(net_);
+	}
+
+	/** Stands in for the transport above the socket. */
+	static class Endpoint extends drcl.net.Module implements Connection{
+		private static final long serialVersionUID = 1L;
+
+		final AtomicLong count = new AtomicLong();
+
+		Endpoint(String id_)
+		{ super(id_); }
+
+		protected void dataArriveAtDownPort(Object data_, Port downPort_){
+			count.incrementAndGet();
+			((InetPacket)data_).free();
+		}
+
+		public long getPeer()
+		{ return 0; }
+
+		public int getRemotePort()
+		{ return 0; }
+
+		public long getLocalAddr()
+		{ return 0; }
+
+		public int getLocalPort()
+		{ return 0; }
+
+		public void setLocalPort(int port)
+		{}
+	}
+}
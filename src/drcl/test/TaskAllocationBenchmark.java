@@ -0,0 +1,116 @@
+package drcl.test;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import drcl.comp.ACARuntime;
+import drcl.comp.ARuntime;
+import drcl.comp.Component;
+import drcl.comp.Port;
+import drcl.comp.TaskReceive;
+import drcl.mobibed.process.MobibedRuntime;
+import drcl.sim.event.SESimulator;
+
+/**
+ * Bytes allocated per forwarded message, with and without
+ * {@link TaskReceive} pooling, on each runtime.
+ * A message goes through a chain of {@link #hops} components connected by
+ * asynchronous ports, so every hop creates one receive task.
+ */
+public class TaskAllocationBenchmark extends getTimeCost{
+
+	private static final long serialVersionUID = 1L;
+
+	protected int messages = 100000;
+	protected int hops = 4;
+
+	public void setMessages(int n_)
+	{ messages = n_; }
+
+	public void setHops(int n_)
+	{ hops = n_; }
+
+	@Override
+	protected void test(){
+		boolean pooling_ = TaskReceive.isPoolingEnabled();
+		for(int k=0;k<2;k++){
+			TaskReceive.setPoolingEnabled(k == 1);
+			run("ARuntime", new ARuntime("alloc"));
+			run("SESimulator", new SESimulator("alloc"));
+			run("MobibedRuntime", new MobibedRuntime("alloc"));
+		}
+		TaskReceive.setPoolingEnabled(pooling_);
+	}
+
+	private void run(String name_, ACARuntime rt_){
+		Component net_ = new Component("net" + name_);
+		addComponent(net_);
+		Port driver_ = net_.addPort("driver");
+		Hop[] chain_ = new Hop[hops];
+		for(int i=0;i<hops;i++){
+			chain_[i] = new Hop("hop" + i);
+			net_.addComponent(chain_[i]);
+			if(i == 0) driver_.connect(chain_[i].in);
+			else chain_[i-1].out.connect(chain_[i].in);
+		}
+		rt_.takeover(net_);
+		rt_.resume();
+
+		// warm up, then measure
+		send(driver_, chain_[hops-1], messages/10);
+		long bytes_ = allocatedBytes();
+		long start = System.nanoTime();
+		boolean done_ = send(driver_, chain_[hops-1], messages);
+		long end = System.nanoTime();
+		bytes_ = allocatedBytes() - bytes_;
+		System.out.println(name_ + (TaskReceive.isPoolingEnabled()? " pooled": "")
+				+ ": " + bytes_/((long)messages*hops) + " B/hop, "
+				+ (end - start)/((long)messages*hops) + " ns/hop"
+				+ (done_? "": " (timed out)"));
+
+		rt_.stop();
+		removeComponent(net_);
+	}
+
+	/** Sends n_ messages and waits until the last hop has seen them. */
+	private boolean send(Port driver_, Hop last_, int n_){
+		long target_ = last_.count.get() + n_;
+		Object msg_ = new Object();
+		for(int i=0;i<n_;i++)
+			driver_.doSending(msg_);
+		long deadline_ = System.currentTimeMillis() + 10000;
+		while(last_.count.get() < target_){
+			if(System.currentTimeMillis() > deadline_) return false;
+			Thread.yield();
+		}
+		return true;
+	}
+
+	/** Bytes allocated so far by all live threads. */
+	static long allocatedBytes(){
+		com.sun.management.ThreadMXBean mx_ = (com.sun.management.ThreadMXBean)
+			ManagementFactory.getThreadMXBean();
+		long[] bytes_ = mx_.getThreadAllocatedBytes(mx_.getAllThreadIds());
+		long sum_ = 0;
+		for(int i=0;i<bytes_.length;i++)
+			if(bytes_[i] > 0) sum_ += bytes_[i];
+		return sum_;
+	}
+
+	/** Counts a message and passes it on. */
+	static class Hop extends Component{
+		private static final long serialVersionUID = 1L;
+
+		final Port in = addPort("in");
+		final Port out = addPort("out");
+		final AtomicLong count = new AtomicLong();
+
+		Hop(String id_)
+		{ super(id_); }
+
+		protected void process(Object data_, Port inPort_){
+			count.incrementAndGet();
+			out.doSending(data_);
+		}
+	}
+}
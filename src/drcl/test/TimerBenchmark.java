@@ -0,0 +1,72 @@
+package drcl.test;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import drcl.comp.Task;
+import drcl.mobibed.process.TimingWheel;
+
+/**
+ * Cost of the retransmission timer pattern, one timer per flow re-armed on
+ * every ACK, on a {@link ScheduledThreadPoolExecutor} (cancel and schedule
+ * anew) and on a {@link TimingWheel} (re-arm in place).
+ */
+public class TimerBenchmark extends getTimeCost{
+
+	private static final long serialVersionUID = 1L;
+
+	protected int flows = 10000;
+	protected int acks = 100;
+	protected long rto = 200; // ms
+
+	public void setFlows(int n_)
+	{ flows = n_; }
+
+	public void setAcks(int n_)
+	{ acks = n_; }
+
+	@Override
+	protected void test(){
+		Runnable noop_ = new Runnable(){
+			public void run(){}
+		};
+
+		ScheduledThreadPoolExecutor stpe_ = new ScheduledThreadPoolExecutor(1);
+		ScheduledFuture<?>[] futures_ = new ScheduledFuture<?>[flows];
+		long start = System.nanoTime();
+		for(int i=0;i<flows;i++)
+			futures_[i] = stpe_.schedule(noop_, rto, TimeUnit.MILLISECONDS);
+		for(int j=0;j<acks;j++)
+			for(int i=0;i<flows;i++){
+				futures_[i].cancel(false);
+				futures_[i] = stpe_.schedule(noop_, rto, TimeUnit.MILLISECONDS);
+			}
+		for(int i=0;i<flows;i++)
+			futures_[i].cancel(false);
+		long end = System.nanoTime();
+		System.out.println("executor: " + (end - start)/((long)flows*(acks + 2))
+				+ " ns/op, queue " + stpe_.getQueue().size());
+		stpe_.shutdownNow();
+
+		TimingWheel wheel_ = new TimingWheel("bench-timer", new Executor(){
+			public void execute(Runnable r_){}
+		});
+		Task[] tasks_ = new Task[flows];
+		start = System.nanoTime();
+		for(int i=0;i<flows;i++){
+			tasks_[i] = Task.createRunnable(noop_, rto);
+			wheel_.schedule(tasks_[i], rto);
+		}
+		for(int j=0;j<acks;j++)
+			for(int i=0;i<flows;i++)
+				wheel_.reschedule((TimingWheel.Entry)tasks_[i].handle, null, rto);
+		for(int i=0;i<flows;i++)
+			wheel_.cancel((TimingWheel.Entry)tasks_[i].handle);
+		end = System.nanoTime();
+		System.out.println("wheel:    " + (end - start)/((long)flows*(acks + 2))
+				+ " ns/op, pending " + wheel_.size());
+		wheel_.stop();
+	}
+}
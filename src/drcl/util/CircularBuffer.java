@@ -315,6 +315,31 @@ public class CircularBuffer extends drcl.DrclObj
 		begin = 0; end = size_;
 	}
 
+	/**
+	 * Copies <code>len_</code> bytes starting at <code>start_</code> into
+	 * <code>dst_</code> at absolute position <code>offset_</code> with at most
+	 * two bulk transfers; the data stays in this buffer.
+	 * The position of <code>dst_</code> is left after the copied bytes.
+	 */
+	public void copy(int start_, java.nio.ByteBuffer dst_, int offset_, int len_) {
+		if (buf == null) return;
+		
+		int bufLength_ = capacity + 1;
+		start_ = (start_ + begin) % bufLength_;
+		int size_ = end >= start_? end - start_: end - start_ + bufLength_;
+		if (len_ > size_) return;
+		if (len_ < 0) len_ = size_;
+		dst_.position(offset_);
+		if (start_ + len_ > bufLength_) {
+			int firstSegment_ = bufLength_ - start_;
+			dst_.put(buf, start_, firstSegment_);
+			dst_.put(buf, 0, start_ + len_ - bufLength_);
+		}
+		else {
+			dst_.put(buf, start_, len_);
+		}
+	}
+
 	public void copy(int start_, byte[] bytes, int offset, int len_) {
 		if (buf == null) return;
 		
@@ -0,0 +1,314 @@
+package drcl.util;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Packet timestamp tracer for the send and receive paths.
+ * <p>
+ * {@link #record(int, long, long)} writes a fixed-size record (event id,
+ * flow id, sequence number, <code>System.nanoTime()</code>) into a ring
+ * owned by the calling thread, so tracing takes no lock and allocates
+ * nothing once the thread's ring exists. When a ring is full the oldest
+ * records are overwritten.
+ * <p>
+ * Components emit records only when their <code>LatencyTrace</code> flag is
+ * set (<code>setflag LatencyTrace true ...</code>). The records can be
+ * {@link #dump(String) dumped}, {@link #startStreaming(String, long)
+ * streamed} to a file, or summarized per stage by {@link #summary()}; a
+ * stage is the time between a begin and an end event with the same flow
+ * id and sequence number.
+ * <p>
+ * Records are read without stopping the writers; a summary taken while
+ * traffic is flowing may include a few records that are being overwritten.
+ */
+public class LatencyTracer {
+
+	/** Socket starts encoding a packet. */
+	public static final int SEND_ENCODE = 0;
+	/** Socket starts writing the encoded packet. */
+	public static final int SEND_WRITE = 1;
+	/** Packet is written (or queued for a batch). */
+	public static final int SEND_DONE = 2;
+	/** Datagram is read from the socket. */
+	public static final int RECV_READ = 3;
+	/** Socket starts decoding the packet. */
+	public static final int RECV_DECODE = 4;
+	/** Decoded packet is handed up. */
+	public static final int RECV_UP = 5;
+	/** TCP starts processing a segment. */
+	public static final int TCP_IN = 6;
+	/** TCP is done with the segment. */
+	public static final int TCP_OUT = 7;
+
+	public static final String[] EVENT_NAMES = {"send-encode", "send-write",
+		"send-done", "recv-read", "recv-decode", "recv-up", "tcp-in", "tcp-out"};
+
+	/** Begin and end events of each stage. */
+	public static final int[][] STAGES = {{SEND_ENCODE, SEND_WRITE},
+		{SEND_WRITE, SEND_DONE}, {RECV_READ, RECV_DECODE},
+		{RECV_DECODE, RECV_UP}, {TCP_IN, TCP_OUT}};
+	public static final String[] STAGE_NAMES = {"encode", "socket send",
+		"receive", "decode", "TCP processing"};
+
+	/** Default number of records per thread. */
+	public static final int DEFAULT_RING_SIZE = 1 << 16;
+
+	static int ringSize = DEFAULT_RING_SIZE;
+	static final CopyOnWriteArrayList<Ring> rings = new CopyOnWriteArrayList<Ring>();
+	static final ThreadLocal<Ring> local = new ThreadLocal<Ring>() {
+		protected Ring initialValue() {
+			Ring r_ = new Ring(Thread.currentThread().getName(), ringSize);
+			rings.add(r_);
+			return r_;
+		}
+	};
+	static Streamer streamer;
+
+	/** Sets the number of records kept per thread, for rings created from now on. */
+	public static void setRingSize(int records_) {
+		int n_ = 2;
+		while(n_ < records_) n_ <<= 1;
+		ringSize = n_;
+	}
+
+	public static int getRingSize()
+	{ return ringSize; }
+
+	/** Records the event for the packet identified by the flow id and sequence number. */
+	public static void record(int event_, long flow_, long seq_) {
+		local.get().add(event_, flow_, seq_, System.nanoTime());
+	}
+
+	/** Records the event with a timestamp taken earlier by <code>System.nanoTime()</code>,
+	 * for events whose packet is identified only later. */
+	public static void record(int event_, long flow_, long seq_, long nanoTime_) {
+		local.get().add(event_, flow_, seq_, nanoTime_);
+	}
+
+	/** Returns the number of records written since the last {@link #clear()}. */
+	public static long getRecordCount() {
+		long n_ = 0;
+		for(Ring r_: rings)
+			n_ += r_.count.get() - r_.base;
+		return n_;
+	}
+
+	/** Discards all records. Rings of threads that are gone are dropped. */
+	public static void clear() {
+		for(Ring r_: rings) {
+			// the owner keeps writing, so only move the start
+			r_.base = r_.count.get();
+			if(r_.owner.get() == null) rings.remove(r_);
+		}
+	}
+
+	/**
+	 * Writes the records in the rings to the file, one big-endian
+	 * (int event, long flow, long seq, long nanoTime) tuple per record.
+	 * Returns the number of records written.
+	 */
+	public static long dump(String file_) throws IOException {
+		DataOutputStream out_ = new DataOutputStream(new BufferedOutputStream(
+			new FileOutputStream(file_)));
+		long n_ = 0;
+		try {
+			for(Ring r_: rings)
+				n_ += r_.write(out_, r_.first(), r_.count.get());
+		} finally {
+			out_.close();
+		}
+		return n_;
+	}
+
+	/**
+	 * Starts a daemon thread that appends new records to the file every
+	 * <code>period_</code> ms, in the format of {@link #dump(String)}.
+	 */
+	public static synchronized void startStreaming(String file_, long period_)
+		throws IOException {
+		stopStreaming();
+		for(Ring r_: rings)
+			r_.drained = r_.count.get();
+		streamer = new Streamer(file_, period_);
+		streamer.start();
+	}
+
+	public static synchronized void stopStreaming() {
+		if(streamer == null) return;
+		streamer.finish();
+		streamer = null;
+	}
+
+	/** Returns the latency distribution of each stage. */
+	public static String summary() {
+		// merge all rings in time order
+		ArrayList<long[]> records_ = new ArrayList<long[]>();
+		for(Ring r_: rings)
+			r_.collect(records_);
+		long[][] all_ = records_.toArray(new long[records_.size()][]);
+		Arrays.sort(all_, new Comparator<long[]>() {
+			public int compare(long[] a_, long[] b_)
+			{ return a_[3] < b_[3]? -1: a_[3] == b_[3]? 0: 1; }
+		});
+
+		StringBuffer sb_ = new StringBuffer("LatencyTracer: " + all_.length
+				+ " records in " + rings.size() + " threads\n");
+		for(int s = 0; s < STAGES.length; s++) {
+			HashMap<String, long[]> begins_ = new HashMap<String, long[]>();
+			long[] lat_ = new long[all_.length];
+			int n_ = 0;
+			for(int i = 0; i < all_.length; i++) {
+				long[] rec_ = all_[i];
+				if(rec_[0] == STAGES[s][0])
+					begins_.put(rec_[1] + ":" + rec_[2], rec_);
+				else if(rec_[0] == STAGES[s][1]) {
+					long[] begin_ = begins_.remove(rec_[1] + ":" + rec_[2]);
+					if(begin_ != null) lat_[n_++] = rec_[3] - begin_[3];
+				}
+			}
+			sb_.append(stageSummary(STAGE_NAMES[s], Arrays.copyOf(lat_, n_)));
+		}
+		return sb_.toString();
+	}
+
+	static String stageSummary(String name_, long[] lat_) {
+		if(lat_.length == 0)
+			return "  " + name_ + ": no samples\n";
+		Arrays.sort(lat_);
+		long sum_ = 0;
+		int[] buckets_ = new int[64];
+		for(int i = 0; i < lat_.length; i++) {
+			sum_ += lat_[i];
+			buckets_[64 - Long.numberOfLeadingZeros(Math.max(lat_[i], 1) - 1)]++;
+		}
+		StringBuffer sb_ = new StringBuffer("  " + name_ + ": n=" + lat_.length
+			+ ", mean=" + us(sum_ / lat_.length) + ", p50=" + us(lat_[lat_.length / 2])
+			+ ", p99=" + us(lat_[(int)(lat_.length * 99L / 100)])
+			+ ", max=" + us(lat_[lat_.length - 1]) + "\n    ");
+		for(int b = 0; b < buckets_.length; b++)
+			if(buckets_[b] > 0)
+				sb_.append("<=" + us(1L << b) + ":" + buckets_[b] + " ");
+		sb_.append("\n");
+		return sb_.toString();
+	}
+
+	static String us(long ns_) {
+		return ns_ < 10000? ns_ + "ns": ns_ / 1000 + "us";
+	}
+
+	/** Records of one thread; written by that thread only. */
+	static final class Ring {
+		final String name;
+		final java.lang.ref.WeakReference<Thread> owner;
+		final int mask;
+		final int[] events;
+		final long[] flows, seqs, times;
+		final AtomicLong count = new AtomicLong();
+		volatile long base; // count at the last clear()
+		long drained; // by the streamer
+
+		Ring(String name_, int size_) {
+			name = name_;
+			owner = new java.lang.ref.WeakReference<Thread>(Thread.currentThread());
+			mask = size_ - 1;
+			events = new int[size_];
+			flows = new long[size_];
+			seqs = new long[size_];
+			times = new long[size_];
+		}
+
+		void add(int event_, long flow_, long seq_, long time_) {
+			long c_ = count.get();
+			int i = (int)c_ & mask;
+			events[i] = event_;
+			flows[i] = flow_;
+			seqs[i] = seq_;
+			times[i] = time_;
+			count.lazySet(c_ + 1);
+		}
+
+		/** Index of the oldest record still in the ring. */
+		long first() {
+			return Math.max(base, count.get() - mask - 1);
+		}
+
+		void collect(ArrayList<long[]> out_) {
+			long end_ = count.get();
+			for(long c = Math.max(base, end_ - mask - 1); c < end_; c++) {
+				int i = (int)c & mask;
+				out_.add(new long[]{events[i], flows[i], seqs[i], times[i]});
+			}
+		}
+
+		long write(DataOutputStream out_, long from_, long to_) throws IOException {
+			from_ = Math.max(Math.max(from_, base), to_ - mask - 1);
+			for(long c = from_; c < to_; c++) {
+				int i = (int)c & mask;
+				out_.writeInt(events[i]);
+				out_.writeLong(flows[i]);
+				out_.writeLong(seqs[i]);
+				out_.writeLong(times[i]);
+			}
+			return to_ - from_;
+		}
+	}
+
+	/** Appends new records to a file periodically. */
+	static final class Streamer extends Thread {
+		final DataOutputStream out;
+		final long period;
+		volatile boolean running = true;
+
+		Streamer(String file_, long period_) throws IOException {
+			super("latency-streamer");
+			setDaemon(true);
+			out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(file_, true)));
+			period = period_;
+		}
+
+		public void run() {
+			try {
+				while(running) {
+					try {
+						Thread.sleep(period);
+					} catch (InterruptedException e) {
+						// finishing
+					}
+					drain();
+				}
+				out.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+
+		void drain() throws IOException {
+			for(Ring r_: rings) {
+				long to_ = r_.count.get();
+				r_.write(out, r_.drained, to_);
+				r_.drained = to_;
+			}
+			out.flush();
+		}
+
+		void finish() {
+			running = false;
+			interrupt();
+			try {
+				join();
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+}
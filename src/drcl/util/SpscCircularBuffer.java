@@ -0,0 +1,289 @@
+package drcl.util;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * A {@link CircularBuffer} for one producer thread and one consumer thread,
+ * without locks.
+ * <p>
+ * The producer calls {@link #append(byte[], int, int)} and
+ * {@link #insert(byte[], int, int, int)}; the consumer calls the
+ * <code>remove</code>, <code>read</code> and <code>copy</code> methods,
+ * the last two of which leave the data in the buffer (e.g. for
+ * retransmission).  Either side may call {@link #getSize()} and
+ * {@link #getAvailableSpace()}.  All consumer calls must come from the same
+ * thread; a buffer read from several threads, such as the TCP send buffer
+ * (ACK processing, encoding and retransmission), needs a locked
+ * {@link CircularBuffer}.
+ * <p>
+ * Head and tail are running byte counts published with ordered stores, and
+ * the storage is a power-of-two ring, so positions are masked instead of
+ * wrapped.  Each side caches the other side's count and reads it again only
+ * when the cached value does not suffice.
+ * {@link #resize(int, boolean)} only changes the capacity; the producer
+ * enlarges the ring on its next append.
+ */
+public class SpscCircularBuffer extends CircularBuffer
+{
+	private static final long serialVersionUID = 1L;
+
+	static final AtomicLongFieldUpdater<SpscCircularBuffer> HEAD =
+		AtomicLongFieldUpdater.newUpdater(SpscCircularBuffer.class, "head");
+	static final AtomicLongFieldUpdater<SpscCircularBuffer> TAIL =
+		AtomicLongFieldUpdater.newUpdater(SpscCircularBuffer.class, "tail");
+
+	// bytes removed, written by the consumer
+	volatile long head;
+	// bytes appended, written by the producer
+	volatile long tail;
+	// the other side's count as last seen
+	long headCache, tailCache;
+	// the ring; replaced by the producer only
+	volatile byte[] ring;
+	volatile int limit;
+
+	public SpscCircularBuffer(int capacity_)
+	{
+		super(0);
+		buf = null;
+		limit = capacity_;
+		ring = new byte[ringSize(capacity_)];
+	}
+
+	static int ringSize(int capacity_)
+	{
+		int n_ = 16;
+		while (n_ < capacity_) n_ <<= 1;
+		return n_;
+	}
+
+	public void reset()
+	{
+		ring = null;
+		head = tail = headCache = tailCache = 0;
+	}
+
+	public void duplicate(Object source_)
+	{
+		if (!(source_ instanceof SpscCircularBuffer)) {
+			// a plain CircularBuffer: copy its content to a new ring
+			CircularBuffer that_ = (CircularBuffer)source_;
+			byte[] data_ = that_.read(0, -1);
+			int size_ = data_ == null? 0: data_.length;
+			limit = that_.getCapacity();
+			ring = new byte[ringSize(Math.max(limit, size_))];
+			if (size_ > 0) System.arraycopy(data_, 0, ring, 0, size_);
+			head = headCache = 0;
+			tail = tailCache = size_;
+			return;
+		}
+		SpscCircularBuffer that_ = (SpscCircularBuffer)source_;
+		long head_ = that_.head, tail_ = that_.tail;
+		byte[] ring_ = that_.ring;
+		limit = that_.limit;
+		ring = ring_ == null? null: ring_.clone();
+		head = headCache = head_;
+		tail = tailCache = tail_;
+	}
+
+	/**
+	 * Appends data; producer only.
+	 * @see CircularBuffer#append(byte[], int, int)
+	 */
+	public int append(byte[] data_, int offset_, int length_)
+	{
+		long tail_ = tail;
+		int free_ = limit - (int)(tail_ - headCache);
+		if (free_ < length_) {
+			headCache = head;
+			free_ = limit - (int)(tail_ - headCache);
+		}
+		if (length_ > free_) length_ = free_;
+		if (length_ <= 0) return 0;
+		byte[] ring_ = ensureRing(data_ != null, tail_ + length_);
+		if (data_ != null) put(ring_, tail_, data_, offset_, length_);
+		TAIL.lazySet(this, tail_ + length_);
+		return length_;
+	}
+
+	/**
+	 * Writes data at <code>pos_</code> bytes from the head, extending the
+	 * buffer if it goes past the tail; producer only.
+	 * @see CircularBuffer#insert(byte[], int, int, int)
+	 */
+	public int insert(byte[] data_, int pos_, int dataOffset_, int length_)
+	{
+		long head_ = head;
+		if (pos_ + length_ > limit) length_ = limit - pos_;
+		if (length_ <= 0) return 0;
+		long at_ = head_ + pos_;
+		byte[] ring_ = ensureRing(data_ != null, at_ + length_);
+		if (data_ != null) put(ring_, at_, data_, dataOffset_, length_);
+		if (at_ + length_ > tail) TAIL.lazySet(this, at_ + length_);
+		return length_;
+	}
+
+	/**
+	 * Removes data; consumer only.
+	 * @see CircularBuffer#remove(byte[], int, int)
+	 */
+	public int remove(byte[] buf_, int pos_, int size_)
+	{
+		long head_ = head;
+		int occupy_ = (int)(tailCache - head_);
+		if (size_ <= 0 || size_ > occupy_) {
+			tailCache = tail;
+			occupy_ = (int)(tailCache - head_);
+		}
+		if (size_ <= 0 || size_ > occupy_) size_ = occupy_; // remove all
+		if (buf_ != null && pos_ + size_ > buf_.length) {
+			size_ = buf_.length - pos_;
+			if (size_ <= 0) return 0;
+		}
+		if (buf_ != null) {
+			byte[] ring_ = ring;
+			if (ring_ != null) get(ring_, head_, buf_, pos_, size_);
+		}
+		HEAD.lazySet(this, head_ + size_);
+		return size_;
+	}
+
+	public byte[] remove(int size_)
+	{
+		int occupy_ = getSize();
+		if (size_ > occupy_) return null;
+		if (size_ <= 0) size_ = occupy_;
+		byte[] data_ = ring == null? null: new byte[size_];
+		remove(data_, 0, size_);
+		return data_;
+	}
+
+	/**
+	 * Reads but not removes data; consumer only.
+	 * @see CircularBuffer#read(int, int)
+	 */
+	public byte[] read(int start_, int len_)
+	{
+		int size_ = available(start_, len_);
+		byte[] ring_ = ring;
+		if (ring_ == null || size_ < 0 || len_ > size_) return null;
+		if (len_ < 0) len_ = size_;
+		byte[] data_ = new byte[len_];
+		get(ring_, head + start_, data_, 0, len_);
+		return data_;
+	}
+
+	/** Copies but not removes data; consumer only. */
+	public void copy(int start_, byte[] bytes, int offset, int len_)
+	{
+		int size_ = available(start_, len_);
+		byte[] ring_ = ring;
+		if (ring_ == null || size_ < 0 || len_ > size_) return;
+		if (len_ < 0) len_ = size_;
+		get(ring_, head + start_, bytes, offset, len_);
+	}
+
+	/** Copies but not removes data; consumer only. */
+	public void copy(int start_, java.nio.ByteBuffer dst_, int offset_, int len_)
+	{
+		int size_ = available(start_, len_);
+		byte[] ring_ = ring;
+		if (ring_ == null || size_ < 0 || len_ > size_) return;
+		if (len_ < 0) len_ = size_;
+		int mask_ = ring_.length - 1;
+		int from_ = (int)(head + start_) & mask_;
+		dst_.position(offset_);
+		if (from_ + len_ > ring_.length) {
+			int first_ = ring_.length - from_;
+			dst_.put(ring_, from_, first_);
+			dst_.put(ring_, 0, len_ - first_);
+		}
+		else
+			dst_.put(ring_, from_, len_);
+	}
+
+	// number of bytes after start_ from the head, as seen by the consumer;
+	// reads the tail again only if the cached one does not cover len_
+	int available(int start_, int len_)
+	{
+		int size_ = (int)(tailCache - head) - start_;
+		if (len_ < 0 || size_ < len_) {
+			tailCache = tail;
+			size_ = (int)(tailCache - head) - start_;
+		}
+		return size_;
+	}
+
+	public int getSize()
+	{
+		long head_ = head; // before tail so that the size is not negative
+		return (int)(tail - head_);
+	}
+
+	public int getCapacity()
+	{ return limit; }
+
+	public int getAvailableSpace()
+	{ return limit - getSize(); }
+
+	/**
+	 * Changes the capacity.  Bytes already in the buffer are kept even if
+	 * the buffer is shrunk below its size.
+	 */
+	public void resize(int newSize_, boolean shrink_)
+	{
+		if (limit > newSize_ && !shrink_) return;
+		limit = newSize_;
+	}
+
+	public String toString()
+	{
+		return getSize() + "/" + getCapacity() + ", head=" + head + ", tail=" + tail;
+	}
+
+	// returns a ring that can hold up to end_; producer only
+	byte[] ensureRing(boolean real_, long end_)
+	{
+		byte[] ring_ = ring;
+		if (ring_ == null) {
+			if (!real_) return null;
+			ring_ = new byte[ringSize(limit)];
+			ring = ring_;
+			return ring_;
+		}
+		long head_ = head;
+		if (end_ - head_ <= ring_.length) return ring_;
+		// grow: copy the live bytes; the consumer reads the old ring until
+		// it sees a tail written after the new one is published
+		byte[] new_ = new byte[ringSize((int)(end_ - head_))];
+		long tail_ = tail;
+		int oldMask_ = ring_.length - 1, newMask_ = new_.length - 1;
+		for (long i = head_; i < tail_; ) {
+			int from_ = (int)i & oldMask_, to_ = (int)i & newMask_;
+			int n_ = (int)Math.min(tail_ - i, Math.min(ring_.length - from_,
+				new_.length - to_));
+			System.arraycopy(ring_, from_, new_, to_, n_);
+			i += n_;
+		}
+		ring = new_;
+		return new_;
+	}
+
+	static void put(byte[] ring_, long at_, byte[] src_, int offset_, int len_)
+	{
+		int i = (int)at_ & (ring_.length - 1);
+		int first_ = Math.min(len_, ring_.length - i);
+		System.arraycopy(src_, offset_, ring_, i, first_);
+		if (first_ < len_)
+			System.arraycopy(src_, offset_ + first_, ring_, 0, len_ - first_);
+	}
+
+	static void get(byte[] ring_, long at_, byte[] dst_, int offset_, int len_)
+	{
+		int i = (int)at_ & (ring_.length - 1);
+		int first_ = Math.min(len_, ring_.length - i);
+		System.arraycopy(ring_, i, dst_, offset_, first_);
+		if (first_ < len_)
+			System.arraycopy(ring_, 0, dst_, offset_ + first_, len_ - first_);
+	}
+}
@@ -2,6 +2,11 @@ package drcl.util;
 
 import java.util.ArrayList;
 
+/**
+ * @deprecated Use {@link LatencyTracer}, which records timestamps without
+ * building strings on the packet path.
+ */
+@Deprecated
 public class TimeLog {
 	public static ArrayList<String> times = new ArrayList<String>();
 	
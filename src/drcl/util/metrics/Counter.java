@@ -0,0 +1,30 @@
+package drcl.util.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Monotonic count, such as bytes sent.  Backed by a {@link LongAdder} so
+ * that threads adding to the same counter do not contend.
+ */
+public final class Counter extends Metric {
+
+	private final LongAdder count = new LongAdder();
+
+	Counter(String name_)
+	{ super(name_); }
+
+	public void increment()
+	{ count.increment(); }
+
+	public void add(long n_)
+	{ count.add(n_); }
+
+	public long get()
+	{ return count.sum(); }
+
+	public double read(int i)
+	{ return count.sum(); }
+
+	public void reset()
+	{ count.reset(); }
+}
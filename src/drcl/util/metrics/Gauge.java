@@ -0,0 +1,28 @@
+package drcl.util.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Last value of a quantity, such as the congestion window.  Meant to be set
+ * by the one thread that owns the quantity: a set is an ordered store
+ * without a fence, and readers see it shortly after.
+ */
+public final class Gauge extends Metric {
+
+	private final AtomicLong bits = new AtomicLong();
+
+	Gauge(String name_)
+	{ super(name_); }
+
+	public void set(double v_)
+	{ bits.lazySet(Double.doubleToRawLongBits(v_)); }
+
+	public double get()
+	{ return Double.longBitsToDouble(bits.get()); }
+
+	public double read(int i)
+	{ return get(); }
+
+	public void reset()
+	{ set(0.0); }
+}
@@ -0,0 +1,119 @@
+package drcl.util.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Distribution of non-negative integer values, such as RTT samples in
+ * microseconds, in log-linear buckets as in HdrHistogram: values below 64
+ * have a bucket each, and every power of two above is split into 32 buckets,
+ * so a percentile is off by at most 1/32 of its value.  Recording is two
+ * atomic adds, plus one for a new maximum; values above the trackable
+ * maximum are counted in the last bucket.
+ * <p>
+ * The fields are the count, mean, 50th, 90th and 99th percentiles and
+ * maximum.  Percentiles are reported as the largest value of their bucket.
+ */
+public final class Histogram extends Metric {
+
+	static final int SUB_BITS = 5;
+	static final int SUB_COUNT = 1 << SUB_BITS;
+	static final String[] FIELDS = {"count", "mean", "p50", "p90", "p99", "max"};
+
+	/** Default trackable maximum, 2^36 (19 hours in microseconds). */
+	public static final long DEFAULT_MAX = 1L << 36;
+
+	private final AtomicLongArray buckets;
+	private final AtomicLong sum = new AtomicLong(), max = new AtomicLong();
+
+	Histogram(String name_)
+	{ this(name_, DEFAULT_MAX); }
+
+	Histogram(String name_, long maxValue_)
+	{
+		super(name_);
+		buckets = new AtomicLongArray(index(Math.max(maxValue_, 2 * SUB_COUNT)) + 1);
+	}
+
+	static int index(long v_)
+	{
+		if (v_ < 2 * SUB_COUNT) return v_ < 0? 0: (int)v_;
+		int e_ = 63 - Long.numberOfLeadingZeros(v_) - SUB_BITS;
+		return (e_ << SUB_BITS) + (int)(v_ >>> e_);
+	}
+
+	/** Largest value of the bucket. */
+	static long highest(int i)
+	{
+		if (i < 2 * SUB_COUNT) return i;
+		int e_ = (i >> SUB_BITS) - 1;
+		long sub_ = i - (e_ << SUB_BITS);
+		return ((sub_ + 1) << e_) - 1;
+	}
+
+	public void record(long v_)
+	{
+		if (v_ < 0) v_ = 0;
+		buckets.getAndIncrement(Math.min(index(v_), buckets.length() - 1));
+		sum.getAndAdd(v_);
+		if (v_ > max.get()) max.accumulateAndGet(v_, Math::max);
+	}
+
+	public long getCount()
+	{
+		long n_ = 0;
+		for (int i = 0; i < buckets.length(); i++) n_ += buckets.get(i);
+		return n_;
+	}
+
+	public double getMean()
+	{
+		long n_ = getCount();
+		return n_ == 0? 0.0: (double)sum.get() / n_;
+	}
+
+	public long getMax()
+	{ return max.get(); }
+
+	/** Returns the value below which <code>q_</code> (0 to 1) of the
+	 * samples fall, 0 if there is none. */
+	public long getPercentile(double q_)
+	{
+		int len_ = buckets.length();
+		long[] counts_ = new long[len_];
+		long n_ = 0;
+		for (int i = 0; i < len_; i++) n_ += counts_[i] = buckets.get(i);
+		if (n_ == 0) return 0;
+		long rank_ = Math.max(1, (long)Math.ceil(q_ * n_));
+		for (int i = 0; i < len_; i++)
+			if ((rank_ -= counts_[i]) <= 0)
+				return Math.min(highest(i), max.get());
+		return max.get();
+	}
+
+	public int getFieldCount()
+	{ return FIELDS.length; }
+
+	public String getFieldName(int i)
+	{ return name + "." + FIELDS[i]; }
+
+	public double read(int i)
+	{
+		switch (i) {
+		case 0: return getCount();
+		case 1: return getMean();
+		case 2: return getPercentile(0.5);
+		case 3: return getPercentile(0.9);
+		case 4: return getPercentile(0.99);
+		default: return getMax();
+		}
+	}
+
+	/** Clears the samples; ones recorded meanwhile may be partly lost. */
+	public void reset()
+	{
+		for (int i = 0; i < buckets.length(); i++) buckets.set(i, 0);
+		sum.set(0);
+		max.set(0);
+	}
+}
@@ -0,0 +1,47 @@
+package drcl.util.metrics;
+
+/**
+ * A named value of a {@link MetricGroup}.  A metric is read as one or more
+ * fields (a histogram has several); the sampler and the Tcl
+ * <code>metrics</code> command read them while the owner keeps updating.
+ */
+public abstract class Metric {
+
+	final String name;
+
+	Metric(String name_)
+	{ name = name_; }
+
+	public String getName()
+	{ return name; }
+
+	/** Returns the number of fields. */
+	public int getFieldCount()
+	{ return 1; }
+
+	/** Returns the name of the <code>i</code>th field, the metric name
+	 * itself for a single-field metric. */
+	public String getFieldName(int i)
+	{ return name; }
+
+	/** Returns the current value of the <code>i</code>th field. */
+	public abstract double read(int i);
+
+	public abstract void reset();
+
+	public String toString()
+	{
+		StringBuffer sb_ = new StringBuffer();
+		for (int i = 0; i < getFieldCount(); i++) {
+			if (i > 0) sb_.append(" ");
+			sb_.append(getFieldName(i) + "=" + format(read(i)));
+		}
+		return sb_.toString();
+	}
+
+	static String format(double v_)
+	{
+		return v_ == Math.rint(v_) && Math.abs(v_) < 1e15?
+			String.valueOf((long)v_): String.valueOf(v_);
+	}
+}
@@ -0,0 +1,70 @@
+package drcl.util.metrics;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Metrics of one flow (or any other named object), created through
+ * {@link Metrics#group(String)}.  Creating a metric returns the existing one
+ * of the same name and kind; the owner keeps the returned reference so that
+ * updates do not look anything up.
+ */
+public final class MetricGroup {
+
+	final String name;
+	final CopyOnWriteArrayList<Metric> metrics = new CopyOnWriteArrayList<Metric>();
+
+	MetricGroup(String name_)
+	{ name = name_; }
+
+	public String getName()
+	{ return name; }
+
+	public Counter counter(String name_)
+	{ return (Counter)add(Counter.class, name_); }
+
+	public Gauge gauge(String name_)
+	{ return (Gauge)add(Gauge.class, name_); }
+
+	public Histogram histogram(String name_)
+	{ return (Histogram)add(Histogram.class, name_); }
+
+	synchronized Metric add(Class<? extends Metric> class_, String name_)
+	{
+		Metric m_ = get(name_);
+		if (m_ != null) {
+			if (m_.getClass() != class_)
+				throw new IllegalArgumentException(name + "." + name_
+					+ " is a " + m_.getClass().getSimpleName());
+			return m_;
+		}
+		if (class_ == Counter.class) m_ = new Counter(name_);
+		else if (class_ == Gauge.class) m_ = new Gauge(name_);
+		else m_ = new Histogram(name_);
+		metrics.add(m_);
+		return m_;
+	}
+
+	/** Returns the metric of the name, null if none. */
+	public Metric get(String name_)
+	{
+		for (Metric m_: metrics)
+			if (m_.name.equals(name_)) return m_;
+		return null;
+	}
+
+	public Metric[] getMetrics()
+	{ return metrics.toArray(new Metric[0]); }
+
+	public void reset()
+	{
+		for (Metric m_: metrics) m_.reset();
+	}
+
+	public String toString()
+	{
+		StringBuffer sb_ = new StringBuffer(name + ":");
+		for (Metric m_: metrics)
+			sb_.append(" " + m_);
+		return sb_.toString();
+	}
+}
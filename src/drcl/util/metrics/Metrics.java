@@ -0,0 +1,229 @@
+package drcl.util.metrics;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of the {@link MetricGroup metric groups}, with a background
+ * sampler that writes them to a file.
+ * <p>
+ * Components update their metrics in place, which takes no lock and
+ * allocates nothing, instead of exporting an event per sample.  The sampler
+ * ({@link #startSampling(String, long, boolean)}) takes a snapshot every
+ * period and writes the fields that changed since the previous snapshot,
+ * either as CSV lines
+ * <pre>time,group,metric,value</pre>
+ * with the time in seconds since sampling started, or in a binary format of
+ * big-endian records:
+ * <pre>
+ * 0, int id, UTF group, UTF metric    defines series id, before its first value
+ * 1, long time (ms), int n, n * (int id, double value)    one snapshot
+ * </pre>
+ * The file is flushed once per snapshot.
+ */
+public class Metrics {
+
+	static final ConcurrentHashMap<String, MetricGroup> groups =
+		new ConcurrentHashMap<String, MetricGroup>();
+	static Sampler sampler;
+
+	/** Returns the group of the name, created if not there. */
+	public static MetricGroup group(String name_)
+	{
+		MetricGroup g_ = groups.get(name_);
+		if (g_ != null) return g_;
+		g_ = new MetricGroup(name_);
+		MetricGroup old_ = groups.putIfAbsent(name_, g_);
+		return old_ == null? g_: old_;
+	}
+
+	/** Returns the group of the name, null if none. */
+	public static MetricGroup getGroup(String name_)
+	{ return groups.get(name_); }
+
+	public static void remove(String name_)
+	{ groups.remove(name_); }
+
+	/** Returns the groups sorted by name. */
+	public static MetricGroup[] getGroups()
+	{
+		MetricGroup[] all_ = groups.values().toArray(new MetricGroup[0]);
+		Arrays.sort(all_, new Comparator<MetricGroup>() {
+			public int compare(MetricGroup a_, MetricGroup b_)
+			{ return a_.name.compareTo(b_.name); }
+		});
+		return all_;
+	}
+
+	/** Resets all metrics. */
+	public static void reset()
+	{
+		for (MetricGroup g_: groups.values()) g_.reset();
+	}
+
+	/** Removes all groups. */
+	public static void clear()
+	{ groups.clear(); }
+
+	/**
+	 * Starts a daemon thread that writes a snapshot to the file every
+	 * <code>period_</code> ms, replacing the file.
+	 * @param binary_ true for the binary format, false for CSV.
+	 */
+	public static synchronized void startSampling(String file_, long period_,
+		boolean binary_) throws IOException
+	{
+		stopSampling();
+		sampler = new Sampler(file_, period_, binary_);
+		sampler.start();
+	}
+
+	/** Writes a last snapshot and stops the sampler. */
+	public static synchronized void stopSampling()
+	{
+		if (sampler == null) return;
+		sampler.finish();
+		sampler = null;
+	}
+
+	public static synchronized boolean isSampling()
+	{ return sampler != null; }
+
+	/** Returns the number of snapshots written by the current sampler. */
+	public static synchronized long getSnapshotCount()
+	{ return sampler == null? 0: sampler.snapshots; }
+
+	/** Writes snapshots to a file periodically. */
+	static final class Sampler extends Thread {
+		final long period;
+		final boolean binary;
+		final DataOutputStream bout;
+		final PrintWriter cout;
+		final long start = System.currentTimeMillis();
+		volatile boolean running = true;
+		volatile long snapshots;
+
+		// first series id of each metric, and the last value of each series
+		final IdentityHashMap<Metric, Integer> ids = new IdentityHashMap<Metric, Integer>();
+		double[] last = new double[64];
+		int nextId = 0;
+		// series ids and values of the current snapshot
+		int[] changedIds = new int[64];
+		double[] changedValues = new double[64];
+
+		Sampler(String file_, long period_, boolean binary_) throws IOException
+		{
+			super("metrics-sampler");
+			setDaemon(true);
+			period = Math.max(period_, 1);
+			binary = binary_;
+			BufferedOutputStream out_ = new BufferedOutputStream(
+				new FileOutputStream(file_), 1 << 16);
+			if (binary) {
+				bout = new DataOutputStream(out_);
+				cout = null;
+			}
+			else {
+				bout = null;
+				cout = new PrintWriter(out_);
+				cout.println("time,group,metric,value");
+			}
+		}
+
+		public void run()
+		{
+			try {
+				while (running) {
+					try {
+						Thread.sleep(period);
+					} catch (InterruptedException e) {
+						// finishing
+					}
+					snapshot();
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+			} finally {
+				try {
+					if (binary) bout.close();
+					else cout.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+
+		void snapshot() throws IOException
+		{
+			long time_ = System.currentTimeMillis() - start;
+			int n_ = 0;
+			for (MetricGroup g_: getGroups())
+				for (Metric m_: g_.metrics) {
+					Integer id_ = ids.get(m_);
+					boolean new_ = id_ == null;
+					if (new_) {
+						id_ = Integer.valueOf(nextId);
+						ids.put(m_, id_);
+						nextId += m_.getFieldCount();
+						if (nextId > last.length)
+							last = Arrays.copyOf(last, Math.max(nextId, last.length * 2));
+					}
+					for (int i = 0; i < m_.getFieldCount(); i++) {
+						int sid_ = id_.intValue() + i;
+						double v_ = m_.read(i);
+						if (new_ && binary) {
+							bout.writeByte(0);
+							bout.writeInt(sid_);
+							bout.writeUTF(g_.name);
+							bout.writeUTF(m_.getFieldName(i));
+						}
+						if (!new_ && Double.compare(v_, last[sid_]) == 0) continue;
+						last[sid_] = v_;
+						if (binary) {
+							if (n_ == changedIds.length) {
+								changedIds = Arrays.copyOf(changedIds, n_ * 2);
+								changedValues = Arrays.copyOf(changedValues, n_ * 2);
+							}
+							changedIds[n_] = sid_;
+							changedValues[n_] = v_;
+						}
+						else
+							cout.println(time_ / 1000 + "." + (time_ % 1000 + 1000 + "").substring(1)
+								+ "," + g_.name + "," + m_.getFieldName(i) + "," + Metric.format(v_));
+						n_++;
+					}
+				}
+			if (binary) {
+				bout.writeByte(1);
+				bout.writeLong(time_);
+				bout.writeInt(n_);
+				for (int i = 0; i < n_; i++) {
+					bout.writeInt(changedIds[i]);
+					bout.writeDouble(changedValues[i]);
+				}
+				bout.flush();
+			}
+			else
+				cout.flush();
+			snapshots++;
+		}
+
+		void finish()
+		{
+			running = false;
+			interrupt();
+			try {
+				join();
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+}
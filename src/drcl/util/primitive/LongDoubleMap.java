@@ -0,0 +1,145 @@
+package drcl.util.primitive;
+
+/**
+ * Hash map from <code>long</code> keys to <code>double</code> values,
+ * without boxing.
+ * <p>
+ * Open addressing with linear probing over parallel arrays, with a
+ * separate occupancy array since every double is a valid value; removal
+ * shifts the following entries back.  Not synchronized.
+ */
+public class LongDoubleMap implements java.io.Serializable
+{
+	private static final long serialVersionUID = 1L;
+
+	long[] keys;
+	double[] values;
+	boolean[] used;
+	int size;
+
+	public LongDoubleMap()
+	{ this(8); }
+
+	/** Creates a map that holds <code>capacity_</code> entries before
+	 * growing. */
+	public LongDoubleMap(int capacity_)
+	{
+		int n_ = LongObjectMap.tableSize(capacity_);
+		keys = new long[n_];
+		values = new double[n_];
+		used = new boolean[n_];
+	}
+
+	// slot of the key, or the empty slot where it would go
+	int slot(long key_)
+	{
+		int mask_ = keys.length - 1;
+		int i = LongObjectMap.hash(key_) & mask_;
+		while (used[i] && keys[i] != key_) i = (i + 1) & mask_;
+		return i;
+	}
+
+	/** Returns the value of the key, <code>missing_</code> if none. */
+	public double get(long key_, double missing_)
+	{
+		int i = slot(key_);
+		return used[i]? values[i]: missing_;
+	}
+
+	/** Returns the value of the key, <code>Double.NaN</code> if none. */
+	public double get(long key_)
+	{ return get(key_, Double.NaN); }
+
+	public boolean containsKey(long key_)
+	{ return used[slot(key_)]; }
+
+	/** Maps the key to the value; returns true if the key is new. */
+	public boolean put(long key_, double value_)
+	{
+		int i = slot(key_);
+		boolean new_ = !used[i];
+		if (new_) {
+			if ((size + 1) * 2 > keys.length) {
+				grow();
+				i = slot(key_);
+			}
+			keys[i] = key_;
+			used[i] = true;
+			size++;
+		}
+		values[i] = value_;
+		return new_;
+	}
+
+	/** Removes the key; returns true if it was there. */
+	public boolean remove(long key_)
+	{
+		int i = slot(key_);
+		if (!used[i]) return false;
+		int mask_ = keys.length - 1;
+		used[i] = false;
+		size--;
+		for (int j = (i + 1) & mask_; used[j]; j = (j + 1) & mask_) {
+			int home_ = LongObjectMap.hash(keys[j]) & mask_;
+			if (i <= j? i < home_ && home_ <= j: i < home_ || home_ <= j)
+				continue;
+			keys[i] = keys[j];
+			values[i] = values[j];
+			used[i] = true;
+			used[j] = false;
+			i = j;
+		}
+		return true;
+	}
+
+	void grow()
+	{
+		long[] keys_ = keys;
+		double[] values_ = values;
+		boolean[] used_ = used;
+		keys = new long[keys_.length << 1];
+		values = new double[keys.length];
+		used = new boolean[keys.length];
+		int mask_ = keys.length - 1;
+		for (int i = 0; i < keys_.length; i++) {
+			if (!used_[i]) continue;
+			int j = LongObjectMap.hash(keys_[i]) & mask_;
+			while (used[j]) j = (j + 1) & mask_;
+			keys[j] = keys_[i];
+			values[j] = values_[i];
+			used[j] = true;
+		}
+	}
+
+	public int size()
+	{ return size; }
+
+	public boolean isEmpty()
+	{ return size == 0; }
+
+	public void clear()
+	{
+		java.util.Arrays.fill(used, false);
+		size = 0;
+	}
+
+	/** Returns the keys, in no particular order. */
+	public long[] keys()
+	{
+		long[] all_ = new long[size];
+		for (int i = 0, n = 0; i < used.length; i++)
+			if (used[i]) all_[n++] = keys[i];
+		return all_;
+	}
+
+	public String toString()
+	{
+		StringBuffer sb_ = new StringBuffer("{");
+		for (int i = 0; i < used.length; i++)
+			if (used[i]) {
+				if (sb_.length() > 1) sb_.append(", ");
+				sb_.append(keys[i] + "=" + values[i]);
+			}
+		return sb_.append("}").toString();
+	}
+}
@@ -0,0 +1,170 @@
+package drcl.util.primitive;
+
+/**
+ * Hash map from <code>long</code> keys to non-null objects, without boxing.
+ * <p>
+ * Open addressing with linear probing over parallel arrays; an empty slot
+ * is one with a null value, and removal shifts the following entries back
+ * instead of leaving tombstones.  Not synchronized.
+ */
+public class LongObjectMap<V> implements java.io.Serializable
+{
+	private static final long serialVersionUID = 1L;
+
+	long[] keys;
+	Object[] values;
+	int size;
+
+	public LongObjectMap()
+	{ this(8); }
+
+	/** Creates a map that holds <code>capacity_</code> entries before
+	 * growing. */
+	public LongObjectMap(int capacity_)
+	{
+		int n_ = tableSize(capacity_);
+		keys = new long[n_];
+		values = new Object[n_];
+	}
+
+	static int tableSize(int capacity_)
+	{
+		int n_ = 8;
+		while (n_ < capacity_ * 2) n_ <<= 1;
+		return n_;
+	}
+
+	static int hash(long key_)
+	{
+		long h_ = key_ * 0x9E3779B97F4A7C15L;
+		return (int)(h_ ^ (h_ >>> 32));
+	}
+
+	// slot of the key, or the empty slot where it would go
+	int slot(long key_)
+	{
+		int mask_ = keys.length - 1;
+		int i = hash(key_) & mask_;
+		while (values[i] != null && keys[i] != key_) i = (i + 1) & mask_;
+		return i;
+	}
+
+	/** Returns the value of the key, null if none. */
+	@SuppressWarnings("unchecked")
+	public V get(long key_)
+	{ return (V)values[slot(key_)]; }
+
+	public boolean containsKey(long key_)
+	{ return values[slot(key_)] != null; }
+
+	/** Maps the key to the value and returns the old value.
+	 * @throws NullPointerException if <code>value_</code> is null. */
+	@SuppressWarnings("unchecked")
+	public V put(long key_, V value_)
+	{
+		if (value_ == null) throw new NullPointerException("null value");
+		int i = slot(key_);
+		V old_ = (V)values[i];
+		if (old_ == null) {
+			if ((size + 1) * 2 > keys.length) {
+				grow();
+				i = slot(key_);
+			}
+			keys[i] = key_;
+			size++;
+		}
+		values[i] = value_;
+		return old_;
+	}
+
+	/** Removes the key and returns its value, null if none. */
+	@SuppressWarnings("unchecked")
+	public V remove(long key_)
+	{
+		int i = slot(key_);
+		V old_ = (V)values[i];
+		if (old_ != null) delete(i);
+		return old_;
+	}
+
+	/** Removes every key mapped to <code>value_</code> (by identity) and
+	 * returns the number removed. */
+	public int removeValue(Object value_)
+	{
+		int n_ = 0;
+		for (int i = 0; i < values.length; )
+			if (values[i] == value_ && value_ != null) {
+				delete(i); // may shift a later entry into i
+				n_++;
+			}
+			else
+				i++;
+		return n_;
+	}
+
+	// backward-shift deletion, keeps probe sequences unbroken
+	void delete(int i)
+	{
+		int mask_ = keys.length - 1;
+		values[i] = null;
+		size--;
+		for (int j = (i + 1) & mask_; values[j] != null; j = (j + 1) & mask_) {
+			int home_ = hash(keys[j]) & mask_;
+			// leave j if its home lies cyclically in (i, j]
+			if (i <= j? i < home_ && home_ <= j: i < home_ || home_ <= j)
+				continue;
+			keys[i] = keys[j];
+			values[i] = values[j];
+			values[j] = null;
+			i = j;
+		}
+	}
+
+	void grow()
+	{
+		long[] keys_ = keys;
+		Object[] values_ = values;
+		keys = new long[keys_.length << 1];
+		values = new Object[values_.length << 1];
+		int mask_ = keys.length - 1;
+		for (int i = 0; i < keys_.length; i++) {
+			if (values_[i] == null) continue;
+			int j = hash(keys_[i]) & mask_;
+			while (values[j] != null) j = (j + 1) & mask_;
+			keys[j] = keys_[i];
+			values[j] = values_[i];
+		}
+	}
+
+	public int size()
+	{ return size; }
+
+	public boolean isEmpty()
+	{ return size == 0; }
+
+	public void clear()
+	{
+		java.util.Arrays.fill(values, null);
+		size = 0;
+	}
+
+	/** Returns the keys, in no particular order. */
+	public long[] keys()
+	{
+		long[] all_ = new long[size];
+		for (int i = 0, n = 0; i < values.length; i++)
+			if (values[i] != null) all_[n++] = keys[i];
+		return all_;
+	}
+
+	public String toString()
+	{
+		StringBuffer sb_ = new StringBuffer("{");
+		for (int i = 0; i < values.length; i++)
+			if (values[i] != null) {
+				if (sb_.length() > 1) sb_.append(", ");
+				sb_.append(keys[i] + "=" + values[i]);
+			}
+		return sb_.append("}").toString();
+	}
+}
@@ -0,0 +1,171 @@
+package drcl.util.primitive;
+
+/**
+ * Map from <code>long</code> keys to <code>double</code> values kept in key
+ * order, without boxing, for keys that mostly grow, like sequence numbers.
+ * <p>
+ * The entries are sorted parallel arrays between <code>head</code> and
+ * <code>tail</code>: a key larger than all is appended in constant time,
+ * others are found by binary search, and removing the smallest keys
+ * ({@link #removeBelow(long)}) only moves <code>head</code>.
+ * Not synchronized.
+ */
+public class SortedLongDoubleMap implements java.io.Serializable
+{
+	private static final long serialVersionUID = 1L;
+
+	long[] keys;
+	double[] values;
+	int head, tail; // entries in [head, tail)
+
+	public SortedLongDoubleMap()
+	{ this(16); }
+
+	public SortedLongDoubleMap(int capacity_)
+	{
+		keys = new long[Math.max(capacity_, 4)];
+		values = new double[keys.length];
+	}
+
+	// index of the key, or -(insertion point)-1
+	int find(long key_)
+	{
+		if (head == tail || key_ > keys[tail - 1]) return -tail - 1;
+		return java.util.Arrays.binarySearch(keys, head, tail, key_);
+	}
+
+	/** Returns the value of the key, <code>missing_</code> if none. */
+	public double get(long key_, double missing_)
+	{
+		int i = find(key_);
+		return i >= 0? values[i]: missing_;
+	}
+
+	/** Returns the value of the key, <code>Double.NaN</code> if none. */
+	public double get(long key_)
+	{ return get(key_, Double.NaN); }
+
+	public boolean containsKey(long key_)
+	{ return find(key_) >= 0; }
+
+	/** Maps the key to the value; returns true if the key is new. */
+	public boolean put(long key_, double value_)
+	{
+		int i = find(key_);
+		if (i >= 0) {
+			values[i] = value_;
+			return false;
+		}
+		i = -i - 1;
+		if (tail == keys.length) {
+			i -= head;
+			makeRoom();
+			i += head;
+		}
+		if (i < tail) {
+			System.arraycopy(keys, i, keys, i + 1, tail - i);
+			System.arraycopy(values, i, values, i + 1, tail - i);
+		}
+		keys[i] = key_;
+		values[i] = value_;
+		tail++;
+		return true;
+	}
+
+	// moves the entries to the front, growing the arrays if more than half
+	// full
+	void makeRoom()
+	{
+		int n_ = tail - head;
+		long[] keys_ = keys;
+		double[] values_ = values;
+		if (n_ * 2 > keys.length) {
+			keys = new long[keys.length << 1];
+			values = new double[keys.length];
+		}
+		System.arraycopy(keys_, head, keys, 0, n_);
+		System.arraycopy(values_, head, values, 0, n_);
+		head = 0;
+		tail = n_;
+	}
+
+	/** Removes the key; returns true if it was there. */
+	public boolean remove(long key_)
+	{
+		int i = find(key_);
+		if (i < 0) return false;
+		removeAt(i, i + 1);
+		return true;
+	}
+
+	/** Removes the keys in [<code>from_</code>, <code>to_</code>) and
+	 * returns the number removed. */
+	public int removeRange(long from_, long to_)
+	{
+		if (from_ >= to_ || head == tail) return 0;
+		int i = find(from_);
+		int j = find(to_);
+		if (i < 0) i = -i - 1;
+		if (j < 0) j = -j - 1;
+		removeAt(i, j);
+		return j - i;
+	}
+
+	/** Removes the keys smaller than <code>key_</code> and returns the
+	 * number removed. */
+	public int removeBelow(long key_)
+	{ return removeRange(Long.MIN_VALUE, key_); }
+
+	void removeAt(int i, int j)
+	{
+		if (i >= j) return;
+		if (i == head) head = j;
+		else {
+			System.arraycopy(keys, j, keys, i, tail - j);
+			System.arraycopy(values, j, values, i, tail - j);
+			tail -= j - i;
+		}
+		if (head == tail) head = tail = 0;
+	}
+
+	/** Returns the smallest key; the map must not be empty. */
+	public long firstKey()
+	{
+		if (head == tail) throw new java.util.NoSuchElementException();
+		return keys[head];
+	}
+
+	/** Returns the largest key; the map must not be empty. */
+	public long lastKey()
+	{
+		if (head == tail) throw new java.util.NoSuchElementException();
+		return keys[tail - 1];
+	}
+
+	/** Returns the <code>i</code>th smallest key. */
+	public long keyAt(int i)
+	{ return keys[head + i]; }
+
+	/** Returns the value of the <code>i</code>th smallest key. */
+	public double valueAt(int i)
+	{ return values[head + i]; }
+
+	public int size()
+	{ return tail - head; }
+
+	public boolean isEmpty()
+	{ return head == tail; }
+
+	public void clear()
+	{ head = tail = 0; }
+
+	public String toString()
+	{
+		StringBuffer sb_ = new StringBuffer("{");
+		for (int i = head; i < tail; i++) {
+			if (i > head) sb_.append(", ");
+			sb_.append(keys[i] + "=" + values[i]);
+		}
+		return sb_.append("}").toString();
+	}
+}
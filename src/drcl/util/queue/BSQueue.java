@@ -36,7 +36,8 @@ import java.util.*;
  * Although PriorityQueue implements Serializable, for the class to be it,
  * the stored objects must be serializable also.
  */
-public class BSQueue extends QueueImpl implements java.io.Serializable
+public class BSQueue extends QueueImpl
+		implements EventQueue, java.io.Serializable
 {
 	//public static RecycleCan elementCan = new RecycleCan(__Element.class, 5, 5);
 												  
@@ -134,7 +135,15 @@ public class BSQueue extends QueueImpl implements java.io.Serializable
 		//e_.recycle();
 		return o_;
 	}
-	
+
+	public void dequeueTransfer(FIFOQueue fifo_)
+	{
+		if (length == 0) return;
+		long key_ = head.next.key;
+		while (length > 0 && head.next.key == key_)
+			fifo_.enqueue(key_, dequeue());
+	}
+
 	public Object dequeue(long key_)
 	{
 		for (__Element e_ = head; e_.next != head; e_ = e_.next)	
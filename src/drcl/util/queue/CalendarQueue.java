@@ -0,0 +1,434 @@
+package drcl.util.queue;
+
+import java.util.*;
+
+/**
+ * Calendar queue (R. Brown, CACM 31(10), 1988): elements are hashed by key
+ * into a circular array of buckets, each a "day" of {@link #getWidth()} keys
+ * and the whole array a "year", and each bucket is a list sorted by key.
+ * When the keys are spread about evenly over the near future, as the event
+ * times of a simulation are, an enqueue and a dequeue of the first element
+ * each take amortized constant time.
+ * <p>
+ * The number of buckets doubles when there are twice as many elements and
+ * halves when there are half as many; on each resize the day width is set
+ * to three times the average gap between the first elements.  Elements of
+ * equal keys are kept in the order they are enqueued.
+ * <p>
+ * Operations other than those on the first element and those given a key
+ * scan the whole queue.
+ */
+public class CalendarQueue extends QueueImpl
+		implements EventQueue, java.io.Serializable
+{
+	private static final long serialVersionUID = 1L;
+
+	static final int MIN_BUCKETS = 2; // power of two
+	static final int SAMPLES = 25; // elements to estimate the width from
+
+	_Element[] buckets = new _Element[MIN_BUCKETS];
+	_Element[] tails = new _Element[MIN_BUCKETS];
+	int mask = MIN_BUCKETS - 1;
+	long width = 1;
+	int length;
+	int current; // bucket to dequeue from
+	long currentTop; // the current bucket holds keys below this in this year
+	boolean resizeEnabled = true;
+
+	/** Returns the range of keys a bucket covers in a year. */
+	public long getWidth()
+	{ return width; }
+
+	/** Returns the number of buckets. */
+	public int getBuckets()
+	{ return buckets.length; }
+
+	public void reset()
+	{
+		buckets = new _Element[MIN_BUCKETS];
+		tails = new _Element[MIN_BUCKETS];
+		mask = MIN_BUCKETS - 1;
+		width = 1;
+		length = 0;
+		current = 0;
+		currentTop = width;
+	}
+
+	int _bucket(long key_)
+	{ return (int)Math.floorDiv(key_, width) & mask; }
+
+	// moves the dequeue position back to the bucket of key_
+	void _setCurrent(long key_)
+	{
+		long day_ = Math.floorDiv(key_, width);
+		current = (int)day_ & mask;
+		currentTop = (day_ + 1) * width;
+	}
+
+	// links e_ after the elements of keys not greater than e_.key
+	void _insert(_Element e_)
+	{
+		long key_ = e_.key;
+		int i = _bucket(key_);
+		_Element tail_ = tails[i];
+		if (tail_ == null) {
+			buckets[i] = tails[i] = e_;
+			e_.next = null;
+		}
+		else if (tail_.key <= key_) {
+			tail_.next = tails[i] = e_;
+			e_.next = null;
+		}
+		else if (buckets[i].key > key_) {
+			e_.next = buckets[i];
+			buckets[i] = e_;
+		}
+		else {
+			_Element prev_ = buckets[i];
+			while (prev_.next.key <= key_) prev_ = prev_.next;
+			e_.next = prev_.next;
+			prev_.next = e_;
+		}
+		if (length == 0 || key_ < currentTop - width) _setCurrent(key_);
+		length++;
+	}
+
+	public void enqueue(long key_, Object element_)
+	{
+		_insert(new _Element(key_, element_));
+		if (resizeEnabled && length > buckets.length << 1)
+			_resize(buckets.length << 1);
+	}
+
+	/** Returns the bucket that holds the first element, -1 if empty. */
+	int _findFirst()
+	{
+		if (length == 0) return -1;
+		int i = current;
+		long top_ = currentTop;
+		for (int n = 0; n <= mask; n++) {
+			_Element e_ = buckets[i];
+			if (e_ != null && e_.key < top_) {
+				current = i;
+				currentTop = top_;
+				return i;
+			}
+			i = (i + 1) & mask;
+			top_ += width;
+		}
+		// nothing within a year: look for the smallest key directly
+		_Element first_ = null;
+		for (int j = 0; j <= mask; j++)
+			if (buckets[j] != null && (first_ == null
+				|| buckets[j].key < first_.key))
+				first_ = buckets[j];
+		_setCurrent(first_.key);
+		return current;
+	}
+
+	// unlinks the first element of bucket i
+	_Element _poll(int i)
+	{
+		_Element e_ = buckets[i];
+		buckets[i] = e_.next;
+		if (e_.next == null) tails[i] = null;
+		e_.next = null;
+		length--;
+		return e_;
+	}
+
+	void _shrink()
+	{
+		if (resizeEnabled && buckets.length > MIN_BUCKETS
+			&& length < buckets.length >> 1)
+			_resize(buckets.length >> 1);
+	}
+
+	public Object dequeue()
+	{
+		int i = _findFirst();
+		if (i < 0) return null;
+		Object o_ = _poll(i).obj;
+		_shrink();
+		return o_;
+	}
+
+	public void dequeueTransfer(FIFOQueue fifo_)
+	{
+		int i = _findFirst();
+		if (i < 0) return;
+		_Element head_ = buckets[i], tail_ = head_;
+		int len_ = 1;
+		for (; tail_.next != null && tail_.next.key == head_.key; len_++)
+			tail_ = tail_.next;
+		buckets[i] = tail_.next;
+		if (tail_.next == null) tails[i] = null;
+		tail_.next = null;
+		length -= len_;
+		fifo_.length += len_;
+		if (fifo_.tail == null)
+			fifo_.head.next = head_;
+		else
+			fifo_.tail.next = head_;
+		fifo_.tail = tail_;
+		_shrink();
+	}
+
+	/** Rehashes the elements into <code>n_</code> buckets. */
+	void _resize(int n_)
+	{
+		// the first elements, in order, to estimate the width from
+		int samples_ = Math.min(SAMPLES, length);
+		_Element[] first_ = new _Element[samples_];
+		for (int k = 0; k < samples_; k++) first_[k] = _poll(_findFirst());
+		width = _estimateWidth(first_);
+
+		_Element[] old_ = buckets;
+		buckets = new _Element[n_];
+		tails = new _Element[n_];
+		mask = n_ - 1;
+		length = 0;
+		for (int k = 0; k < samples_; k++) _insert(first_[k]);
+		for (int j = 0; j < old_.length; j++)
+			for (_Element e_ = old_[j]; e_ != null; ) {
+				_Element next_ = e_.next;
+				_insert(e_);
+				e_ = next_;
+			}
+	}
+
+	// three times the average gap between the elements, leaving out gaps
+	// more than twice the average
+	long _estimateWidth(_Element[] first_)
+	{
+		if (first_.length < 2) return width;
+		long total_ = first_[first_.length - 1].key - first_[0].key;
+		if (total_ <= 0) return width;
+		double avg_ = (double)total_ / (first_.length - 1);
+		double sum_ = 0.0;
+		int n_ = 0;
+		for (int k = 1; k < first_.length; k++) {
+			long gap_ = first_[k].key - first_[k - 1].key;
+			if (gap_ <= 2.0 * avg_) {
+				sum_ += gap_;
+				n_++;
+			}
+		}
+		if (sum_ == 0.0) return width;
+		return Math.max(1L, (long)(3.0 * sum_ / n_));
+	}
+
+	// all elements in order
+	_Element[] _elements()
+	{
+		_Element[] ee_ = new _Element[length];
+		int k = 0;
+		for (int j = 0; j <= mask; j++)
+			for (_Element e_ = buckets[j]; e_ != null; e_ = e_.next)
+				ee_[k++] = e_;
+		// stable, so equal keys stay in order
+		Arrays.sort(ee_, new Comparator<_Element>() {
+			public int compare(_Element e1_, _Element e2_)
+			{
+				long k1_ = e1_.key, k2_ = e2_.key;
+				return k1_ < k2_? -1: (k1_ == k2_? 0: 1);
+			}
+		});
+		return ee_;
+	}
+
+	// removes the first element of key_ that equals element_, or just the
+	// first of key_ if element_ is null
+	Object _remove(long key_, Object element_)
+	{
+		int i = _bucket(key_);
+		_Element prev_ = null;
+		for (_Element e_ = buckets[i]; e_ != null && e_.key <= key_;
+			prev_ = e_, e_ = e_.next) {
+			if (e_.key < key_ || element_ != null && !element_.equals(e_.obj))
+				continue;
+			if (prev_ == null) buckets[i] = e_.next;
+			else prev_.next = e_.next;
+			if (e_.next == null) tails[i] = prev_;
+			length--;
+			_shrink();
+			return e_.obj;
+		}
+		return null;
+	}
+
+	public Object dequeue(long key_)
+	{ return _remove(key_, null); }
+
+	public Object remove(Object element_)
+	{
+		for (int j = 0; j <= mask; j++)
+			for (_Element e_ = buckets[j]; e_ != null; e_ = e_.next)
+				if (e_.obj.equals(element_)) return _remove(e_.key, element_);
+		return null;
+	}
+
+	public Object remove(long key_, Object element_)
+	{ return _remove(key_, element_); }
+
+	public void removeAll(Object element_)
+	{ while (remove(element_) != null); }
+
+	public void removeAll(long key_, Object element_)
+	{ while (_remove(key_, element_) != null); }
+
+	public Object remove(int n_)
+	{
+		if (n_ < 0 || n_ >= length) return null;
+		_Element e_ = _elements()[n_];
+		return remove(e_.key, e_.obj);
+	}
+
+	public Object firstElement()
+	{
+		int i = _findFirst();
+		return i < 0? null: buckets[i].obj;
+	}
+
+	public long firstKey()
+	{
+		int i = _findFirst();
+		return i < 0? Long.MIN_VALUE: buckets[i].key;
+	}
+
+	// the last of the elements of the largest key
+	_Element _last()
+	{
+		_Element last_ = null;
+		for (int j = 0; j <= mask; j++)
+			if (tails[j] != null && (last_ == null || tails[j].key > last_.key))
+				last_ = tails[j];
+		return last_;
+	}
+
+	public Object lastElement()
+	{
+		_Element e_ = _last();
+		return e_ == null? null: e_.obj;
+	}
+
+	public long lastKey()
+	{
+		_Element e_ = _last();
+		return e_ == null? Long.MIN_VALUE: e_.key;
+	}
+
+	public Object retrieveAt(int n_)
+	{ return n_ < 0 || n_ >= length? null: _elements()[n_].obj; }
+
+	public long retrieveKeyAt(int n_)
+	{ return n_ < 0 || n_ >= length? Long.MIN_VALUE: _elements()[n_].key; }
+
+	public Object retrieveBy(long key_)
+	{
+		for (_Element e_ = buckets[_bucket(key_)]; e_ != null && e_.key <= key_;
+			e_ = e_.next)
+			if (e_.key == key_) return e_.obj;
+		return null;
+	}
+
+	public Object[] retrieveAll(long key_)
+	{
+		ArrayList<Object> v_ = new ArrayList<Object>();
+		for (_Element e_ = buckets[_bucket(key_)]; e_ != null && e_.key <= key_;
+			e_ = e_.next)
+			if (e_.key == key_) v_.add(e_.obj);
+		return v_.toArray();
+	}
+
+	public Object[] retrieveAll()
+	{
+		_Element[] ee_ = _elements();
+		Object[] oo_ = new Object[ee_.length];
+		for (int k = 0; k < ee_.length; k++) oo_[k] = ee_[k].obj;
+		return oo_;
+	}
+
+	public Element[] _retrieveAll()
+	{ return _elements(); }
+
+	public long retrieveKey(Object o_)
+	{
+		_Element[] ee_ = _elements();
+		for (int k = 0; k < ee_.length; k++)
+			if (ee_[k].obj == o_ || o_ != null && o_.equals(ee_[k].obj))
+				return ee_[k].key;
+		return Long.MIN_VALUE;
+	}
+
+	public boolean contains(Object element_)
+	{
+		for (int j = 0; j <= mask; j++)
+			for (_Element e_ = buckets[j]; e_ != null; e_ = e_.next)
+				if (e_.obj == element_
+					|| element_ != null && element_.equals(e_.obj))
+					return true;
+		return false;
+	}
+
+	public boolean containsKey(long key_)
+	{
+		for (_Element e_ = buckets[_bucket(key_)]; e_ != null && e_.key <= key_;
+			e_ = e_.next)
+			if (e_.key == key_) return true;
+		return false;
+	}
+
+	public long[] keys()
+	{
+		_Element[] ee_ = _elements();
+		long[] kk_ = new long[ee_.length];
+		for (int k = 0; k < ee_.length; k++) kk_[k] = ee_[k].key;
+		return kk_;
+	}
+
+	public Enumeration<Object> getKeyEnumerator()
+	{ return new MyEnumerator(_elements(), true); }
+
+	public Enumeration<Object> getElementEnumerator()
+	{ return new MyEnumerator(_elements(), false); }
+
+	static class MyEnumerator extends drcl.DrclObj
+		implements Enumeration<Object>
+	{
+		private static final long serialVersionUID = 1L;
+
+		_Element[] ee;
+		int index;
+		boolean forKey;
+
+		MyEnumerator(_Element[] ee_, boolean forKey_)
+		{
+			ee = ee_;
+			forKey = forKey_;
+		}
+
+		public boolean hasMoreElements()
+		{ return index < ee.length; }
+
+		public Object nextElement()
+		{
+			if (index >= ee.length) return null;
+			_Element e_ = ee[index++];
+			return forKey? new drcl.data.DoubleObj(e_.key): e_.obj;
+		}
+	}
+
+	public int getLength()
+	{ return length; }
+
+	public String oneline()
+	{
+		StringBuffer sb_ = new StringBuffer(super.toString() + "," + length
+			+ ",buckets=" + buckets.length + ",width=" + width);
+		_Element[] ee_ = _elements();
+		for (int k = 0; k < ee_.length; k++)
+			sb_.append("-----" + ee_[k].key + ":" + ee_[k].obj);
+		return sb_.toString();
+	}
+}
@@ -0,0 +1,14 @@
+package drcl.util.queue;
+
+/**
+ * Future event list of a simulator: a {@link Queue} keyed by event time that
+ * keeps elements of equal keys in the order they are enqueued.
+ *
+ * @see drcl.sim.event.SESimulator#EVENT_QUEUE
+ */
+public interface EventQueue extends Queue
+{
+	/** Moves the elements of the smallest key, in the order they were
+	 * enqueued, to the end of <code>fifo_</code>. */
+	public void dequeueTransfer(FIFOQueue fifo_);
+}
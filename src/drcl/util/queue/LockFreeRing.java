@@ -0,0 +1,84 @@
+package drcl.util.queue;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free multi-producer multi-consumer ring.
+ * Each slot carries a sequence number that tells producers and consumers
+ * whether it is free to write or ready to read, so neither side ever takes
+ * a lock; {@link #offer(Object)} fails instead of blocking when the ring is
+ * full and {@link #poll()} returns null when it is empty.
+ * The capacity is rounded up to a power of two.
+ */
+public class LockFreeRing<E> {
+
+	private final int mask;
+	private final AtomicReferenceArray<E> items;
+	private final AtomicLongArray sequences;
+	private final AtomicLong head = new AtomicLong(); // next slot to read
+	private final AtomicLong tail = new AtomicLong(); // next slot to write
+
+	public LockFreeRing(int capacity_) {
+		int cap_ = 2;
+		while(cap_ < capacity_) cap_ <<= 1;
+		mask = cap_ - 1;
+		items = new AtomicReferenceArray<E>(cap_);
+		sequences = new AtomicLongArray(cap_);
+		for(int i = 0; i < cap_; i++)
+			sequences.set(i, i);
+	}
+
+	/** Returns the number of slots. */
+	public int capacity() {
+		return mask + 1;
+	}
+
+	/** Returns the number of elements, approximate under concurrent access. */
+	public int size() {
+		long n_ = tail.get() - head.get();
+		return n_ < 0? 0: (int)Math.min(n_, capacity());
+	}
+
+	public boolean isEmpty() {
+		return tail.get() == head.get();
+	}
+
+	/** Adds the element; returns false if the ring is full. */
+	public boolean offer(E e_) {
+		while(true) {
+			long pos_ = tail.get();
+			int i = (int)pos_ & mask;
+			long dif_ = sequences.get(i) - pos_;
+			if(dif_ == 0) {
+				if(tail.compareAndSet(pos_, pos_ + 1)) {
+					items.lazySet(i, e_);
+					sequences.set(i, pos_ + 1);
+					return true;
+				}
+			}
+			else if(dif_ < 0)
+				return false; // full
+		}
+	}
+
+	/** Removes and returns the oldest element, or null if the ring is empty. */
+	public E poll() {
+		while(true) {
+			long pos_ = head.get();
+			int i = (int)pos_ & mask;
+			long dif_ = sequences.get(i) - (pos_ + 1);
+			if(dif_ == 0) {
+				if(head.compareAndSet(pos_, pos_ + 1)) {
+					E e_ = items.get(i);
+					items.lazySet(i, null);
+					sequences.set(i, pos_ + mask + 1);
+					return e_;
+				}
+			}
+			else if(dif_ < 0)
+				return null; // empty
+		}
+	}
+}
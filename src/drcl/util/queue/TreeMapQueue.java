@@ -35,7 +35,7 @@ import java.util.*;
  * Queue that utilizes <code>java.util.TreeMap</code>.
  */
 public class TreeMapQueue extends QueueImpl
-		implements java.io.Serializable, java.util.Comparator
+		implements EventQueue, java.io.Serializable, java.util.Comparator
 {
 	//public static RecycleCan elementCan = new RecycleCan(_Element.class, 5, 5);
 												  
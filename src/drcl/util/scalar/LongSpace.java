@@ -28,12 +28,22 @@
 
 package drcl.util.scalar;
 
-import java.util.Vector;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 
 /**
  * A long integer space.
+ * The space is kept as sorted, disjoint intervals in two parallel arrays
+ * of starts and ends, so lookups are binary searches and no object is
+ * allocated per interval.  Gaps can be visited without an iterator through
+ * {@link #nextGapIndex(long)}, {@link #hasGap(int)},
+ * {@link #getGapStart(int, long)} and {@link #getGapEnd(int)}.
+ * <p>
+ * Unlike the earlier <code>Vector</code>-based version,
+ * {@link #checkout(long, long)} removes only the range given,
+ * {@link #checkin(long)} past the last interval adds the integer, and
+ * {@link #isIntersectedWith(long, long)} is also true for a range that
+ * contains a whole interval.
  */
 public class LongSpace extends drcl.DrclObj
 {
@@ -41,7 +51,10 @@ public class LongSpace extends drcl.DrclObj
 	 * 
 	 */
 	private static final long serialVersionUID = 1L;
-	Vector<LongInterval> vLongInterval;
+	
+	// interval i is [starts[i], ends[i]); ends[i] < starts[i+1]
+	long[] starts, ends;
+	int n;
 	
 	public LongSpace()
 	{ reset(0, Long.MAX_VALUE); }
@@ -54,37 +67,39 @@ public class LongSpace extends drcl.DrclObj
 	
 	public void reset(long start, long end)
 	{
-		if (vLongInterval == null)
-			vLongInterval = new Vector<LongInterval>(3,3);
-		else
-			vLongInterval.removeAllElements();
-		
-		if (start < end)
-			vLongInterval.addElement(new LongInterval(start, end));
+		if (starts == null) {
+			starts = new long[4];
+			ends = new long[4];
+		}
+		n = 0;
+		if (start < end) {
+			starts[0] = start;
+			ends[0] = end;
+			n = 1;
+		}
 	}
 	
 	public void clear()
-	{ vLongInterval.removeAllElements(); }
+	{ n = 0; }
 	
 	public void duplicate(Object source_)
 	{
 		LongSpace that_ = (LongSpace)source_;
-		vLongInterval.setSize(that_.vLongInterval.size());
-		for (int i=0; i<that_.vLongInterval.size(); i++) {
-			LongInterval g_ = (LongInterval)that_.vLongInterval.elementAt(i);
-			vLongInterval.setElementAt(new LongInterval(g_.start, g_.end), i);
-		}
+		starts = new long[Math.max(4, that_.n)];
+		ends = new long[starts.length];
+		System.arraycopy(that_.starts, 0, starts, 0, that_.n);
+		System.arraycopy(that_.ends, 0, ends, 0, that_.n);
+		n = that_.n;
 	}
 	
 	public String toString()
 	{
 		StringBuffer sb_ = new StringBuffer();
-		for (int i=0; i<vLongInterval.size(); i++) {
-			LongInterval g_ = (LongInterval) vLongInterval.elementAt(i);
+		for (int i=0; i<n; i++) {
 			sb_.append("(");
-			sb_.append(g_.start);
+			sb_.append(starts[i]);
 			sb_.append(",");
-			sb_.append(g_.end-1);
+			sb_.append(ends[i]-1);
 			sb_.append(") ");
 		}
 		return sb_.toString();
@@ -93,21 +108,20 @@ public class LongSpace extends drcl.DrclObj
 	public String info()
 	{
 		StringBuffer sb_ = new StringBuffer();
-		for (int i=0; i<vLongInterval.size(); i++) {
-			LongInterval g_ = (LongInterval) vLongInterval.elementAt(i);
+		for (int i=0; i<n; i++) {
 			sb_.append("LongInterval ");
 			sb_.append(i);
 			sb_.append(": (");
-			sb_.append(g_.start);
+			sb_.append(starts[i]);
 			sb_.append(", ");
-			sb_.append(g_.end-1);
+			sb_.append(ends[i]-1);
 			sb_.append(")\n");
 		}
-		sb_.append(vLongInterval.size() + " LongIntervals\n");
+		sb_.append(n + " LongIntervals\n");
 		return sb_.toString();
 	}
 
-	public int numOfLongIntervals() { return vLongInterval.size(); }
+	public int numOfLongIntervals() { return n; }
 	
 	/**
 	 * Returns the first available long integer in the space.
@@ -115,20 +129,37 @@ public class LongSpace extends drcl.DrclObj
 	 */
 	public long getSmallest()
 	{
-		if (vLongInterval.size() == 0) return Long.MIN_VALUE;
-		else return ((LongInterval)vLongInterval.firstElement()).start;
+		if (n == 0) return Long.MIN_VALUE;
+		else return starts[0];
 	}
 	
 	public LongInterval[] getLongIntervals()
 	{
-		LongInterval[] ii_ = new LongInterval[vLongInterval.size()];
-		vLongInterval.copyInto(ii_);
+		LongInterval[] ii_ = new LongInterval[n];
+		for (int i=0; i<n; i++)
+			ii_[i] = new LongInterval(starts[i], ends[i]);
 		return ii_;
 	}
 
+	/** Returns a copy of the <code>index_</code>th interval. */
 	public LongInterval getLongInterval(int index_)
 	{
-		return (LongInterval) vLongInterval.elementAt(index_);
+		if (index_ >= n) throw new ArrayIndexOutOfBoundsException(index_ + " >= " + n);
+		return new LongInterval(starts[index_], ends[index_]);
+	}
+	
+	/** Returns the start (inclusive) of the <code>index_</code>th interval. */
+	public long getStart(int index_)
+	{
+		if (index_ >= n) throw new ArrayIndexOutOfBoundsException(index_ + " >= " + n);
+		return starts[index_];
+	}
+	
+	/** Returns the end (exclusive) of the <code>index_</code>th interval. */
+	public long getEnd(int index_)
+	{
+		if (index_ >= n) throw new ArrayIndexOutOfBoundsException(index_ + " >= " + n);
+		return ends[index_];
 	}
 	
 	/**
@@ -137,13 +168,12 @@ public class LongSpace extends drcl.DrclObj
 	 */
 	public long checkout()
 	{
-		if (vLongInterval.size() == 0)
+		if (n == 0)
 			return Long.MIN_VALUE;
 		
-		LongInterval g_ = (LongInterval)vLongInterval.firstElement();
-		long v_ = g_.start++;
-		if (g_.start == g_.end)
-			vLongInterval.removeElementAt(0);
+		long v_ = starts[0]++;
+		if (starts[0] == ends[0])
+			replace(0, 1, 0);
 		return v_;
 	}
 	
@@ -153,26 +183,10 @@ public class LongSpace extends drcl.DrclObj
 	 */
 	public long checkout(long code_)
 	{
-		for (int i=0; i<vLongInterval.size(); i++)	{
-			LongInterval g_ = (LongInterval) vLongInterval.elementAt(i);
-			if (g_.start > code_) return Long.MIN_VALUE;
-			else if (code_ < g_.end) {
-				if (g_.end - g_.start == 1) {
-					vLongInterval.removeElementAt(i);
-				}
-				else if (g_.start < code_) {
-					if (code_ < g_.end -1) {
-						LongInterval tmp_ = new LongInterval(code_ + 1, g_.end);
-						vLongInterval.insertElementAt(tmp_, i+1);
-					}
-					g_.end = code_;
-				}
-				else
-					g_.start++;
-				return code_;
-			}
-		}
-		return Long.MIN_VALUE;
+		int i = endAbove(code_);
+		if (i == n || starts[i] > code_) return Long.MIN_VALUE;
+		remove(i, code_);
+		return code_;
 	}
 	
 	/**
@@ -182,84 +196,25 @@ public class LongSpace extends drcl.DrclObj
 	 */
 	public void checkout(long start_, long end_)
 	{
-		// special cases
-		if (start_ >= end_) return;
-		if (vLongInterval.size() == 0)
-			return;
-		else {
-			LongInterval g_ = (LongInterval) vLongInterval.lastElement();
-			if (g_.end <= start_) {
-				return;
-			}
-		}
-		
-		int i, gStartIndex_ = 0, gEndIndex_;
-		for (i=0; i<vLongInterval.size(); i++)	{
-			LongInterval g_ = (LongInterval) vLongInterval.elementAt(i);
-			if (g_.end <= start_)
-				//   g +--+
-				// arg    ...+----...
-				continue;
-			else if (g_.start < start_) {
-				//   g +------+...
-				// arg   +----...
-				if (g_.end == end_) {
-					g_.end = start_;
-					return;
-				}
-				else if (g_.end > end_) {
-					vLongInterval.insertElementAt(new LongInterval(end_, g_.end), i+1);
-					g_.end = start_;
-					return;
-				}
-				g_.end = start_;
-			}
-			else {
-				//   g ...+------...
-				// arg +----...
-				if (g_.start >= end_) {
-					//   g    ...+------...
-					// arg +--+
-					return;
-				}
-				else {
-					//   g    +------...
-					// arg +---+...
-					if (g_.end >= end_) {
-						if (g_.end == end_)
-							vLongInterval.removeElementAt(i);
-						else 
-							g_.start = end_;
-						return;
-					}
-					gStartIndex_ = i;
-					break;
-				}
-			}
-		}
+		if (start_ >= end_ || n == 0) return;
+		// intervals i to j-1 overlap the range
+		int i = endAbove(start_);
+		int j = startAtOrAbove(end_);
+		if (i >= j) return;
 		
-		gEndIndex_ = gStartIndex_;
-		for (i++; i<vLongInterval.size(); i++) {
-			LongInterval g_ = (LongInterval) vLongInterval.elementAt(i);
-			if (end_ <= g_.start) break;
-			else if (g_.end <= end_) {
-				gEndIndex_ = i;
-				if (g_.end == end_) break;
-			}
-			else {
-				//   g    +-----+
-				// arg +------+
-				g_.start = end_;
-				break;
-			}
+		long headStart_ = starts[i], tailEnd_ = ends[j-1];
+		int k = 0;
+		if (headStart_ < start_) k++;
+		if (tailEnd_ > end_) k++;
+		replace(i, j, k);
+		if (headStart_ < start_) {
+			starts[i] = headStart_;
+			ends[i++] = start_;
 		}
-		
-		// remove gStart_ to gEnd_
-		int shift_ = gEndIndex_ - gStartIndex_ + 1;
-		for (i = gEndIndex_ + 1; i<vLongInterval.size(); i++) {
-			vLongInterval.setElementAt(vLongInterval.elementAt(i), i-shift_);
+		if (tailEnd_ > end_) {
+			starts[i] = end_;
+			ends[i] = tailEnd_;
 		}
-		vLongInterval.setSize(vLongInterval.size()-shift_);
 	}
 	
 	
@@ -268,26 +223,7 @@ public class LongSpace extends drcl.DrclObj
 	 * @param end_ end of the range, exclusive.
 	 */
 	public void checkoutUntil(long end_)
-	{
-		int i = getLongIntervalIndex(0/*start index*/, end_);
-		if (i < 0) { // checkout all!
-			vLongInterval.removeAllElements();
-			return;
-		}
-		
-		// remove the first i LongIntervals
-		LongInterval g_ = (LongInterval) vLongInterval.elementAt(i);
-		if (g_.end == end_) i++; // remove the ith as well
-		else if (end_ > g_.start) g_.start = end_;
-		
-		if (i == vLongInterval.size()) vLongInterval.removeAllElements();
-		else {
-			for (int j=i; j<vLongInterval.size(); j++)
-				// move jth element from jth to (j-i)th position
-				vLongInterval.setElementAt(vLongInterval.elementAt(j), j-i);
-			vLongInterval.setSize(vLongInterval.size() - i);
-		}
-	}
+	{ checkout(Long.MIN_VALUE, end_); }
 	
 	/**
 	 * Check out the smallest long integer that is greater than or equal to
@@ -296,28 +232,11 @@ public class LongSpace extends drcl.DrclObj
 	 */
 	public long checkoutGreater(long code_)
 	{
-		for (int i=0; i<vLongInterval.size(); i++)	{
-			LongInterval g_ = (LongInterval) vLongInterval.elementAt(i);
-			if (g_.start > code_)
-				code_ = g_.start;
-			
-			if (code_ < g_.end) {
-				if (g_.end - g_.start == 1) {
-					vLongInterval.removeElementAt(i);
-				}
-				else if (g_.start < code_) {
-					if (code_ < g_.end -1) {
-						LongInterval tmp_ = new LongInterval(code_ + 1, g_.end);
-						vLongInterval.insertElementAt(tmp_, i+1);
-					}
-					g_.end = code_;
-				}
-				else
-					g_.start++;
-				return code_;
-			}
-		}
-		return Long.MIN_VALUE;
+		int i = endAbove(code_);
+		if (i == n) return Long.MIN_VALUE;
+		if (starts[i] > code_) code_ = starts[i];
+		remove(i, code_);
+		return code_;
 	}
 	
 	/**
@@ -327,62 +246,17 @@ public class LongSpace extends drcl.DrclObj
 	 */
 	public long checkoutSmaller(long code_)
 	{
-		for (int i=vLongInterval.size()-1; i>=0; i--)	{
-			LongInterval g_ = (LongInterval) vLongInterval.elementAt(i);
-			if (g_.end <= code_)
-				code_ = g_.end-1;
-			
-			if (code_ >= g_.start) {
-				if (g_.end - g_.start == 1) {
-					vLongInterval.removeElementAt(i);
-				}
-				else if (g_.start < code_) {
-					if (code_ < g_.end -1) {
-						LongInterval tmp_ = new LongInterval(code_ + 1, g_.end);
-						vLongInterval.insertElementAt(tmp_, i+1);
-					}
-					g_.end = code_;
-				}
-				else
-					g_.start++;
-				return code_;
-			}
-		}
-		return Long.MAX_VALUE;
+		int i = startAbove(code_) - 1;
+		if (i < 0) return Long.MAX_VALUE;
+		if (ends[i] <= code_) code_ = ends[i] - 1;
+		remove(i, code_);
+		return code_;
 	}
 	
 	public void checkin(long which_)
 	{
-		if (vLongInterval.size() == 0) {
-			vLongInterval.addElement(new LongInterval(which_, which_+1));
-			return;
-		}
-		for (int i=0; i<vLongInterval.size(); i++)
-		{
-			LongInterval g_ = (LongInterval) vLongInterval.elementAt(i);
-			if (g_.start <= which_ && g_.end > which_) return;
-			else if (g_.end == which_) {
-				g_.end++;
-				// check if this interval can be merged with next
-				if (i+1 < vLongInterval.size()) {
-					LongInterval next_ = (LongInterval)vLongInterval.elementAt(i+1);
-					if (next_.start == g_.end) {
-						g_.end = next_.end;
-						vLongInterval.removeElementAt(i+1);
-					}
-				}
-				return;
-			}
-			else if (g_.start -1 == which_) {
-				g_.start--;
-				return;
-			}
-			else if (g_.start -1 > which_) {
-				LongInterval new_ = new LongInterval(which_, which_+1);
-				vLongInterval.insertElementAt(new_, i);
-				return;
-			}
-		}
+		if (which_ == Long.MAX_VALUE) return;
+		checkin(which_, which_ + 1);
 	}
 	
 	/**
@@ -392,101 +266,41 @@ public class LongSpace extends drcl.DrclObj
 	 */
 	public void checkin(long start_, long end_)
 	{
-		// special cases
 		if (start_ >= end_) return;
-		if (vLongInterval == null)
-			vLongInterval = new Vector<LongInterval>(3,3);
-		if (vLongInterval.size() == 0) {
-			vLongInterval.addElement(new LongInterval(start_, end_));
+		if (starts == null) reset(0, 0);
+		// common case: append at or past the end
+		if (n == 0 || ends[n-1] < start_) {
+			replace(n, n, 1);
+			starts[n-1] = start_;
+			ends[n-1] = end_;
 			return;
 		}
-		else {
-			LongInterval g_ = (LongInterval) vLongInterval.lastElement();
-			if (g_.end < start_) {
-				vLongInterval.addElement(new LongInterval(start_, end_));
-				return;
-			}
-			else if (g_.end == start_) {
-				g_.end = end_;
-				return;
-			}
-		}
-		
-		// general cases
-		LongInterval gStart_ = null, gEnd_;
-		int i, gStartIndex_ = 0, gEndIndex_;
-		for (i=0; i<vLongInterval.size(); i++)	{
-			LongInterval g_ = (LongInterval) vLongInterval.elementAt(i);
-			if (g_.end < start_)
-				//   g +--+
-				// arg      +----...
-				continue;
-			else if (g_.start <= start_) {
-				//   g +------+...
-				// arg ...+----...
-				if (g_.end >= end_) return;
-				gStart_ = g_;
-				gStartIndex_ = i;
-				break;
-			}
-			else {
-				//   g   +------...
-				// arg +----...
-				if (g_.start > end_) {
-					//   g      +------...
-					// arg +--+
-					LongInterval new_ = new LongInterval(start_, end_);
-					vLongInterval.insertElementAt(new_, i);
-					return;
-				}
-				else {
-					//   g     +------...
-					// arg +---+...
-					g_.start = start_;
-					if (g_.end >= end_)	return;
-					gStart_ = g_;
-					gStartIndex_ = i;
-					break;
-				}
-			}
+		// intervals i to j-1 overlap or touch the range
+		int i = endAtOrAbove(start_);
+		int j = startAbove(end_);
+		if (i < j) {
+			if (starts[i] < start_) start_ = starts[i];
+			if (ends[j-1] > end_) end_ = ends[j-1];
 		}
-		
-		gEnd_ = gStart_;
-		gEnd_.end = end_;
-		gEndIndex_ = gStartIndex_;
-		for (i++; i<vLongInterval.size(); i++) {
-			LongInterval g_ = (LongInterval) vLongInterval.elementAt(i);
-			if (end_ < g_.start) break;
-			else {
-				gEnd_ = g_;
-				gEndIndex_ = i;
-				if (end_ <= g_.end) break;
-				g_.end = end_;
-			}
-		}
-		
-		// merge gStart_ to gEnd_
-		if (gStart_ == gEnd_) return;
-		gStart_.end = gEnd_.end;
-		int shift_ = gEndIndex_ - gStartIndex_;
-		for (i = gEndIndex_ + 1; i<vLongInterval.size(); i++) {
-			vLongInterval.setElementAt(vLongInterval.elementAt(i), i-shift_);
-		}
-		vLongInterval.setSize(vLongInterval.size()-shift_);
+		replace(i, j, 1);
+		starts[i] = start_;
+		ends[i] = end_;
 	}
 	
 	public void takesUnionWith(LongSpace that_)
 	{
-		LongInterval[] ii_ = that_.getLongIntervals();
-		for (int i=0; i<ii_.length; i++)
-			checkin(ii_[i].start, ii_[i].end);
+		for (int i=0; i<that_.n; i++)
+			checkin(that_.starts[i], that_.ends[i]);
 	}
 	
 	public void excludes(LongSpace that_)
 	{
-		LongInterval[] ii_ = that_.getLongIntervals();
-		for (int i=0; i<ii_.length; i++)
-			checkout(ii_[i].start, ii_[i].end);
+		if (that_ == this) {
+			n = 0;
+			return;
+		}
+		for (int i=0; i<that_.n; i++)
+			checkout(that_.starts[i], that_.ends[i]);
 	}
 	
 	public void intersectedWith(LongSpace that_)
@@ -499,47 +313,35 @@ public class LongSpace extends drcl.DrclObj
 	/** Shifts all the intervals in the space by <code>shift_</code>.  */
 	public void shiftedBy(long shift_)
 	{
-		for (int i=0; i<vLongInterval.size(); i++)	{
-			LongInterval g_ = (LongInterval) vLongInterval.elementAt(i);
-			g_.start += shift_;
-			g_.end += shift_;
-			if (g_.start >= g_.end)
-				g_.end = Long.MAX_VALUE;
+		for (int i=0; i<n; i++)	{
+			starts[i] += shift_;
+			ends[i] += shift_;
+			if (starts[i] >= ends[i])
+				ends[i] = Long.MAX_VALUE;
 		}
 	}
 	
 	/** Returns next interval starting greater than or equal to <code>start_</code>.
-	The returned interval may be shared by this space, modifying it alters this space.
+	The returned interval is a copy.
 	@return null if no such an interval exisits. */
 	public LongInterval nextInterval(long start_)
 	{
-		for (int i=0; i<vLongInterval.size(); i++)	{
-			LongInterval g_ = (LongInterval) vLongInterval.elementAt(i);
-			if (g_.end > start_) {
-				if (g_.start >= start_)
-					return g_;
-				else
-					return new LongInterval(start_, g_.end);
-			}
-		}
-		return null;
+		int i = endAbove(start_);
+		if (i == n) return null;
+		return new LongInterval(Math.max(start_, starts[i]), ends[i]);
 	}
 	
 	/** Returns next gap starting greater than or equal to <code>start_</code>. */
 	public LongInterval nextGap(long start_)
 	{
-		LongInterval prev_ = null;
-		for (int i=0; i<vLongInterval.size(); i++)	{
-			LongInterval g_ = (LongInterval) vLongInterval.elementAt(i);
-			if (g_.start > start_) {
-				if (i == 0 || prev_.end <= start_)
-					return new LongInterval(start_, g_.start);
-				else
-					return new LongInterval(prev_.end, g_.start);
-			}
-			prev_ = g_;
+		int i = startAbove(start_);
+		if (i < n) {
+			if (i == 0 || ends[i-1] <= start_)
+				return new LongInterval(start_, starts[i]);
+			else
+				return new LongInterval(ends[i-1], starts[i]);
 		}
-		if (prev_ == null || prev_.end <= start_)
+		if (n == 0 || ends[n-1] <= start_)
 			return new LongInterval(start_, Long.MAX_VALUE);
 		else
 			return null;
@@ -548,11 +350,8 @@ public class LongSpace extends drcl.DrclObj
 	/** Returns true if the long integer is in the space.  */
 	public boolean contains(long code_)
 	{
-		for (int i=0; i<vLongInterval.size(); i++)	{
-			LongInterval g_ = (LongInterval) vLongInterval.elementAt(i);
-			if (g_.start <= code_ && code_ < g_.end) return true;
-		}
-		return false;
+		int i = endAbove(code_);
+		return i < n && starts[i] <= code_;
 	}
 	
 	/** Returns true if the range is covered in the space.
@@ -561,11 +360,8 @@ public class LongSpace extends drcl.DrclObj
 	 */
 	public boolean contains(long start_, long end_)
 	{
-		for (int i=0; i<vLongInterval.size(); i++)	{
-			LongInterval g_ = (LongInterval) vLongInterval.elementAt(i);
-			if (g_.start <= start_ && end_ <= g_.end) return true;
-		}
-		return false;
+		int i = endAtOrAbove(end_);
+		return i < n && starts[i] <= start_;
 	}
 	
 	/** Returns true if the range is covered in this space but not one of the constituent blocks.
@@ -574,11 +370,9 @@ public class LongSpace extends drcl.DrclObj
 	 */
 	public boolean strictlyContains(long start_, long end_)
 	{
-		for (int i=0; i<vLongInterval.size(); i++)	{
-			LongInterval g_ = (LongInterval) vLongInterval.elementAt(i);
-			if (g_.start <= start_ && end_ <= g_.end)
-				return g_.start != start_ || end_ != g_.end;
-		}
+		int i = endAtOrAbove(end_);
+		if (i < n && starts[i] <= start_)
+			return starts[i] != start_ || end_ != ends[i];
 		return false;
 	}
 	
@@ -589,12 +383,8 @@ public class LongSpace extends drcl.DrclObj
 	public boolean isIntersectedWith(long start_, long end_)
 	{
 		if (end_ <= start_) return false;
-		for (int i=0; i<vLongInterval.size(); i++)	{
-			LongInterval g_ = (LongInterval) vLongInterval.elementAt(i);
-			if (g_.start <= start_ && start_ < g_.end) return true;
-			if (g_.start < end_ && end_ <= g_.end) return true;
-		}
-		return false;
+		int i = endAbove(start_);
+		return i < n && starts[i] < end_;
 	}
 	
 	// return the index of the first interval (from startIndex_) with the end of
@@ -602,11 +392,8 @@ public class LongSpace extends drcl.DrclObj
 	// return -1 if all the intervals are before code_
 	int getLongIntervalIndex(int startIndex_, long code_)
 	{
-		for (int i=startIndex_; i<vLongInterval.size(); i++)	{
-			LongInterval g_ = (LongInterval) vLongInterval.elementAt(i);
-			if (code_ <= g_.end) return i;
-		}
-		return -1;
+		int i = Math.max(startIndex_, endAtOrAbove(code_));
+		return i < n? i: -1;
 	}
 	
 	/** Returns the number of long integers in this space. */
@@ -622,32 +409,8 @@ public class LongSpace extends drcl.DrclObj
 	{
 		if (start_ >= end_) return 0;
 		long count_ = 0;
-		int j = 0;
-		for (; j<vLongInterval.size(); j++)	{
-			LongInterval g_ = (LongInterval) vLongInterval.elementAt(j);
-			if (start_ >= g_.end) continue;
-			if (start_ < g_.start) {
-				break;
-			}
-			else {
-				count_ = Math.min(g_.end, end_) - start_;
-				j++;
-				break;
-			}
-		}
-		
-		for (; j<vLongInterval.size(); j++)	{
-			LongInterval g_ = (LongInterval) vLongInterval.elementAt(j);
-			if (g_.start >= end_) break;
-			if (end_ > g_.end) {
-				count_ += g_.end - g_.start;
-			}
-			else {
-				count_ += end_ - g_.start;
-				break;
-			}
-		}
-		
+		for (int i = endAbove(start_); i<n && starts[i] < end_; i++)
+			count_ += Math.min(ends[i], end_) - Math.max(starts[i], start_);
 		return count_;
 	}
 	
@@ -658,10 +421,34 @@ public class LongSpace extends drcl.DrclObj
 	 */
 	public long getSizeUpTo(long end_)
 	{
-		if (vLongInterval.size() == 0) return 0;
+		if (n == 0) return 0;
 		else return getSize(Long.MIN_VALUE, end_);
 	}
 	
+	/**
+	 * Returns the index of the first gap that ends after <code>start_</code>.
+	 * Gap <code>k</code> lies before interval <code>k</code>; gap
+	 * <code>numOfLongIntervals()</code> is the one after the last interval.
+	 * Together with {@link #hasGap(int)}, {@link #getGapStart(int, long)}
+	 * and {@link #getGapEnd(int)}, this visits the same gaps as
+	 * {@link #getGapIterator(long)} without allocating.
+	 */
+	public int nextGapIndex(long start_)
+	{ return startAbove(start_); }
+	
+	/** Returns true if gap <code>k</code> exists. */
+	public boolean hasGap(int k)
+	{ return k < n || k == n && (n == 0 || ends[n-1] < Long.MAX_VALUE); }
+	
+	/** Returns the start (inclusive) of gap <code>k</code>, not smaller than
+	 * <code>start_</code>. */
+	public long getGapStart(int k, long start_)
+	{ return k == 0? start_: Math.max(start_, ends[k-1]); }
+	
+	/** Returns the end (exclusive) of gap <code>k</code>. */
+	public long getGapEnd(int k)
+	{ return k < n? starts[k]: Long.MAX_VALUE; }
+	
 	/** Returns the iterator that iterates the intervals in this space. */
 	public Iterator<?> getIntervalIterator()
 	{ return new IntervalIterator(-1, Long.MIN_VALUE); }
@@ -670,12 +457,8 @@ public class LongSpace extends drcl.DrclObj
 	The interval strictly containing <code>start_</code> does not count. */
 	public Iterator<?> getIntervalIterator(long start_)
 	{
-		for (int i=0; i<vLongInterval.size(); i++)	{
-			LongInterval g_ = (LongInterval) vLongInterval.elementAt(i);
-			if (g_.end > start_)
-				return new IntervalIterator(i-1, start_);
-		}
-		return new IntervalIterator(Integer.MAX_VALUE-1, start_);
+		int i = endAbove(start_);
+		return new IntervalIterator(i < n? i-1: Integer.MAX_VALUE-1, start_);
 	}
 
 	/** Returns the iterator that iterates the gaps in this space. */
@@ -685,13 +468,77 @@ public class LongSpace extends drcl.DrclObj
 	/** Returns the iterator that iterates the gaps in this space.
 	The gap strictly containing <code>start_</code> does not count. */
 	public Iterator<?> getGapIterator(long start_)
+	{ return new GapIterator(startAbove(start_)-1, start_); }
+	
+	// index of the first interval with end > v_, or n
+	int endAbove(long v_)
+	{
+		int lo_ = 0, hi_ = n;
+		while (lo_ < hi_) {
+			int mid_ = (lo_ + hi_) >>> 1;
+			if (ends[mid_] > v_) hi_ = mid_;
+			else lo_ = mid_ + 1;
+		}
+		return lo_;
+	}
+	
+	// index of the first interval with end >= v_, or n
+	int endAtOrAbove(long v_)
+	{ return v_ == Long.MIN_VALUE? 0: endAbove(v_ - 1); }
+	
+	// index of the first interval with start > v_, or n
+	int startAbove(long v_)
 	{
-		for (int i=0; i<vLongInterval.size(); i++)	{
-			LongInterval g_ = (LongInterval) vLongInterval.elementAt(i);
-			if (g_.start > start_)
-				return new GapIterator(i-1, start_);
+		int lo_ = 0, hi_ = n;
+		while (lo_ < hi_) {
+			int mid_ = (lo_ + hi_) >>> 1;
+			if (starts[mid_] > v_) hi_ = mid_;
+			else lo_ = mid_ + 1;
 		}
-		return new GapIterator(vLongInterval.size()-1, start_);
+		return lo_;
+	}
+	
+	// index of the first interval with start >= v_, or n
+	int startAtOrAbove(long v_)
+	{ return v_ == Long.MIN_VALUE? 0: startAbove(v_ - 1); }
+	
+	// removes code_ from interval i, which contains it
+	void remove(int i, long code_)
+	{
+		if (ends[i] - starts[i] == 1)
+			replace(i, i+1, 0);
+		else if (starts[i] < code_) {
+			if (code_ < ends[i] - 1) {
+				replace(i+1, i+1, 1);
+				starts[i+1] = code_ + 1;
+				ends[i+1] = ends[i];
+			}
+			ends[i] = code_;
+		}
+		else
+			starts[i]++;
+	}
+	
+	// replaces intervals i to j-1 with k slots, to be filled by the caller
+	void replace(int i, int j, int k)
+	{
+		int shift_ = k - (j - i);
+		if (shift_ == 0) return;
+		if (n + shift_ > starts.length) {
+			int cap_ = Math.max(starts.length << 1, n + shift_);
+			long[] s_ = new long[cap_], e_ = new long[cap_];
+			System.arraycopy(starts, 0, s_, 0, i);
+			System.arraycopy(ends, 0, e_, 0, i);
+			System.arraycopy(starts, j, s_, i+k, n-j);
+			System.arraycopy(ends, j, e_, i+k, n-j);
+			starts = s_;
+			ends = e_;
+		}
+		else {
+			System.arraycopy(starts, j, starts, i+k, n-j);
+			System.arraycopy(ends, j, ends, i+k, n-j);
+		}
+		n += shift_;
 	}
 
 	// Iterates every interval starting from index
@@ -708,24 +555,22 @@ public class LongSpace extends drcl.DrclObj
 		}
 
 		public boolean hasNext()
-		{ return vLongInterval != null && (index+1) < vLongInterval.size(); }
+		{ return (index+1) < n; }
 
 		public Object next()
 		{
 			nextCalled = false;
 			if (!hasNext()) throw new NoSuchElementException();
 			nextCalled = true;
-			LongInterval interval_ = (LongInterval)vLongInterval.elementAt(++index);
-			if (interval_.start < start)
-				return new LongInterval(start, interval_.end);
-			else
-				return interval_;
+			++index;
+			return new LongInterval(Math.max(start, starts[index]), ends[index]);
 		}
 
 		public void remove()
 		{
 			if (!nextCalled) throw new IllegalStateException();
-			vLongInterval.removeElementAt(index--);
+			replace(index, index+1, 0);
+			index--;
 			nextCalled = false;
 		}
 
@@ -739,7 +584,6 @@ public class LongSpace extends drcl.DrclObj
 		int index;
 		long start;
 		boolean nextCalled = false;
-		boolean firstTime = true;
 		LongInterval currentGap = null;
 
 		GapIterator(int index_, long start_)
@@ -749,38 +593,16 @@ public class LongSpace extends drcl.DrclObj
 		}
 
 		public boolean hasNext()
-		{
-			return vLongInterval != null && ((index+1) < vLongInterval.size()
-				|| ((LongInterval)vLongInterval.lastElement()).end < Long.MAX_VALUE);
-		}
+		{ return n > 0 && hasGap(index+1); }
 
 		public Object next()
 		{
 			nextCalled = false;
 			if (!hasNext()) throw new NoSuchElementException();
 			nextCalled = true;
-
-			if (++index < vLongInterval.size()) {// not last interval
-				if (firstTime) {
-					firstTime = false;
-					if (index == 0)
-						currentGap = new LongInterval(start,
-							((LongInterval) vLongInterval.elementAt(index)).start);
-					else
-						currentGap = new LongInterval(
-							Math.max(start, ((LongInterval) vLongInterval.elementAt(index-1)).end),
-							((LongInterval) vLongInterval.elementAt(index)).start);
-				}
-				else
-					currentGap = new LongInterval(
-						((LongInterval) vLongInterval.elementAt(index-1)).end,
-						((LongInterval) vLongInterval.elementAt(index)).start);
-			}
-			else {
-				currentGap = new LongInterval(
-					Math.max(start, ((LongInterval) vLongInterval.lastElement()).end),
-					Long.MAX_VALUE);
-			}
+			++index;
+			currentGap = new LongInterval(getGapStart(index, start),
+							getGapEnd(index));
 			return currentGap.clone();
 		}
 
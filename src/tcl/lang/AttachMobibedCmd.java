@@ -54,13 +54,31 @@ throws
     TclException
 {
     Paths[] pathss_ = new Paths[1];
+    int i = 1;
+    String kind_ = null;
 
-    if (argv.length > 2) {
-	throw new TclNumArgsException(interp, 1, argv, "?dirName?");
+    if (argv.length > 1 && argv[1].toString().startsWith("-")) {
+	// same runtime kinds as "System -r"
+	String opt_ = argv[1].toString().substring(1);
+	if (opt_.equals(MobibedAssistant.RUNTIME_POOL)
+		|| opt_.equals(MobibedAssistant.RUNTIME_MAILBOX)
+		|| opt_.equals(MobibedAssistant.RUNTIME_SHARDED)
+		|| opt_.equals(MobibedAssistant.RUNTIME_THREAD)) {
+	    kind_ = opt_;
+	    i++;
+	}
+	else
+	    throw new TclException(interp, "bad option \"" + argv[1]
+		    + "\": must be -pool, -mailbox, -sharded or -thread");
     }
 
-    if (argv.length == 2) {
-		pathss_[0] = new Paths(interp.getWorkingComponent(), argv[1].toString());
+    if (argv.length > i + 1) {
+	throw new TclNumArgsException(interp, 1, argv,
+		"?-pool|-mailbox|-sharded|-thread? ?dirName?");
+    }
+
+    if (argv.length == i + 1) {
+		pathss_[0] = new Paths(interp.getWorkingComponent(), argv[i].toString());
     } else {
     	// to be implemented
     }
@@ -68,7 +86,9 @@ throws
     Object[] objs = Commands.toRef("", pathss_, false, interp.getShell());
     if(objs[0] instanceof Component){
     	Component comp = (Component) objs[0];
-    	ACARuntime mobibed_rt = MobibedAssistant.onSingleMachine();
+    	ACARuntime mobibed_rt = kind_ == null?
+    		MobibedAssistant.onSingleMachine():
+    		MobibedAssistant.newRuntime(kind_);
     	mobibed_rt.takeover(comp);
     	
     	interp.setResult(ReflectObject.newInstance(interp, mobibed_rt.getClass(), mobibed_rt));
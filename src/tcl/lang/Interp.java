@@ -1244,6 +1244,8 @@ createCommands()
     Extension.loadOnDemand(this, "setflag", "tcl.lang.SetFlagCmd");
     Extension.loadOnDemand(this, "attach", "tcl.lang.AttachCmd");
     Extension.loadOnDemand(this, "attach_mobibed", "tcl.lang.AttachMobibedCmd");
+    Extension.loadOnDemand(this, "latency", "tcl.lang.LatencyCmd");
+    Extension.loadOnDemand(this, "metrics", "tcl.lang.MetricsCmd");
     // Load tcltest package as a result of "package require tcltest"
 
     try {
@@ -0,0 +1,118 @@
+/*
+ * LatencyCmd.java
+ *
+ *	This file contains the implementation of the "latency" command,
+ *	which reports the records of drcl.util.LatencyTracer.
+ *
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ *
+ */
+
+package tcl.lang;
+
+import java.io.IOException;
+
+import drcl.util.LatencyTracer;
+
+
+// This class implements the "latency" command.
+
+class LatencyCmd implements Command {
+
+static final private String options[] = {
+    "summary",
+    "dump",
+    "stream",
+    "stop",
+    "clear",
+    "count",
+};
+static final private int OPT_SUMMARY	= 0;
+static final private int OPT_DUMP	= 1;
+static final private int OPT_STREAM	= 2;
+static final private int OPT_STOP	= 3;
+static final private int OPT_CLEAR	= 4;
+static final private int OPT_COUNT	= 5;
+
+
+/*
+ *-----------------------------------------------------------------------------
+ *
+ * cmdProc --
+ *
+ *	This procedure is invoked to process the "latency" Tcl command:
+ *
+ *	    latency ?summary?
+ *	    latency dump fileName
+ *	    latency stream fileName ?periodMs?
+ *	    latency stop
+ *	    latency clear
+ *	    latency count
+ *
+ * Results:
+ *	The per-stage summary for "summary", the number of records for
+ *	"dump" and "count"; empty otherwise.
+ *
+ * Side effects:
+ *	"dump" and "stream" write the records to the file.
+ *
+ *-----------------------------------------------------------------------------
+ */
+
+public void
+cmdProc(
+    Interp interp,  			// Current interp to eval the file cmd.
+    TclObject argv[])			// Args passed to the file command.
+throws
+    TclException
+{
+    int opt = OPT_SUMMARY;
+    if (argv.length > 1) {
+	opt = TclIndex.get(interp, argv[1], options, "option", 0);
+    }
+
+    try {
+	switch (opt) {
+	case OPT_SUMMARY:
+	    interp.setResult(LatencyTracer.summary());
+	    return;
+
+	case OPT_DUMP:
+	    if (argv.length != 3) {
+		throw new TclNumArgsException(interp, 2, argv, "fileName");
+	    }
+	    interp.setResult(String.valueOf(LatencyTracer.dump(argv[2].toString())));
+	    return;
+
+	case OPT_STREAM:
+	    if (argv.length != 3 && argv.length != 4) {
+		throw new TclNumArgsException(interp, 2, argv, "fileName ?periodMs?");
+	    }
+	    long period = 1000;
+	    if (argv.length == 4) {
+		period = TclInteger.get(interp, argv[3]);
+	    }
+	    LatencyTracer.startStreaming(argv[2].toString(), period);
+	    return;
+
+	case OPT_STOP:
+	    LatencyTracer.stopStreaming();
+	    return;
+
+	case OPT_CLEAR:
+	    LatencyTracer.clear();
+	    return;
+
+	case OPT_COUNT:
+	    interp.setResult(String.valueOf(LatencyTracer.getRecordCount()));
+	    return;
+	}
+    } catch (IOException e) {
+	throw new TclException(interp, "latency: " + e.getMessage());
+    }
+}
+
+} // end LatencyCmd class
+
@@ -0,0 +1,184 @@
+/*
+ * MetricsCmd.java
+ *
+ *	This file contains the implementation of the "metrics" command,
+ *	which queries drcl.util.metrics.Metrics.
+ *
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ *
+ */
+
+package tcl.lang;
+
+import java.io.IOException;
+
+import drcl.util.metrics.Metric;
+import drcl.util.metrics.MetricGroup;
+import drcl.util.metrics.Metrics;
+
+
+// This class implements the "metrics" command.
+
+class MetricsCmd implements Command {
+
+static final private String options[] = {
+    "list",
+    "get",
+    "value",
+    "sample",
+    "stop",
+    "reset",
+    "clear",
+};
+static final private int OPT_LIST	= 0;
+static final private int OPT_GET	= 1;
+static final private int OPT_VALUE	= 2;
+static final private int OPT_SAMPLE	= 3;
+static final private int OPT_STOP	= 4;
+static final private int OPT_RESET	= 5;
+static final private int OPT_CLEAR	= 6;
+
+static final private String formats[] = {
+    "csv",
+    "binary",
+};
+
+
+/*
+ *-----------------------------------------------------------------------------
+ *
+ * cmdProc --
+ *
+ *	This procedure is invoked to process the "metrics" Tcl command:
+ *
+ *	    metrics ?list? ?pattern?
+ *	    metrics get ?pattern?
+ *	    metrics value group field
+ *	    metrics sample fileName ?periodMs? ?csv|binary?
+ *	    metrics stop
+ *	    metrics reset ?pattern?
+ *	    metrics clear
+ *
+ *	Patterns are glob-style and match group names, which are the paths
+ *	of the components keeping the metrics.
+ *
+ * Results:
+ *	The names of the matching groups for "list", one line of metrics
+ *	per matching group for "get", the field's current value for
+ *	"value"; empty otherwise.
+ *
+ * Side effects:
+ *	"sample" starts writing snapshots to the file every periodMs
+ *	(1000 by default) until "stop".
+ *
+ *-----------------------------------------------------------------------------
+ */
+
+public void
+cmdProc(
+    Interp interp,  			// Current interp to eval the file cmd.
+    TclObject argv[])			// Args passed to the file command.
+throws
+    TclException
+{
+    int opt = OPT_LIST;
+    if (argv.length > 1) {
+	opt = TclIndex.get(interp, argv[1], options, "option", 0);
+    }
+    String pattern = argv.length > 2 ? argv[2].toString() : "*";
+
+    switch (opt) {
+    case OPT_LIST: {
+	if (argv.length > 3) {
+	    throw new TclNumArgsException(interp, 2, argv, "?pattern?");
+	}
+	TclObject list = TclList.newInstance();
+	MetricGroup[] groups = Metrics.getGroups();
+	for (int i = 0; i < groups.length; i++) {
+	    if (Util.stringMatch(groups[i].getName(), pattern)) {
+		TclList.append(interp, list,
+			TclString.newInstance(groups[i].getName()));
+	    }
+	}
+	interp.setResult(list);
+	return;
+    }
+
+    case OPT_GET: {
+	if (argv.length > 3) {
+	    throw new TclNumArgsException(interp, 2, argv, "?pattern?");
+	}
+	StringBuffer sb = new StringBuffer();
+	MetricGroup[] groups = Metrics.getGroups();
+	for (int i = 0; i < groups.length; i++) {
+	    if (Util.stringMatch(groups[i].getName(), pattern)) {
+		sb.append(groups[i].toString()).append('\n');
+	    }
+	}
+	interp.setResult(sb.toString());
+	return;
+    }
+
+    case OPT_VALUE: {
+	if (argv.length != 4) {
+	    throw new TclNumArgsException(interp, 2, argv, "group field");
+	}
+	MetricGroup group = Metrics.getGroup(argv[2].toString());
+	String field = argv[3].toString();
+	if (group != null) {
+	    Metric[] metrics = group.getMetrics();
+	    for (int i = 0; i < metrics.length; i++) {
+		for (int j = 0; j < metrics[i].getFieldCount(); j++) {
+		    if (metrics[i].getFieldName(j).equals(field)) {
+			interp.setResult(metrics[i].read(j));
+			return;
+		    }
+		}
+	    }
+	}
+	throw new TclException(interp, "metrics: no field \"" + field
+		+ "\" in group \"" + argv[2] + "\"");
+    }
+
+    case OPT_SAMPLE: {
+	if (argv.length < 3 || argv.length > 5) {
+	    throw new TclNumArgsException(interp, 2, argv,
+		    "fileName ?periodMs? ?csv|binary?");
+	}
+	long period = 1000;
+	if (argv.length > 3) {
+	    period = TclInteger.get(interp, argv[3]);
+	}
+	boolean binary = argv.length > 4
+		&& TclIndex.get(interp, argv[4], formats, "format", 0) == 1;
+	try {
+	    Metrics.startSampling(argv[2].toString(), period, binary);
+	} catch (IOException e) {
+	    throw new TclException(interp, "metrics: " + e.getMessage());
+	}
+	return;
+    }
+
+    case OPT_STOP:
+	Metrics.stopSampling();
+	return;
+
+    case OPT_RESET: {
+	MetricGroup[] groups = Metrics.getGroups();
+	for (int i = 0; i < groups.length; i++) {
+	    if (Util.stringMatch(groups[i].getName(), pattern)) {
+		groups[i].reset();
+	    }
+	}
+	return;
+    }
+
+    case OPT_CLEAR:
+	Metrics.clear();
+	return;
+    }
+}
+
+} // end MetricsCmd class